@@ -1,8 +1,8 @@
 package macrobase.analysis.classify;
 
 import macrobase.analysis.pipeline.stream.MBStream;
-import macrobase.analysis.result.DatumWithNorm;
 import macrobase.analysis.result.OutlierClassificationResult;
+import macrobase.analysis.stats.QuantileSketch;
 import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
@@ -14,21 +14,43 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-
+import java.util.stream.IntStream;
+
+/**
+ * Labels as outliers the data whose norm is at or above the target percentile.
+ *
+ * By default the cutoff is computed exactly over each batch. With a sketch error set, the
+ * cutoff instead comes from a {@link QuantileSketch}: each batch is sketched in parallel
+ * partitions, the partitions are merged into a sketch of every batch seen so far, and
+ * the cutoff is read off the merged sketch, so earlier batches need not be kept around.
+ */
 public class BatchingPercentileClassifier extends OutlierClassifier {
     private static final Logger log = LoggerFactory.getLogger(BatchingPercentileClassifier.class);
+    // Norms sketched by one parallel task
+    private static final int PARTITION_SIZE = 4096;
 
     MBStream<OutlierClassificationResult> results = new MBStream<>();
 
     // Between 0 - 1
     final double targetPercentile;
+    // Null when computing the cutoff exactly
+    private final QuantileSketch sketch;
 
     public BatchingPercentileClassifier(MacroBaseConf conf) {
-        this(conf.getDouble(MacroBaseConf.TARGET_PERCENTILE, MacroBaseDefaults.TARGET_PERCENTILE));
+        this(conf.getDouble(MacroBaseConf.TARGET_PERCENTILE, MacroBaseDefaults.TARGET_PERCENTILE),
+             conf.getDouble(MacroBaseConf.PERCENTILE_SKETCH_ERROR, MacroBaseDefaults.PERCENTILE_SKETCH_ERROR));
     }
 
     public BatchingPercentileClassifier(double percentile) {
+        this(percentile, null);
+    }
+
+    /**
+     * @param sketchError rank error of the cutoff sketch, or null to compute the cutoff exactly
+     */
+    public BatchingPercentileClassifier(double percentile, Double sketchError) {
         this.targetPercentile = percentile;
+        this.sketch = sketchError == null ? null : new QuantileSketch(sketchError);
     }
 
     @Override
@@ -36,6 +58,13 @@ public class BatchingPercentileClassifier extends OutlierClassifier {
         return results;
     }
 
+    /**
+     * @return sketch of the norms of every datum consumed so far, or null in exact mode
+     */
+    public QuantileSketch getSketch() {
+        return sketch;
+    }
+
     @Override
     public void initialize() {
 
@@ -43,27 +72,57 @@ public class BatchingPercentileClassifier extends OutlierClassifier {
 
     @Override
     public void consume(List<Datum> records) {
-        List<DatumWithNorm> toClassify = new ArrayList<>();
-
-        double[] scores = new double[records.size()];
-        for(int i = 0; i < records.size(); i++) {
-            Datum d = records.get(i);
-            DatumWithNorm dwn = new DatumWithNorm(d);
-            toClassify.add(dwn);
-            scores[i] = dwn.getNorm();
+        if (records.isEmpty()) {
+            return;
         }
 
-        Percentile pCalc = new Percentile().withNaNStrategy(NaNStrategy.MAXIMAL);
-        pCalc.setData(scores);
-        double cutoff = pCalc.evaluate(scores, targetPercentile * 100);
+        double[] norms = new double[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            norms[i] = records.get(i).norm();
+        }
+
+        double cutoff = sketch == null ? exactCutoff(norms) : sketchCutoff(norms);
         log.debug("{} Percentile Cutoff: {}", targetPercentile, cutoff);
-        log.debug("Median: {}", pCalc.evaluate(50));
-        log.debug("Max: {}", pCalc.evaluate(100));
 
-        for(DatumWithNorm dwn : toClassify) {
-            results.add(new OutlierClassificationResult(dwn.getDatum(),
-                                                        dwn.getNorm() >= cutoff || dwn.getNorm().isInfinite()));
+        List<OutlierClassificationResult> batchResults = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            batchResults.add(new OutlierClassificationResult(records.get(i),
+                                                             norms[i] >= cutoff || Double.isInfinite(norms[i])));
+        }
+        results.add(batchResults);
+    }
+
+    private double exactCutoff(double[] norms) {
+        Percentile pCalc = new Percentile().withNaNStrategy(NaNStrategy.MAXIMAL);
+        pCalc.setData(norms);
+        if (log.isDebugEnabled()) {
+            log.debug("Median: {}", pCalc.evaluate(50));
+            log.debug("Max: {}", pCalc.evaluate(100));
+        }
+        return pCalc.evaluate(targetPercentile * 100);
+    }
+
+    private double sketchCutoff(double[] norms) {
+        int numPartitions = (norms.length + PARTITION_SIZE - 1) / PARTITION_SIZE;
+        QuantileSketch[] partitions = new QuantileSketch[numPartitions];
+        IntStream.range(0, numPartitions).parallel().forEach(p -> {
+            QuantileSketch partition = new QuantileSketch(sketch.getErrorBound());
+            int end = Math.min(norms.length, (p + 1) * PARTITION_SIZE);
+            for (int i = p * PARTITION_SIZE; i < end; i++) {
+                // As with NaNStrategy.MAXIMAL, NaN ranks above everything
+                partition.add(Double.isNaN(norms[i]) ? Double.POSITIVE_INFINITY : norms[i]);
+            }
+            partitions[p] = partition;
+        });
+        for (QuantileSketch partition : partitions) {
+            sketch.merge(partition);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Median: {}", sketch.quantile(0.5));
+            log.debug("Max: {}", sketch.getMax());
         }
+        return sketch.quantile(targetPercentile);
     }
 
     @Override
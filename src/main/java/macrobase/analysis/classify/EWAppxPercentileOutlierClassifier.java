@@ -1,24 +1,32 @@
 package macrobase.analysis.classify;
 
 import macrobase.analysis.pipeline.stream.MBStream;
-import macrobase.analysis.result.DatumWithNorm;
 import macrobase.analysis.result.OutlierClassificationResult;
-import macrobase.analysis.sample.ExponentiallyBiasedAChao;
+import macrobase.analysis.sample.DoubleAChao;
+import macrobase.analysis.stats.DecayingQuantileSketch;
 import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
 import macrobase.util.Periodic;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /*
  Exponentially weighted approximate percentile-based streaming classifier
+
+ The threshold comes either from a sorted exponentially biased sample of norms or,
+ when a percentile sketch error is configured, from a forward-decaying quantile sketch of
+ the norms. The sketch takes primitive inserts and is cheap to query, so in that mode the
+ threshold is also refreshed at the start of every batch.
  */
 
 public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
     private final double percentile;
-    private ExponentiallyBiasedAChao<DatumWithNorm> reservoir;
+    // Exactly one of reservoir and sketch is set
+    private DoubleAChao reservoir;
+    private DecayingQuantileSketch sketch;
 
     private double currentThreshold = 0;
 
@@ -41,13 +49,18 @@ public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
              conf.getDecayType(),
              conf.getDouble(MacroBaseConf.SUMMARY_UPDATE_PERIOD, MacroBaseDefaults.SUMMARY_UPDATE_PERIOD),
              conf.getDouble(MacroBaseConf.DECAY_RATE, MacroBaseDefaults.DECAY_RATE),
-             conf.getDouble(MacroBaseConf.TARGET_PERCENTILE, MacroBaseDefaults.TARGET_PERCENTILE));
+             conf.getDouble(MacroBaseConf.TARGET_PERCENTILE, MacroBaseDefaults.TARGET_PERCENTILE),
+             conf.getDouble(MacroBaseConf.PERCENTILE_SKETCH_ERROR, MacroBaseDefaults.PERCENTILE_SKETCH_ERROR));
     }
 
     private void updateThreshold(double percentile) {
-        List<DatumWithNorm> norms = reservoir.getReservoir();
-        norms.sort((a, b) -> a.getNorm().compareTo(b.getNorm()));
-        currentThreshold = norms.get((int)(percentile * norms.size())).getNorm();
+        if (sketch != null) {
+            currentThreshold = sketch.quantile(percentile);
+            return;
+        }
+        double[] norms = reservoir.getReservoir();
+        Arrays.sort(norms);
+        currentThreshold = norms[(int)(percentile * norms.length)];
     }
 
     public EWAppxPercentileOutlierClassifier(MacroBaseConf conf,
@@ -59,7 +72,28 @@ public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
                                              double decayPeriod,
                                              double decayRate,
                                              double percentile) {
-        reservoir = new ExponentiallyBiasedAChao<>(sampleSize, decayRate, conf.getRandom());
+        this(conf, sampleSize, warmupCount, updatePeriodType, updatePeriod,
+             decayPeriodType, decayPeriod, decayRate, percentile, null);
+    }
+
+    public EWAppxPercentileOutlierClassifier(MacroBaseConf conf,
+                                             int sampleSize,
+                                             int warmupCount,
+                                             MacroBaseConf.PeriodType updatePeriodType,
+                                             double updatePeriod,
+                                             MacroBaseConf.PeriodType decayPeriodType,
+                                             double decayPeriod,
+                                             double decayRate,
+                                             double percentile,
+                                             Double sketchError) {
+        Runnable decay;
+        if (sketchError != null) {
+            sketch = new DecayingQuantileSketch(sketchError, decayRate);
+            decay = sketch::advancePeriod;
+        } else {
+            reservoir = new DoubleAChao(sampleSize, 1, decayRate, conf.getRandom());
+            decay = reservoir::advancePeriod;
+        }
 
         this.percentileUpdater = new Periodic(updatePeriodType,
                                               updatePeriod,
@@ -67,7 +101,7 @@ public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
 
         this.reservoirDecayer = new Periodic(decayPeriodType,
                                              decayPeriod,
-                                             reservoir::advancePeriod);
+                                             decay);
 
         this.warmupCount = warmupCount;
         this.percentile = percentile;
@@ -83,16 +117,28 @@ public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
 
     }
 
+    private void insert(double norm) {
+        if (sketch != null) {
+            // NaN ranks above everything, as in BatchingPercentileClassifier
+            sketch.add(Double.isNaN(norm) ? Double.POSITIVE_INFINITY : norm);
+        } else {
+            reservoir.insert(norm);
+        }
+    }
+
     @Override
     public void consume(List<Datum> records) {
+        if (sketch != null && tupleCount >= warmupCount) {
+            updateThreshold(percentile);
+        }
+
         List<OutlierClassificationResult> batchResult = new ArrayList<>(records.size());
         for(Datum d : records) {
             tupleCount ++;
 
             if(tupleCount < warmupCount) {
                 warmupInput.add(d);
-                DatumWithNorm dwn = new DatumWithNorm(d, d.getMetrics().getNorm());
-                reservoir.insert(dwn);
+                insert(d.getMetrics().getNorm());
                 reservoirDecayer.runIfNecessary();
                 percentileUpdater.runIfNecessary();
             } else {
@@ -100,13 +146,15 @@ public class EWAppxPercentileOutlierClassifier extends OutlierClassifier {
                     updateThreshold(percentile);
 
                     for(Datum di: warmupInput) {
-                        batchResult.add(new OutlierClassificationResult(di, d.getMetrics().getNorm() > currentThreshold));
+                        batchResult.add(new OutlierClassificationResult(di, di.getMetrics().getNorm() > currentThreshold));
                     }
                     warmupInput.clear();
                 }
 
+                reservoirDecayer.runIfNecessary();
+                percentileUpdater.runIfNecessary();
                 double norm = d.getMetrics().getNorm();
-                reservoir.insert(new DatumWithNorm(d, norm));
+                insert(norm);
                 batchResult.add(new OutlierClassificationResult(d, norm > currentThreshold));
             }
         }
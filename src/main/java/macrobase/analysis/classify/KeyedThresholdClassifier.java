@@ -0,0 +1,273 @@
+package macrobase.analysis.classify;
+
+import macrobase.analysis.pipeline.stream.MBStream;
+import macrobase.analysis.result.OutlierClassificationResult;
+import macrobase.analysis.stats.DecayingQuantileSketch;
+import macrobase.conf.MacroBaseConf;
+import macrobase.conf.MacroBaseDefaults;
+import macrobase.datamodel.Datum;
+import macrobase.util.IntIntHashMap;
+import macrobase.util.Periodic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming percentile classifier with a separate threshold per key.
+ *
+ * The key of a datum is one of its attributes (e.g. a tenant or host). Each key keeps an
+ * exponentially decaying quantile sketch of its norms, and a datum is an outlier if its
+ * norm is above its key's target percentile. Keys that have not seen enough data yet are
+ * classified against a sketch of all keys instead.
+ *
+ * With hysteresis h, a key that just produced an outlier keeps labeling data as outliers
+ * until a norm falls to its (percentile - h) quantile, so a key hovering around its
+ * threshold doesn't flap between states.
+ *
+ * Key state lives in slot-indexed arrays, found through a primitive int map. Thresholds are
+ * refreshed from the sketches once per batch, so classifying a datum reads cached values.
+ * At most maxKeys keys are kept; when a new key arrives at the limit, the least recently
+ * seen eighth of the keys is evicted.
+ */
+public class KeyedThresholdClassifier extends OutlierClassifier {
+    private static final int INITIAL_KEY_CAPACITY = 64;
+    // Fraction of the keys evicted at once when full, so eviction is amortized
+    private static final int EVICTION_FRACTION = 8;
+
+    private final MBStream<OutlierClassificationResult> output = new MBStream<>();
+
+    private final int keyAttribute;
+    private final double percentile;
+    private final double exitPercentile;
+    private final double sketchError;
+    private final double decayRate;
+    private final int warmupCount;
+    private final int maxKeys;
+
+    private final IntIntHashMap slotsByKey = new IntIntHashMap();
+    private int[] keys;
+    private DecayingQuantileSketch[] sketches;
+    private long[] counts;
+    private long[] lastSeen;
+    private long[] appliedPeriods;
+    private long[] refreshedBatch;
+    private double[] enterThresholds;
+    private double[] exitThresholds;
+    private boolean[] alarms;
+    // Slots below highWater have been used; freed ones are stacked in freeSlots
+    private int highWater = 0;
+    private int[] freeSlots;
+    private int numFree = 0;
+
+    private final DecayingQuantileSketch globalSketch;
+    private long globalCount = 0;
+    private double globalThreshold;
+    private long globalRefreshedBatch = -1;
+
+    private final Periodic decayer;
+    private long periods = 0;
+    private long tupleCount = 0;
+    private long batchCount = 0;
+
+    public KeyedThresholdClassifier(MacroBaseConf conf) {
+        this(conf.getInt(MacroBaseConf.KEYED_CLASSIFIER_KEY_ATTRIBUTE, MacroBaseDefaults.KEYED_CLASSIFIER_KEY_ATTRIBUTE),
+             conf.getDouble(MacroBaseConf.TARGET_PERCENTILE, MacroBaseDefaults.TARGET_PERCENTILE),
+             conf.getDouble(MacroBaseConf.KEYED_CLASSIFIER_HYSTERESIS, MacroBaseDefaults.KEYED_CLASSIFIER_HYSTERESIS),
+             conf.getDouble(MacroBaseConf.KEYED_CLASSIFIER_SKETCH_ERROR, MacroBaseDefaults.KEYED_CLASSIFIER_SKETCH_ERROR),
+             conf.getDouble(MacroBaseConf.DECAY_RATE, MacroBaseDefaults.DECAY_RATE),
+             conf.getDecayType(),
+             conf.getDouble(MacroBaseConf.SUMMARY_UPDATE_PERIOD, MacroBaseDefaults.SUMMARY_UPDATE_PERIOD),
+             conf.getInt(MacroBaseConf.KEYED_CLASSIFIER_WARMUP_COUNT, MacroBaseDefaults.KEYED_CLASSIFIER_WARMUP_COUNT),
+             conf.getInt(MacroBaseConf.KEYED_CLASSIFIER_MAX_KEYS, MacroBaseDefaults.KEYED_CLASSIFIER_MAX_KEYS));
+    }
+
+    public KeyedThresholdClassifier(int keyAttribute,
+                                    double percentile,
+                                    double hysteresis,
+                                    double sketchError,
+                                    double decayRate,
+                                    MacroBaseConf.PeriodType decayPeriodType,
+                                    double decayPeriod,
+                                    int warmupCount,
+                                    int maxKeys) {
+        if (hysteresis < 0 || hysteresis > percentile) {
+            throw new IllegalArgumentException(
+                    String.format("Hysteresis must be between 0 and the target percentile, was %f", hysteresis));
+        }
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException(String.format("maxKeys must be at least 1, was %d", maxKeys));
+        }
+        this.keyAttribute = keyAttribute;
+        this.percentile = percentile;
+        this.exitPercentile = percentile - hysteresis;
+        this.sketchError = sketchError;
+        this.decayRate = decayRate;
+        this.warmupCount = warmupCount;
+        this.maxKeys = maxKeys;
+
+        globalSketch = new DecayingQuantileSketch(sketchError, decayRate);
+        decayer = new Periodic(decayPeriodType, decayPeriod, () -> {
+            periods++;
+            globalSketch.advancePeriod();
+        });
+        allocate(Math.min(maxKeys, INITIAL_KEY_CAPACITY));
+    }
+
+    @Override
+    public MBStream<OutlierClassificationResult> getStream() {
+        return output;
+    }
+
+    @Override
+    public void initialize() {
+
+    }
+
+    @Override
+    public void consume(List<Datum> records) {
+        batchCount++;
+        List<OutlierClassificationResult> batchResult = new ArrayList<>(records.size());
+        for (Datum d : records) {
+            tupleCount++;
+            decayer.runIfNecessary();
+
+            int slot = slotOf(d.getAttributes().get(keyAttribute));
+            lastSeen[slot] = tupleCount;
+            if (appliedPeriods[slot] != periods) {
+                sketches[slot].advancePeriod((int) (periods - appliedPeriods[slot]));
+                appliedPeriods[slot] = periods;
+            }
+
+            double norm = d.getMetrics().getNorm();
+            boolean outlier;
+            if (counts[slot] >= warmupCount) {
+                refreshKey(slot);
+                outlier = norm > (alarms[slot] ? exitThresholds[slot] : enterThresholds[slot]);
+                alarms[slot] = outlier;
+            } else if (globalCount >= warmupCount) {
+                if (globalRefreshedBatch != batchCount) {
+                    globalThreshold = globalSketch.quantile(percentile);
+                    globalRefreshedBatch = batchCount;
+                }
+                outlier = norm > globalThreshold;
+            } else {
+                outlier = false;
+            }
+            batchResult.add(new OutlierClassificationResult(d, outlier));
+
+            // As with NaNStrategy.MAXIMAL, NaN ranks above everything
+            double value = Double.isNaN(norm) ? Double.POSITIVE_INFINITY : norm;
+            sketches[slot].add(value);
+            counts[slot]++;
+            globalSketch.add(value);
+            globalCount++;
+        }
+        output.add(batchResult);
+    }
+
+    private void refreshKey(int slot) {
+        if (refreshedBatch[slot] != batchCount) {
+            enterThresholds[slot] = sketches[slot].quantile(percentile);
+            exitThresholds[slot] = exitPercentile == percentile
+                    ? enterThresholds[slot] : sketches[slot].quantile(exitPercentile);
+            refreshedBatch[slot] = batchCount;
+        }
+    }
+
+    /**
+     * @return the key's current outlier threshold, or NaN if it is still warming up or unknown
+     */
+    public double getThreshold(int key) {
+        int slot = slotsByKey.get(key, -1);
+        if (slot < 0 || counts[slot] < warmupCount) {
+            return Double.NaN;
+        }
+        refreshKey(slot);
+        return enterThresholds[slot];
+    }
+
+    public int getNumKeys() {
+        return slotsByKey.size();
+    }
+
+    private int slotOf(int key) {
+        int slot = slotsByKey.get(key, -1);
+        if (slot >= 0) {
+            return slot;
+        }
+
+        if (slotsByKey.size() >= maxKeys) {
+            evictColdKeys();
+        }
+        if (numFree > 0) {
+            slot = freeSlots[--numFree];
+        } else {
+            if (highWater == keys.length) {
+                allocate(Math.min(maxKeys, 2 * keys.length));
+            }
+            slot = highWater++;
+        }
+        slotsByKey.put(key, slot);
+        keys[slot] = key;
+        sketches[slot] = new DecayingQuantileSketch(sketchError, decayRate);
+        counts[slot] = 0;
+        appliedPeriods[slot] = periods;
+        refreshedBatch[slot] = -1;
+        alarms[slot] = false;
+        return slot;
+    }
+
+    /**
+     * Drops the least recently seen keys, at least one.
+     */
+    private void evictColdKeys() {
+        long[] seen = new long[highWater];
+        int n = 0;
+        for (int slot = 0; slot < highWater; slot++) {
+            if (sketches[slot] != null) {
+                seen[n++] = lastSeen[slot];
+            }
+        }
+        Arrays.sort(seen, 0, n);
+        long cutoff = seen[Math.max(1, n / EVICTION_FRACTION) - 1];
+        for (int slot = 0; slot < highWater; slot++) {
+            if (sketches[slot] != null && lastSeen[slot] <= cutoff) {
+                slotsByKey.remove(keys[slot], -1);
+                sketches[slot] = null;
+                freeSlots[numFree++] = slot;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (keys == null) {
+            keys = new int[capacity];
+            sketches = new DecayingQuantileSketch[capacity];
+            counts = new long[capacity];
+            lastSeen = new long[capacity];
+            appliedPeriods = new long[capacity];
+            refreshedBatch = new long[capacity];
+            enterThresholds = new double[capacity];
+            exitThresholds = new double[capacity];
+            alarms = new boolean[capacity];
+            freeSlots = new int[capacity];
+        } else {
+            keys = Arrays.copyOf(keys, capacity);
+            sketches = Arrays.copyOf(sketches, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+            appliedPeriods = Arrays.copyOf(appliedPeriods, capacity);
+            refreshedBatch = Arrays.copyOf(refreshedBatch, capacity);
+            enterThresholds = Arrays.copyOf(enterThresholds, capacity);
+            exitThresholds = Arrays.copyOf(exitThresholds, capacity);
+            alarms = Arrays.copyOf(alarms, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+
+    }
+}
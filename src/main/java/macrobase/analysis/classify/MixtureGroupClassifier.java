@@ -6,6 +6,7 @@ import macrobase.analysis.stats.mixture.BatchMixtureModel;
 import macrobase.conf.ConfigurationException;
 import macrobase.conf.MacroBaseConf;
 import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 import org.slf4j.Logger;
@@ -47,6 +48,9 @@ public class MixtureGroupClassifier extends OutlierClassifier {
 
     @Override
     public void consume(List<Datum> records) throws Exception {
+        if (records.isEmpty()) {
+            return;
+        }
         if (targetClusterIndex < 0) {
             setTargetClusterIndex(records);
         }
@@ -55,15 +59,11 @@ public class MixtureGroupClassifier extends OutlierClassifier {
         List<RealVector> clusters = mixtureModel.getClusterCenters();
         int K = clusters.size();
         log.debug("cluster center are: {}", clusters);
-        for (Datum d : records) {
-            boolean isOutlier = true;
-            for (int i = 0; i < K; i++) {
-                if (d.getMetrics().getEntry(i) > d.getMetrics().getEntry(targetClusterIndex)) {
-                    isOutlier = false;
-                    break;
-                }
-            }
-            results.add(new OutlierClassificationResult(d, isOutlier));
+        // Points are outliers when no cluster is more likely than the target one
+        int[] mostLikely = BatchMixtureModel.mostLikelyClusters(AlgebraUtils.flattenMetrics(records), K,
+                                                                targetClusterIndex);
+        for (int n = 0; n < records.size(); n++) {
+            results.add(new OutlierClassificationResult(records.get(n), mostLikely[n] == targetClusterIndex));
         }
     }
 
@@ -3,6 +3,8 @@ package macrobase.analysis.pipeline;
 import com.google.common.base.Stopwatch;
 import macrobase.MacroBase;
 import macrobase.analysis.classify.EWAppxPercentileOutlierClassifier;
+import macrobase.analysis.classify.KeyedThresholdClassifier;
+import macrobase.analysis.classify.OutlierClassifier;
 import macrobase.analysis.pipeline.operator.MBOperator;
 import macrobase.analysis.pipeline.stream.MBStream;
 import macrobase.analysis.result.AnalysisResult;
@@ -15,6 +17,8 @@ import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
 import macrobase.ingest.DataIngester;
 import macrobase.analysis.transform.EWFeatureTransform;
+import macrobase.analysis.transform.FeatureTransform;
+import macrobase.analysis.transform.OnlineSVIFeatureTransform;
 import org.apache.commons.math3.stat.descriptive.summary.Sum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,9 +51,15 @@ public class BasicOneShotEWStreamingPipeline extends BasePipeline {
         MBStream<Datum> streamData = new MBStream<>(data);
 
         Summarizer summarizer = new EWStreamingSummarizer(conf);
+        FeatureTransform transform = conf.getBoolean(MacroBaseConf.ONLINE_SVI, MacroBaseDefaults.ONLINE_SVI)
+                ? new OnlineSVIFeatureTransform(conf)
+                : new EWFeatureTransform(conf);
+        OutlierClassifier classifier = conf.getBoolean(MacroBaseConf.KEYED_CLASSIFIER, MacroBaseDefaults.KEYED_CLASSIFIER)
+                ? new KeyedThresholdClassifier(conf)
+                : new EWAppxPercentileOutlierClassifier(conf);
         MBOperator<Datum, Summary> pipeline =
-                new EWFeatureTransform(conf)
-                .then(new EWAppxPercentileOutlierClassifier(conf), batchSize)
+                transform
+                .then(classifier, batchSize)
                 .then(summarizer, batchSize);
 
         while(streamData.remaining() > 0) {
@@ -1,12 +1,14 @@
 package macrobase.analysis.sample;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 
 /**
  * See http://arxiv.org/pdf/1012.0256.pdf
+ *
+ * Once the reservoir is full, an element is kept with probability capacity * weight / runningCount
+ * and overwrites a uniformly random slot in place, so an insert is O(1) regardless of capacity.
  */
 class AChao<T> {
     private final List<T> reservoir;
@@ -19,7 +21,7 @@ class AChao<T> {
     }
 
     public AChao(int capacity, Random random) {
-        reservoir = new ArrayList<>();
+        reservoir = new ArrayList<>(capacity);
         reservoirCapacity = capacity;
         this.random = random;
     }
@@ -33,9 +35,8 @@ class AChao<T> {
 
         if (reservoir.size() < reservoirCapacity) {
             reservoir.add(ele);
-        } else if (random.nextDouble() < weight / runningCount) {
-            reservoir.remove(random.nextInt(reservoirCapacity));
-            reservoir.add(ele);
+        } else if (random.nextDouble() < reservoirCapacity * weight / runningCount) {
+            reservoir.set(random.nextInt(reservoirCapacity), ele);
         }
     }
 }
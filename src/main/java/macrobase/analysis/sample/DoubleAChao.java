@@ -0,0 +1,97 @@
+package macrobase.analysis.sample;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@link ExponentiallyBiasedAChao} specialized to fixed-length rows of doubles.
+ *
+ * The sample is stored row-major in a single preallocated double[], so inserting copies the
+ * row into a slot and allocates nothing. As with ExponentiallyBiasedAChao, the current period
+ * is advanced explicitly; a bias of zero gives plain A-Chao.
+ */
+public class DoubleAChao {
+    private final int capacity;
+    private final int dimension;
+    private final double bias;
+    private final Random random;
+
+    private final double[] rows;
+    private int size = 0;
+    private double runningCount = 0;
+
+    public DoubleAChao(int capacity, int dimension, double bias, Random random) {
+        assert (bias >= 0 && bias < 1);
+        this.capacity = capacity;
+        this.dimension = dimension;
+        this.bias = bias;
+        this.random = random;
+        this.rows = new double[capacity * dimension];
+    }
+
+    public DoubleAChao(int capacity, int dimension, double bias) {
+        this(capacity, dimension, bias, new Random());
+    }
+
+    public void advancePeriod() {
+        advancePeriod(1);
+    }
+
+    public void advancePeriod(int numPeriods) {
+        runningCount *= Math.pow(1 - bias, numPeriods);
+    }
+
+    public void insert(double value) {
+        assert dimension == 1;
+        int slot = claimSlot(1);
+        if (slot >= 0) {
+            rows[slot] = value;
+        }
+    }
+
+    public void insert(double[] row) {
+        insert(row, 0, 1);
+    }
+
+    /**
+     * Offers row[offset..offset + dimension) with the given weight.
+     */
+    public void insert(double[] row, int offset, double weight) {
+        int slot = claimSlot(weight);
+        if (slot >= 0) {
+            System.arraycopy(row, offset, rows, slot * dimension, dimension);
+        }
+    }
+
+    /**
+     * @return slot the new element goes into, or -1 if it is not sampled
+     */
+    private int claimSlot(double weight) {
+        runningCount += weight;
+        if (size < capacity) {
+            return size++;
+        } else if (random.nextDouble() < capacity * weight / runningCount) {
+            return random.nextInt(capacity);
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    public double get(int row, int column) {
+        return rows[row * dimension + column];
+    }
+
+    /**
+     * @return copy of the sampled rows, size() x dimension row-major
+     */
+    public double[] getReservoir() {
+        return Arrays.copyOf(rows, size * dimension);
+    }
+}
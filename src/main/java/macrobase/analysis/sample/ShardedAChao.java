@@ -0,0 +1,276 @@
+package macrobase.analysis.sample;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exponentially biased A-Chao sample that several threads can insert into at once.
+ *
+ * Each inserting thread writes to its own {@link Shard}: a full-capacity reservoir with its
+ * own running count and Random, so concurrent inserts take no locks and share nothing but a
+ * period counter. A shard remembers its thread, and once that thread has died the next thread
+ * that needs a shard takes it over, so short-lived or pooled threads leave at most as many
+ * shards as there were threads inserting at the same time. Advancing the period bumps the
+ * counter, and each shard applies the pending decay to its running count on its next insert.
+ *
+ * {@link #getReservoir} merges the shards into one sample: a shard whose decayed running
+ * count is W and which holds n elements stands for weight W / n per element, so the capacity
+ * is split across shards in proportion to W and each shard gives a uniform subset of that size.
+ * With one shard the merge is just that shard's contents, so single-threaded use behaves
+ * like {@link ExponentiallyBiasedAChao}. Snapshots taken while other threads insert see
+ * each shard as of some recent insert.
+ */
+public class ShardedAChao<T> {
+    private final int capacity;
+    private final double bias;
+    private final Random random;
+    private Random seeds;
+
+    private final AtomicLong periods = new AtomicLong();
+    private final List<Shard> shards = new CopyOnWriteArrayList<>();
+    // Shard of each thread inserting through this object, claimed on first use
+    private final ThreadLocal<Shard> threadShards = new ThreadLocal<>();
+
+    public ShardedAChao(int capacity, double bias, Random random) {
+        assert (bias >= 0 && bias < 1);
+        this.capacity = capacity;
+        this.bias = bias;
+        this.random = random;
+    }
+
+    public ShardedAChao(int capacity, double bias) {
+        this(capacity, bias, new Random());
+    }
+
+    /**
+     * Reservoir written by a single thread at a time.
+     */
+    public final class Shard {
+        private final Object[] slots = new Object[capacity];
+        private final Random shardRandom;
+        // Thread inserting through this object that writes to the shard; null for shards
+        // handed out by newShard, which are never taken over
+        private final AtomicReference<WeakReference<Thread>> owner = new AtomicReference<>();
+        private volatile int size = 0;
+        private volatile double runningCount = 0;
+        private volatile long appliedPeriods = 0;
+
+        private Shard(Random shardRandom) {
+            this.shardRandom = shardRandom;
+        }
+
+        public void insert(T ele) {
+            insert(ele, 1);
+        }
+
+        public void insert(T ele, double weight) {
+            long now = periods.get();
+            double count = runningCount;
+            if (now != appliedPeriods) {
+                count *= Math.pow(1 - bias, now - appliedPeriods);
+                appliedPeriods = now;
+            }
+            count += weight;
+            runningCount = count;
+
+            if (size < capacity) {
+                slots[size] = ele;
+                size = size + 1;
+            } else if (shardRandom.nextDouble() < capacity * weight / count) {
+                slots[shardRandom.nextInt(capacity)] = ele;
+            }
+        }
+
+        private double decayedCount(long now) {
+            return runningCount * Math.pow(1 - bias, now - appliedPeriods);
+        }
+
+        private boolean claim(Thread thread) {
+            WeakReference<Thread> current = owner.get();
+            if (current == null) {
+                return false;
+            }
+            Thread previous = current.get();
+            return (previous == null || !previous.isAlive())
+                    && owner.compareAndSet(current, new WeakReference<>(thread));
+        }
+    }
+
+    /**
+     * @return a new shard, for a producer that manages its own shard instead of using
+     *         the calling thread's
+     */
+    public synchronized Shard newShard() {
+        Random shardRandom;
+        if (shards.isEmpty()) {
+            shardRandom = random;
+        } else {
+            if (seeds == null) {
+                seeds = new Random(random.nextLong());
+            }
+            shardRandom = new Random(seeds.nextLong());
+        }
+        Shard shard = new Shard(shardRandom);
+        shards.add(shard);
+        return shard;
+    }
+
+    public void insert(T ele) {
+        insert(ele, 1);
+    }
+
+    public void insert(T ele, double weight) {
+        Shard shard = threadShards.get();
+        if (shard == null) {
+            shard = claimShard();
+            threadShards.set(shard);
+        }
+        shard.insert(ele, weight);
+    }
+
+    /**
+     * @return a shard left by a thread that has died, or else a new one
+     */
+    private Shard claimShard() {
+        Thread thread = Thread.currentThread();
+        for (Shard shard : shards) {
+            if (shard.claim(thread)) {
+                return shard;
+            }
+        }
+        Shard shard = newShard();
+        shard.owner.set(new WeakReference<>(thread));
+        return shard;
+    }
+
+    public void advancePeriod() {
+        advancePeriod(1);
+    }
+
+    public void advancePeriod(int numPeriods) {
+        periods.addAndGet(numPeriods);
+    }
+
+    public int getNumShards() {
+        return shards.size();
+    }
+
+    /**
+     * @return decayed total weight inserted across all shards
+     */
+    public double getRunningCount() {
+        long now = periods.get();
+        double total = 0;
+        for (Shard shard : shards) {
+            total += shard.decayedCount(now);
+        }
+        return total;
+    }
+
+    /**
+     * @return merged sample of at most capacity elements
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> getReservoir() {
+        if (shards.size() == 1) {
+            Shard shard = shards.get(0);
+            int size = shard.size;
+            List<T> sample = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                sample.add((T) shard.slots[i]);
+            }
+            return sample;
+        }
+
+        long now = periods.get();
+        int numShards = shards.size();
+        int[] sizes = new int[numShards];
+        double[] counts = new double[numShards];
+        int numCandidates = 0;
+        for (int s = 0; s < numShards; s++) {
+            sizes[s] = shards.get(s).size;
+            counts[s] = shards.get(s).decayedCount(now);
+            numCandidates += sizes[s];
+        }
+
+        List<T> sample = new ArrayList<>(Math.min(capacity, numCandidates));
+        if (numCandidates <= capacity) {
+            for (int s = 0; s < numShards; s++) {
+                for (int i = 0; i < sizes[s]; i++) {
+                    sample.add((T) shards.get(s).slots[i]);
+                }
+            }
+            return sample;
+        }
+
+        if (seeds == null) {
+            seeds = new Random(random.nextLong());
+        }
+        int[] takes = allocate(sizes, counts);
+        for (int s = 0; s < numShards; s++) {
+            // Elements within a shard carry equal weight: take a uniform subset
+            Object[] slots = Arrays.copyOf(shards.get(s).slots, sizes[s]);
+            for (int i = 0; i < takes[s]; i++) {
+                int j = i + seeds.nextInt(sizes[s] - i);
+                Object chosen = slots[j];
+                slots[j] = slots[i];
+                sample.add((T) chosen);
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * Splits the capacity across shards in proportion to their weight, so that every element
+     * of shard s is kept with probability proportional to counts[s] / sizes[s]. Shards whose
+     * share would exceed their size give all their elements and the rest is re-split; the
+     * fractional shares are rounded with systematic sampling so the expected take is exact.
+     */
+    private int[] allocate(int[] sizes, double[] counts) {
+        int numShards = sizes.length;
+        boolean[] full = new boolean[numShards];
+        double[] quotas = new double[numShards];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int remaining = capacity;
+            double remainingWeight = 0;
+            for (int s = 0; s < numShards; s++) {
+                if (full[s]) {
+                    remaining -= sizes[s];
+                } else {
+                    remainingWeight += counts[s];
+                }
+            }
+            for (int s = 0; s < numShards; s++) {
+                if (!full[s]) {
+                    quotas[s] = remainingWeight > 0 ? remaining * counts[s] / remainingWeight : 0;
+                    if (quotas[s] >= sizes[s]) {
+                        full[s] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int[] takes = new int[numShards];
+        double offset = seeds.nextDouble();
+        double cumulative = 0;
+        for (int s = 0; s < numShards; s++) {
+            if (full[s]) {
+                takes[s] = sizes[s];
+            } else {
+                double next = cumulative + quotas[s];
+                takes[s] = Math.min(sizes[s], (int) Math.floor(next + offset) - (int) Math.floor(cumulative + offset));
+                cumulative = next;
+            }
+        }
+        return takes;
+    }
+}
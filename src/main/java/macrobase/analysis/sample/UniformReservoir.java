@@ -0,0 +1,69 @@
+package macrobase.analysis.sample;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Uniform reservoir sample of a stream, for when every element has the same weight.
+ *
+ * Uses Li's Algorithm L: instead of drawing a random number per element, it draws how many
+ * elements to skip before the next one that enters the sample. Rejected elements cost a
+ * counter decrement, and the expected number of random draws is O(capacity log(n / capacity)).
+ */
+public class UniformReservoir<T> {
+    private final List<T> reservoir;
+    private final int capacity;
+    private final Random random;
+
+    private long count = 0;
+    // Elements to pass over before the next replacement
+    private long skip;
+    private double w;
+
+    public UniformReservoir(int capacity, Random random) {
+        this.reservoir = new ArrayList<>(capacity);
+        this.capacity = capacity;
+        this.random = random;
+    }
+
+    public UniformReservoir(int capacity) {
+        this(capacity, new Random());
+    }
+
+    public final List<T> getReservoir() {
+        return reservoir;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void insert(T ele) {
+        count++;
+        if (reservoir.size() < capacity) {
+            reservoir.add(ele);
+            if (reservoir.size() == capacity) {
+                w = Math.exp(Math.log(nextOpenDouble()) / capacity);
+                drawSkip();
+            }
+        } else if (--skip == 0) {
+            reservoir.set(random.nextInt(capacity), ele);
+            w *= Math.exp(Math.log(nextOpenDouble()) / capacity);
+            drawSkip();
+        }
+    }
+
+    private void drawSkip() {
+        skip = (long) Math.floor(Math.log(nextOpenDouble()) / Math.log(1 - w)) + 1;
+    }
+
+    // Uniform on (0, 1), so the logarithms stay finite
+    private double nextOpenDouble() {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0);
+        return u;
+    }
+}
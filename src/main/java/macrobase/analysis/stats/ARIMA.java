@@ -3,111 +3,91 @@ package macrobase.analysis.stats;
 import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
-import org.rosuda.JRI.Rengine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-import java.util.stream.DoubleStream;
-
 /**
  * ARIMA time series predictions. Note that this implementation doesn't support
  * points that are not evenly distributed, and thus the time for each datum is
  * simply ignored and we assume that they are evenly distributed.
- * 
- * We use R to make these predictions, so you need to have R and rJava
- * installed. In addition, you need to install the R package 'forecast' (using
- * `install.packages('forecast', dependencies = TRUE)`), and set the R_HOME
- * environment variable appropriately (you can get its value by running
- * `R.home()` inside R).
+ *
+ * Forecasts come from a {@link StateSpaceForecaster}, which covers the
+ * ARIMA(0,1,1), ARIMA(0,2,2) and ARIMA(1,1,2) models as exponential smoothing
+ * in state-space form. Every datum updates the forecast in O(1); the model order
+ * and parameters are re-selected on the current window once per refit period.
+ * Each datum is scored by its relative error from the one-step forecast.
  */
 public class ARIMA extends TimeSeriesOutlierDetector {
     private static final Logger log = LoggerFactory.getLogger(ARIMA.class);
-    private Queue<Double> window = new LinkedList<Double>();
-    private Double latestScore;
-    private Queue<Double> predictions;
-    private int datumCounter;
-    private static Rengine re;
+    private final StateSpaceForecaster forecaster = new StateSpaceForecaster();
+    private final int refitPeriod;
+    // Index of the series value in the metrics, skipping the time column
+    private final int valueColumn;
 
-    public ARIMA(MacroBaseConf conf) {
-        super(conf);
+    // Ring buffer holding the current window
+    private final double[] window;
+    private int windowStart;
+    private int windowLength;
+    private final double[] fitBuffer;
 
-        if (re == null) {
-            re = new Rengine(new String[] { "--vanilla" }, false, null);
-        }
-        if (!re.waitForR()) {
-            throw new RuntimeException("Unable to load R");
-        }
-        re.eval("library(forecast)");
+    private int sinceRefit;
+    private double latestScore;
+    private boolean hasScore = false;
 
-        String logFile = conf.getString(MacroBaseConf.R_LOG_FILE,
-                MacroBaseDefaults.R_LOG_FILE);
-        if (logFile != null) {
-            re.eval("log <- file('" + logFile + "')");
-            re.eval("sink(log, append=TRUE)");
-            re.eval("sink(log, append=TRUE, type='message')");
-        }
-    }
-
-    @Override
-    public void train(List<Datum> data) {
-        super.train(data);
-        assert (data.get(0).getMetrics().getDimension() == 1);
+    public ARIMA(MacroBaseConf conf) {
+        super(conf);
+        Integer period = conf.getInt(MacroBaseConf.ARIMA_REFIT_PERIOD, MacroBaseDefaults.ARIMA_REFIT_PERIOD);
+        this.refitPeriod = period != null ? period : tupleWindowSize;
+        this.valueColumn = (timeColumn != null && timeColumn == 0) ? 1 : 0;
+        this.window = new double[tupleWindowSize];
+        this.fitBuffer = new double[tupleWindowSize];
     }
 
     @Override
     public void addToWindow(Datum datum) {
-        double value = datum.getMetrics().getEntry(0);
-        window.add(value);
+        double value = datum.getMetrics().getEntry(valueColumn);
 
-        if (predictions != null) {
+        if (forecaster.isFitted()) {
             // TODO we could try to be more intelligent about scoring here -
-            // currentPrediction is the mean, but the probabilities aren't
+            // the forecast is the mean, but the probabilities aren't
             // necessarily distributed evenly around the mean.
-            double prediction = predictions.remove();
+            double prediction = forecaster.forecast();
             latestScore = Math.abs((value - prediction) / prediction);
+            hasScore = true;
+            forecaster.update(value);
         }
 
-        if (datumCounter < (tupleWindowSize - 1)) {
-            datumCounter++;
-        } else if (predictions == null || predictions.isEmpty()) {
-            // We need to add new predictions if the current size is 1
-            trainWindow();
+        window[(windowStart + windowLength) % window.length] = value;
+        windowLength++;
+        sinceRefit++;
+
+        if (windowLength == tupleWindowSize && (!forecaster.isFitted() || sinceRefit >= refitPeriod)) {
+            refit();
         }
     }
 
     @Override
     public void removeLastFromWindow() {
-        window.remove();
+        windowStart = (windowStart + 1) % window.length;
+        windowLength--;
     }
 
-    private void trainWindow() {
-        log.debug("Running ARIMA trainWindow");
-        if (predictions == null) {
-            predictions = new LinkedList<Double>();
+    private void refit() {
+        log.debug("Running ARIMA refit");
+        for (int i = 0; i < windowLength; i++) {
+            fitBuffer[i] = window[(windowStart + i) % window.length];
         }
+        forecaster.fit(fitBuffer, 0, windowLength);
+        sinceRefit = 0;
+    }
 
-        double[] windowArray = window.stream().mapToDouble(Double::doubleValue)
-                .toArray();
-        re.assign("data", windowArray);
-        // TODO reuse old models
-        re.eval("fit <- auto.arima(data)");
-        // TODO add config option for how far we should predict before
-        // retraining - allow configuring how often we update parameters, and
-        // also how often we update model order.
-        double[] result = re.eval("forecast(fit, h=" + tupleWindowSize + ")$mean")
-                .asDoubleArray();
-        Double[] boxedResult = DoubleStream.of(result).boxed()
-                .toArray(size -> new Double[size]);
-        Collections.addAll(predictions, boxedResult);
+    public StateSpaceForecaster getForecaster() {
+        return forecaster;
     }
 
     @Override
     public double scoreWindow() {
-        if (latestScore == null) {
+        if (!hasScore) {
             return 0;
         } else {
             return latestScore;
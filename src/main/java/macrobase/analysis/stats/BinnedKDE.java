@@ -1,5 +1,8 @@
 package macrobase.analysis.stats;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -8,75 +11,206 @@ import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
 
 import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * BinnedKDE is a KDE with scores being calculated using binned approximation.
  * Only supports diagonal bandwidth matrices (It will not crash, but it might not be accurate)
+ *
+ * Data is linearly binned onto a regular grid in up to four dimensions, and the grid is
+ * convolved with the (separable) kernel one axis at a time using FFTs. Scoring is a
+ * multilinear lookup into the resulting density grid, independent of the training size.
  */
 public class BinnedKDE extends KDE {
 
     private static final Logger log = LoggerFactory.getLogger(BinnedKDE.class);
-    private double[][] bins;
-    private double[][] kernelWeights;
-    private double[][] densityEstimates;
-    private double[] minimums;
-    private double[] maximums;
-    private int numBins;
-    private int numIntervals;
+    public static final int MAX_DIMENSIONS = 4;
 
-    private int L;
-    private double delta;
+    private final int numBins;
+    private final int maxGridCells;
+
+    // Row-major density grid, padded by L cells on each side of the data range
+    private double[] densityEstimates;
+    private int[] gridSizes;
+    private double[] origins;
+    private double[] deltas;
 
     public BinnedKDE(MacroBaseConf conf) {
         super(conf);
         proportionOfDataToUse = 1.0;
         this.numBins = conf.getInt(MacroBaseConf.BINNED_KDE_BINS, MacroBaseDefaults.BINNED_KDE_BINS);
-        this.numIntervals = this.numBins - 1;
+        this.maxGridCells = conf.getInt(MacroBaseConf.BINNED_KDE_MAX_GRID_CELLS,
+                                        MacroBaseDefaults.BINNED_KDE_MAX_GRID_CELLS);
+    }
+
+    @Override
+    protected List<Datum> selectPopulation(List<Datum> data) {
+        return data;
     }
 
     @Override
-    public void train(List<Datum> data) {
-        this.setBandwidth(data);
+    protected void buildModel(List<Datum> data) {
+        if (this.metricsDimensions > MAX_DIMENSIONS) {
+            throw new RuntimeException(String.format("BinnedKDE supports at most %d dimensions, got %d",
+                                                     MAX_DIMENSIONS, metricsDimensions));
+        }
         log.debug("training BinnedKDE");
-        assert this.metricsDimensions == 1;
-        this.linearAssignToBins(data);
-        this.calculateKernelWeights(data);
+
+        // Keep the total number of grid cells bounded as the dimension grows.
+        int binsPerDimension = Math.max(2, Math.min(numBins,
+                (int) Math.floor(Math.pow(maxGridCells, 1.0 / metricsDimensions))));
+
+        int[] dataBins = new int[metricsDimensions];
+        int[] L = new int[metricsDimensions];
+        double[] h = new double[metricsDimensions];
+        double[] minimums = new double[metricsDimensions];
+        this.gridSizes = new int[metricsDimensions];
+        this.origins = new double[metricsDimensions];
+        this.deltas = new double[metricsDimensions];
+
+        for (int d = 0; d < metricsDimensions; d++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (Datum datum : data) {
+                double v = datum.getMetrics().getEntry(d);
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            h[d] = Math.sqrt(this.bandwidth.getEntry(d, d));
+            minimums[d] = min;
+            if (max > min) {
+                dataBins[d] = binsPerDimension;
+                deltas[d] = (max - min) / (binsPerDimension - 1);
+            } else {
+                dataBins[d] = 1;
+                deltas[d] = h[d];
+            }
+
+            double binsThatMatter = kernel.effectTiveSupportWidth1D() * h[d] / deltas[d];
+            L[d] = Math.min((int) binsThatMatter, Math.max(dataBins[d] - 1, 1));
+            gridSizes[d] = dataBins[d] + 2 * L[d];
+            origins[d] = min - L[d] * deltas[d];
+            log.debug("dimension {}: {} bins, L = {}", d, dataBins[d], L[d]);
+        }
+
+        int[] strides = strides(gridSizes);
+        int totalCells = strides[0] * gridSizes[0];
+        this.densityEstimates = new double[totalCells];
+        linearAssignToBins(data, minimums, L, strides);
+
+        for (int d = 0; d < metricsDimensions; d++) {
+            convolveAxis(d, kernelWeights(L[d], deltas[d], h[d]), strides);
+        }
+
+        double scalingFactor = 1.0 / data.size();
+        for (int i = 0; i < totalCells; i++) {
+            densityEstimates[i] *= scalingFactor;
+        }
+
+        this.model = new BinnedModel(kernel, bandwidthToNegativeHalf, densityEstimates, gridSizes, origins, deltas);
     }
 
+    /**
+     * Stores the convolved grid rather than the data, so the file size does not depend on
+     * the number of points.
+     */
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        ModelStore.writeMatrix(out, bandwidth);
+        ModelStore.writeInts(out, gridSizes);
+        ModelStore.writeDoubles(out, origins);
+        ModelStore.writeDoubles(out, deltas);
+        ModelStore.writeDoubles(out, densityEstimates);
+    }
 
-    private void calculateKernelWeights(List<Datum> data) {
-        // TODO: now only supports 1D!!!!
-        kernelWeights = new double[metricsDimensions][numBins];
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        RealMatrix savedBandwidth = ModelStore.readMatrix(in);
+        this.metricsDimensions = savedBandwidth.getColumnDimension();
+        setBandwidth(savedBandwidth);
+        this.gridSizes = ModelStore.readInts(in);
+        this.origins = ModelStore.readDoubles(in);
+        this.deltas = ModelStore.readDoubles(in);
+        this.densityEstimates = ModelStore.readDoubles(in);
+        this.model = new BinnedModel(kernel, bandwidthToNegativeHalf, densityEstimates, gridSizes, origins, deltas);
+    }
 
-        double binsThatMatter = kernel.effectTiveSupportWidth1D() * Math.sqrt(
-                this.bandwidth.getEntry(0, 0)) * this.numIntervals / (this.maximums[0] - this.minimums[0]);
-        log.debug("binsThatMatter: {}", binsThatMatter);
-        this.L = Math.min((int) binsThatMatter, this.numIntervals);
-        log.debug("GOT L= {}", L);
+    private static int[] strides(int[] sizes) {
+        int[] strides = new int[sizes.length];
+        int stride = 1;
+        for (int d = sizes.length - 1; d >= 0; d--) {
+            strides[d] = stride;
+            stride *= sizes[d];
+        }
+        return strides;
+    }
 
-        final double h = Math.sqrt(this.bandwidth.getEntry(0, 0));
-        double scalingFactor = 1.0 / (data.size() * h);
-        final double constant = (this.maximums[0] - this.minimums[0]) / (this.numIntervals * h);
+    /**
+     * One-sided kernel weights K_h(l * delta) for l = 0..L, including the 1/h normalization.
+     */
+    private double[] kernelWeights(int L, double delta, double h) {
+        double[] weights = new double[L + 1];
         double[] array = new double[1];
-        for (int l = 0; l < numIntervals; l++) {
-            array[0] = constant * l;
-            RealVector vector = new ArrayRealVector(array);
-            kernelWeights[0][l] = scalingFactor * this.kernel.density(vector);
+        RealVector vector = new ArrayRealVector(array, false);
+        for (int l = 0; l <= L; l++) {
+            array[0] = l * delta / h;
+            weights[l] = this.kernel.density(vector) / h;
         }
+        return weights;
+    }
 
+    /**
+     * Convolves every grid line along the given axis with the symmetric kernel weights.
+     * The grid is padded by L cells on both sides, so a circular convolution of length
+     * at least gridSizes[axis] never wraps around.
+     */
+    private void convolveAxis(int axis, double[] weights, int[] strides) {
+        final int size = gridSizes[axis];
+        final int stride = strides[axis];
+        final int L = weights.length - 1;
+        int fftSize = Integer.highestOneBit(Math.max(size, 2) - 1) << 1;
 
-        densityEstimates = new double[metricsDimensions][numBins];
-        for (int d = 0; d < 1; d++) {
-            for (int j = 0; j < numBins; ++j) {
-                for (int l = -this.L; l <= this.L; l++) {
-                    int binIndex = j - l;
-                    if (binIndex < 0 || binIndex >= numBins) {
-                        continue;
-                    }
-                    densityEstimates[d][j] += bins[d][binIndex] * kernelWeights[d][Math.abs(l)];
+        double[][] kernelSpectrum = new double[2][fftSize];
+        for (int l = -L; l <= L; l++) {
+            kernelSpectrum[0][(l + fftSize) % fftSize] = weights[Math.abs(l)];
+        }
+        FastFourierTransformer.transformInPlace(kernelSpectrum, DftNormalization.STANDARD, TransformType.FORWARD);
+
+        double[][] line = new double[2][fftSize];
+        int total = densityEstimates.length;
+        for (int outer = 0; outer < total; outer += stride * size) {
+            for (int inner = 0; inner < stride; inner++) {
+                int base = outer + inner;
+                Arrays.fill(line[0], 0);
+                Arrays.fill(line[1], 0);
+                boolean empty = true;
+                for (int j = 0; j < size; j++) {
+                    double v = densityEstimates[base + j * stride];
+                    line[0][j] = v;
+                    empty &= v == 0;
+                }
+                if (empty) {
+                    continue;
+                }
+
+                FastFourierTransformer.transformInPlace(line, DftNormalization.STANDARD, TransformType.FORWARD);
+                for (int f = 0; f < fftSize; f++) {
+                    double re = line[0][f] * kernelSpectrum[0][f] - line[1][f] * kernelSpectrum[1][f];
+                    double im = line[0][f] * kernelSpectrum[1][f] + line[1][f] * kernelSpectrum[0][f];
+                    line[0][f] = re;
+                    line[1][f] = im;
+                }
+                FastFourierTransformer.transformInPlace(line, DftNormalization.STANDARD, TransformType.INVERSE);
+
+                for (int j = 0; j < size; j++) {
+                    // Clamp FFT round-off so empty regions stay at zero density.
+                    densityEstimates[base + j * stride] = Math.max(0, line[0][j]);
                 }
             }
         }
@@ -84,43 +218,98 @@ public class BinnedKDE extends KDE {
 
     @Override
     public double score(Datum datum) {
-        // TODO: now only supports 1D datum
-        for (int d = 0; d < 1; d++) {
-            double pointValue = datum.getMetrics().getEntry(d);
-            double binDouble = (pointValue - this.minimums[d]) / delta;
-            return -densityEstimates[d][(int) binDouble];
-        }
-        return 0;
+        return model.score(datum);
     }
 
     /**
-     * Assigns data to bins (in all dimensions) using linear binning
-     *
-     * @param data
+     * Multilinear interpolation into the precomputed density grid.
      */
-    private void linearAssignToBins(List<Datum> data) {
-        this.bins = new double[metricsDimensions][numBins];
-        this.minimums = new double[metricsDimensions];
-        this.maximums = new double[metricsDimensions];
-        for (int d = 0; d < this.metricsDimensions; ++d) {
-            int size = data.size();
-            double[] dataIn1D = new double[size];
-            for (int i = 0; i < size; i++) {
-                dataIn1D[i] = data.get(i).getMetrics().getEntry(d);
+    static class BinnedModel extends KDEModel {
+        private final double[] densityEstimates;
+        private final int[] gridSizes;
+        private final int[] strides;
+        private final double[] origins;
+        private final double[] deltas;
+
+        BinnedModel(macrobase.analysis.stats.kernel.Kernel kernel,
+                    RealMatrix bandwidthToNegativeHalf,
+                    double[] densityEstimates,
+                    int[] gridSizes,
+                    double[] origins,
+                    double[] deltas) {
+            super(kernel, bandwidthToNegativeHalf);
+            this.densityEstimates = densityEstimates;
+            this.gridSizes = gridSizes;
+            this.strides = strides(gridSizes);
+            this.origins = origins;
+            this.deltas = deltas;
+        }
+
+        @Override
+        protected double score(double[] query, Scratch s) {
+            // s.difference holds the fractional offsets within the enclosing cell
+            int base = 0;
+            for (int d = 0; d < dimensions; d++) {
+                double position = (query[d] - origins[d]) / deltas[d];
+                if (!(position >= 0 && position <= gridSizes[d] - 1)) {
+                    // Outside the padded grid the kernel has no support.
+                    return 0;
+                }
+                int lower = Math.min((int) position, gridSizes[d] - 2);
+                s.difference[d] = position - lower;
+                base += lower * strides[d];
             }
 
-            Arrays.sort(dataIn1D);
-            this.minimums[d] = dataIn1D[0];
-            this.maximums[d] = dataIn1D[size - 1];
-            this.delta = (this.maximums[d] - this.minimums[d]) / numIntervals;
-
-            for (int i = 0; i < size; i++) {
-                double pointValue = data.get(i).getMetrics().getEntry(d);
-                double binDouble = (pointValue - this.minimums[d]) / delta;
-                int lowerBin = (int) binDouble;
-                // Assign weights to lower and upper bins linearly proportional to distances
-                this.bins[d][lowerBin] += binDouble - lowerBin;
-                this.bins[d][Math.min(lowerBin + 1, numBins - 1)] += 1 - (binDouble - lowerBin);
+            double density = 0;
+            for (int corner = 0; corner < (1 << dimensions); corner++) {
+                double weight = 1;
+                int index = base;
+                for (int d = 0; d < dimensions; d++) {
+                    if ((corner & (1 << d)) != 0) {
+                        weight *= s.difference[d];
+                        index += strides[d];
+                    } else {
+                        weight *= 1 - s.difference[d];
+                    }
+                }
+                if (weight > 0) {
+                    density += weight * densityEstimates[index];
+                }
+            }
+            return -density;
+        }
+    }
+
+    /**
+     * Assigns data to grid points using multilinear binning: each point spreads its unit
+     * weight over the 2^d corners of its cell in proportion to proximity.
+     */
+    private void linearAssignToBins(List<Datum> data, double[] minimums, int[] L, int[] strides) {
+        int[] lower = new int[metricsDimensions];
+        double[] fraction = new double[metricsDimensions];
+        for (Datum datum : data) {
+            RealVector metrics = datum.getMetrics();
+            for (int d = 0; d < metricsDimensions; d++) {
+                double binDouble = (metrics.getEntry(d) - minimums[d]) / deltas[d];
+                int lowerBin = Math.max(0, Math.min((int) binDouble, gridSizes[d] - 2 * L[d] - 2));
+                lower[d] = lowerBin + L[d];
+                fraction[d] = Math.min(1, binDouble - lowerBin);
+            }
+            for (int corner = 0; corner < (1 << metricsDimensions); corner++) {
+                double weight = 1;
+                int index = 0;
+                for (int d = 0; d < metricsDimensions; d++) {
+                    if ((corner & (1 << d)) != 0) {
+                        weight *= fraction[d];
+                        index += (lower[d] + 1) * strides[d];
+                    } else {
+                        weight *= 1 - fraction[d];
+                        index += lower[d] * strides[d];
+                    }
+                }
+                if (weight > 0) {
+                    densityEstimates[index] += weight;
+                }
             }
         }
     }
@@ -0,0 +1,64 @@
+package macrobase.analysis.stats;
+
+import macrobase.util.ForwardDecay;
+
+/**
+ * Exponentially decaying quantile sketch, using forward decay over a {@link QuantileSketch}.
+ *
+ * As in {@link macrobase.analysis.sample.ExponentiallyBiasedAChao}, every explicit
+ * {@link #advancePeriod} discounts everything seen so far by (1 - decayRate). Rather than
+ * touching old weights, forward decay adds each new value with weight
+ * (1 - decayRate)^-periods relative to a landmark; only the ratios between weights matter
+ * for quantiles. When the landmark weight grows too large, all weights are rescaled once
+ * and the landmark moves up. If a single advance decays everything seen so far past that
+ * limit, e.g. when catching up on many idle periods, the sketch is emptied instead.
+ */
+public class DecayingQuantileSketch {
+    private QuantileSketch sketch;
+    private final double decayRate;
+    // Weight of a value added now, relative to the landmark
+    private double weight = 1;
+
+    public DecayingQuantileSketch(double errorBound, double decayRate) {
+        if (!(decayRate >= 0 && decayRate < 1)) {
+            throw new IllegalArgumentException("Decay rate must be in [0, 1), was " + decayRate);
+        }
+        this.sketch = new QuantileSketch(errorBound);
+        this.decayRate = decayRate;
+    }
+
+    public void add(double value) {
+        sketch.add(value, weight);
+    }
+
+    public void advancePeriod() {
+        advancePeriod(1);
+    }
+
+    public void advancePeriod(int numPeriods) {
+        double decay = Math.pow(1 - decayRate, numPeriods);
+        if (decay < 1 / ForwardDecay.MAX_WEIGHT) {
+            // Rescaling would round the old weights to zero (or the new weight would
+            // overflow) while keeping their centroids and extremes, so drop them outright
+            sketch = new QuantileSketch(sketch.getErrorBound());
+            weight = 1;
+            return;
+        }
+        weight /= decay;
+        if (weight > ForwardDecay.MAX_WEIGHT) {
+            sketch.scale(1 / weight);
+            weight = 1;
+        }
+    }
+
+    public double quantile(double q) {
+        return sketch.quantile(q);
+    }
+
+    /**
+     * @return decayed total weight, in units of a value added in the current period
+     */
+    public double getTotalWeight() {
+        return sketch.getTotalWeight() / weight;
+    }
+}
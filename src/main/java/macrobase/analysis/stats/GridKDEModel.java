@@ -0,0 +1,213 @@
+package macrobase.analysis.stats;
+
+import macrobase.analysis.stats.kernel.Kernel;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exact KDE over a density population that is bucketed into a grid in the scaled space
+ * z = H^(-1/2) x. With a compactly supported kernel of support width w, a population point
+ * contributes to a query only if every |z_q - z_i| <= w, so using cells of width w each
+ * query only visits the 3^d cells around its own.
+ *
+ * Points are stored column-major and sorted by cell, with a sorted array of occupied cell
+ * keys, so a query costs 3^d binary searches plus the kernel evaluations for nearby points.
+ */
+class GridKDEModel extends KDEModel {
+    // 3^d neighbouring cells per query stops paying off beyond this
+    static final int MAX_DIMENSIONS = 6;
+
+    private final double cellWidth;
+    private final double scoreScalingFactor;
+    // Scaled population, points[d][i], grouped by cell in the order of cellKeys
+    private final double[][] points;
+    private final long[] cellKeys;
+    private final int[] cellStarts;
+    private final long[] minCells;
+    private final long[] extents;
+    private final long[] radix;
+    private final double[] unitScales;
+    private final int numNeighbours;
+
+    private GridKDEModel(Kernel kernel,
+                         RealMatrix bandwidthToNegativeHalf,
+                         double cellWidth,
+                         double scoreScalingFactor,
+                         double[][] points,
+                         long[] cellKeys,
+                         int[] cellStarts,
+                         long[] minCells,
+                         long[] extents,
+                         long[] radix) {
+        super(kernel, bandwidthToNegativeHalf);
+        this.cellWidth = cellWidth;
+        this.scoreScalingFactor = scoreScalingFactor;
+        this.points = points;
+        this.cellKeys = cellKeys;
+        this.cellStarts = cellStarts;
+        this.minCells = minCells;
+        this.extents = extents;
+        this.radix = radix;
+        this.unitScales = new double[dimensions];
+        Arrays.fill(unitScales, 1.0);
+        int neighbours = 1;
+        for (int d = 0; d < dimensions; d++) {
+            neighbours *= 3;
+        }
+        this.numNeighbours = neighbours;
+    }
+
+    /**
+     * @return a grid-indexed model, or null if the kernel has unbounded support, the
+     * dimension is too high or the population spans too many cells to index.
+     */
+    static GridKDEModel build(Kernel kernel,
+                              RealMatrix bandwidthToNegativeHalf,
+                              List<Datum> densityPopulation,
+                              double scoreScalingFactor) {
+        final int dimensions = bandwidthToNegativeHalf.getRowDimension();
+        final int n = densityPopulation.size();
+        final double cellWidth = kernel.effectTiveSupportWidth1D();
+        if (n == 0 || dimensions > MAX_DIMENSIONS || !(cellWidth > 0) || Double.isInfinite(cellWidth)) {
+            return null;
+        }
+
+        // Scaled coordinates, in input order for now
+        double[][] scaled = new double[dimensions][n];
+        double[][] matrix = bandwidthToNegativeHalf.getData();
+        double[] minCell = new double[dimensions];
+        double[] maxCell = new double[dimensions];
+        Arrays.fill(minCell, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxCell, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < n; i++) {
+            RealVector metrics = densityPopulation.get(i).getMetrics();
+            for (int r = 0; r < dimensions; r++) {
+                double sum = 0;
+                for (int c = 0; c < dimensions; c++) {
+                    sum += matrix[r][c] * metrics.getEntry(c);
+                }
+                scaled[r][i] = sum;
+                double cell = Math.floor(sum / cellWidth);
+                minCell[r] = Math.min(minCell[r], cell);
+                maxCell[r] = Math.max(maxCell[r], cell);
+            }
+        }
+
+        // Cell coordinates are shifted to [1, extent - 2] so that every neighbour of an
+        // occupied cell still has a non-negative coordinate; keys are mixed-radix.
+        long[] minCells = new long[dimensions];
+        long[] extents = new long[dimensions];
+        long[] radix = new long[dimensions];
+        double totalCells = 1;
+        for (int d = dimensions - 1; d >= 0; d--) {
+            double extent = maxCell[d] - minCell[d] + 3;
+            if (!(extent < Long.MAX_VALUE) || Math.abs(minCell[d]) > (1L << 52)) {
+                return null;
+            }
+            radix[d] = (long) totalCells;
+            totalCells *= extent;
+            if (totalCells > (double) (1L << 62)) {
+                return null;
+            }
+            minCells[d] = (long) minCell[d];
+            extents[d] = (long) extent;
+        }
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long key = 0;
+            for (int d = 0; d < dimensions; d++) {
+                long cell = (long) Math.floor(scaled[d][i] / cellWidth) - minCells[d] + 1;
+                key += cell * radix[d];
+            }
+            keys[i] = key;
+        }
+
+        long[] sortedKeys = keys.clone();
+        Arrays.sort(sortedKeys);
+        int numCells = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sortedKeys[i] != sortedKeys[i - 1]) {
+                sortedKeys[numCells++] = sortedKeys[i];
+            }
+        }
+        long[] cellKeys = Arrays.copyOf(sortedKeys, numCells);
+
+        // Counting sort of the points by cell
+        int[] cellOfPoint = new int[n];
+        int[] cellStarts = new int[numCells + 1];
+        for (int i = 0; i < n; i++) {
+            cellOfPoint[i] = Arrays.binarySearch(cellKeys, keys[i]);
+            cellStarts[cellOfPoint[i] + 1]++;
+        }
+        for (int c = 0; c < numCells; c++) {
+            cellStarts[c + 1] += cellStarts[c];
+        }
+        int[] next = Arrays.copyOf(cellStarts, numCells);
+        double[][] points = new double[dimensions][n];
+        for (int i = 0; i < n; i++) {
+            int position = next[cellOfPoint[i]]++;
+            for (int d = 0; d < dimensions; d++) {
+                points[d][position] = scaled[d][i];
+            }
+        }
+
+        return new GridKDEModel(kernel, bandwidthToNegativeHalf, cellWidth, scoreScalingFactor,
+                                points, cellKeys, cellStarts, minCells, extents, radix);
+    }
+
+    int getNumCells() {
+        return cellKeys.length;
+    }
+
+    @Override
+    protected double score(double[] query, Scratch s) {
+        // s.difference holds the scaled query, s.secondary its shifted cell coordinates
+        double[] z = s.difference;
+        double[] cells = s.secondary;
+        toScaledSpace(query, z);
+        long baseKey = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double cell = Math.floor(z[d] / cellWidth) - minCells[d] + 1;
+            if (!(cell >= 0 && cell <= extents[d] - 1)) {
+                // No occupied cell within reach in this dimension
+                return -0.0;
+            }
+            cells[d] = cell;
+            baseKey += (long) cell * radix[d];
+        }
+
+        double _score = 0.0;
+        for (int neighbour = 0; neighbour < numNeighbours; neighbour++) {
+            int remaining = neighbour;
+            long key = baseKey;
+            boolean occupiable = true;
+            for (int d = 0; d < dimensions; d++) {
+                int offset = remaining % 3 - 1;
+                remaining /= 3;
+                double cell = cells[d] + offset;
+                if (cell < 1 || cell > extents[d] - 2) {
+                    occupiable = false;
+                    break;
+                }
+                key += offset * radix[d];
+            }
+            if (!occupiable) {
+                continue;
+            }
+            int c = Arrays.binarySearch(cellKeys, key);
+            if (c < 0) {
+                continue;
+            }
+            for (int from = cellStarts[c]; from < cellStarts[c + 1]; from += BLOCK_SIZE) {
+                int to = Math.min(from + BLOCK_SIZE, cellStarts[c + 1]);
+                _score += kernel.sumScaledDensities(z, points, from, to, unitScales, s.block);
+            }
+        }
+        return -_score * scoreScalingFactor;
+    }
+}
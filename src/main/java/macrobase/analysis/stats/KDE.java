@@ -6,34 +6,39 @@ import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
 import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
 import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
-public class KDE extends BatchTrainScore {
+public class KDE extends BatchTrainScore implements PersistentModel {
 
     private static final Logger log = LoggerFactory.getLogger(KDE.class);
     protected double bandwidthDeterminantSqrt;
     protected KernelType kernelType;
     protected macrobase.analysis.stats.kernel.Kernel kernel;
-    private List<Datum> densityPopulation;
+    protected List<Datum> densityPopulation;
     protected RealMatrix bandwidth; // symmetric and positive definite
     protected RealMatrix bandwidthToNegativeHalf;
     protected double scoreScalingFactor;
-    private double[] allScores;
     private BandwidthAlgorithm bandwidthAlgorithm;
     protected double proportionOfDataToUse;
     protected double algorithmicBandwidthMultiplier = 1.0;
 
     private final Random random;
     protected int metricsDimensions;
+    protected KDEModel model;
 
     public enum BandwidthAlgorithm {
         NORMAL_SCALE,
@@ -71,15 +76,6 @@ public class KDE extends BatchTrainScore {
         this.proportionOfDataToUse = ratio;
     }
 
-    /**
-     * Scaled version of the kernel (K_H in the literature)
-     * @param vector
-     * @return
-     */
-    protected double scaledKernelDensity(RealVector vector) {
-        return this.kernel.density(this.bandwidthToNegativeHalf.operate(vector));
-    }
-
     /**
      * Manually set bandwidth of KDE
      *
@@ -141,6 +137,32 @@ public class KDE extends BatchTrainScore {
     }
 
     private void calculateBandwidthAncillaries() {
+        final int dimensions = bandwidth.getColumnDimension();
+        this.kernel = this.kernelType.constructKernel(dimensions);
+
+        if (isDiagonal(bandwidth)) {
+            // Avoid the eigendecompositions so that H^(-1/2) stays exactly diagonal, which
+            // lets the scoring models use the per-dimension kernel path.
+            this.bandwidthToNegativeHalf = MatrixUtils.createRealMatrix(dimensions, dimensions);
+            double determinantSqrt = 1.0;
+            for (int d = 0; d < dimensions; d++) {
+                double variance = bandwidth.getEntry(d, d);
+                // As inverting the full matrix would, reject a bandwidth that is singular
+                // (e.g. from a constant metric) or not positive definite
+                if (variance == 0) {
+                    throw new SingularMatrixException();
+                }
+                if (!(variance > 0)) {
+                    throw new NonPositiveDefiniteMatrixException(variance, d, 0);
+                }
+                double h = Math.sqrt(variance);
+                this.bandwidthToNegativeHalf.setEntry(d, d, 1.0 / h);
+                determinantSqrt *= h;
+            }
+            this.bandwidthDeterminantSqrt = determinantSqrt;
+            return;
+        }
+
         RealMatrix inverseBandwidth;
         if (bandwidth.getColumnDimension() > 1) {
             inverseBandwidth = MatrixUtils.blockInverse(bandwidth, (bandwidth.getColumnDimension() - 1) / 2);
@@ -153,30 +175,133 @@ public class KDE extends BatchTrainScore {
         this.bandwidthDeterminantSqrt = Math.sqrt((new EigenDecomposition(bandwidth)).getDeterminant());
     }
 
+    static boolean isDiagonal(RealMatrix matrix) {
+        for (int i = 0; i < matrix.getRowDimension(); i++) {
+            for (int j = 0; j < matrix.getColumnDimension(); j++) {
+                if (i != j && matrix.getEntry(i, j) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void train(List<Datum> data) {
         this.setBandwidth(data);
+        buildModel(selectPopulation(data));
+    }
 
+    /**
+     * @return the points the density estimate is built from
+     */
+    protected List<Datum> selectPopulation(List<Datum> data) {
         log.debug("training on {}% of the data", 100 * this.proportionOfDataToUse);
 
         // Very rudimentary sampling, write something better in the future.
-        densityPopulation = new ArrayList<>(data);
-        Collections.shuffle(densityPopulation, random);
+        List<Datum> population = new ArrayList<>(data);
+        Collections.shuffle(population, random);
+        return population.subList(0, (int) (this.proportionOfDataToUse * population.size()));
+    }
 
-        this.densityPopulation = densityPopulation.subList(0,
-                                                           (int) (this.proportionOfDataToUse * densityPopulation.size()));
+    /**
+     * Builds the scoring model over the given population with the current bandwidth.
+     */
+    protected void buildModel(List<Datum> densityPopulation) {
+        this.densityPopulation = densityPopulation;
         this.scoreScalingFactor = 1.0 / (bandwidthDeterminantSqrt * densityPopulation.size());
+        // Compactly supported kernels only need to look at nearby points
+        this.model = GridKDEModel.build(kernel, bandwidthToNegativeHalf, densityPopulation, scoreScalingFactor);
+        if (this.model == null) {
+            this.model = new ExactModel(kernel, bandwidthToNegativeHalf, densityPopulation, scoreScalingFactor);
+        }
+    }
+
+    /**
+     * Immutable snapshot of the most recently trained model, safe to score from many threads.
+     */
+    public KDEModel getModel() {
+        return model;
     }
 
     @Override
     public double score(Datum datum) {
-        double _score = 0.0;
-        for (int i = 0; i < densityPopulation.size(); i++) {
-            RealVector difference = datum.getMetrics().subtract(densityPopulation.get(i).getMetrics());
-            double _diff = scaledKernelDensity(difference);
-            _score += _diff;
+        return model.score(datum);
+    }
+
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        ModelStore.writeMatrix(out, bandwidth);
+        ModelStore.writePoints(out, densityPopulation);
+    }
+
+    /**
+     * Only the bandwidth and the population are stored; the scoring structures are rebuilt.
+     */
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        RealMatrix savedBandwidth = ModelStore.readMatrix(in);
+        this.metricsDimensions = savedBandwidth.getColumnDimension();
+        setBandwidth(savedBandwidth);
+        buildModel(ModelStore.readPoints(in));
+    }
+
+    /**
+     * Keeps the current bandwidth, skipping bandwidth selection, and rebuilds the estimate
+     * on the new data.
+     */
+    @Override
+    public void refine(List<Datum> data, int maxIterations) {
+        if (bandwidth == null) {
+            train(data);
+            return;
+        }
+        buildModel(selectPopulation(data));
+    }
+
+    /**
+     * Sums the kernel contributions of every point in the density population.
+     */
+    static class ExactModel extends KDEModel {
+        // Column-major copy of the density population: population[d][i] is coordinate d of point i
+        private final double[][] population;
+        private final int populationSize;
+        private final double scoreScalingFactor;
+
+        ExactModel(macrobase.analysis.stats.kernel.Kernel kernel,
+                   RealMatrix bandwidthToNegativeHalf,
+                   List<Datum> densityPopulation,
+                   double scoreScalingFactor) {
+            super(kernel, bandwidthToNegativeHalf);
+            this.populationSize = densityPopulation.size();
+            this.population = new double[dimensions][populationSize];
+            for (int i = 0; i < populationSize; i++) {
+                RealVector metrics = densityPopulation.get(i).getMetrics();
+                for (int d = 0; d < dimensions; d++) {
+                    population[d][i] = metrics.getEntry(d);
+                }
+            }
+            this.scoreScalingFactor = scoreScalingFactor;
+        }
+
+        @Override
+        protected double score(double[] query, Scratch s) {
+            double _score = 0.0;
+            if (diagonalScales != null) {
+                for (int from = 0; from < populationSize; from += BLOCK_SIZE) {
+                    int to = Math.min(from + BLOCK_SIZE, populationSize);
+                    _score += kernel.sumScaledDensities(query, population, from, to, diagonalScales, s.block);
+                }
+            } else {
+                for (int i = 0; i < populationSize; i++) {
+                    for (int d = 0; d < dimensions; d++) {
+                        s.difference[d] = query[d] - population[d][i];
+                    }
+                    _score += scaledKernelDensity(s.difference, s);
+                }
+            }
+            return -_score * scoreScalingFactor;
         }
-        return -_score * this.scoreScalingFactor;
     }
 
     @Override
@@ -0,0 +1,124 @@
+package macrobase.analysis.stats;
+
+import macrobase.analysis.stats.kernel.Kernel;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Immutable snapshot of a trained KDE. A single instance can be scored from many threads at
+ * once; each thread gets its own scratch buffers, so scoring does not allocate per pair.
+ *
+ * Retraining the {@link KDE} that produced a model does not affect the model.
+ */
+public abstract class KDEModel {
+    protected final int dimensions;
+    protected final Kernel kernel;
+    // Rows of H^(-1/2)
+    private final double[][] bandwidthToNegativeHalf;
+    // Diagonal of H^(-1/2) when the bandwidth is diagonal, otherwise null
+    protected final double[] diagonalScales;
+    private final ThreadLocal<Scratch> scratch;
+
+    // Number of points evaluated together by the blocked kernel path
+    protected static final int BLOCK_SIZE = 256;
+
+    /**
+     * Per-thread buffers used while scoring a single point.
+     */
+    protected static class Scratch {
+        public final double[] query;
+        public final double[] difference;
+        public final double[] secondary;
+        public final double[] block;
+        private final double[] scaled;
+
+        Scratch(int dimensions) {
+            query = new double[dimensions];
+            difference = new double[dimensions];
+            secondary = new double[dimensions];
+            block = new double[BLOCK_SIZE];
+            scaled = new double[dimensions];
+        }
+    }
+
+    protected KDEModel(Kernel kernel, RealMatrix bandwidthToNegativeHalf) {
+        this.kernel = kernel;
+        this.bandwidthToNegativeHalf = bandwidthToNegativeHalf.getData();
+        this.dimensions = this.bandwidthToNegativeHalf.length;
+        this.diagonalScales = KDE.isDiagonal(bandwidthToNegativeHalf) ? diagonal(this.bandwidthToNegativeHalf) : null;
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(dimensions));
+    }
+
+    /**
+     * Same convention as {@link KDE#score(Datum)}: higher scores are more anomalous.
+     */
+    public double score(Datum datum) {
+        Scratch s = scratch.get();
+        RealVector metrics = datum.getMetrics();
+        for (int i = 0; i < dimensions; i++) {
+            s.query[i] = metrics.getEntry(i);
+        }
+        return score(s.query, s);
+    }
+
+    public double score(double[] metrics) {
+        return score(metrics, scratch.get());
+    }
+
+    protected abstract double score(double[] query, Scratch s);
+
+    /**
+     * Scaled version of the kernel (K_H in the literature), evaluated without allocating.
+     */
+    protected double scaledKernelDensity(double[] vector, Scratch s) {
+        if (diagonalScales != null) {
+            double[] scaled = s.scaled;
+            for (int i = 0; i < dimensions; i++) {
+                scaled[i] = diagonalScales[i] * vector[i];
+            }
+            return kernel.density(scaled);
+        }
+        return kernel.density(scale(vector, s));
+    }
+
+    /**
+     * K_H(query - points[offset..offset + dimensions]).
+     */
+    protected double scaledKernelDensity(double[] query, double[] points, int offset, Scratch s) {
+        if (diagonalScales != null) {
+            return kernel.scaledDensity(query, points, offset, diagonalScales);
+        }
+        for (int i = 0; i < dimensions; i++) {
+            s.difference[i] = query[i] - points[offset + i];
+        }
+        return kernel.density(scale(s.difference, s));
+    }
+
+    private double[] scale(double[] vector, Scratch s) {
+        toScaledSpace(vector, s.scaled);
+        return s.scaled;
+    }
+
+    /**
+     * Writes H^(-1/2) * vector into out.
+     */
+    protected void toScaledSpace(double[] vector, double[] out) {
+        for (int i = 0; i < dimensions; i++) {
+            double[] row = bandwidthToNegativeHalf[i];
+            double sum = 0;
+            for (int j = 0; j < dimensions; j++) {
+                sum += row[j] * vector[j];
+            }
+            out[i] = sum;
+        }
+    }
+
+    private static double[] diagonal(double[][] matrix) {
+        double[] diagonal = new double[matrix.length];
+        for (int i = 0; i < matrix.length; i++) {
+            diagonal[i] = matrix[i][i];
+        }
+        return diagonal;
+    }
+}
@@ -8,13 +8,16 @@ import macrobase.datamodel.Datum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
-public class MAD extends BatchTrainScore {
+public class MAD extends BatchTrainScore implements PersistentModel {
     private static final Logger log = LoggerFactory.getLogger(MAD.class);
 
     private double median;
@@ -95,6 +98,26 @@ public class MAD extends BatchTrainScore {
         return Math.abs(point - median) / (MAD);
     }
 
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        out.writeDouble(median);
+        out.writeDouble(MAD);
+    }
+
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        median = in.readDouble();
+        MAD = in.readDouble();
+    }
+
+    /**
+     * MAD is not iterative, so this simply retrains.
+     */
+    @Override
+    public void refine(List<Datum> data, int maxIterations) {
+        train(data);
+    }
+
     @Override
     public double getZScoreEquivalent(double zscore) {
         double ret = zscore / MAD_TO_ZSCORE_COEFFICIENT;
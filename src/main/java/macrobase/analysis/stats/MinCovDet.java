@@ -2,6 +2,9 @@ package macrobase.analysis.stats;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -29,7 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.Timer;
 
-public class MinCovDet extends BatchTrainScore {
+public class MinCovDet extends BatchTrainScore implements PersistentModel {
     private static final Logger log = LoggerFactory.getLogger(MinCovDet.class);
 
     private final Timer chooseKRandom = MacroBase.metrics.timer(name(MinCovDet.class, "chooseKRandom"));
@@ -203,6 +206,15 @@ public class MinCovDet extends BatchTrainScore {
         double det = getDeterminant(cov);
         context.stop();
 
+        takeCSteps(data, h, det, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Takes C-steps from the current mean and covariance until the determinant stops
+     * decreasing or maxIterations steps have been taken.
+     */
+    private void takeCSteps(List<Datum> data, int h, double det, int maxIterations) {
+        Timer.Context context;
         int stepNo = 1;
 
         // now take C-steps
@@ -227,7 +239,7 @@ public class MinCovDet extends BatchTrainScore {
 
             double delta = det - newDet;
 
-            if (newDet == 0 || delta < stoppingDelta) {
+            if (newDet == 0 || delta < stoppingDelta || numIterations >= maxIterations) {
                 break;
             }
 
@@ -249,6 +261,34 @@ public class MinCovDet extends BatchTrainScore {
         return getMahalanobis(mean, inverseCov, datum.getMetrics());
     }
 
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        ModelStore.writeVector(out, mean);
+        ModelStore.writeMatrix(out, cov);
+    }
+
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        RealVector savedMean = ModelStore.readVector(in);
+        if (savedMean.getDimension() != p) {
+            throw new IOException(String.format("saved MCD has dimension %d, expected %d",
+                                                savedMean.getDimension(), p));
+        }
+        mean = savedMean;
+        cov = ModelStore.readMatrix(in);
+        updateInverseCovariance();
+    }
+
+    /**
+     * Takes at most maxIterations C-steps starting from the current estimate instead of
+     * from a random subset.
+     */
+    @Override
+    public void refine(List<Datum> data, int maxIterations) {
+        int h = (int) Math.floor((data.size() + p + 1) * alpha);
+        takeCSteps(data, h, getDeterminant(cov), maxIterations);
+    }
+
     public RealMatrix getCovariance() {
         return cov;
     }
@@ -0,0 +1,220 @@
+package macrobase.analysis.stats;
+
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned binary storage for {@link PersistentModel}s.
+ *
+ * A file holds a header (magic number, format version and the model class name) followed
+ * by the model's own parameters. All numbers are written as raw big-endian doubles and ints,
+ * and collections of vectors as flat row-major arrays, so files stay compact and load
+ * without parsing. Loading a file written by a different format version or model class,
+ * or a damaged one, fails with an IOException rather than silently producing a wrong model:
+ * every length read is checked against what is left of the file before anything is
+ * allocated for it, and errors from the model's own reader are reported as IOExceptions.
+ */
+public class ModelStore {
+    // "MBMD"
+    private static final int MAGIC = 0x4d424d44;
+    public static final int FORMAT_VERSION = 1;
+
+    /**
+     * Writes to a temporary file first, so a crash never leaves a truncated model behind.
+     */
+    public static void save(PersistentModel model, File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(model.getClass().getName());
+            model.writeModel(out);
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static void load(PersistentModel model, File file) throws IOException {
+        // Read up front, so available() is exactly the number of bytes left
+        byte[] contents = Files.readAllBytes(file.toPath());
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a saved model");
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException(String.format("%s has model format version %d, expected %d",
+                                                    file, version, FORMAT_VERSION));
+            }
+            String className = in.readUTF();
+            if (!className.equals(model.getClass().getName())) {
+                throw new IOException(String.format("%s holds a %s, not a %s",
+                                                    file, className, model.getClass().getName()));
+            }
+            try {
+                model.readModel(in);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " holds a damaged model", e);
+            }
+        }
+    }
+
+    // Reads a count of elements that take at least elementBytes each
+    private static int readCount(DataInputStream in, int elementBytes) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available() / elementBytes) {
+            throw new IOException("bad length in saved model: " + count);
+        }
+        return count;
+    }
+
+    // Checks the shape of a rows x columns block of doubles; empty rows still count as one
+    private static void checkBlock(DataInputStream in, int rows, int columns) throws IOException {
+        if (rows < 0 || columns < 0 || (long) rows * Math.max(1, columns) > in.available() / Double.BYTES) {
+            throw new IOException(String.format("bad shape in saved model: %d x %d", rows, columns));
+        }
+    }
+
+    public static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    public static double[] readDoubles(DataInputStream in) throws IOException {
+        double[] values = new double[readCount(in, Double.BYTES)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readDouble();
+        }
+        return values;
+    }
+
+    public static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    public static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[readCount(in, Integer.BYTES)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    public static void writeVector(DataOutputStream out, RealVector vector) throws IOException {
+        writeDoubles(out, vector.toArray());
+    }
+
+    public static RealVector readVector(DataInputStream in) throws IOException {
+        return new ArrayRealVector(readDoubles(in), false);
+    }
+
+    public static void writeMatrix(DataOutputStream out, RealMatrix matrix) throws IOException {
+        out.writeInt(matrix.getRowDimension());
+        out.writeInt(matrix.getColumnDimension());
+        for (int i = 0; i < matrix.getRowDimension(); i++) {
+            for (int j = 0; j < matrix.getColumnDimension(); j++) {
+                out.writeDouble(matrix.getEntry(i, j));
+            }
+        }
+    }
+
+    public static RealMatrix readMatrix(DataInputStream in) throws IOException {
+        int rows = in.readInt();
+        int columns = in.readInt();
+        checkBlock(in, rows, columns);
+        double[][] entries = new double[rows][columns];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                entries[i][j] = in.readDouble();
+            }
+        }
+        return MatrixUtils.createRealMatrix(entries);
+    }
+
+    public static void writeVectors(DataOutputStream out, List<RealVector> vectors) throws IOException {
+        out.writeInt(vectors.size());
+        for (RealVector vector : vectors) {
+            writeVector(out, vector);
+        }
+    }
+
+    public static List<RealVector> readVectors(DataInputStream in) throws IOException {
+        // each vector has at least its length
+        int size = readCount(in, Integer.BYTES);
+        List<RealVector> vectors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            vectors.add(readVector(in));
+        }
+        return vectors;
+    }
+
+    public static void writeMatrices(DataOutputStream out, List<RealMatrix> matrices) throws IOException {
+        out.writeInt(matrices.size());
+        for (RealMatrix matrix : matrices) {
+            writeMatrix(out, matrix);
+        }
+    }
+
+    public static List<RealMatrix> readMatrices(DataInputStream in) throws IOException {
+        // each matrix has at least its shape
+        int size = readCount(in, 2 * Integer.BYTES);
+        List<RealMatrix> matrices = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            matrices.add(readMatrix(in));
+        }
+        return matrices;
+    }
+
+    /**
+     * Writes only the metrics of the points, as an N x D row-major block.
+     */
+    public static void writePoints(DataOutputStream out, List<Datum> points) throws IOException {
+        int dimension = points.isEmpty() ? 0 : points.get(0).getMetrics().getDimension();
+        out.writeInt(points.size());
+        out.writeInt(dimension);
+        for (Datum point : points) {
+            RealVector metrics = point.getMetrics();
+            for (int i = 0; i < dimension; i++) {
+                out.writeDouble(metrics.getEntry(i));
+            }
+        }
+    }
+
+    public static List<Datum> readPoints(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        int dimension = in.readInt();
+        checkBlock(in, size, dimension);
+        List<Datum> points = new ArrayList<>(size);
+        for (int n = 0; n < size; n++) {
+            double[] metrics = new double[dimension];
+            for (int i = 0; i < dimension; i++) {
+                metrics[i] = in.readDouble();
+            }
+            points.add(new Datum(new ArrayList<>(), new ArrayRealVector(metrics, false)));
+        }
+        return points;
+    }
+}
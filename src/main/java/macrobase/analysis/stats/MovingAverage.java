@@ -1,99 +1,179 @@
 package macrobase.analysis.stats;
 
-import java.util.Deque;
-import java.util.ArrayDeque;
+import java.util.Arrays;
 
-import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
 import macrobase.conf.MacroBaseConf;
+import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
+import macrobase.util.IntIntHashMap;
 
 /*
- * Simple moving average.
+ * Simple moving average, optionally over many independent series.
+ *
+ * Each datum is weighted by the time since the previous datum of its series
+ * and scored by its relative difference from the weighted average of the
+ * last tupleWindow data of that series. When a key attribute is configured,
+ * every distinct value of that attribute is its own series.
+ *
+ * All series live in shared primitive arrays: series s owns a ring of
+ * tupleWindow slots and keeps its running weighted sums in place, so adding
+ * a datum and scoring it is O(D) with no allocation, and memory per series
+ * is a few array slots rather than objects.
  */
 public class MovingAverage extends TimeSeriesOutlierDetector {
-    Deque<DatumWithInfo> window = new ArrayDeque<DatumWithInfo>();
-    int weightTotal;
-    private RealVector windowSum;
+    private static final int INITIAL_SERIES_CAPACITY = 16;
+
+    // Index into the datum's attributes of the series key, or null for one series
+    private final Integer keyAttribute;
+    private final IntIntHashMap seriesIndex = new IntIntHashMap();
+    private int numSeries;
+    private int dimensions = -1;
+
+    // Ring of tupleWindowSize slots per series: slot i of series s is s * tupleWindowSize + i
+    private double[] values;
+    private int[] weights;
+    private int[] heads;
+    private int[] lengths;
+    private int[] lastTimes;
+    // Weighted sums of each series, dimensions entries per series
+    private double[] sums;
+    private long[] weightTotals;
+
+    // Series of the most recently added datum
+    private int currentSeries;
 
-    private static class DatumWithInfo {
-        private Datum datum;
-        private int weight;
+    public MovingAverage(MacroBaseConf conf) {
+        super(conf);
+        this.keyAttribute = conf.getInt(MacroBaseConf.MOVING_AVERAGE_KEY_ATTRIBUTE,
+                                        MacroBaseDefaults.MOVING_AVERAGE_KEY_ATTRIBUTE);
+    }
 
-        public DatumWithInfo(Datum datum, int weight) {
-            this.datum = datum;
-            this.weight = weight;
+    /**
+     * Scores the datum against its own series, evicting that series' oldest
+     * datum once its window is full.
+     */
+    @Override
+    public double score(Datum datum) {
+        int series = seriesOf(datum);
+        if (lengths[series] == tupleWindowSize) {
+            removeOldest(series);
         }
+        add(series, datum);
+        currentSeries = series;
+        return scoreSeries(series);
+    }
 
-        public Datum getDatum() {
-            return datum;
-        }
+    @Override
+    public void addToWindow(Datum newDatum) {
+        currentSeries = seriesOf(newDatum);
+        add(currentSeries, newDatum);
+    }
+
+    @Override
+    public void removeLastFromWindow() {
+        removeOldest(currentSeries);
+    }
+
+    @Override
+    public double scoreWindow() {
+        return numSeries == 0 ? 0 : scoreSeries(currentSeries);
+    }
+
+    public int getNumSeries() {
+        return numSeries;
+    }
 
-        public int getWeight() {
-            return weight;
+    private int seriesOf(Datum datum) {
+        if (dimensions < 0) {
+            dimensions = datum.getMetrics().getDimension();
+            allocate(INITIAL_SERIES_CAPACITY);
         }
+        int key = keyAttribute == null ? 0 : datum.getAttributes().get(keyAttribute);
+        int series = seriesIndex.get(key, -1);
+        if (series < 0) {
+            series = numSeries++;
+            if (series == heads.length) {
+                allocate(2 * heads.length);
+            }
+            seriesIndex.put(key, series);
+        }
+        return series;
     }
 
-    public MovingAverage(MacroBaseConf conf) {
-        super(conf);
+    private void allocate(int capacity) {
+        values = values == null ? new double[capacity * tupleWindowSize * dimensions]
+                : Arrays.copyOf(values, capacity * tupleWindowSize * dimensions);
+        weights = weights == null ? new int[capacity * tupleWindowSize]
+                : Arrays.copyOf(weights, capacity * tupleWindowSize);
+        heads = heads == null ? new int[capacity] : Arrays.copyOf(heads, capacity);
+        lengths = lengths == null ? new int[capacity] : Arrays.copyOf(lengths, capacity);
+        lastTimes = lastTimes == null ? new int[capacity] : Arrays.copyOf(lastTimes, capacity);
+        sums = sums == null ? new double[capacity * dimensions] : Arrays.copyOf(sums, capacity * dimensions);
+        weightTotals = weightTotals == null ? new long[capacity] : Arrays.copyOf(weightTotals, capacity);
     }
 
-    @Override
-    public void addToWindow(Datum newDatum) {
-        if (window.size() == 0) {
+    private int slot(int series, int position) {
+        return series * tupleWindowSize + (heads[series] + position) % tupleWindowSize;
+    }
+
+    private void add(int series, Datum datum) {
+        RealVector metrics = datum.getMetrics();
+        int time = datum.getTime(timeColumn);
+        int newSlot = slot(series, lengths[series]);
+        for (int d = 0; d < dimensions; d++) {
+            values[newSlot * dimensions + d] = metrics.getEntry(d);
+        }
+
+        if (lengths[series] == 0) {
             // We don't know what weight to use for the first datum, so we wait
             // until we have the second one to actually process it.
-            window.add(new DatumWithInfo(newDatum, 0));
+            weights[newSlot] = 0;
         } else {
-            int weight = newDatum.getTime(timeColumn) - getLatestDatum().getTime(timeColumn);
-            if (window.size() == 1) {
-                windowSum = new ArrayRealVector(newDatum.getMetrics()
-                        .getDimension());
-                // Remove and re-add first datum with the correct weight
-                Datum first = window.remove().getDatum();
+            int weight = time - lastTimes[series];
+            if (lengths[series] == 1) {
                 // Assume same weight for first as for second
-                addDatumWithWeight(first, weight);
+                accumulate(series, slot(series, 0), weight);
             }
-
-            addDatumWithWeight(newDatum, weight);
+            accumulate(series, newSlot, weight);
         }
+        lastTimes[series] = time;
+        lengths[series]++;
     }
 
-    private void addDatumWithWeight(Datum d, int weight) {
-        windowSum = windowSum.add(d.getMetrics().mapMultiply(weight));
-        weightTotal += weight;
-        window.add(new DatumWithInfo(d, weight));
-    }
-
-    private Datum getLatestDatum() {
-        return window.peekLast().getDatum();
+    private void accumulate(int series, int slot, int weight) {
+        weights[slot] = weight;
+        weightTotals[series] += weight;
+        for (int d = 0; d < dimensions; d++) {
+            sums[series * dimensions + d] += weight * values[slot * dimensions + d];
+        }
     }
 
-    @Override
-    public void removeLastFromWindow() {
-        DatumWithInfo head = window.remove();
-        int oldWeight = head.getWeight();
-        weightTotal -= oldWeight;
-        windowSum = windowSum.subtract(head.getDatum().getMetrics()
-                .mapMultiply(oldWeight));
+    private void removeOldest(int series) {
+        int oldSlot = slot(series, 0);
+        int oldWeight = weights[oldSlot];
+        weightTotals[series] -= oldWeight;
+        for (int d = 0; d < dimensions; d++) {
+            sums[series * dimensions + d] -= oldWeight * values[oldSlot * dimensions + d];
+        }
+        heads[series] = (heads[series] + 1) % tupleWindowSize;
+        lengths[series]--;
     }
 
-    @Override
-    public double scoreWindow() {
-        if (windowSum == null) {
+    private double scoreSeries(int series) {
+        if (lengths[series] < 2) {
             return 0;
         }
-        RealVector latest = getLatestDatum().getMetrics();
-        RealVector average = windowSum.mapDivide(weightTotal);
+        int latest = slot(series, lengths[series] - 1) * dimensions;
         double percentDiff = 0;
-        for (int i = 0; i < average.getDimension(); i++) {
-            if (average.getEntry(i) == 0 || timeColumn == i) {
+        for (int i = 0; i < dimensions; i++) {
+            double average = sums[series * dimensions + i] / weightTotals[series];
+            if (average == 0 || (timeColumn != null && timeColumn == i)) {
                 // What should we do here?
                 continue;
             }
-            percentDiff += Math.abs((latest.getEntry(i) - average.getEntry(i))
-                    / average.getEntry(i));
+            percentDiff += Math.abs((values[latest + i] - average) / average);
         }
 
         return percentDiff;
@@ -0,0 +1,52 @@
+package macrobase.analysis.stats;
+
+import java.util.function.BinaryOperator;
+import java.util.stream.IntStream;
+
+/**
+ * Runs a pass over N points in parallel, one task per fixed-size chunk of consecutive
+ * indexes. Each task gets its chunk's [from, to) range, so it can set up its own scratch
+ * space or partial result once and then loop over plain arrays.
+ */
+public class ParallelChunks {
+    // Points handled by one parallel task in each pass over the data
+    public static final int CHUNK_SIZE = 4096;
+
+    public interface ChunkTask {
+        void run(int from, int to);
+    }
+
+    public interface ChunkFunction<T> {
+        T apply(int chunk, int from, int to);
+    }
+
+    public interface ChunkToDoubleFunction {
+        double apply(int from, int to);
+    }
+
+    public static int numChunks(int N) {
+        return (N + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    public static void forEach(int N, ChunkTask task) {
+        IntStream.range(0, numChunks(N)).parallel().forEach(
+                chunk -> task.run(chunk * CHUNK_SIZE, Math.min(N, (chunk + 1) * CHUNK_SIZE)));
+    }
+
+    /**
+     * Computes a partial result per chunk and combines them. There is always at least one
+     * chunk, so with no points the result is that of the empty range.
+     * @param function given the chunk index, which is stable across runs, and its range
+     */
+    public static <T> T reduce(int N, ChunkFunction<T> function, BinaryOperator<T> combiner) {
+        return IntStream.range(0, Math.max(1, numChunks(N))).parallel()
+                .mapToObj(chunk -> function.apply(chunk, chunk * CHUNK_SIZE, Math.min(N, (chunk + 1) * CHUNK_SIZE)))
+                .reduce(combiner).get();
+    }
+
+    public static double sum(int N, ChunkToDoubleFunction function) {
+        return IntStream.range(0, numChunks(N)).parallel()
+                .mapToDouble(chunk -> function.apply(chunk * CHUNK_SIZE, Math.min(N, (chunk + 1) * CHUNK_SIZE)))
+                .sum();
+    }
+}
@@ -0,0 +1,32 @@
+package macrobase.analysis.stats;
+
+import macrobase.datamodel.Datum;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A trained model whose parameters can be saved with {@link ModelStore} and later
+ * restored, so that retraining on new data can start from the previous fit.
+ */
+public interface PersistentModel {
+    /**
+     * Writes the trained parameters, not including the {@link ModelStore} header.
+     */
+    void writeModel(DataOutputStream out) throws IOException;
+
+    /**
+     * Replaces the parameters with ones written by {@link #writeModel}; the model can
+     * score immediately afterwards.
+     */
+    void readModel(DataInputStream in) throws IOException;
+
+    /**
+     * Continues training on the given data starting from the current parameters, running
+     * at most maxIterations iterations. Models that are not iterative refit whatever
+     * depends on the data and keep the rest (e.g. a KDE keeps its bandwidth).
+     */
+    void refine(List<Datum> data, int maxIterations);
+}
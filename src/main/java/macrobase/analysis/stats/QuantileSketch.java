@@ -0,0 +1,243 @@
+package macrobase.analysis.stats;
+
+/**
+ * Mergeable, weighted quantile sketch (a merging t-digest).
+ *
+ * Values are summarized by centroids (mean, weight) kept sorted by mean. New values are
+ * buffered and periodically merged into the centroids, with each centroid allowed to
+ * span at most one unit of the scale function k(q) = compression / (2 pi) asin(2q - 1).
+ * Centroids are therefore small near the tails and the rank error of a quantile query is
+ * about q(1 - q)-proportional, at most roughly the configured error in the middle.
+ * The sketch holds O(1 / error) centroids however many values it has seen.
+ *
+ * Sketches built on separate partitions can be merged, and all weights can be rescaled
+ * at once (e.g. for forward decay). Infinite values are counted exactly at either end
+ * instead of being folded into centroids.
+ */
+public class QuantileSketch {
+    // Buffered values, as a multiple of the compression, before merging
+    private static final int BUFFER_FACTOR = 5;
+
+    private final double errorBound;
+    private final double compression;
+    private final int centroidCapacity;
+
+    // Centroids in [0, numCentroids), sorted; unsorted buffered values in [numCentroids, size)
+    private final double[] means;
+    private final double[] weights;
+    private int numCentroids = 0;
+    private int size = 0;
+
+    private double finiteWeight = 0;
+    private double negativeInfiniteWeight = 0;
+    private double positiveInfiniteWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * @param errorBound target rank error, as a fraction of the total weight
+     */
+    public QuantileSketch(double errorBound) {
+        if (!(errorBound > 0 && errorBound < 1)) {
+            throw new IllegalArgumentException("Quantile sketch error must be in (0, 1), was " + errorBound);
+        }
+        this.errorBound = errorBound;
+        this.compression = Math.ceil(2 / errorBound);
+        // Adjacent merged centroids always span more than one unit of k, whose range is compression / 2
+        this.centroidCapacity = (int) compression + 4;
+        int capacity = centroidCapacity + BUFFER_FACTOR * (int) compression;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+    }
+
+    public double getErrorBound() {
+        return errorBound;
+    }
+
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    public void add(double value, double weight) {
+        if (Double.isNaN(value)) {
+            throw new IllegalArgumentException("Cannot add NaN to a quantile sketch");
+        }
+        if (weight <= 0) {
+            return;
+        }
+        if (value == Double.POSITIVE_INFINITY) {
+            positiveInfiniteWeight += weight;
+            return;
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            negativeInfiniteWeight += weight;
+            return;
+        }
+
+        if (size == means.length) {
+            compress();
+        }
+        means[size] = value;
+        weights[size] = weight;
+        size++;
+        finiteWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds everything summarized by other into this sketch.
+     */
+    public void merge(QuantileSketch other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        negativeInfiniteWeight += other.negativeInfiniteWeight;
+        positiveInfiniteWeight += other.positiveInfiniteWeight;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Multiplies the weight of everything in the sketch by factor.
+     */
+    public void scale(double factor) {
+        for (int i = 0; i < size; i++) {
+            weights[i] *= factor;
+        }
+        finiteWeight *= factor;
+        negativeInfiniteWeight *= factor;
+        positiveInfiniteWeight *= factor;
+    }
+
+    public double getTotalWeight() {
+        return negativeInfiniteWeight + finiteWeight + positiveInfiniteWeight;
+    }
+
+    public double getMin() {
+        return negativeInfiniteWeight > 0 ? Double.NEGATIVE_INFINITY : positiveInfiniteWeight > 0 && finiteWeight == 0
+                ? Double.POSITIVE_INFINITY : min;
+    }
+
+    public double getMax() {
+        return positiveInfiniteWeight > 0 ? Double.POSITIVE_INFINITY : negativeInfiniteWeight > 0 && finiteWeight == 0
+                ? Double.NEGATIVE_INFINITY : max;
+    }
+
+    /**
+     * @param q quantile in [0, 1]
+     * @return approximate value with a fraction q of the weight below it, or NaN if empty
+     */
+    public double quantile(double q) {
+        double total = getTotalWeight();
+        if (total == 0) {
+            return Double.NaN;
+        }
+        double rank = q * total;
+        if (rank < negativeInfiniteWeight || finiteWeight == 0 && positiveInfiniteWeight == 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        rank -= negativeInfiniteWeight;
+        if (rank >= finiteWeight) {
+            return positiveInfiniteWeight > 0 ? Double.POSITIVE_INFINITY : max;
+        }
+        if (size > numCentroids) {
+            compress();
+        }
+
+        // Each centroid's mean sits at the middle of the weight it covers; interpolate
+        // between neighbouring centers, and between the extreme centers and min / max.
+        double center = weights[0] / 2;
+        if (rank < center) {
+            return min + (means[0] - min) * rank / center;
+        }
+        for (int i = 0; i < numCentroids - 1; i++) {
+            double nextCenter = center + (weights[i] + weights[i + 1]) / 2;
+            if (rank < nextCenter) {
+                return means[i] + (means[i + 1] - means[i]) * (rank - center) / (nextCenter - center);
+            }
+            center = nextCenter;
+        }
+        int last = numCentroids - 1;
+        return means[last] + (max - means[last]) * (rank - center) / (finiteWeight - center);
+    }
+
+    /**
+     * Sorts the centroids and buffered values together and greedily merges neighbours
+     * while the merged centroid spans at most one unit of k.
+     */
+    private void compress() {
+        if (size == 0) {
+            return;
+        }
+        sort(0, size - 1);
+        int out = 0;
+        double before = 0;
+        double qLimit = qAtK(k(0) + 1);
+        for (int i = 1; i < size; i++) {
+            double merged = weights[out] + weights[i];
+            if ((before + merged) / finiteWeight <= qLimit) {
+                means[out] += (means[i] - means[out]) * weights[i] / merged;
+                weights[out] = merged;
+            } else {
+                before += weights[out];
+                out++;
+                means[out] = means[i];
+                weights[out] = weights[i];
+                qLimit = qAtK(k(before / finiteWeight) + 1);
+            }
+        }
+        numCentroids = out + 1;
+        size = numCentroids;
+        assert numCentroids <= centroidCapacity;
+    }
+
+    private double k(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, q) - 1);
+    }
+
+    private double qAtK(double k) {
+        return (Math.sin(Math.min(k * 2 * Math.PI / compression, Math.PI / 2)) + 1) / 2;
+    }
+
+    // Quicksort of the means, carrying the weights along
+    private void sort(int lo, int hi) {
+        while (hi - lo > 16) {
+            double pivot = means[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (means[i] < pivot) {
+                    i++;
+                }
+                while (means[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            // Recurse into the smaller half to bound the stack depth
+            if (j - lo < hi - i) {
+                sort(lo, j);
+                lo = i;
+            } else {
+                sort(i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && means[j - 1] > means[j]; j--) {
+                swap(j - 1, j);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double mean = means[i];
+        means[i] = means[j];
+        means[j] = mean;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+}
@@ -0,0 +1,199 @@
+package macrobase.analysis.stats;
+
+import macrobase.analysis.pipeline.stream.MBStream;
+import macrobase.analysis.transform.FeatureTransform;
+import macrobase.conf.ConfigurationException;
+import macrobase.conf.MacroBaseConf;
+import macrobase.conf.MacroBaseDefaults;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Windowed spectral features over a stream: for every metric, the DFT of its last W values
+ * (oldest first, zero before the stream fills the window) at a chosen set of frequency bins.
+ *
+ * Instead of transforming the whole window per datum like {@link FFT}, each tracked bin is
+ * updated with the sliding DFT recurrence
+ *
+ *   X'_k = (X_k - x_oldest + x_new) e^{2 pi i k / W}
+ *
+ * so a new datum costs O(k) per metric. To keep round-off from accumulating, the bins are
+ * recomputed exactly from the window once every W data, which is still O(k) amortized.
+ *
+ * Each output datum holds the real and imaginary parts of the tracked bins, metric by metric
+ * (the time column, if any, is skipped).
+ */
+public class SlidingDFT extends FeatureTransform {
+    private final int windowSize;
+    private final int[] bins;
+    private final Integer timeColumn;
+    // e^{2 pi i k / W} for each tracked bin
+    private final double[] twiddleReal;
+    private final double[] twiddleImag;
+
+    private int[] metricColumns;
+    // Window of metric m is window[m * W .. (m + 1) * W), a ring starting at head
+    private double[] window;
+    private int head;
+    // Bin b of metric m is at m * bins.length + b
+    private double[] real;
+    private double[] imag;
+    private int sinceResync;
+
+    private final MBStream<Datum> output = new MBStream<>();
+
+    public SlidingDFT(MacroBaseConf conf) throws ConfigurationException {
+        this(conf.getInt(MacroBaseConf.SLIDING_DFT_WINDOW, MacroBaseDefaults.SLIDING_DFT_WINDOW),
+             parseBins(conf.getStringList(MacroBaseConf.SLIDING_DFT_BINS, MacroBaseDefaults.SLIDING_DFT_BINS)),
+             conf.getInt(MacroBaseConf.TIME_COLUMN, MacroBaseDefaults.TIME_COLUMN));
+    }
+
+    /**
+     * @param bins frequency bins to track, or null for all of 0..windowSize / 2
+     */
+    public SlidingDFT(int windowSize, int[] bins, Integer timeColumn) throws ConfigurationException {
+        if (windowSize < 1) {
+            throw new ConfigurationException(String.format("Sliding DFT window must be positive, was %d", windowSize));
+        }
+        if (bins == null) {
+            bins = new int[windowSize / 2 + 1];
+            for (int k = 0; k < bins.length; k++) {
+                bins[k] = k;
+            }
+        }
+        for (int k : bins) {
+            if (k < 0 || k >= windowSize) {
+                throw new ConfigurationException(
+                        String.format("Sliding DFT bin %d is outside the window of %d points", k, windowSize));
+            }
+        }
+        this.windowSize = windowSize;
+        this.bins = bins;
+        this.timeColumn = timeColumn;
+        twiddleReal = new double[bins.length];
+        twiddleImag = new double[bins.length];
+        for (int b = 0; b < bins.length; b++) {
+            double angle = 2 * Math.PI * bins[b] / windowSize;
+            twiddleReal[b] = Math.cos(angle);
+            twiddleImag[b] = Math.sin(angle);
+        }
+    }
+
+    private static int[] parseBins(List<String> bins) throws ConfigurationException {
+        if (bins == null) {
+            return null;
+        }
+        int[] parsed = new int[bins.size()];
+        for (int i = 0; i < parsed.length; i++) {
+            try {
+                parsed[i] = Integer.parseInt(bins.get(i).trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException(String.format("Invalid sliding DFT bin: %s", bins.get(i)));
+            }
+        }
+        return parsed;
+    }
+
+    @Override
+    public void consume(List<Datum> records) throws Exception {
+        List<Datum> batchOutput = new ArrayList<>(records.size());
+        for (Datum d : records) {
+            RealVector metrics = d.getMetrics();
+            if (window == null) {
+                allocate(metrics.getDimension());
+            }
+            for (int m = 0; m < metricColumns.length; m++) {
+                slide(m, metrics.getEntry(metricColumns[m]));
+            }
+            head = (head + 1) % windowSize;
+            if (++sinceResync == windowSize) {
+                resync();
+            }
+
+            double[] features = new double[2 * real.length];
+            for (int i = 0; i < real.length; i++) {
+                features[2 * i] = real[i];
+                features[2 * i + 1] = imag[i];
+            }
+            batchOutput.add(new Datum(d, new ArrayRealVector(features, false)));
+        }
+        output.add(batchOutput);
+    }
+
+    private void allocate(int dimension) {
+        int numMetrics = timeColumn != null && timeColumn < dimension ? dimension - 1 : dimension;
+        metricColumns = new int[numMetrics];
+        for (int i = 0, column = 0; column < dimension; column++) {
+            if (timeColumn == null || column != timeColumn) {
+                metricColumns[i++] = column;
+            }
+        }
+        window = new double[numMetrics * windowSize];
+        real = new double[numMetrics * bins.length];
+        imag = new double[numMetrics * bins.length];
+    }
+
+    /**
+     * Replaces the oldest value of metric m's window, at head, with value and rotates its bins.
+     */
+    private void slide(int m, double value) {
+        int oldest = m * windowSize + head;
+        double delta = value - window[oldest];
+        window[oldest] = value;
+        for (int b = 0, i = m * bins.length; b < bins.length; b++, i++) {
+            double re = real[i] + delta;
+            double im = imag[i];
+            real[i] = re * twiddleReal[b] - im * twiddleImag[b];
+            imag[i] = re * twiddleImag[b] + im * twiddleReal[b];
+        }
+    }
+
+    /**
+     * Recomputes every tracked bin directly from the windows.
+     */
+    private void resync() {
+        for (int m = 0; m < metricColumns.length; m++) {
+            for (int b = 0, i = m * bins.length; b < bins.length; b++, i++) {
+                double re = 0;
+                double im = 0;
+                for (int n = 0; n < windowSize; n++) {
+                    double value = window[m * windowSize + (head + n) % windowSize];
+                    // Reduce kn mod W so the angle stays exact for long windows
+                    double angle = -2 * Math.PI * (((long) bins[b] * n) % windowSize) / windowSize;
+                    re += value * Math.cos(angle);
+                    im += value * Math.sin(angle);
+                }
+                real[i] = re;
+                imag[i] = im;
+            }
+        }
+        sinceResync = 0;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int[] getBins() {
+        return bins.clone();
+    }
+
+    @Override
+    public MBStream<Datum> getStream() throws Exception {
+        return output;
+    }
+
+    @Override
+    public void initialize() throws Exception {
+
+    }
+
+    @Override
+    public void shutdown() throws Exception {
+
+    }
+}
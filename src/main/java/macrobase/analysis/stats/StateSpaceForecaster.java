@@ -0,0 +1,233 @@
+package macrobase.analysis.stats;
+
+import org.apache.commons.math3.analysis.MultivariateFunction;
+import org.apache.commons.math3.optim.InitialGuess;
+import org.apache.commons.math3.optim.MaxEval;
+import org.apache.commons.math3.optim.PointValuePair;
+import org.apache.commons.math3.optim.nonlinear.scalar.GoalType;
+import org.apache.commons.math3.optim.nonlinear.scalar.ObjectiveFunction;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.NelderMeadSimplex;
+import org.apache.commons.math3.optim.nonlinear.scalar.noderiv.SimplexOptimizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One-step-ahead forecaster for a single evenly spaced series, using additive exponential
+ * smoothing models in innovations state-space form:
+ *
+ *   forecast = l + phi b,    e = y - forecast,    l' = l + phi b + alpha e,    b' = phi b + beta e
+ *
+ * These are the steady-state Kalman filters of ARIMA(0,1,1) (LEVEL), ARIMA(0,2,2) (TREND) and
+ * ARIMA(1,1,2) (DAMPED_TREND), so each observation updates the state and the forecast in O(1).
+ *
+ * {@link #fit} picks the model by AIC and estimates its smoothing parameters on a window by
+ * minimizing the one-step squared errors with Nelder-Mead. It is meant to be called only
+ * occasionally; between fits the state is updated with {@link #update}. Instances hold one
+ * series and share no state, so separate series can be forecast in parallel.
+ */
+public class StateSpaceForecaster {
+    private static final Logger log = LoggerFactory.getLogger(StateSpaceForecaster.class);
+    // Damping parameter is kept in [MIN_PHI, MAX_PHI], the usual range for damped trends
+    private static final double MIN_PHI = 0.8;
+    private static final double MAX_PHI = 0.98;
+    private static final int MAX_EVALUATIONS = 1000;
+    // Series shorter than this are forecast with the last value
+    private static final int MIN_FIT_LENGTH = 3;
+
+    public enum Model {
+        LEVEL(1),
+        TREND(2),
+        DAMPED_TREND(3);
+
+        private final int numParameters;
+
+        Model(int numParameters) {
+            this.numParameters = numParameters;
+        }
+    }
+
+    private Model model = Model.LEVEL;
+    private double alpha = 1;
+    private double beta = 0;
+    private double phi = 1;
+
+    private double level;
+    private double trend;
+    private double errorVariance;
+    private boolean fitted = false;
+
+    /**
+     * Chooses the model and its parameters on series[offset..offset + length) and runs the
+     * filter through it, so the next forecast is for the observation after the window.
+     */
+    public void fit(double[] series, int offset, int length) {
+        if (length < MIN_FIT_LENGTH) {
+            model = Model.LEVEL;
+            alpha = 1;
+            beta = 0;
+            phi = 1;
+            initialize(series, offset, length);
+            for (int i = offset + 1; i < offset + length; i++) {
+                update(series[i]);
+            }
+            fitted = length > 0;
+            return;
+        }
+
+        double meanSquare = 0;
+        for (int i = offset; i < offset + length; i++) {
+            meanSquare += series[i] * series[i];
+        }
+        // Floor on the error variance, so exact fits still compare by number of parameters
+        double varianceFloor = 1e-12 * (meanSquare / length + 1e-300);
+
+        double bestAIC = Double.POSITIVE_INFINITY;
+        double[] bestParameters = null;
+        Model bestModel = null;
+        for (Model candidate : Model.values()) {
+            double[] parameters = estimate(candidate, series, offset, length);
+            double mse = sumSquaredErrors(candidate, parameters, series, offset, length) / (length - 1);
+            // Smoothing parameters plus the initial level (and trend)
+            int k = candidate.numParameters + (candidate == Model.LEVEL ? 1 : 2);
+            double aic = (length - 1) * Math.log(Math.max(mse, varianceFloor)) + 2 * k;
+            log.trace("{}: parameters {}, mse {}, AIC {}", candidate, parameters, mse, aic);
+            if (aic < bestAIC) {
+                bestAIC = aic;
+                bestParameters = parameters;
+                bestModel = candidate;
+            }
+        }
+
+        setParameters(bestModel, bestParameters);
+        initialize(series, offset, length);
+        double sse = 0;
+        for (int i = offset + 1; i < offset + length; i++) {
+            double error = series[i] - forecast();
+            sse += error * error;
+            update(series[i]);
+        }
+        errorVariance = sse / (length - 1);
+        fitted = true;
+        log.debug("fitted {} with alpha = {}, beta = {}, phi = {}", model, alpha, beta, phi);
+    }
+
+    private void initialize(double[] series, int offset, int length) {
+        level = length > 0 ? series[offset] : 0;
+        trend = (model != Model.LEVEL && length > 1) ? series[offset + 1] - series[offset] : 0;
+    }
+
+    /**
+     * @return unconstrained parameters minimizing the one-step squared errors
+     */
+    private double[] estimate(Model candidate, double[] series, int offset, int length) {
+        double[] start = new double[candidate.numParameters];
+        // alpha = 0.5, beta = 0.1 alpha, phi = 0.9
+        start[0] = 0;
+        if (candidate.numParameters > 1) {
+            start[1] = logit(0.1);
+        }
+        if (candidate.numParameters > 2) {
+            start[2] = logit((0.9 - MIN_PHI) / (MAX_PHI - MIN_PHI));
+        }
+        MultivariateFunction objective = parameters -> sumSquaredErrors(candidate, parameters, series, offset, length);
+        SimplexOptimizer optimizer = new SimplexOptimizer(1e-10, 1e-12);
+        PointValuePair optimum = optimizer.optimize(
+                new MaxEval(MAX_EVALUATIONS),
+                new ObjectiveFunction(objective),
+                GoalType.MINIMIZE,
+                new InitialGuess(start),
+                new NelderMeadSimplex(candidate.numParameters));
+        return optimum.getPoint();
+    }
+
+    /**
+     * Maps unconstrained parameters to 0 < alpha < 1, 0 < beta < alpha and MIN_PHI < phi < MAX_PHI.
+     */
+    private void setParameters(Model model, double[] parameters) {
+        this.model = model;
+        alpha = sigmoid(parameters[0]);
+        beta = model == Model.LEVEL ? 0 : alpha * sigmoid(parameters[1]);
+        phi = model == Model.DAMPED_TREND ? MIN_PHI + (MAX_PHI - MIN_PHI) * sigmoid(parameters[2]) : 1;
+    }
+
+    private static double sumSquaredErrors(Model model, double[] parameters,
+                                           double[] series, int offset, int length) {
+        double a = sigmoid(parameters[0]);
+        double b = model == Model.LEVEL ? 0 : a * sigmoid(parameters[1]);
+        double p = model == Model.DAMPED_TREND ? MIN_PHI + (MAX_PHI - MIN_PHI) * sigmoid(parameters[2]) : 1;
+        double l = series[offset];
+        double t = model == Model.LEVEL ? 0 : series[offset + 1] - series[offset];
+        double sse = 0;
+        for (int i = offset + 1; i < offset + length; i++) {
+            double error = series[i] - (l + p * t);
+            sse += error * error;
+            l = l + p * t + a * error;
+            t = p * t + b * error;
+        }
+        return sse;
+    }
+
+    private static double sigmoid(double x) {
+        return 1 / (1 + Math.exp(-x));
+    }
+
+    private static double logit(double p) {
+        return Math.log(p / (1 - p));
+    }
+
+    /**
+     * Adds the next observation, O(1).
+     */
+    public void update(double value) {
+        double error = value - forecast();
+        level = level + phi * trend + alpha * error;
+        trend = phi * trend + beta * error;
+    }
+
+    /**
+     * @return forecast for the next observation
+     */
+    public double forecast() {
+        return level + phi * trend;
+    }
+
+    /**
+     * @return forecast h steps ahead
+     */
+    public double forecast(int h) {
+        double damping = 0;
+        double power = 1;
+        for (int i = 0; i < h; i++) {
+            power *= phi;
+            damping += power;
+        }
+        return level + damping * trend;
+    }
+
+    /**
+     * @return variance of the one-step errors over the window the model was fitted on
+     */
+    public double getErrorVariance() {
+        return errorVariance;
+    }
+
+    public boolean isFitted() {
+        return fitted;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public double getPhi() {
+        return phi;
+    }
+}
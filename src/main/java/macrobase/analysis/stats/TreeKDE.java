@@ -4,11 +4,11 @@ import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
 import macrobase.datamodel.KDTree;
+import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class TreeKDE extends KDE {
@@ -22,8 +22,6 @@ public class TreeKDE extends KDE {
     // Leave this off until we have a more refined appromixation, saw very bad results with true
     private boolean approximateLeaves = false;
 
-    private int numScored = 0;
-
     public TreeKDE(MacroBaseConf conf) {
         super(conf);
         kdtreeLeafCapacity = conf.getInt(MacroBaseConf.KDTREE_LEAF_CAPACITY, MacroBaseDefaults.KDTREE_LEAF_CAPACITY);
@@ -31,15 +29,24 @@ public class TreeKDE extends KDE {
         proportionOfDataToUse = 1.0;
     }
 
+    /**
+     * Takes effect on the next call to train.
+     * @param approximateLeaves
+     */
     public void setApproximateLeaves(boolean approximateLeaves) {
         this.approximateLeaves = approximateLeaves;
     }
 
     @Override
-    public void train(List<Datum> data) {
-        this.setBandwidth(data);
+    protected List<Datum> selectPopulation(List<Datum> data) {
+        return data;
+    }
+
+    @Override
+    protected void buildModel(List<Datum> data) {
+        this.densityPopulation = data;
         log.debug("training kd-tree KDE on {} points", data.size());
-        this.kdtree = new KDTree(new ArrayList<>(data), kdtreeLeafCapacity);
+        this.kdtree = KDTree.build(data, kdtreeLeafCapacity);
         this.scoreScalingFactor = 1.0 / (bandwidthDeterminantSqrt * data.size());
         this.scoreScaleLog = Math.log(scoreScalingFactor);
 
@@ -47,31 +54,83 @@ public class TreeKDE extends KDE {
         this.onePointTolerance = bandwidthDeterminantSqrt * accuracy;
         log.info("using accuray = {}", accuracy);
         log.debug("onePointTolerance = {}", onePointTolerance);
+        this.model = new TreeModel(kernel, bandwidthToNegativeHalf, kdtree, accuracy, approximateLeaves, scoreScaleLog);
     }
 
-    private double scoreKDTree(KDTree tree, Datum datum) {
-        RealVector[] minMaxD = tree.getMinMaxDistanceVectors(datum);
-        double wMin = this.scaledKernelDensity(minMaxD[0]);
-        double wMax = this.scaledKernelDensity(minMaxD[1]);
-        if (wMin - wMax < accuracy) {
-            // Return the average of the scores
-            return 0.5 * (wMin + wMax) * tree.getnBelow();
-        } else {
-            if (tree.isLeaf()) {
-                if (approximateLeaves) {
-                    return tree.getnBelow() * this.scaledKernelDensity(tree.getMean());
+    /**
+     * Traversal of an immutable kd-tree, pruning nodes whose kernel
+     * contribution is bounded within the requested accuracy.
+     */
+    static class TreeModel extends KDEModel {
+        private final KDTree kdtree;
+        private final double accuracy;
+        private final boolean approximateLeaves;
+        private final double scoreScaleLog;
+
+        TreeModel(macrobase.analysis.stats.kernel.Kernel kernel,
+                  RealMatrix bandwidthToNegativeHalf,
+                  KDTree kdtree,
+                  double accuracy,
+                  boolean approximateLeaves,
+                  double scoreScaleLog) {
+            super(kernel, bandwidthToNegativeHalf);
+            this.kdtree = kdtree;
+            this.accuracy = accuracy;
+            this.approximateLeaves = approximateLeaves;
+            this.scoreScaleLog = scoreScaleLog;
+        }
+
+        @Override
+        protected double score(double[] query, Scratch s) {
+            double unscaledScore = scoreKDTree(kdtree, query, s);
+            // Note: return score with a minus sign, s.t. outliers are selected not inliers.
+            return -(Math.log(unscaledScore) + scoreScaleLog);
+        }
+
+        private double scoreKDTree(KDTree tree, double[] query, Scratch s) {
+            // Same bounds as KDTree.getMinMaxDistanceVectors, written into scratch buffers.
+            double[][] boundaries = tree.getBoundaries();
+            double[] minDifferences = s.difference;
+            double[] maxDifferences = s.secondary;
+            for (int i = 0; i < dimensions; i++) {
+                double deltaLo = query[i] - boundaries[i][0];
+                double deltaHi = boundaries[i][1] - query[i];
+                double minD = Math.abs(deltaLo);
+                double maxD = Math.abs(deltaHi);
+                if (minD < maxD) {
+                    minDifferences[i] = minD;
+                    maxDifferences[i] = maxD;
                 } else {
-                    double _score = 0.0;
-                    for (Datum child : tree.getItems()) {
-                        RealVector difference = datum.getMetrics().subtract(child.getMetrics());
-                        double _diff = this.scaledKernelDensity(difference);
-                        _score += _diff;
-                    }
-                    return _score;
+                    minDifferences[i] = maxD;
+                    maxDifferences[i] = minD;
                 }
-
+                if (deltaLo > 0 && deltaHi > 0) {
+                    minDifferences[i] = 0;
+                }
+            }
+            double wMin = scaledKernelDensity(minDifferences, s);
+            double wMax = scaledKernelDensity(maxDifferences, s);
+            if (wMin - wMax < accuracy) {
+                // Return the average of the scores
+                return 0.5 * (wMin + wMax) * tree.getnBelow();
             } else {
-                return scoreKDTree(tree.getHiChild(), datum) + scoreKDTree(tree.getLoChild(), datum);
+                if (tree.isLeaf()) {
+                    if (approximateLeaves) {
+                        return tree.getnBelow() * scaledKernelDensity(tree.getMean().toArray(), s);
+                    } else {
+                        double _score = 0.0;
+                        for (Datum child : tree.getItems()) {
+                            RealVector metrics = child.getMetrics();
+                            for (int i = 0; i < dimensions; i++) {
+                                s.difference[i] = query[i] - metrics.getEntry(i);
+                            }
+                            _score += scaledKernelDensity(s.difference, s);
+                        }
+                        return _score;
+                    }
+                } else {
+                    return scoreKDTree(tree.getHiChild(), query, s) + scoreKDTree(tree.getLoChild(), query, s);
+                }
             }
         }
     }
@@ -86,13 +145,7 @@ public class TreeKDE extends KDE {
      * an interpretable quantity. Use scoreDensity if you need the actual negative pdf.
      */
     public double score(Datum datum) {
-        numScored++;
-        if (numScored % 10000 == 0) {
-            log.debug("Scored {}", numScored);
-        }
-        double unscaledScore = scoreKDTree(kdtree, datum);
-        // Note: return score with a minus sign, s.t. outliers are selected not inliers.
-        return -(Math.log(unscaledScore) + scoreScaleLog);
+        return model.score(datum);
     }
 
     public double scoreDensity(Datum datum) {
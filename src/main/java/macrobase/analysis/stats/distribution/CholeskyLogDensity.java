@@ -0,0 +1,144 @@
+package macrobase.analysis.stats.distribution;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.NonPositiveDefiniteMatrixException;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.special.Gamma;
+
+/**
+ * Log density of a multivariate normal or Student-t distribution evaluated over primitive
+ * arrays. The lower Cholesky factor L of the covariance (Sigma = L L^T) and the log
+ * determinant are computed once, so each evaluation is a forward substitution for the
+ * Mahalanobis distance, O(D^2), with no matrix or vector allocation.
+ *
+ * Instances are immutable and can be evaluated from many threads, each with its own scratch.
+ */
+public class CholeskyLogDensity {
+    private static final double LOG_2_PI = Math.log(2 * Math.PI);
+
+    private final int D;
+    private final double[] mean;
+    // Rows of L, lower triangle packed: row i starts at i * (i + 1) / 2
+    private final double[] cholesky;
+    private final double logDeterminant;
+    // Degrees of freedom, or infinity for the normal distribution
+    private final double dof;
+    private final double logNormalizer;
+    private final ThreadLocal<double[]> scratch;
+
+    private CholeskyLogDensity(RealVector mean, RealMatrix covariance, double dof) {
+        this.D = mean.getDimension();
+        this.mean = mean.toArray();
+        this.dof = dof;
+        this.scratch = ThreadLocal.withInitial(() -> new double[D]);
+        if (!(dof > 0)) {
+            // Degenerate predictive distribution, zero density everywhere
+            this.cholesky = null;
+            this.logDeterminant = Double.NaN;
+            this.logNormalizer = Double.NEGATIVE_INFINITY;
+            return;
+        }
+        this.cholesky = choleskyFactor(covariance);
+        double logDet = 0;
+        for (int i = 0; i < D; i++) {
+            logDet += Math.log(cholesky[i * (i + 1) / 2 + i]);
+        }
+        this.logDeterminant = 2 * logDet;
+        if (Double.isInfinite(dof)) {
+            this.logNormalizer = -0.5 * (D * LOG_2_PI + logDeterminant);
+        } else {
+            this.logNormalizer = Gamma.logGamma(0.5 * (D + dof)) - Gamma.logGamma(0.5 * dof)
+                    - 0.5 * D * Math.log(Math.PI * dof) - 0.5 * logDeterminant;
+        }
+    }
+
+    public static CholeskyLogDensity normal(RealVector mean, RealMatrix covariance) {
+        return new CholeskyLogDensity(mean, covariance, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * A non-positive number of degrees of freedom gives a distribution with zero density.
+     */
+    public static CholeskyLogDensity studentT(RealVector mean, RealMatrix scale, double degreesOfFreedom) {
+        return new CholeskyLogDensity(mean, scale, degreesOfFreedom);
+    }
+
+    /**
+     * Only the lower triangle of the matrix is read, so round-off asymmetry is harmless.
+     */
+    private static double[] choleskyFactor(RealMatrix matrix) {
+        final int D = matrix.getRowDimension();
+        double[] L = new double[D * (D + 1) / 2];
+        for (int i = 0; i < D; i++) {
+            int rowI = i * (i + 1) / 2;
+            for (int j = 0; j <= i; j++) {
+                int rowJ = j * (j + 1) / 2;
+                double sum = matrix.getEntry(i, j);
+                for (int k = 0; k < j; k++) {
+                    sum -= L[rowI + k] * L[rowJ + k];
+                }
+                if (i == j) {
+                    if (!(sum > 0)) {
+                        throw new NonPositiveDefiniteMatrixException(sum, i, 0);
+                    }
+                    L[rowI + i] = Math.sqrt(sum);
+                } else {
+                    L[rowI + j] = sum / L[rowJ + j];
+                }
+            }
+        }
+        return L;
+    }
+
+    public int getDimension() {
+        return D;
+    }
+
+    public double getLogDeterminant() {
+        return logDeterminant;
+    }
+
+    /**
+     * (x - mu)^T Sigma^-1 (x - mu) for x = points[offset..offset + D).
+     * @param scratch array of length D
+     */
+    public double mahalanobis(double[] points, int offset, double[] scratch) {
+        // Solve L y = x - mu; the distance is |y|^2
+        double distance = 0;
+        for (int i = 0; i < D; i++) {
+            int row = i * (i + 1) / 2;
+            double sum = points[offset + i] - mean[i];
+            for (int k = 0; k < i; k++) {
+                sum -= cholesky[row + k] * scratch[k];
+            }
+            double y = sum / cholesky[row + i];
+            scratch[i] = y;
+            distance += y * y;
+        }
+        return distance;
+    }
+
+    /**
+     * @param scratch array of length D
+     */
+    public double logDensity(double[] points, int offset, double[] scratch) {
+        if (cholesky == null) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double distance = mahalanobis(points, offset, scratch);
+        if (Double.isInfinite(dof)) {
+            return logNormalizer - 0.5 * distance;
+        }
+        return logNormalizer - 0.5 * (dof + D) * Math.log1p(distance / dof);
+    }
+
+    public double logDensity(double[] point) {
+        return logDensity(point, 0, scratch.get());
+    }
+
+    public double logDensity(RealVector vector) {
+        double[] point = (vector instanceof ArrayRealVector) ? ((ArrayRealVector) vector).getDataRef() : vector.toArray();
+        return logDensity(point, 0, scratch.get());
+    }
+}
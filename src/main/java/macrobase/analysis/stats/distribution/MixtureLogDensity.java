@@ -0,0 +1,182 @@
+package macrobase.analysis.stats.distribution;
+
+import macrobase.analysis.stats.ParallelChunks;
+
+import java.util.List;
+
+/**
+ * Weighted mixture of {@link CholeskyLogDensity} components, evaluated in log space.
+ *
+ * Per point, log w_k + log p_k(x) is computed for all K components and combined with
+ * log-sum-exp, so neither the mixture density nor the responsibilities underflow far from
+ * the data or in high dimensions. Batch methods score a row-major block of points against
+ * all components in parallel chunks.
+ */
+public class MixtureLogDensity {
+    private final int K;
+    private final int D;
+    private final CholeskyLogDensity[] components;
+    private final double[] logWeights;
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Per-thread buffers for scoring a single point.
+     */
+    public static class Scratch {
+        private final double[] point;
+        private final double[] logJoint;
+
+        public Scratch(int K, int D) {
+            this.point = new double[D];
+            this.logJoint = new double[K];
+        }
+    }
+
+    /**
+     * @param weights mixing weights, need not be normalized; components with zero weight are skipped
+     */
+    public MixtureLogDensity(double[] weights, List<CholeskyLogDensity> components) {
+        this.K = components.size();
+        this.D = components.get(0).getDimension();
+        this.components = components.toArray(new CholeskyLogDensity[K]);
+        this.logWeights = new double[K];
+        for (int k = 0; k < K; k++) {
+            logWeights[k] = Math.log(weights[k]);
+        }
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(K, D));
+    }
+
+    public int getNumComponents() {
+        return K;
+    }
+
+    public int getDimension() {
+        return D;
+    }
+
+    /**
+     * Fills logJoint[k] = log w_k + log p_k(x) for x = points[offset..offset + D).
+     * @return log of the mixture density at x
+     */
+    public double logJoint(double[] points, int offset, double[] logJoint, Scratch s) {
+        for (int k = 0; k < K; k++) {
+            logJoint[k] = logWeights[k] == Double.NEGATIVE_INFINITY
+                    ? Double.NEGATIVE_INFINITY
+                    : logWeights[k] + components[k].logDensity(points, offset, s.point);
+        }
+        return logSumExp(logJoint, K);
+    }
+
+    public double logDensity(double[] points, int offset, Scratch s) {
+        return logJoint(points, offset, s.logJoint, s);
+    }
+
+    public double logDensity(double[] point) {
+        return logDensity(point, 0, scratch.get());
+    }
+
+    /**
+     * Fills posterior[k] with the probability that x was drawn from component k.
+     * @return log of the mixture density at x
+     */
+    public double posterior(double[] points, int offset, double[] posterior, Scratch s) {
+        double logDensity = logJoint(points, offset, posterior, s);
+        for (int k = 0; k < K; k++) {
+            posterior[k] = Math.exp(posterior[k] - logDensity);
+        }
+        return logDensity;
+    }
+
+    public double[] posterior(double[] point) {
+        double[] posterior = new double[K];
+        posterior(point, 0, posterior, scratch.get());
+        return posterior;
+    }
+
+    public Scratch newScratch() {
+        return new Scratch(K, D);
+    }
+
+    /**
+     * @param points N x D row-major points
+     * @return log mixture density of each point
+     */
+    public double[] logDensities(double[] points) {
+        final int N = points.length / D;
+        double[] out = new double[N];
+        ParallelChunks.forEach(N, (from, to) -> {
+            Scratch s = newScratch();
+            for (int n = from; n < to; n++) {
+                out[n] = logDensity(points, n * D, s);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * @param points N x D row-major points
+     * @return N x K row-major component posteriors
+     */
+    public double[] posteriors(double[] points) {
+        final int N = points.length / D;
+        double[] out = new double[N * K];
+        ParallelChunks.forEach(N, (from, to) -> {
+            Scratch s = newScratch();
+            for (int n = from; n < to; n++) {
+                posterior(points, n * D, s.logJoint, s);
+                System.arraycopy(s.logJoint, 0, out, n * K, K);
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Finds the most likely component of each point without materializing the posteriors;
+     * comparing log w_k + log p_k(x) is enough for the argmax.
+     * @param points N x D row-major points
+     * @param preferred component that wins ties
+     * @param preferredPosterior if not null, filled with the posterior of the preferred component
+     * @return index of the most likely component of each point
+     */
+    public int[] mostLikelyComponents(double[] points, int preferred, double[] preferredPosterior) {
+        final int N = points.length / D;
+        int[] out = new int[N];
+        ParallelChunks.forEach(N, (from, to) -> {
+            Scratch s = newScratch();
+            double[] logJoint = s.logJoint;
+            for (int n = from; n < to; n++) {
+                double logDensity = logJoint(points, n * D, logJoint, s);
+                int best = preferred;
+                for (int k = 0; k < K; k++) {
+                    if (logJoint[k] > logJoint[best]) {
+                        best = k;
+                    }
+                }
+                out[n] = best;
+                if (preferredPosterior != null) {
+                    preferredPosterior[n] = Double.isInfinite(logDensity)
+                            ? 0 : Math.exp(logJoint[preferred] - logDensity);
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * log(sum_i exp(values[i])) over the first length values, without overflow or underflow.
+     */
+    public static double logSumExp(double[] values, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, values[i]);
+        }
+        if (Double.isInfinite(max)) {
+            return max;
+        }
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.exp(values[i] - max);
+        }
+        return max + Math.log(sum);
+    }
+}
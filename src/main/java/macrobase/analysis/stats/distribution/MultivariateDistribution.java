@@ -4,4 +4,8 @@ import org.apache.commons.math3.linear.RealVector;
 
 public interface MultivariateDistribution {
     double density(RealVector vector);
+
+    default double logDensity(RealVector vector) {
+        return Math.log(density(vector));
+    }
 }
@@ -5,24 +5,45 @@ import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 
 /**
- * Wrapper around MultivariateNormalDistribution that operates with RealVector and RealMatrix
+ * Multivariate normal distribution that operates with RealVector and RealMatrix,
+ * evaluated through a cached Cholesky factor of the covariance.
  */
 public class MultivariateNormal implements MultivariateDistribution {
-    private MultivariateNormalDistribution distribution;
+    private final RealVector mean;
+    private final RealMatrix sigma;
+    private final CholeskyLogDensity logDensity;
 
     public MultivariateNormal(RealVector mean, RealMatrix sigma) {
-        double[][] arrayOfMatrix = new double[sigma.getColumnDimension()][sigma.getRowDimension()];
-        for (int i = 0; i < sigma.getColumnDimension(); i++) {
-            arrayOfMatrix[i] = sigma.getRow(i);
-        }
-        distribution = new MultivariateNormalDistribution(mean.toArray(), arrayOfMatrix);
+        this.mean = mean;
+        this.sigma = sigma;
+        this.logDensity = CholeskyLogDensity.normal(mean, sigma);
     }
 
     public double density(RealVector vector) {
-        return distribution.density(vector.toArray());
+        return Math.exp(logDensity.logDensity(vector));
     }
 
+    public double density(double[] vector) {
+        return Math.exp(logDensity.logDensity(vector));
+    }
+
+    @Override
+    public double logDensity(RealVector vector) {
+        return logDensity.logDensity(vector);
+    }
+
+    public double logDensity(double[] vector) {
+        return logDensity.logDensity(vector);
+    }
+
+    public CholeskyLogDensity getLogDensity() {
+        return logDensity;
+    }
+
+    /**
+     * @return an equivalent commons-math distribution, built on each call
+     */
     public MultivariateNormalDistribution getDistribution() {
-        return distribution;
+        return new MultivariateNormalDistribution(mean.toArray(), sigma.getData());
     }
 }
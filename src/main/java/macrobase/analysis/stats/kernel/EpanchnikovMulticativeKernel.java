@@ -2,17 +2,26 @@ package macrobase.analysis.stats.kernel;
 
 import org.apache.commons.math3.linear.RealVector;
 
+import java.util.Arrays;
+
 public class EpanchnikovMulticativeKernel extends Kernel {
     private int dimensions;
     private double norm;
     private double secondMoment;
     private final double secondMoment1D = 0.2;
     private final double norm1D = 0.6;
+    // 0.75^dimensions, the normalizing constant of the product kernel
+    private final double densityConstant;
 
     public EpanchnikovMulticativeKernel(int dimensions) {
         this.dimensions = dimensions;
         this.norm = Math.pow(this.norm1D(), this.dimensions);
         this.secondMoment = Math.pow(this.secondMoment1D(), this.dimensions);
+        this.densityConstant = Math.pow(0.75, this.dimensions);
+    }
+
+    private double densityConstant(int d) {
+        return d == dimensions ? densityConstant : Math.pow(0.75, d);
     }
 
     @Override
@@ -26,7 +35,47 @@ public class EpanchnikovMulticativeKernel extends Kernel {
             }
             rtn *= 1 - i2;
         }
-        return Math.pow(0.75, d) * rtn;
+        return densityConstant(d) * rtn;
+    }
+
+    @Override
+    public double density(double[] u) {
+        double rtn = 1.0;
+        for (int i = 0; i < u.length; i++) {
+            rtn *= Math.max(0, 1 - u[i] * u[i]);
+        }
+        return densityConstant(u.length) * rtn;
+    }
+
+    @Override
+    public double scaledDensity(double[] x, double[] y, int yOffset, double[] scales) {
+        double rtn = 1.0;
+        for (int i = 0; i < x.length; i++) {
+            double u = (x[i] - y[yOffset + i]) * scales[i];
+            rtn *= Math.max(0, 1 - u * u);
+        }
+        return densityConstant(x.length) * rtn;
+    }
+
+    @Override
+    public double sumScaledDensities(double[] x, double[][] columns, int from, int to, double[] scales, double[] buffer) {
+        // Branch-free loops over contiguous columns so the JIT can vectorize across points.
+        final int n = to - from;
+        Arrays.fill(buffer, 0, n, 1.0);
+        for (int i = 0; i < x.length; i++) {
+            final double[] column = columns[i];
+            final double xi = x[i];
+            final double scale = scales[i];
+            for (int j = 0; j < n; j++) {
+                double u = (xi - column[from + j]) * scale;
+                buffer[j] *= Math.max(0, 1 - u * u);
+            }
+        }
+        double sum = 0;
+        for (int j = 0; j < n; j++) {
+            sum += buffer[j];
+        }
+        return densityConstant(x.length) * sum;
     }
 
     @Override
@@ -1,10 +1,44 @@
 package macrobase.analysis.stats.kernel;
 
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
 
 public abstract class Kernel {
     public abstract double density(RealVector u);
 
+    public double density(double[] u) {
+        return density(new ArrayRealVector(u, false));
+    }
+
+    /**
+     * Density of the kernel at (x - y[yOffset..]) scaled elementwise by a diagonal
+     * bandwidth, i.e. K(diag(scales) * (x - y)). Kernels should override this with an
+     * allocation-free loop.
+     */
+    public double scaledDensity(double[] x, double[] y, int yOffset, double[] scales) {
+        double[] u = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            u[i] = (x[i] - y[yOffset + i]) * scales[i];
+        }
+        return density(u);
+    }
+
+    /**
+     * Sum of scaledDensity(x, point) over points [from, to) stored column-wise, with
+     * columns[i][j] the i-th coordinate of point j. buffer must hold to - from entries.
+     */
+    public double sumScaledDensities(double[] x, double[][] columns, int from, int to, double[] scales, double[] buffer) {
+        double[] point = new double[x.length];
+        double sum = 0;
+        for (int j = from; j < to; j++) {
+            for (int i = 0; i < x.length; i++) {
+                point[i] = columns[i][j];
+            }
+            sum += scaledDensity(x, point, 0, scales);
+        }
+        return sum;
+    }
+
     public abstract double norm();
 
     public abstract double norm1D();
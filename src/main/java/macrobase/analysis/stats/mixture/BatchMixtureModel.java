@@ -3,9 +3,13 @@ package macrobase.analysis.stats.mixture;
 import com.google.gson.Gson;
 import com.google.gson.stream.JsonReader;
 import macrobase.analysis.stats.BatchTrainScore;
+import macrobase.analysis.stats.ParallelChunks;
+import macrobase.analysis.stats.PersistentModel;
+import macrobase.analysis.stats.distribution.MixtureLogDensity;
 import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
 import org.apache.commons.lang3.NotImplementedException;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -20,13 +24,21 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-public abstract class BatchMixtureModel extends BatchTrainScore {
+public abstract class BatchMixtureModel extends BatchTrainScore implements PersistentModel {
     private static final Logger log = LoggerFactory.getLogger(BatchMixtureModel.class);
     protected final double progressCutoff;
     protected final int maxIterationsToConverge;
     protected MacroBaseConf conf;
     protected double trainTestSplit;
     protected final String initialClusterCentersFile;
+    protected final CenterInitialization centerInitialization;
+
+    public enum CenterInitialization {
+        // Farthest-point traversal, O(N K^2)
+        GONZALEZ,
+        // k-means|| seeding refined with mini-batch k-means, O(N K) per pass and parallel
+        KMEANS_PARALLEL,
+    }
 
     public BatchMixtureModel(MacroBaseConf conf) {
         super(conf);
@@ -36,6 +48,7 @@ public abstract class BatchMixtureModel extends BatchTrainScore {
         trainTestSplit = conf.getDouble(MacroBaseConf.TRAIN_TEST_SPLIT, MacroBaseDefaults.TRAIN_TEST_SPLIT);
         log.debug("max iter = {}", maxIterationsToConverge);
         this.initialClusterCentersFile = conf.getString(MacroBaseConf.MIXTURE_CENTERS_FILE, null);
+        this.centerInitialization = conf.getMixtureCenterInitialization();
     }
 
     public static List<RealVector> initializeClustersFromFile(String filename, int K) throws FileNotFoundException {
@@ -76,6 +89,30 @@ public abstract class BatchMixtureModel extends BatchTrainScore {
         return gonzalezInitializeMixtureCenters(vectors, data, K, rand);
     }
 
+    /**
+     * Picks K initial cluster centers, keeping the given ones.
+     */
+    public static List<RealVector> initializeMixtureCenters(List<RealVector> pickedVectors, List<Datum> data, int K, Random rand, CenterInitialization initialization) {
+        switch (initialization) {
+            case GONZALEZ:
+                if (pickedVectors.isEmpty()) {
+                    return gonzalezInitializeMixtureCenters(data, K, rand);
+                }
+                return gonzalezInitializeMixtureCenters(pickedVectors, data, K, rand);
+            case KMEANS_PARALLEL:
+                return new KMeansInitializer(rand).initialize(pickedVectors,
+                                                              AlgebraUtils.flattenMetrics(data),
+                                                              data.get(0).getMetrics().getDimension(),
+                                                              K);
+            default:
+                throw new RuntimeException("Unhandled center initialization " + initialization);
+        }
+    }
+
+    public static List<RealVector> initializeMixtureCenters(List<Datum> data, int K, Random rand, CenterInitialization initialization) {
+        return initializeMixtureCenters(new ArrayList<>(), data, K, rand, initialization);
+    }
+
     /**
      * @return centers of mixtures
      */
@@ -93,6 +130,54 @@ public abstract class BatchMixtureModel extends BatchTrainScore {
 
     public abstract double[] getClusterProbabilities(Datum d);
 
+    /**
+     * @return the trained mixture density used for scoring
+     */
+    protected abstract MixtureLogDensity getMixtureDensity();
+
+    /**
+     * Cluster probabilities of a whole batch, computed in parallel.
+     * @param points N x D row-major points, e.g. from AlgebraUtils.flattenMetrics
+     * @return N x K row-major block, row n holding the probabilities of point n
+     */
+    public double[] getClusterProbabilities(double[] points) {
+        return getMixtureDensity().posteriors(points);
+    }
+
+    /**
+     * Most likely cluster of every point in a batch, without materializing the N x K
+     * probability block.
+     * @param points N x D row-major points
+     * @param preferredCluster cluster that wins ties
+     * @param preferredProbabilities if not null, filled with the probability of each point
+     *                               belonging to preferredCluster
+     */
+    public int[] getMostLikelyClusters(double[] points, int preferredCluster, double[] preferredProbabilities) {
+        return getMixtureDensity().mostLikelyComponents(points, preferredCluster, preferredProbabilities);
+    }
+
+    /**
+     * Argmax of each row of an N x K probability block, in parallel.
+     * @param preferredCluster cluster that wins ties
+     */
+    public static int[] mostLikelyClusters(double[] probabilities, int K, int preferredCluster) {
+        final int N = probabilities.length / K;
+        int[] out = new int[N];
+        ParallelChunks.forEach(N, (from, to) -> {
+            for (int n = from; n < to; n++) {
+                int row = n * K;
+                int best = preferredCluster;
+                for (int k = 0; k < K; k++) {
+                    if (probabilities[row + k] > probabilities[row + best]) {
+                        best = k;
+                    }
+                }
+                out[n] = best;
+            }
+        });
+        return out;
+    }
+
 
     @Override
     public double getZScoreEquivalent(double zscore) {
@@ -100,9 +185,13 @@ public abstract class BatchMixtureModel extends BatchTrainScore {
     }
 
     public boolean checkTermination(double logLikelihood, double oldLogLikelihood, int iteration) {
+        return checkTermination(logLikelihood, oldLogLikelihood, iteration, maxIterationsToConverge);
+    }
+
+    public boolean checkTermination(double logLikelihood, double oldLogLikelihood, int iteration, int maxIterations) {
         log.debug("average point log likelihood after iteration {} is {}", iteration, logLikelihood);
 
-        if (iteration >= maxIterationsToConverge) {
+        if (iteration >= maxIterations) {
             log.debug("Breaking because have already run {} iterations", iteration);
             return true;
         }
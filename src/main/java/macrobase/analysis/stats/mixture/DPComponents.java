@@ -4,6 +4,10 @@ import org.apache.commons.math3.special.Gamma;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 /**
  * DPComponents represents mixing components that are mixing components of a DP distribution.
  * This class implements methods used for running variational inference
@@ -42,34 +46,45 @@ public class DPComponents implements MixingComponents {
     }
 
     @Override
-    public void update(double[][] r) {
-        int N = r.length;
-        for (int t = 0; t < shapeParams.length; t++) {
-            shapeParams[t][0] = 1;
-            shapeParams[t][1] = concentrationParameter;
-            for (int n = 0; n < N; n++) {
-                shapeParams[t][0] += r[n][t];
-                for (int j = t + 1; j < T; j++) {
-                    shapeParams[t][1] += r[n][j];
-                }
-            }
+    public void update(double[] clusterWeight) {
+        double weightAfter = 0;
+        for (int t = T - 1; t >= 0; t--) {
+            shapeParams[t][0] = 1 + clusterWeight[t];
+            shapeParams[t][1] = concentrationParameter + weightAfter;
+            weightAfter += clusterWeight[t];
+        }
+    }
+
+    @Override
+    public void moveNatural(double[] clusterWeight, double pace, double repeat) {
+        double weightAfter = 0;
+        for (int t = T - 1; t >= 0; t--) {
+            shapeParams[t][0] = VariationalInference.step(shapeParams[t][0], 1 + repeat * clusterWeight[t], pace);
+            shapeParams[t][1] = VariationalInference.step(shapeParams[t][1], concentrationParameter + repeat * weightAfter, pace);
+            weightAfter += clusterWeight[t];
+        }
+    }
+
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(T);
+        out.writeDouble(concentrationParameter);
+        for (int t = 0; t < T; t++) {
+            out.writeDouble(shapeParams[t][0]);
+            out.writeDouble(shapeParams[t][1]);
         }
     }
 
     @Override
-    public void moveNatural(double[][] r, double pace, double repeat) {
-        int N = r.length;
-        double[] shape;
-        for (int t = 0; t < shapeParams.length; t++) {
-            shape = new double[2];
-            for (int n = 0; n < N; n++) {
-                shape[0] += r[n][t];
-                for (int j = t + 1; j < T; j++) {
-                    shape[1] += r[n][j];
-                }
-            }
-            shapeParams[t][0] = VariationalInference.step(shapeParams[t][0], 1 + repeat * shape[0], pace);
-            shapeParams[t][1] = VariationalInference.step(shapeParams[t][1], concentrationParameter + repeat * shape[1], pace);
+    public void read(DataInputStream in) throws IOException {
+        int savedT = in.readInt();
+        if (savedT != T) {
+            throw new IOException(String.format("saved model has truncation %d, expected %d", savedT, T));
+        }
+        concentrationParameter = in.readDouble();
+        for (int t = 0; t < T; t++) {
+            shapeParams[t][0] = in.readDouble();
+            shapeParams[t][1] = in.readDouble();
         }
     }
 
@@ -24,13 +24,21 @@ public class DPGMM extends VarGMM {
         mixingComponents = new DPComponents(concentrationParameter, T);
     }
 
-    public void trainTest(List<Datum> trainData, List<Datum> testData) {
-        // 0. Initialize all approximating factors
-        clusters = new NormalWishartClusters(T, trainData.get(0).getMetrics().getDimension());
-        clusters.initializeBaseForDP(trainData);
-        clusters.initializeAtomsForDP(trainData, initialClusterCentersFile, conf.getRandom());
+    @Override
+    protected void initializeFactors(List<Datum> initialData) {
+        clusters = new NormalWishartClusters(T, initialData.get(0).getMetrics().getDimension());
+        clusters.initializeBaseForDP(initialData);
+        clusters.initializeAtomsForDP(initialData, initialClusterCentersFile, conf.getRandom(), centerInitialization);
+    }
+
+    @Override
+    protected void runInference(List<Datum> trainData, List<Datum> testData, int maxIterations) {
+        VariationalInference.trainTestMeanField(this, trainData, testData, mixingComponents, clusters, maxIterations);
+    }
 
-        VariationalInference.trainTestMeanField(this, trainData, testData, mixingComponents, clusters);
+    @Override
+    protected MixingComponents getMixingComponents() {
+        return mixingComponents;
     }
 
     @Override
@@ -1,14 +1,21 @@
 package macrobase.analysis.stats.mixture;
 
-import macrobase.analysis.stats.distribution.MultivariateNormal;
+import macrobase.analysis.stats.ModelStore;
+import macrobase.analysis.stats.ParallelChunks;
+import macrobase.analysis.stats.distribution.CholeskyLogDensity;
+import macrobase.analysis.stats.distribution.MixtureLogDensity;
 import macrobase.conf.MacroBaseConf;
 import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
 import macrobase.util.TrainTestSpliter;
 import org.apache.commons.math3.linear.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,7 +26,7 @@ public class ExpectMaxGMM extends BatchMixtureModel {
     private double[] phi;  // Mixing coefficients, K vector
     private List<RealVector> mu;  // Means of Gaussians
     private List<RealMatrix> sigma;  // Covariances of Gaussians
-    private List<MultivariateNormal> mixtureDistributions;
+    private MixtureLogDensity mixtureDensity;
     private double EMCutoffProgress;
 
     public ExpectMaxGMM(MacroBaseConf conf) {
@@ -47,7 +54,6 @@ public class ExpectMaxGMM extends BatchMixtureModel {
         //    and evaluate the initial value of the log likelihood.
         mu = new ArrayList<>(this.K);
         phi = new double[K];
-        mixtureDistributions = new ArrayList<>(K);
         sigma = new ArrayList<>(K);
         // Initialize cluster means using Gonzalez algorithm (takes O(KN) time).
         // ..Almost the same as one iteration of EM
@@ -56,75 +62,144 @@ public class ExpectMaxGMM extends BatchMixtureModel {
         // Picking points uniformly does not work, because it sometimes leads
         // to a local maximum in EM optimization where two cluster are replaces with
         // twice the cluster that represents both.
-        mu = this.gonzalezInitializeMixtureCenters(trainData, this.K, conf.getRandom());
+        // KMEANS_PARALLEL seeding spreads the centers the same way at O(N K) cost per pass.
+        mu = initializeMixtureCenters(trainData, this.K, conf.getRandom(), centerInitialization);
         for (int k = 0; k < K; k++) {
             sigma.add(MatrixUtils.createRealIdentityMatrix(dimensions));
-            mixtureDistributions.add(new MultivariateNormal(mu.get(k), sigma.get(k)));
             phi[k] = 1. / K;
         }
+        updateMixtureDensity();
 
-        // EM algorithm;
+        runEM(trainData, testData, maxIterationsToConverge);
+    }
+
+    /**
+     * Runs EM from the current parameters until the log likelihood stops improving or
+     * maxIterations M steps have been taken.
+     */
+    private void runEM(List<Datum> trainData, List<Datum> testData, int maxIterations) {
+        int N = trainData.size();
+        int dimensions = trainData.get(0).getMetrics().getDimension();
+
+        // EM algorithm. Each pass over the training data computes the responsibilities
+        // under the current parameters and folds them straight into per-thread sufficient
+        // statistics, so the N x K responsibility matrix is never materialized.
+        final double[] trainPoints = AlgebraUtils.flattenMetrics(trainData);
+        final double[] testPoints = (testData == trainData) ? trainPoints : AlgebraUtils.flattenMetrics(testData);
         double logLikelihood = -Double.MAX_VALUE;
-        for (int iteration = 0; iteration < maxIterationsToConverge; iteration++) {
+        for (int iteration = 0; ; iteration++) {
             // 2. E step. Evaluate the responsibilities using the current parameter values.
-            double[][] gamma = new double[N][K];
-            double[] clusterWeight = new double[N];  // N_k (Bishop)
-            for (int n = 0; n < N; n++) {
-                double normalizingConstant = 0;
-                for (int k = 0; k < K; k++) {
-                    gamma[n][k] = phi[k] * mixtureDistributions.get(k).density(trainData.get(n).getMetrics());
-                    normalizingConstant += gamma[n][k];
+            SufficientStatistics statistics = accumulateStatistics(trainPoints, dimensions);
+
+            // 4. Evaluate the log likelihood of the parameters from the previous M step.
+            //    When testing on the training data it falls out of the E step for free.
+            if (iteration > 0) {
+                double oldLogLikelihood = logLikelihood;
+                if (testPoints == trainPoints) {
+                    logLikelihood = statistics.getLogLikelihood() / N;
+                } else {
+                    logLikelihood = logLikelihood(testPoints) / testData.size();
                 }
-                for (int k = 0; k < K; k++) {
-                    gamma[n][k] /= normalizingConstant;
-                    clusterWeight[k] += gamma[n][k];
+
+                log.debug("per point log likelihood after iteration {} is {}", iteration - 1, logLikelihood);
+
+                log.debug("cluster likelihoods are: {}", phi);
+                log.debug("cluster centers are at {}", mu);
+                log.debug("cluster covariances are at {}", sigma);
+
+                double improvement = (logLikelihood - oldLogLikelihood) / (-logLikelihood);
+                if (improvement >= 0 && improvement < this.EMCutoffProgress) {
+                    log.debug("Breaking because improvement was {} percent", improvement * 100);
+                    break;
+                } else {
+                    log.debug("improvement is : {}%", improvement * 100);
                 }
             }
+            if (iteration >= maxIterations) {
+                break;
+            }
 
             // 3. M step. Re-estimate the parameters using the current responsibilities.
             for (int k = 0; k < K; k++) {
-                RealVector newMu = new ArrayRealVector(dimensions);
-                for (int n = 0; n < N; n++) {
-                    newMu = newMu.add(trainData.get(n).getMetrics().mapMultiply(gamma[n][k]));
-                }
-                newMu = newMu.mapDivide(clusterWeight[k]);
-                RealMatrix newSigma = new BlockRealMatrix(dimensions, dimensions);
-                mu.set(k, newMu);
-                for (int n = 0; n < N; n++) {
-                    RealVector _diff = trainData.get(n).getMetrics().subtract(newMu);
-                    newSigma = newSigma.add(_diff.outerProduct(_diff).scalarMultiply(gamma[n][k]));
-                }
-                newSigma = newSigma.scalarMultiply(1. / clusterWeight[k]);
-                sigma.set(k, newSigma);
-                phi[k] = clusterWeight[k] / N;
+                double clusterWeight = statistics.getWeight(k);  // N_k (Bishop)
+                mu.set(k, statistics.getMean(k));
+                sigma.set(k, statistics.getCovariance(k));
+                phi[k] = clusterWeight / N;
             }
+            updateMixtureDensity();
+        }
+    }
 
-            // 4. Evaluate the log likelihood
-            for (int k = 0; k < this.K; k++) {
-                mixtureDistributions.set(k, new MultivariateNormal(mu.get(k), sigma.get(k)));
-            }
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        ModelStore.writeDoubles(out, phi);
+        ModelStore.writeVectors(out, mu);
+        ModelStore.writeMatrices(out, sigma);
+    }
 
-            double oldLogLikelihood = logLikelihood;
-            logLikelihood = 0;
-            for (int n = 0; n < testData.size(); n++) {
-                logLikelihood += score(testData.get(n));
-            }
-            logLikelihood /= testData.size();
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        double[] savedPhi = ModelStore.readDoubles(in);
+        if (savedPhi.length != K) {
+            throw new IOException(String.format("saved model has %d mixtures, expected %d", savedPhi.length, K));
+        }
+        phi = savedPhi;
+        mu = ModelStore.readVectors(in);
+        sigma = ModelStore.readMatrices(in);
+        updateMixtureDensity();
+    }
 
-            log.debug("per point log likelihood after iteration {} is {}", iteration, logLikelihood);
+    /**
+     * Runs at most maxIterations EM iterations starting from the current parameters.
+     */
+    @Override
+    public void refine(List<Datum> data, int maxIterations) {
+        runEM(data, data, maxIterations);
+    }
 
-            log.debug("cluster likelihoods are: {}", phi);
-            log.debug("cluster centers are at {}", mu);
-            log.debug("cluster covariances are at {}", sigma);
+    private void updateMixtureDensity() {
+        List<CholeskyLogDensity> components = new ArrayList<>(K);
+        for (int k = 0; k < K; k++) {
+            components.add(CholeskyLogDensity.normal(mu.get(k), sigma.get(k)));
+        }
+        mixtureDensity = new MixtureLogDensity(phi, components);
+    }
 
-            double improvement = (logLikelihood - oldLogLikelihood) / (-logLikelihood);
-            if (improvement >= 0 && improvement < this.EMCutoffProgress) {
-                log.debug("Breaking because improvement was {} percent", improvement * 100);
-                break;
-            } else {
-                log.debug("improvement is : {}%", improvement * 100);
+    /**
+     * Computes responsibilities for all points in parallel chunks, each accumulating its own
+     * sufficient statistics (shifted by the current means), and reduces them.
+     */
+    private SufficientStatistics accumulateStatistics(double[] points, int dimensions) {
+        final int N = points.length / dimensions;
+        final double[] shifts = new double[K * dimensions];
+        for (int k = 0; k < K; k++) {
+            for (int i = 0; i < dimensions; i++) {
+                shifts[k * dimensions + i] = mu.get(k).getEntry(i);
             }
         }
+        final MixtureLogDensity density = mixtureDensity;
+        return ParallelChunks.reduce(N, (chunk, from, to) -> {
+            SufficientStatistics statistics = new SufficientStatistics(K, dimensions, shifts);
+            MixtureLogDensity.Scratch scratch = density.newScratch();
+            double[] centered = new double[dimensions];
+            double[] gamma = new double[K];
+            for (int n = from; n < to; n++) {
+                int offset = n * dimensions;
+                statistics.addLogLikelihood(density.posterior(points, offset, gamma, scratch));
+                for (int k = 0; k < K; k++) {
+                    statistics.add(k, points, offset, gamma[k], centered);
+                }
+            }
+            return statistics;
+        }, SufficientStatistics::merge);
+    }
+
+    private double logLikelihood(double[] points) {
+        double sum = 0;
+        for (double logDensity : mixtureDensity.logDensities(points)) {
+            sum += logDensity;
+        }
+        return sum;
     }
 
     /**
@@ -133,11 +208,7 @@ public class ExpectMaxGMM extends BatchMixtureModel {
      */
     @Override
     public double score(Datum datum) {
-        double probability = 0;
-        for (int k = 0; k < K; k++) {
-            probability += phi[k] * mixtureDistributions.get(k).density(datum.getMetrics());
-        }
-        return Math.log(probability);
+        return mixtureDensity.logDensity(datum.getMetrics().toArray());
     }
 
     @Override
@@ -155,18 +226,14 @@ public class ExpectMaxGMM extends BatchMixtureModel {
         return sigma;
     }
 
+    @Override
+    protected MixtureLogDensity getMixtureDensity() {
+        return mixtureDensity;
+    }
+
     @Override
     public double[] getClusterProbabilities(Datum d) {
-        double[] probas = new double[K];
-        double normalizingConstant = 0;
-        for (int k = 0; k < K; k++) {
-            probas[k] = phi[k] * mixtureDistributions.get(k).density(d.getMetrics());
-            normalizingConstant += probas[k];
-        }
-        for (int k = 0; k < K; k++) {
-            probas[k] /= normalizingConstant;
-        }
-        return probas;
+        return mixtureDensity.posterior(d.getMetrics().toArray());
     }
 
 }
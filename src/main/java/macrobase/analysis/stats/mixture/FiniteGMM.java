@@ -22,18 +22,26 @@ public class FiniteGMM extends VarGMM {
     public FiniteGMM(MacroBaseConf conf) {
         super(conf);
         this.K = conf.getInt(MacroBaseConf.NUM_MIXTURES, MacroBaseDefaults.NUM_MIXTURES);
+        mixingComponents = new MultiComponents(0.1, K);
         log.debug("created Gaussian MM with {} mixtures", this.K);
     }
 
     @Override
-    public void trainTest(List<Datum> trainData, List<Datum> testData) {
-        // 0. Initialize all approximating factors
+    protected void initializeFactors(List<Datum> initialData) {
         mixingComponents = new MultiComponents(0.1, K);
-        clusters = new NormalWishartClusters(K, trainData.get(0).getMetrics().getDimension());
-        clusters.initializeBaseForFinite(trainData);
-        clusters.initializeAtomsForFinite(trainData, initialClusterCentersFile, conf.getRandom());
+        clusters = new NormalWishartClusters(K, initialData.get(0).getMetrics().getDimension());
+        clusters.initializeBaseForFinite(initialData);
+        clusters.initializeAtomsForFinite(initialData, initialClusterCentersFile, conf.getRandom(), centerInitialization);
+    }
+
+    @Override
+    protected void runInference(List<Datum> trainData, List<Datum> testData, int maxIterations) {
+        VariationalInference.trainTestMeanField(this, trainData, testData, mixingComponents, clusters, maxIterations);
+    }
 
-        VariationalInference.trainTestMeanField(this, trainData, testData, mixingComponents, clusters);
+    @Override
+    protected MixingComponents getMixingComponents() {
+        return mixingComponents;
     }
 
     @Override
@@ -58,19 +66,4 @@ public class FiniteGMM extends VarGMM {
         }
         return proportions;
     }
-
-    @Override
-    public double[] getClusterProbabilities(Datum d) {
-        double[] probas = new double[K];
-        double[] weights = getNormClusterContrib();
-        double normalizingConstant = 0;
-        for (int i = 0; i < K; i++) {
-            probas[i] = weights[i] * predictiveDistributions.get(i).density(d.getMetrics());
-            normalizingConstant += probas[i];
-        }
-        for (int i = 0; i < K; i++) {
-            probas[i] /= normalizingConstant;
-        }
-        return probas;
-    }
 }
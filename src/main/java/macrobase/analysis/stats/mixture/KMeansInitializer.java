@@ -0,0 +1,301 @@
+package macrobase.analysis.stats.mixture;
+
+import macrobase.analysis.stats.ParallelChunks;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Scalable mixture center initialization: k-means|| seeding followed by mini-batch k-means.
+ *
+ * Seeding (Bahmani et al.) runs a few rounds over the data, each sampling about
+ * {@code oversampling} points with probability proportional to their squared distance from
+ * the candidates picked so far. The candidates are weighted by the number of points closest
+ * to them and reduced to K centers with weighted k-means++. Mini-batch k-means (Sculley) then
+ * refines the centers using small random batches with per-center learning rates.
+ *
+ * Every pass over the data is parallel over chunks of a flat row-major array, so the total
+ * distance work is O(N K) per round instead of the O(N K^2) of farthest-point seeding.
+ */
+public class KMeansInitializer {
+    private static final int DEFAULT_ROUNDS = 5;
+    private static final int DEFAULT_MINIBATCH_SIZE = 1024;
+    private static final int DEFAULT_MINIBATCH_ITERATIONS = 50;
+
+    private final Random random;
+    private int rounds = DEFAULT_ROUNDS;
+    private int minibatchSize = DEFAULT_MINIBATCH_SIZE;
+    private int minibatchIterations = DEFAULT_MINIBATCH_ITERATIONS;
+
+    public KMeansInitializer(Random random) {
+        this.random = random;
+    }
+
+    public KMeansInitializer setRounds(int rounds) {
+        this.rounds = rounds;
+        return this;
+    }
+
+    public KMeansInitializer setMinibatchSize(int minibatchSize) {
+        this.minibatchSize = minibatchSize;
+        return this;
+    }
+
+    public KMeansInitializer setMinibatchIterations(int minibatchIterations) {
+        this.minibatchIterations = minibatchIterations;
+        return this;
+    }
+
+    /**
+     * @param pickedVectors centers that are kept as they are, e.g. read from a file
+     * @param points N x D row-major points
+     * @return K centers, starting with pickedVectors
+     */
+    public List<RealVector> initialize(List<RealVector> pickedVectors, double[] points, int D, int K) {
+        final int N = points.length / D;
+        int numPicked = Math.min(pickedVectors.size(), K);
+        double[] fixed = new double[numPicked * D];
+        for (int k = 0; k < numPicked; k++) {
+            for (int i = 0; i < D; i++) {
+                fixed[k * D + i] = pickedVectors.get(k).getEntry(i);
+            }
+        }
+
+        double[] centers = seed(points, N, D, K, fixed, numPicked);
+        refine(points, N, D, K, centers, numPicked);
+
+        List<RealVector> vectors = new ArrayList<>(K);
+        vectors.addAll(pickedVectors.subList(0, numPicked));
+        for (int k = numPicked; k < K; k++) {
+            vectors.add(new ArrayRealVector(Arrays.copyOfRange(centers, k * D, (k + 1) * D), false));
+        }
+        return vectors;
+    }
+
+    /**
+     * k-means|| seeding, returns K * D row-major centers whose first numPicked rows are fixed.
+     */
+    private double[] seed(double[] points, int N, int D, int K, double[] fixed, int numPicked) {
+        List<double[]> candidates = new ArrayList<>();
+        for (int k = 0; k < numPicked; k++) {
+            candidates.add(Arrays.copyOfRange(fixed, k * D, (k + 1) * D));
+        }
+        if (candidates.isEmpty()) {
+            int first = random.nextInt(N);
+            candidates.add(Arrays.copyOfRange(points, first * D, (first + 1) * D));
+        }
+
+        double[] distances = new double[N];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        double cost = updateDistances(points, N, D, flatten(candidates, D), 0, candidates.size(), distances);
+        final double oversampling = 2.0 * K;
+        for (int round = 0; round < rounds && cost > 0; round++) {
+            int before = candidates.size();
+            final double scale = oversampling / cost;
+            // Independent Bernoulli draws; seeded per round so results do not depend on threads
+            final long roundSeed = random.nextLong();
+            List<double[]> sampled = ParallelChunks.reduce(N, (chunk, from, to) -> {
+                Random chunkRandom = new Random(roundSeed + chunk);
+                List<double[]> picked = new ArrayList<>();
+                for (int n = from; n < to; n++) {
+                    if (chunkRandom.nextDouble() < scale * distances[n]) {
+                        picked.add(Arrays.copyOfRange(points, n * D, (n + 1) * D));
+                    }
+                }
+                return picked;
+            }, (a, b) -> {
+                List<double[]> merged = new ArrayList<>(a);
+                merged.addAll(b);
+                return merged;
+            });
+            candidates.addAll(sampled);
+            if (candidates.size() == before) {
+                continue;
+            }
+            double[] added = flatten(candidates.subList(before, candidates.size()), D);
+            cost = updateDistances(points, N, D, added, 0, candidates.size() - before, distances);
+        }
+
+        // Weight each candidate by the number of points closest to it
+        double[] flatCandidates = flatten(candidates, D);
+        int C = candidates.size();
+        double[] weights = ParallelChunks.reduce(N, (chunk, from, to) -> {
+            double[] counts = new double[C];
+            for (int n = from; n < to; n++) {
+                counts[nearest(points, n * D, flatCandidates, 0, C, D)] += 1;
+            }
+            return counts;
+        }, KMeansInitializer::add);
+
+        return reduceCandidates(flatCandidates, weights, C, D, K, numPicked);
+    }
+
+    /**
+     * Weighted k-means++ over the candidates, followed by a few weighted Lloyd iterations
+     * that leave the fixed centers in place.
+     */
+    private double[] reduceCandidates(double[] candidates, double[] weights, int C, int D, int K, int numPicked) {
+        double[] centers = new double[K * D];
+        System.arraycopy(candidates, 0, centers, 0, numPicked * D);
+        double[] distances = new double[C];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        int numCenters = numPicked;
+        if (numCenters == 0) {
+            int first = sampleIndex(weights, C);
+            System.arraycopy(candidates, first * D, centers, 0, D);
+            numCenters = 1;
+        }
+        updateDistances(candidates, C, D, centers, 0, numCenters, distances);
+        double[] scores = new double[C];
+        for (; numCenters < K; numCenters++) {
+            for (int c = 0; c < C; c++) {
+                scores[c] = weights[c] * distances[c];
+            }
+            int next = sampleIndex(scores, C);
+            if (next < 0) {
+                // Fewer distinct candidates than centers; repeat a random one
+                next = random.nextInt(C);
+            }
+            System.arraycopy(candidates, next * D, centers, numCenters * D, D);
+            updateDistances(candidates, C, D, centers, numCenters, numCenters + 1, distances);
+        }
+
+        for (int iteration = 0; iteration < 10; iteration++) {
+            double[] sums = new double[K * D];
+            double[] counts = new double[K];
+            for (int c = 0; c < C; c++) {
+                int k = nearest(candidates, c * D, centers, 0, K, D);
+                counts[k] += weights[c];
+                for (int i = 0; i < D; i++) {
+                    sums[k * D + i] += weights[c] * candidates[c * D + i];
+                }
+            }
+            for (int k = numPicked; k < K; k++) {
+                if (counts[k] > 0) {
+                    for (int i = 0; i < D; i++) {
+                        centers[k * D + i] = sums[k * D + i] / counts[k];
+                    }
+                }
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * Mini-batch k-means, moving only the centers after the first numPicked.
+     */
+    private void refine(double[] points, int N, int D, int K, double[] centers, int numPicked) {
+        final int batchSize = Math.min(minibatchSize, N);
+        double[] counts = new double[K];
+        int[] batch = new int[batchSize];
+        int[] assignment = new int[batchSize];
+        for (int iteration = 0; iteration < minibatchIterations; iteration++) {
+            for (int b = 0; b < batchSize; b++) {
+                batch[b] = random.nextInt(N);
+            }
+            // Assign against the centers from the start of the iteration
+            final double[] snapshot = centers.clone();
+            IntStream.range(0, batchSize).parallel().forEach(b ->
+                    assignment[b] = nearest(points, batch[b] * D, snapshot, 0, K, D));
+            for (int b = 0; b < batchSize; b++) {
+                int k = assignment[b];
+                if (k < numPicked) {
+                    continue;
+                }
+                counts[k] += 1;
+                double rate = 1.0 / counts[k];
+                int offset = batch[b] * D;
+                for (int i = 0; i < D; i++) {
+                    centers[k * D + i] += rate * (points[offset + i] - centers[k * D + i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lowers distances[n] to the squared distance from point n to its nearest center in
+     * centers[from..to), in parallel.
+     * @return the sum of the updated distances
+     */
+    private static double updateDistances(double[] points, int N, int D, double[] centers, int from, int to, double[] distances) {
+        return ParallelChunks.sum(N, (chunkFrom, chunkTo) -> {
+            double sum = 0;
+            for (int n = chunkFrom; n < chunkTo; n++) {
+                for (int c = from; c < to; c++) {
+                    distances[n] = Math.min(distances[n], squaredDistance(points, n * D, centers, c * D, D));
+                }
+                sum += distances[n];
+            }
+            return sum;
+        });
+    }
+
+    private static int nearest(double[] points, int offset, double[] centers, int from, int to, int D) {
+        int best = from;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = from; c < to; c++) {
+            double distance = squaredDistance(points, offset, centers, c * D, D);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static double squaredDistance(double[] a, int aOffset, double[] b, int bOffset, int D) {
+        double sum = 0;
+        for (int i = 0; i < D; i++) {
+            double diff = a[aOffset + i] - b[bOffset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * @return an index drawn with probability proportional to scores, or -1 if all are zero
+     */
+    private int sampleIndex(double[] scores, int length) {
+        double total = 0;
+        for (int i = 0; i < length; i++) {
+            total += scores[i];
+        }
+        if (!(total > 0)) {
+            return -1;
+        }
+        double target = random.nextDouble() * total;
+        for (int i = 0; i < length; i++) {
+            target -= scores[i];
+            if (target < 0 && scores[i] > 0) {
+                return i;
+            }
+        }
+        for (int i = length - 1; i >= 0; i--) {
+            if (scores[i] > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static double[] flatten(List<double[]> vectors, int D) {
+        double[] flat = new double[vectors.size() * D];
+        for (int i = 0; i < vectors.size(); i++) {
+            System.arraycopy(vectors.get(i), 0, flat, i * D, D);
+        }
+        return flat;
+    }
+
+    private static double[] add(double[] a, double[] b) {
+        double[] sum = new double[a.length];
+        for (int i = 0; i < a.length; i++) {
+            sum[i] = a[i] + b[i];
+        }
+        return sum;
+    }
+}
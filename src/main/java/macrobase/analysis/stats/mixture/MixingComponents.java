@@ -1,10 +1,25 @@
 package macrobase.analysis.stats.mixture;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public interface MixingComponents {
     double[] calcExpectationLog();
-    void update(double[][] r);
 
-    void moveNatural(double[][] r, double pace, double v);
+    /**
+     * @param clusterWeight sum of the responsibilities of each cluster over the data
+     */
+    void update(double[] clusterWeight);
+
+    void moveNatural(double[] clusterWeight, double pace, double repeat);
 
     double[] getNormalizedClusterProportions();
+
+    void write(DataOutputStream out) throws IOException;
+
+    /**
+     * Replaces the parameters with ones written by {@link #write} for the same number of clusters.
+     */
+    void read(DataInputStream in) throws IOException;
 }
@@ -1,9 +1,14 @@
 package macrobase.analysis.stats.mixture;
 
+import macrobase.analysis.stats.ModelStore;
 import org.apache.commons.math3.special.Gamma;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
 public class MultiComponents implements MixingComponents {
     private static final Logger log = LoggerFactory.getLogger(MultiComponents.class);
 
@@ -35,8 +40,7 @@ public class MultiComponents implements MixingComponents {
     }
 
     @Override
-    public void update(double[][] r) {
-        double[] clusterWeight = VariationalInference.calculateClusterWeights(r);
+    public void update(double[] clusterWeight) {
         sumCoeffs = 0;
         for (int k = 0; k < K; k++) {
             coeffs[k] = priorAlpha + clusterWeight[k];
@@ -44,8 +48,8 @@ public class MultiComponents implements MixingComponents {
         }
     }
 
-    public void moveNatural(double[][] r, double pace, double portion) {
-        double[] clusterWeight = VariationalInference.calculateClusterWeights(r);
+    @Override
+    public void moveNatural(double[] clusterWeight, double pace, double portion) {
         sumCoeffs = 0;
         for (int k = 0; k < K; k++) {
             coeffs[k] = VariationalInference.step(coeffs[k], priorAlpha + portion * clusterWeight[k], pace);
@@ -62,6 +66,27 @@ public class MultiComponents implements MixingComponents {
         return normalized;
     }
 
+    @Override
+    public void write(DataOutputStream out) throws IOException {
+        out.writeDouble(priorAlpha);
+        ModelStore.writeDoubles(out, coeffs);
+    }
+
+    @Override
+    public void read(DataInputStream in) throws IOException {
+        double prior = in.readDouble();
+        double[] savedCoeffs = ModelStore.readDoubles(in);
+        if (savedCoeffs.length != K) {
+            throw new IOException(String.format("saved model has %d mixtures, expected %d", savedCoeffs.length, K));
+        }
+        priorAlpha = prior;
+        coeffs = savedCoeffs;
+        sumCoeffs = 0;
+        for (double coeff : coeffs) {
+            sumCoeffs += coeff;
+        }
+    }
+
     public double[] getCoeffs() {
         return coeffs;
     }
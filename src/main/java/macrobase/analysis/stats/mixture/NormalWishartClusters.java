@@ -1,5 +1,7 @@
 package macrobase.analysis.stats.mixture;
 
+import macrobase.analysis.stats.ModelStore;
+import macrobase.analysis.stats.ParallelChunks;
 import macrobase.analysis.stats.distribution.MultivariateTDistribution;
 import macrobase.analysis.stats.distribution.Wishart;
 import macrobase.datamodel.Datum;
@@ -8,7 +10,10 @@ import org.apache.commons.math3.linear.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -48,37 +53,6 @@ public class NormalWishartClusters {
         halfDimensionLn2Pi = 0.5 * D * Math.log(2 * Math.PI);
     }
 
-    protected static List<RealMatrix> calculateQuadraticForms(List<Datum> data, List<RealVector> clusterMean, double[][] r) {
-        int D = data.get(0).getMetrics().getDimension();
-        int K = clusterMean.size();
-        int N = data.size();
-        List<RealMatrix> quadForm = new ArrayList<>(K);
-        for (int k = 0; k < K; k++) {
-            RealMatrix form = new BlockRealMatrix(D, D);
-            for (int n = 0; n < N; n++) {
-                RealVector _diff = data.get(n).getMetrics().subtract(clusterMean.get(k));
-                form = form.add(_diff.outerProduct(_diff).scalarMultiply(r[n][k]));
-            }
-            quadForm.add(form);
-        }
-        return quadForm;
-    }
-
-    protected static List<RealVector> calculateWeightedSums(List<Datum> data, double[][] r) {
-        int N = data.size();
-        int K = r[0].length;
-        int D = data.get(0).getMetrics().getDimension();
-        List<RealVector> sums = new ArrayList<>(K);
-        for (int k = 0; k < K; k++) {
-            RealVector sum = new ArrayRealVector(D);
-            for (int n = 0; n < N; n++) {
-                sum = sum.add(data.get(n).getMetrics().mapMultiply(r[n][k]));
-            }
-            sums.add(sum);
-        }
-        return sums;
-    }
-
     /**
      * Initializes base distribution. This method works great with DP mixture model.
      * @param data
@@ -107,6 +81,11 @@ public class NormalWishartClusters {
      * @param data
      */
     public void initializeAtomsForDP(List<Datum> data, String filename, Random random) {
+        initializeAtomsForDP(data, filename, random, BatchMixtureModel.CenterInitialization.GONZALEZ);
+    }
+
+    public void initializeAtomsForDP(List<Datum> data, String filename, Random random,
+                                     BatchMixtureModel.CenterInitialization initialization) {
         omega = new ArrayList<>(K);
         dof = new double[K];
         beta = new double[K];
@@ -118,15 +97,15 @@ public class NormalWishartClusters {
                 loc = BatchMixtureModel.initializeClustersFromFile(filename, K);
                 log.debug("loc : {}", loc);
                 if(loc.size() < K) {
-                    loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(loc, data, K, random);
+                    loc = BatchMixtureModel.initializeMixtureCenters(loc, data, K, random, initialization);
                 }
             } catch (FileNotFoundException e) {
                 log.debug("failed to initialized from file");
                 e.printStackTrace();
-                loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(data, K, random);
+                loc = BatchMixtureModel.initializeMixtureCenters(data, K, random, initialization);
             }
         } else {
-            loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(data, K, random);
+            loc = BatchMixtureModel.initializeMixtureCenters(data, K, random, initialization);
         }
         for (int i = 0; i < K; i++) {
             // initialize betas as if all points are from the first cluster.
@@ -141,6 +120,11 @@ public class NormalWishartClusters {
      * @param data
      */
     public void initializeAtomsForFinite(List<Datum> data, String filename, Random random) {
+        initializeAtomsForFinite(data, filename, random, BatchMixtureModel.CenterInitialization.GONZALEZ);
+    }
+
+    public void initializeAtomsForFinite(List<Datum> data, String filename, Random random,
+                                         BatchMixtureModel.CenterInitialization initialization) {
 
         beta = new double[K];
         dof = new double[K];
@@ -152,14 +136,14 @@ public class NormalWishartClusters {
             try {
                 loc = BatchMixtureModel.initializeClustersFromFile(filename, K);
                 if(loc.size() < K) {
-                    loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(loc, data, K, random);
+                    loc = BatchMixtureModel.initializeMixtureCenters(loc, data, K, random, initialization);
                 }
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
-                loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(data, K, random);
+                loc = BatchMixtureModel.initializeMixtureCenters(data, K, random, initialization);
             }
         } else {
-            loc = BatchMixtureModel.gonzalezInitializeMixtureCenters(data, K, random);
+            loc = BatchMixtureModel.initializeMixtureCenters(data, K, random, initialization);
         }
         log.debug("initialized cluster centers as: {}", loc);
         for (int k = 0; k < this.K; k++) {
@@ -185,74 +169,147 @@ public class NormalWishartClusters {
         return lnPrecision;
     }
 
-    public double[][] calcLogLikelyFixedPrec(List<Datum> data) {
-        int N = data.size();
-        double[][] loglike = new double[N][K];
+    /**
+     * Computes, for every point, the responsibilities of all K clusters under the current
+     * variational parameters and folds them into sufficient statistics. Points are processed
+     * in parallel chunks over a flat row-major array; each chunk fills its own statistics,
+     * shifted by the current cluster locations, and the chunks are merged at the end.
+     *
+     * @param points N x D row-major points
+     * @param lnMixing expected log mixing coefficients
+     */
+    SufficientStatistics calculateStatistics(double[] points, double[] lnMixing) {
+        final int N = points.length / D;
+        final double[] lnPrecision = calculateExLogPrecision();
+        final double[] locations = new double[K * D];
+        final double[] precisions = new double[K * D * D];
+        final double[] offsets = new double[K];
         for (int k = 0; k < K; k++) {
-            for (int n = 0; n < N; n++) {
-                RealVector _diff = data.get(n).getMetrics().subtract(loc.get(k));
-                loglike[n][k] = -halfDimensionLn2Pi - 0.5 * (
-                        D / beta[k] + dof[k] * _diff.dotProduct(omega.get(k).operate(_diff)));
+            for (int i = 0; i < D; i++) {
+                locations[k * D + i] = loc.get(k).getEntry(i);
+                for (int j = 0; j < D; j++) {
+                    precisions[(k * D + i) * D + j] = dof[k] * omega.get(k).getEntry(i, j);
+                }
             }
+            offsets[k] = lnMixing[k] + lnPrecision[k] - halfDimensionLn2Pi - 0.5 * D / beta[k];
         }
-        return loglike;
-    }
 
-    public void update(List<Datum> data, double[][] r) {
-        double[] clusterWeight = VariationalInference.calculateClusterWeights(r);
-        List<RealVector> weightedSum = calculateWeightedSums(data, r);
-        List<RealVector> clusterMean = new ArrayList<>(K);
-        for (int k = 0; k < K; k++) {
-            if (clusterWeight[k] > 0) {
-                clusterMean.add(weightedSum.get(k).mapDivide(clusterWeight[k]));
-            } else {
-                clusterMean.add(weightedSum.get(k));
+        return ParallelChunks.reduce(N, (chunk, from, to) -> {
+            SufficientStatistics statistics = new SufficientStatistics(K, D, locations);
+            double[] diff = new double[D];
+            double[] logR = new double[K];
+            for (int n = from; n < to; n++) {
+                int offset = n * D;
+                for (int k = 0; k < K; k++) {
+                    for (int i = 0; i < D; i++) {
+                        diff[i] = points[offset + i] - locations[k * D + i];
+                    }
+                    double quadratic = 0;
+                    for (int i = 0; i < D; i++) {
+                        int row = (k * D + i) * D;
+                        double dot = 0;
+                        for (int j = 0; j < D; j++) {
+                            dot += precisions[row + j] * diff[j];
+                        }
+                        quadratic += diff[i] * dot;
+                    }
+                    logR[k] = offsets[k] - 0.5 * quadratic;
+                }
+                VariationalInference.normalizeLogProbabilities(logR);
+                for (int k = 0; k < K; k++) {
+                    if (logR[k] > 0) {
+                        statistics.add(k, points, offset, logR[k], diff);
+                    }
+                }
             }
-        }
-        List<RealMatrix> quadForm = calculateQuadraticForms(data, clusterMean, r);
+            return statistics;
+        }, SufficientStatistics::merge);
+    }
 
+    public void update(SufficientStatistics statistics) {
+        double[] clusterWeight = statistics.getWeights();
         for (int k = 0; k < K; k++) {
+            RealVector weightedSum = statistics.getWeightedSum(k);
             beta[k] = baseBeta + clusterWeight[k];
-            loc.set(k, baseLoc.mapMultiply(baseBeta).add(weightedSum.get(k)).mapDivide(beta[k]));
+            loc.set(k, baseLoc.mapMultiply(baseBeta).add(weightedSum).mapDivide(beta[k]));
             dof[k] = baseNu + 1 + clusterWeight[k];
-            RealVector adjustedMean = clusterMean.get(k).subtract(baseLoc);
-            RealMatrix wInverse = baseOmegaInverse
-                    .add(quadForm.get(k))
-                    .add(adjustedMean.outerProduct(adjustedMean).scalarMultiply(baseBeta * clusterWeight[k] / (baseBeta + clusterWeight[k])));
-            omega.set(k, AlgebraUtils.invertMatrix(wInverse));
+            omega.set(k, AlgebraUtils.invertMatrix(inverseScaleTarget(statistics, k, 1)));
         }
         log.debug("clusterWeights: {}", clusterWeight);
     }
 
-    public void moveNatural(List<Datum> data, double[][] r, double pace, double repeat) {
-        double[] clusterWeight = VariationalInference.calculateClusterWeights(r);
-        List<RealVector> weightedSum = calculateWeightedSums(data, r);
-        List<RealVector> clusterMean = new ArrayList<>(K);
+    /**
+     * Takes a natural gradient step of size pace towards the parameters that statistics of a
+     * minibatch, repeated to the size of the data, would give.
+     */
+    public void moveNatural(SufficientStatistics statistics, double pace, double repeat) {
         for (int k = 0; k < K; k++) {
-            if (clusterWeight[k] > 0) {
-                clusterMean.add(weightedSum.get(k).mapDivide(clusterWeight[k]));
-            } else {
-                clusterMean.add(weightedSum.get(k));
-            }
-            // Multiply by repeat to get actual numbers
-            clusterWeight[k] *= repeat;
-            weightedSum.set(k, weightedSum.get(k).mapMultiply(repeat));
+            double clusterWeight = repeat * statistics.getWeight(k);
+            RealVector weightedSum = statistics.getWeightedSum(k).mapMultiply(repeat);
+            // beta * loc is the natural parameter, so step it rather than loc itself
+            double oldBeta = beta[k];
+            beta[k] = VariationalInference.step(oldBeta, baseBeta + clusterWeight, pace);
+            loc.set(k, VariationalInference.step(loc.get(k).mapMultiply(oldBeta), baseLoc.mapMultiply(baseBeta).add(weightedSum), pace)
+                    .mapDivide(beta[k]));
+            dof[k] = VariationalInference.step(dof[k], baseNu + 1 + clusterWeight, pace);
+            omega.set(k, VariationalInference.step(omega.get(k), AlgebraUtils.invertMatrix(inverseScaleTarget(statistics, k, repeat)), pace));
         }
-        List<RealMatrix> quadForm = calculateQuadraticForms(data, clusterMean, r);
-        for (int i = 0; i< quadForm.size(); i++) {
-            quadForm.set(i, quadForm.get(i).scalarMultiply(repeat));
+    }
+
+    /**
+     * W^-1 of the Wishart posterior for cluster k given the (repeated) statistics.
+     */
+    private RealMatrix inverseScaleTarget(SufficientStatistics statistics, int k, double repeat) {
+        double weight = statistics.getWeight(k);
+        RealVector clusterMean = weight > 0
+                ? statistics.getWeightedSum(k).mapDivide(weight)
+                : new ArrayRealVector(D);
+        double clusterWeight = repeat * weight;
+        RealVector adjustedMean = clusterMean.subtract(baseLoc);
+        return baseOmegaInverse
+                .add(statistics.getScatter(k).scalarMultiply(repeat))
+                .add(adjustedMean.outerProduct(adjustedMean).scalarMultiply(baseBeta * clusterWeight / (baseBeta + clusterWeight)));
+    }
+
+    /**
+     * Writes the variational parameters of all atoms and the base distribution.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(K);
+        out.writeInt(D);
+        ModelStore.writeDoubles(out, beta);
+        ModelStore.writeVectors(out, loc);
+        ModelStore.writeDoubles(out, dof);
+        ModelStore.writeMatrices(out, omega);
+        out.writeDouble(baseNu);
+        out.writeDouble(baseBeta);
+        ModelStore.writeVector(out, baseLoc);
+        ModelStore.writeMatrix(out, baseOmegaInverse);
+        // Only set for finite mixtures
+        out.writeBoolean(baseOmega != null);
+        if (baseOmega != null) {
+            ModelStore.writeMatrix(out, baseOmega);
         }
+    }
 
-        for (int k = 0; k < K; k++) {
-            beta[k] = VariationalInference.step(beta[k], baseBeta + clusterWeight[k], pace);
-            loc.set(k, VariationalInference.step(loc.get(k), baseLoc.mapMultiply(baseBeta).add(weightedSum.get(k)).mapDivide(beta[k]), pace));
-            dof[k] = VariationalInference.step(dof[k], baseNu + 1 + clusterWeight[k], pace);
-            RealVector adjustedMean = clusterMean.get(k).subtract(baseLoc);
-            RealMatrix wInverse = baseOmegaInverse
-                    .add(quadForm.get(k))
-                    .add(adjustedMean.outerProduct(adjustedMean).scalarMultiply(baseBeta * clusterWeight[k] / (baseBeta + clusterWeight[k])));
-            omega.set(k, VariationalInference.step(omega.get(k), AlgebraUtils.invertMatrix(wInverse), pace));
+    public static NormalWishartClusters read(DataInputStream in) throws IOException {
+        NormalWishartClusters clusters = new NormalWishartClusters(in.readInt(), in.readInt());
+        clusters.beta = ModelStore.readDoubles(in);
+        clusters.loc = ModelStore.readVectors(in);
+        clusters.dof = ModelStore.readDoubles(in);
+        clusters.omega = ModelStore.readMatrices(in);
+        clusters.baseNu = in.readDouble();
+        clusters.baseBeta = in.readDouble();
+        clusters.baseLoc = ModelStore.readVector(in);
+        clusters.baseOmegaInverse = ModelStore.readMatrix(in);
+        if (in.readBoolean()) {
+            clusters.baseOmega = ModelStore.readMatrix(in);
         }
+        return clusters;
+    }
+
+    public int getNumClusters() {
+        return K;
     }
 
     public List<MultivariateTDistribution> constructPredictiveDistributions() {
@@ -22,11 +22,7 @@ public class StochVarDPGMM extends DPGMM {
     }
 
     @Override
-    public void trainTest(List<Datum> trainData, List<Datum> testData) {
-        // 0. Initialize all approximating factors
-        clusters = new NormalWishartClusters(T, trainData.get(0).getMetrics().getDimension());
-        clusters.initializeBaseForDP(trainData);
-        clusters.initializeAtomsForDP(trainData, initialClusterCentersFile, conf.getRandom());
-        VariationalInference.trainTestStochastic(this, trainData, testData, mixingComponents, clusters, desiredMinibatchSize, delay, forgettingRate);
+    protected void runInference(List<Datum> trainData, List<Datum> testData, int maxIterations) {
+        VariationalInference.trainTestStochastic(this, trainData, testData, mixingComponents, clusters, desiredMinibatchSize, delay, forgettingRate, maxIterations);
     }
 }
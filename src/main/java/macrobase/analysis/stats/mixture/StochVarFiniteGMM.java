@@ -22,12 +22,7 @@ public class StochVarFiniteGMM extends FiniteGMM {
     }
 
     @Override
-    public void trainTest(List<Datum> trainData, List<Datum> testData) {
-        mixingComponents = new MultiComponents(0.1, K);
-        clusters = new NormalWishartClusters(K, trainData.get(0).getMetrics().getDimension());
-        clusters.initializeBaseForFinite(trainData);
-        clusters.initializeAtomsForFinite(trainData, initialClusterCentersFile, conf.getRandom());
-
-        VariationalInference.trainTestStochastic(this, trainData, testData, mixingComponents, clusters, desiredMinibatchSize, delay, forgettingRate);
+    protected void runInference(List<Datum> trainData, List<Datum> testData, int maxIterations) {
+        VariationalInference.trainTestStochastic(this, trainData, testData, mixingComponents, clusters, desiredMinibatchSize, delay, forgettingRate, maxIterations);
     }
 }
@@ -0,0 +1,138 @@
+package macrobase.analysis.stats.mixture;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+
+/**
+ * Weighted sufficient statistics of K Gaussian components, accumulated in primitive arrays.
+ *
+ * For each component k this keeps the total weight, the weighted sum of (x - c_k) and the
+ * weighted scatter of (x - c_k), where c_k is a fixed per-component shift (typically the
+ * previous mean) that keeps the one-pass covariance numerically stable. Instances are not
+ * thread-safe; each thread accumulates its own and the results are combined with merge.
+ */
+class SufficientStatistics {
+    private final int K;
+    private final int D;
+    private final double[] shifts;
+    private final double[] weights;
+    private final double[] sums;
+    // Upper triangle (j >= i) of each D x D scatter matrix, stored densely
+    private final double[] scatters;
+    private double logLikelihood;
+
+    /**
+     * @param shifts K * D row-major array of per-component shifts, shared read-only
+     */
+    SufficientStatistics(int K, int D, double[] shifts) {
+        this.K = K;
+        this.D = D;
+        this.shifts = shifts;
+        this.weights = new double[K];
+        this.sums = new double[K * D];
+        this.scatters = new double[K * D * D];
+    }
+
+    /**
+     * Adds points[offset..offset + D) to component k with the given weight.
+     * @param centered scratch array of length D
+     */
+    void add(int k, double[] points, int offset, double weight, double[] centered) {
+        weights[k] += weight;
+        int shiftOffset = k * D;
+        for (int i = 0; i < D; i++) {
+            centered[i] = points[offset + i] - shifts[shiftOffset + i];
+            sums[shiftOffset + i] += weight * centered[i];
+        }
+        int scatterOffset = k * D * D;
+        for (int i = 0; i < D; i++) {
+            double wi = weight * centered[i];
+            int row = scatterOffset + i * D;
+            for (int j = i; j < D; j++) {
+                scatters[row + j] += wi * centered[j];
+            }
+        }
+    }
+
+    void addLogLikelihood(double value) {
+        logLikelihood += value;
+    }
+
+    SufficientStatistics merge(SufficientStatistics other) {
+        for (int k = 0; k < K; k++) {
+            weights[k] += other.weights[k];
+        }
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] += other.sums[i];
+        }
+        for (int i = 0; i < scatters.length; i++) {
+            scatters[i] += other.scatters[i];
+        }
+        logLikelihood += other.logLikelihood;
+        return this;
+    }
+
+    double getWeight(int k) {
+        return weights[k];
+    }
+
+    double[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * @return sum over points of weight * x for component k
+     */
+    RealVector getWeightedSum(int k) {
+        double[] sum = new double[D];
+        for (int i = 0; i < D; i++) {
+            sum[i] = weights[k] * shifts[k * D + i] + sums[k * D + i];
+        }
+        return new ArrayRealVector(sum, false);
+    }
+
+    /**
+     * @return weighted scatter of component k around its weighted mean, i.e. the weight
+     * times the covariance; zero if the component has no weight
+     */
+    RealMatrix getScatter(int k) {
+        if (!(weights[k] > 0)) {
+            return MatrixUtils.createRealMatrix(D, D);
+        }
+        return getCovariance(k).scalarMultiply(weights[k]);
+    }
+
+    double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    RealVector getMean(int k) {
+        double[] mean = new double[D];
+        for (int i = 0; i < D; i++) {
+            mean[i] = shifts[k * D + i] + sums[k * D + i] / weights[k];
+        }
+        return new ArrayRealVector(mean, false);
+    }
+
+    /**
+     * @return weighted covariance of component k around its weighted mean
+     */
+    RealMatrix getCovariance(int k) {
+        double[][] covariance = new double[D][D];
+        double[] meanShift = new double[D];
+        for (int i = 0; i < D; i++) {
+            meanShift[i] = sums[k * D + i] / weights[k];
+        }
+        int scatterOffset = k * D * D;
+        for (int i = 0; i < D; i++) {
+            for (int j = i; j < D; j++) {
+                double value = scatters[scatterOffset + i * D + j] / weights[k] - meanShift[i] * meanShift[j];
+                covariance[i][j] = value;
+                covariance[j][i] = value;
+            }
+        }
+        return MatrixUtils.createRealMatrix(covariance);
+    }
+}
@@ -1,6 +1,9 @@
 package macrobase.analysis.stats.mixture;
 
+import macrobase.analysis.stats.distribution.CholeskyLogDensity;
+import macrobase.analysis.stats.distribution.MixtureLogDensity;
 import macrobase.analysis.stats.distribution.MultivariateTDistribution;
+import macrobase.util.AlgebraUtils;
 import macrobase.conf.MacroBaseConf;
 import macrobase.datamodel.Datum;
 import macrobase.util.TrainTestSpliter;
@@ -9,6 +12,10 @@ import org.apache.commons.math3.linear.RealVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -21,9 +28,18 @@ public abstract class VarGMM extends BatchMixtureModel {
     public static final double ZERO_LOG_SCORE = -10000;
     protected NormalWishartClusters clusters;
     protected List<MultivariateTDistribution> predictiveDistributions;
+    // Predictive mixture, weighted by the normalized cluster contributions
+    protected MixtureLogDensity predictiveDensity;
 
     protected abstract double[] getNormClusterContrib();
 
+    protected abstract MixingComponents getMixingComponents();
+
+    /**
+     * Creates the approximating factors (clusters and mixing components) from initial data.
+     */
+    protected abstract void initializeFactors(List<Datum> initialData);
+
     public VarGMM(MacroBaseConf conf) {
         super(conf);
     }
@@ -38,7 +54,61 @@ public abstract class VarGMM extends BatchMixtureModel {
         }
     }
 
-    public abstract void trainTest(List<Datum> trainData, List<Datum> testData);
+    public void trainTest(List<Datum> trainData, List<Datum> testData) {
+        // 0. Initialize all approximating factors
+        initializeFactors(trainData);
+
+        runInference(trainData, testData, maxIterationsToConverge);
+    }
+
+    /**
+     * Runs variational inference from the current approximating factors for at most
+     * maxIterations iterations.
+     */
+    protected abstract void runInference(List<Datum> trainData, List<Datum> testData, int maxIterations);
+
+    @Override
+    public void writeModel(DataOutputStream out) throws IOException {
+        clusters.write(out);
+        getMixingComponents().write(out);
+    }
+
+    @Override
+    public void readModel(DataInputStream in) throws IOException {
+        clusters = NormalWishartClusters.read(in);
+        getMixingComponents().read(in);
+        updatePredictiveDensity();
+    }
+
+    /**
+     * Continues variational inference from the current factors for at most maxIterations
+     * iterations, instead of re-initializing them from the data.
+     */
+    @Override
+    public void refine(List<Datum> data, int maxIterations) {
+        runInference(data, data, maxIterations);
+        updatePredictiveDensity();
+    }
+
+    /**
+     * Starts online training: initializes the approximating factors from a bounded warm-up
+     * sample. Afterwards the model is only updated through {@link #onlineUpdate}.
+     */
+    public void initializeOnline(List<Datum> initialData) {
+        initializeFactors(initialData);
+        updatePredictiveDensity();
+    }
+
+    /**
+     * One stochastic variational step on a minibatch from a stream, treating it as a sample
+     * from a population of the given size. Only the global variational parameters are kept,
+     * so memory does not depend on the length of the stream.
+     */
+    public void onlineUpdate(List<Datum> miniBatch, double pace, double populationSize) {
+        VariationalInference.stochasticStep(AlgebraUtils.flattenMetrics(miniBatch), getMixingComponents(), clusters,
+                                            pace, populationSize / miniBatch.size());
+        updatePredictiveDensity();
+    }
 
 
     @Override
@@ -52,29 +122,44 @@ public abstract class VarGMM extends BatchMixtureModel {
     }
 
     public double calculateLogLikelihood(List<Datum> data, MixingComponents mixingComonents, NormalWishartClusters clusters) {
-        predictiveDistributions = clusters.constructPredictiveDistributions();
+        return calculateLogLikelihood(AlgebraUtils.flattenMetrics(data), clusters);
+    }
+
+    /**
+     * @param points N x D row-major points
+     * @return average log likelihood of the points under the predictive mixture
+     */
+    public double calculateLogLikelihood(double[] points, NormalWishartClusters clusters) {
+        updatePredictiveDensity();
         double logLikelihood = 0;
-        for (Datum d : data) {
-            logLikelihood += score(d);
+        double[] logDensities = predictiveDensity.logDensities(points);
+        for (double logDensity : logDensities) {
+            logLikelihood += Math.max(logDensity, ZERO_LOG_SCORE);
+        }
+        return logLikelihood / logDensities.length;
+    }
+
+    protected void updatePredictiveDensity() {
+        predictiveDistributions = clusters.constructPredictiveDistributions();
+        List<CholeskyLogDensity> components = new ArrayList<>(predictiveDistributions.size());
+        for (MultivariateTDistribution distribution : predictiveDistributions) {
+            components.add(distribution.getLogDensity());
         }
-        return logLikelihood / data.size();
+        predictiveDensity = new MixtureLogDensity(getNormClusterContrib(), components);
     }
 
     /**
      * @param datum
-     * @return log probability density of the given datum (or -10000 if probability density is 0)
+     * @return log probability density of the given datum, floored at ZERO_LOG_SCORE (-10000)
      */
     @Override
     public double score(Datum datum) {
-        double density = 0;
-        double[] cc = getNormClusterContrib();
-        for (int i = 0; i < predictiveDistributions.size(); i++) {
-            density += cc[i] * predictiveDistributions.get(i).density(datum.getMetrics());
-        }
-        if (density == 0) {
-            return this.ZERO_LOG_SCORE;
-        }
-        return Math.log(density);
+        return Math.max(predictiveDensity.logDensity(datum.getMetrics().toArray()), ZERO_LOG_SCORE);
+    }
+
+    @Override
+    protected MixtureLogDensity getMixtureDensity() {
+        return predictiveDensity;
     }
 
     @Override
@@ -83,18 +168,7 @@ public abstract class VarGMM extends BatchMixtureModel {
      * Equals the weighted probabilities of data coming from each of the clusters.
      */
     public double[] getClusterProbabilities(Datum d) {
-        double[] weights = getNormClusterContrib();
-        double[] probas = new double[weights.length];
-
-        double total = 0;
-        for (int i = 0; i < weights.length; i++) {
-            probas[i] = weights[i] * predictiveDistributions.get(i).density(d.getMetrics());
-            total += probas[i];
-        }
-        for (int i = 0; i < weights.length; i++) {
-            probas[i] /= total;
-        }
-        return probas;
+        return predictiveDensity.posterior(d.getMetrics().toArray());
     }
 
 }
@@ -1,6 +1,8 @@
 package macrobase.analysis.stats.mixture;
 
+import macrobase.analysis.stats.distribution.MixtureLogDensity;
 import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
 import org.slf4j.Logger;
@@ -15,30 +17,39 @@ public class VariationalInference {
     public static double[][] normalizeLogProbabilities(double[] lnMixing, double[] lnPrecision, double[][] dataLogLike) {
         double[][] r = new double[dataLogLike.length][lnMixing.length];
         for (int n = 0; n < dataLogLike.length; n++) {
-            double normalizingConstant = 0;
             for (int k = 0; k < lnMixing.length; k++) {
-                r[n][k] = Math.exp(lnMixing[k] + lnPrecision[k] + dataLogLike[n][k]);
-                normalizingConstant += r[n][k];
-            }
-            for (int k = 0; k < lnMixing.length; k++) {
-                if (normalizingConstant > 0) {
-                    r[n][k] /= normalizingConstant;
-                }
+                r[n][k] = lnMixing[k] + lnPrecision[k] + dataLogLike[n][k];
             }
+            normalizeLogProbabilities(r[n]);
         }
         return r;
     }
 
+    /**
+     * Replaces unnormalized log probabilities with probabilities that sum to one, using
+     * log-sum-exp so that points far from every cluster are still assigned. Rows that are
+     * -infinity everywhere become all zeros.
+     */
+    public static void normalizeLogProbabilities(double[] logProbabilities) {
+        int K = logProbabilities.length;
+        double normalizer = MixtureLogDensity.logSumExp(logProbabilities, K);
+        for (int k = 0; k < K; k++) {
+            logProbabilities[k] = Double.isInfinite(normalizer) ? 0 : Math.exp(logProbabilities[k] - normalizer);
+        }
+    }
+
     public static void trainTestStochastic(VarGMM model, List<Datum> trainData, List<Datum> testData, MixingComponents mixingComponents, NormalWishartClusters clusters, int desiredMinibatchSize, double delay, double forgettingRate) {
-        double[] exLnMixingContribution;
-        double[] lnPrecision;
-        double[][] dataLogLike;
-        double[][] r;
-        int minibatchSize;
-        List<Datum> miniBatch;
+        trainTestStochastic(model, trainData, testData, mixingComponents, clusters, desiredMinibatchSize, delay, forgettingRate, model.maxIterationsToConverge);
+    }
 
+    /**
+     * Runs stochastic variational inference from the current parameters for at most
+     * maxIterations passes over the training data.
+     */
+    public static void trainTestStochastic(VarGMM model, List<Datum> trainData, List<Datum> testData, MixingComponents mixingComponents, NormalWishartClusters clusters, int desiredMinibatchSize, double delay, double forgettingRate, int maxIterations) {
         final int N = trainData.size();
         final int partitions = N / Math.min(trainData.size(), desiredMinibatchSize);
+        final double[] testPoints = AlgebraUtils.flattenMetrics(testData);
 
         double logLikelihood = -Double.MAX_VALUE;
         for (int iter = 1; ; iter++) {
@@ -49,29 +60,18 @@ public class VariationalInference {
             log.debug("weights = {}", mixingComponents.getNormalizedClusterProportions());
 
             for (int p = 0; p < partitions; p++) {
-                System.out.print(".");
                 // Step 0. Create the minibatch.
-                miniBatch = new ArrayList<>(desiredMinibatchSize);
+                List<Datum> miniBatch = new ArrayList<>(desiredMinibatchSize);
                 for (int i = p; i < N; i += partitions) {
                     miniBatch.add(trainData.get(i));
                 }
-
-                minibatchSize = miniBatch.size();
-
-                // Step 1. Update local variables
-                exLnMixingContribution = mixingComponents.calcExpectationLog();
-                lnPrecision = clusters.calculateExLogPrecision();
-                dataLogLike = clusters.calcLogLikelyFixedPrec(miniBatch);
-                r = VariationalInference.normalizeLogProbabilities(exLnMixingContribution, lnPrecision, dataLogLike);
-
-                // Step 2. Update global variables
-                mixingComponents.moveNatural(r, pace, 1. * N / minibatchSize);
-                clusters.moveNatural(miniBatch, r, pace, 1. * N / minibatchSize);
+                stochasticStep(AlgebraUtils.flattenMetrics(miniBatch), mixingComponents, clusters,
+                               pace, 1. * N / miniBatch.size());
             }
 
             double oldLogLikelihood = logLikelihood;
-            logLikelihood = model.calculateLogLikelihood(testData, mixingComponents, clusters);
-            if (model.checkTermination(logLikelihood, oldLogLikelihood, iter)) {
+            logLikelihood = model.calculateLogLikelihood(testPoints, clusters);
+            if (model.checkTermination(logLikelihood, oldLogLikelihood, iter, maxIterations)) {
                 log.debug("centers = {}", clusters.getMAPLocations());
                 log.debug("covariances = {}", clusters.getMAPCovariances());
                 log.debug("weights = {}", mixingComponents.getNormalizedClusterProportions());
@@ -80,29 +80,47 @@ public class VariationalInference {
         }
     }
 
+    /**
+     * One stochastic variational step on a minibatch: computes the local responsibilities
+     * and moves the global parameters towards the values the minibatch would give if it were
+     * repeated the given number of times.
+     * @param points row-major minibatch points
+     */
+    public static void stochasticStep(double[] points, MixingComponents mixingComponents, NormalWishartClusters clusters, double pace, double repeat) {
+        // Step 1. Update local variables
+        SufficientStatistics statistics = clusters.calculateStatistics(points, mixingComponents.calcExpectationLog());
+
+        // Step 2. Update global variables
+        mixingComponents.moveNatural(statistics.getWeights(), pace, repeat);
+        clusters.moveNatural(statistics, pace, repeat);
+    }
+
     public static void trainTestMeanField(VarGMM model, List<Datum> trainData, List<Datum> testData, MixingComponents mixingComponents, NormalWishartClusters clusters) {
+        trainTestMeanField(model, trainData, testData, mixingComponents, clusters, model.maxIterationsToConverge);
+    }
+
+    /**
+     * Runs mean-field variational inference from the current parameters for at most
+     * maxIterations iterations.
+     */
+    public static void trainTestMeanField(VarGMM model, List<Datum> trainData, List<Datum> testData, MixingComponents mixingComponents, NormalWishartClusters clusters, int maxIterations) {
         log.debug("inside main trainMeanField");
-        double[] exLnMixingContribution;
-        double[] lnPrecision;
-        double[][] dataLogLike;
-        double[][] r;
+        // Flattened once; every iteration is a single fused parallel pass over the points.
+        final double[] trainPoints = AlgebraUtils.flattenMetrics(trainData);
+        final double[] testPoints = (testData == trainData) ? trainPoints : AlgebraUtils.flattenMetrics(testData);
 
-        int N = trainData.size();
         double logLikelihood = -Double.MAX_VALUE;
         for (int iter = 1; ; iter++) {
             // Step 1. update local variables
-            exLnMixingContribution = mixingComponents.calcExpectationLog();
-            lnPrecision = clusters.calculateExLogPrecision();
-            dataLogLike = clusters.calcLogLikelyFixedPrec(trainData);
-            r = VariationalInference.normalizeLogProbabilities(exLnMixingContribution, lnPrecision, dataLogLike);
+            SufficientStatistics statistics = clusters.calculateStatistics(trainPoints, mixingComponents.calcExpectationLog());
 
             // Step 2. update global variables
-            mixingComponents.update(r);
-            clusters.update(trainData, r);
+            mixingComponents.update(statistics.getWeights());
+            clusters.update(statistics);
 
             double oldLogLikelihood = logLikelihood;
-            logLikelihood = model.calculateLogLikelihood(testData, mixingComponents, clusters);
-            if (model.checkTermination(logLikelihood, oldLogLikelihood, iter)) {
+            logLikelihood = model.calculateLogLikelihood(testPoints, clusters);
+            if (model.checkTermination(logLikelihood, oldLogLikelihood, iter, maxIterations)) {
                 break;
             }
         }
@@ -119,16 +137,4 @@ public class VariationalInference {
     public static RealMatrix step(RealMatrix start, RealMatrix end, double pace) {
         return start.scalarMultiply(1 - pace).add(end.scalarMultiply(pace));
     }
-
-    protected static double[] calculateClusterWeights(double[][] r) {
-        int N = r.length;
-        int K = r[0].length;
-        double[] clusterWeight = new double[K];
-        for (int k = 0; k < K; k++) {
-            for (int n = 0; n < N; n++) {
-                clusterWeight[k] += r[n][k];
-            }
-        }
-        return clusterWeight;
-    }
 }
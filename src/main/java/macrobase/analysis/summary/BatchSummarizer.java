@@ -23,7 +23,9 @@ public class BatchSummarizer extends Summarizer {
 
     public BatchSummarizer(MacroBaseConf conf) {
         fpg = new FPGrowthEmerging(conf.getBoolean(MacroBaseConf.ATTRIBUTE_COMBINATIONS,
-                                                   MacroBaseDefaults.ATTRIBUTE_COMBINATIONS));
+                                                   MacroBaseDefaults.ATTRIBUTE_COMBINATIONS),
+                                   conf.getBoolean(MacroBaseConf.COLUMNAR_ITEMSETS,
+                                                   MacroBaseDefaults.COLUMNAR_ITEMSETS));
         minOIRatio = conf.getDouble(MacroBaseConf.MIN_OI_RATIO, MacroBaseDefaults.MIN_OI_RATIO);
         minSupport = conf.getDouble(MacroBaseConf.MIN_SUPPORT, MacroBaseDefaults.MIN_SUPPORT);
         encoder = conf.getEncoder();
@@ -1,14 +1,11 @@
 package macrobase.analysis.summary.count;
 
-import com.google.common.collect.Lists;
+import macrobase.util.ForwardDecay;
+import macrobase.util.IntDoubleHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.DoubleSummaryStatistics;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
 
 /*
  Maintains probabilistic heavy-hitters:
@@ -16,7 +13,7 @@ import java.util.Map;
     - Once we have seen 1/threshold items, size is >= 1/threshold items.
 
  This is similar to SpaceSaving but with:
-   - O(1) update and O(items*log(k)) maintenance
+   - O(1) update and O(items) maintenance
      (normally O(log(k)) update)
    - unlimited space overhead within an epoch (normally O(k))
 
@@ -31,14 +28,16 @@ import java.util.Map;
      3.) compute 1/thresh highest counts
      4.) discard lower items, updating min if necessary
 
+ Counts are kept in a primitive int->double map, scaled by a forward decay factor: decaying
+ only grows the factor, and reads divide by it, so stored counts are rewritten only when the
+ factor nears overflow. The eviction cutoff is found by selection rather than by sorting.
  */
 public class AmortizedMaintenanceCounter extends ApproximateCount {
     private static final Logger log = LoggerFactory.getLogger(AmortizedMaintenanceCounter.class);
 
     private double decayFactor = 1;
-    private static final double DECAY_RESET_THRESHOLD = Double.MAX_VALUE*.9;
 
-    private HashMap<Integer, Double> counts = new HashMap<>();
+    private final IntDoubleHashMap counts = new IntDoubleHashMap();
     private double totalCount = 0;
     private final int maxStableSize;
 
@@ -51,22 +50,33 @@ public class AmortizedMaintenanceCounter extends ApproximateCount {
     @Override
     public void multiplyAllCounts(Double by) {
         decayFactor /= by;
+        if (decayFactor > ForwardDecay.MAX_WEIGHT || decayFactor < 1 / ForwardDecay.MAX_WEIGHT) {
+            resetDecayFactor();
+        }
 
         if (counts.size() > maxStableSize) {
-            List<Map.Entry<Integer, Double>> a = Lists.newArrayList(counts.entrySet());
-            a.sort((e1, e2) -> e1.getValue().compareTo(e2.getValue()));
-
             int toRemove = counts.size() - maxStableSize;
 
             log.trace("Removing {} items from counts", toRemove);
 
-            prevEpochMaxEvicted = Double.MIN_VALUE;
+            // The largest evicted count is the toRemove-th smallest; evict everything below
+            // it, then as many items tied with it as are still needed
+            int[] keys = counts.keys();
+            double[] values = counts.values();
+            prevEpochMaxEvicted = select(values.clone(), toRemove - 1);
 
-            for (int i = 0; i < toRemove; ++i) {
-                Map.Entry<Integer, Double> entry = a.get(i);
-                counts.remove(entry.getKey());
-                if (entry.getValue() > prevEpochMaxEvicted) {
-                    prevEpochMaxEvicted = entry.getValue();
+            int tiesToRemove = toRemove;
+            for (double value : values) {
+                if (value < prevEpochMaxEvicted) {
+                    tiesToRemove--;
+                }
+            }
+            for (int i = 0; i < keys.length; ++i) {
+                if (values[i] < prevEpochMaxEvicted) {
+                    counts.remove(keys[i], 0);
+                } else if (values[i] == prevEpochMaxEvicted && tiesToRemove > 0) {
+                    counts.remove(keys[i], 0);
+                    tiesToRemove--;
                 }
             }
         }
@@ -77,18 +87,21 @@ public class AmortizedMaintenanceCounter extends ApproximateCount {
     }
 
     public HashMap<Integer, Double> getCounts() {
-        resetDecayFactor();
-        return counts;
+        HashMap<Integer, Double> ret = new HashMap<>(2 * counts.size());
+        int[] keys = counts.keys();
+        double[] values = counts.values();
+        for (int i = 0; i < keys.length; ++i) {
+            ret.put(keys[i], values[i] / decayFactor);
+        }
+        return ret;
     }
 
     private void resetDecayFactor() {
         log.trace("Decaying; {} items stored", counts.size());
 
-        for (Map.Entry<Integer, Double> entry : counts.entrySet()) {
-            double newValue = entry.getValue()/decayFactor;
-            counts.put(entry.getKey(), newValue);
-        }
-
+        counts.scaleValues(1 / decayFactor);
+        totalCount /= decayFactor;
+        prevEpochMaxEvicted /= decayFactor;
         decayFactor = 1;
     }
 
@@ -96,19 +109,11 @@ public class AmortizedMaintenanceCounter extends ApproximateCount {
     public void observe(Integer item, double count) {
         count *= decayFactor;
 
-        Double value = counts.get(item);
-        if (value == null) {
-            value = prevEpochMaxEvicted + count;
-            totalCount += value;
-        } else {
-            value += count;
-            totalCount += count;
-        }
-
-        counts.put(item, value);
-
-        if(value > DECAY_RESET_THRESHOLD && decayFactor > 1) {
-            resetDecayFactor();
+        int sizeBefore = counts.size();
+        counts.add(item, count, prevEpochMaxEvicted);
+        totalCount += count;
+        if (counts.size() > sizeBefore) {
+            totalCount += prevEpochMaxEvicted;
         }
     }
 
@@ -119,11 +124,40 @@ public class AmortizedMaintenanceCounter extends ApproximateCount {
 
     @Override
     public double getCount(int item) {
-        Double ret = counts.get(item);
-        if (ret == null) {
-            return 0;
-        }
+        return counts.get(item, 0) / decayFactor;
+    }
 
-        return ret/decayFactor;
+    // k-th smallest of values (0-based), by quickselect; reorders values
+    private static double select(double[] values, int k) {
+        int lo = 0;
+        int hi = values.length - 1;
+        while (lo < hi) {
+            double pivot = values[(lo + hi) >>> 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (values[i] < pivot) {
+                    i++;
+                }
+                while (values[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = values[i];
+                    values[i] = values[j];
+                    values[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
     }
 }
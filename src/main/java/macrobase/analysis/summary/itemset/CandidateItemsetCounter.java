@@ -0,0 +1,132 @@
+package macrobase.analysis.summary.itemset;
+
+import macrobase.datamodel.Datum;
+import macrobase.util.IntIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Counts how many transactions contain each of a fixed set of candidate itemsets.
+ *
+ * The candidates are stored in a prefix trie over their items, sorted by a dense item id;
+ * the trie's edges live in a single primitive map keyed by (node, item). Each transaction
+ * is reduced to its candidate items and walked down the trie once, visiting only the
+ * trie nodes that are subsets of it, so a pass needs no per-transaction allocation and
+ * memory proportional to the candidates rather than the data. Transactions are counted
+ * in parallel partitions whose counts are summed.
+ */
+public class CandidateItemsetCounter {
+    private static final int PARTITION_SIZE = 4096;
+
+    // dense id of every item in some candidate
+    private final IntIntHashMap itemIds = new IntIntHashMap();
+    private final int numItems;
+    // trie edges, keyed by node * numItems + item id
+    private final IntIntHashMap children = new IntIntHashMap();
+    private final int numNodes;
+    // node whose path spells each candidate
+    private final int[] candidateNodes;
+
+    public CandidateItemsetCounter(List<Set<Integer>> candidates) {
+        for (Set<Integer> candidate : candidates) {
+            for (int item : candidate) {
+                if (!itemIds.containsKey(item)) {
+                    itemIds.put(item, itemIds.size());
+                }
+            }
+        }
+        numItems = itemIds.size();
+        long maxNodes = 1 + candidates.stream().mapToLong(Set::size).sum();
+        if (maxNodes * numItems > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many candidate itemsets to index: " + candidates.size());
+        }
+
+        candidateNodes = new int[candidates.size()];
+        int nodes = 1;
+        for (int c = 0; c < candidates.size(); c++) {
+            int[] path = new int[candidates.get(c).size()];
+            int length = 0;
+            for (int item : candidates.get(c)) {
+                path[length++] = itemIds.get(item, -1);
+            }
+            Arrays.sort(path);
+
+            int node = 0;
+            for (int id : path) {
+                int key = node * numItems + id;
+                int child = children.get(key, -1);
+                if (child < 0) {
+                    child = nodes++;
+                    children.put(key, child);
+                }
+                node = child;
+            }
+            candidateNodes[c] = node;
+        }
+        numNodes = nodes;
+    }
+
+    /**
+     * @return number of transactions containing each candidate, in candidate order
+     */
+    public long[] count(List<Datum> transactions) {
+        long[] counts = new long[candidateNodes.length];
+        if (candidateNodes.length == 0) {
+            return counts;
+        }
+
+        int numPartitions = (transactions.size() + PARTITION_SIZE - 1) / PARTITION_SIZE;
+        long[] nodeCounts = IntStream.range(0, numPartitions).parallel()
+                .mapToObj(p -> countPartition(transactions,
+                                              p * PARTITION_SIZE,
+                                              Math.min(transactions.size(), (p + 1) * PARTITION_SIZE)))
+                .reduce(new long[numNodes], (x, y) -> {
+                    long[] sum = new long[numNodes];
+                    for (int n = 0; n < numNodes; n++) {
+                        sum[n] = x[n] + y[n];
+                    }
+                    return sum;
+                });
+
+        for (int c = 0; c < candidateNodes.length; c++) {
+            counts[c] = nodeCounts[candidateNodes[c]];
+        }
+        return counts;
+    }
+
+    private long[] countPartition(List<Datum> transactions, int from, int to) {
+        long[] nodeCounts = new long[numNodes];
+        int[] ids = new int[numItems];
+        for (int t = from; t < to; t++) {
+            int length = 0;
+            for (int item : transactions.get(t).getAttributes()) {
+                int id = itemIds.get(item, -1);
+                if (id >= 0 && length < ids.length) {
+                    ids[length++] = id;
+                }
+            }
+            if (length > 0) {
+                Arrays.sort(ids, 0, length);
+                visit(0, ids, 0, length, nodeCounts);
+            }
+        }
+        return nodeCounts;
+    }
+
+    // count every trie node below node spelled by a subset of ids[from, length)
+    private void visit(int node, int[] ids, int from, int length, long[] nodeCounts) {
+        for (int i = from; i < length; i++) {
+            if (i > from && ids[i] == ids[i - 1]) {
+                continue;
+            }
+            int child = children.get(node * numItems + ids[i], -1);
+            if (child >= 0) {
+                nodeCounts[child]++;
+                visit(child, ids, i + 1, length, nodeCounts);
+            }
+        }
+    }
+}
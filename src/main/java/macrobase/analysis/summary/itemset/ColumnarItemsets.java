@@ -0,0 +1,200 @@
+package macrobase.analysis.summary.itemset;
+
+import macrobase.analysis.summary.itemset.result.ItemsetWithCount;
+import macrobase.datamodel.Datum;
+import macrobase.util.CompressedBitmap;
+import macrobase.util.IntIntHashMap;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Column-oriented index for mining emerging itemsets.
+ *
+ * Keeps one {@link CompressedBitmap} of row indexes per candidate attribute value, for the
+ * outliers and the inliers separately. Candidates are the values with enough outlier
+ * support whose single-item outlier/inlier ratio is above the minimum, as in
+ * {@link FPGrowthEmerging}. The support of an itemset is then the popcount of the
+ * intersection of its items' bitmaps, so frequent outlier itemsets are mined depth-first
+ * over outlier bitmap intersections, and the inlier count of any candidate itemset is one
+ * intersection away, without building transactions or trees.
+ *
+ * Inlier bitmaps are built in parallel over 2^16-row blocks and concatenated.
+ */
+class ColumnarItemsets {
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final int supportCountRequired;
+    // Candidate items, by descending outlier count
+    private final int[] items;
+    private final CompressedBitmap[] outlierRows;
+    private final CompressedBitmap[] inlierRows;
+    private final IntIntHashMap columnsByItem = new IntIntHashMap();
+
+    public ColumnarItemsets(List<Datum> inliers,
+                            List<Datum> outliers,
+                            int supportCountRequired,
+                            double minRatio) {
+        this.supportCountRequired = supportCountRequired;
+
+        IntIntHashMap outlierCounts = new IntIntHashMap();
+        for (Datum d : outliers) {
+            for (int item : d.getAttributes()) {
+                outlierCounts.put(item, outlierCounts.get(item, 0) + 1);
+            }
+        }
+
+        // Index the supported items, then drop those whose ratio is too low
+        IntIntHashMap supportedColumns = new IntIntHashMap();
+        List<Integer> supported = new ArrayList<>();
+        for (Datum d : outliers) {
+            for (int item : d.getAttributes()) {
+                if (outlierCounts.get(item, 0) >= supportCountRequired && !supportedColumns.containsKey(item)) {
+                    supportedColumns.put(item, supported.size());
+                    supported.add(item);
+                }
+            }
+        }
+        CompressedBitmap[] supportedOutlierRows = buildBitmaps(outliers, 0, outliers.size(), supportedColumns,
+                                                               supported.size());
+        CompressedBitmap[] supportedInlierRows = buildBitmaps(inliers, supportedColumns, supported.size());
+
+        List<Integer> candidates = new ArrayList<>();
+        for (int c = 0; c < supported.size(); c++) {
+            double outlierCount = supportedOutlierRows[c].getCardinality();
+            double inlierCount = supportedInlierRows[c].getCardinality();
+            double ratio = inlierCount == 0 ? Double.POSITIVE_INFINITY :
+                           (outlierCount / outliers.size()) / (inlierCount / inliers.size());
+            if (ratio > minRatio) {
+                candidates.add(c);
+            }
+        }
+        candidates.sort((x, y) -> Integer.compare(supportedOutlierRows[y].getCardinality(),
+                                                  supportedOutlierRows[x].getCardinality()));
+
+        items = new int[candidates.size()];
+        outlierRows = new CompressedBitmap[candidates.size()];
+        inlierRows = new CompressedBitmap[candidates.size()];
+        for (int c = 0; c < candidates.size(); c++) {
+            int s = candidates.get(c);
+            items[c] = supported.get(s);
+            outlierRows[c] = supportedOutlierRows[s];
+            inlierRows[c] = supportedInlierRows[s];
+            columnsByItem.put(items[c], c);
+        }
+    }
+
+    /**
+     * @return every itemset over the candidate items with at least the required outlier support
+     */
+    public List<ItemsetWithCount> mineOutlierItemsets() {
+        List<ItemsetWithCount> ret = new ArrayList<>();
+        // An itemset that never occurs is not mined even if the required support is zero
+        int minCount = Math.max(1, supportCountRequired);
+        int[] prefix = new int[items.length];
+        for (int c = 0; c < items.length; c++) {
+            if (outlierRows[c].getCardinality() >= minCount) {
+                prefix[0] = items[c];
+                ret.add(new ItemsetWithCount(toSet(prefix, 1), outlierRows[c].getCardinality()));
+                extend(prefix, 1, outlierRows[c], c + 1, minCount, ret);
+            }
+        }
+        return ret;
+    }
+
+    private void extend(int[] prefix,
+                        int length,
+                        CompressedBitmap rows,
+                        int firstColumn,
+                        int minCount,
+                        List<ItemsetWithCount> ret) {
+        for (int c = firstColumn; c < items.length; c++) {
+            // Only materialize intersections that may be extended further
+            boolean last = c + 1 == items.length;
+            CompressedBitmap extended = last ? null : rows.and(outlierRows[c]);
+            int count = last ? rows.andCardinality(outlierRows[c]) : extended.getCardinality();
+            if (count >= minCount) {
+                prefix[length] = items[c];
+                ret.add(new ItemsetWithCount(toSet(prefix, length + 1), count));
+                if (!last) {
+                    extend(prefix, length + 1, extended, c + 1, minCount, ret);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of inliers containing every item, which must all be candidates
+     */
+    public double getInlierCount(Set<Integer> itemset) {
+        CompressedBitmap[] columns = new CompressedBitmap[itemset.size()];
+        int n = 0;
+        for (int item : itemset) {
+            int c = columnsByItem.get(item, -1);
+            if (c < 0) {
+                throw new IllegalArgumentException("Not a candidate item: " + item);
+            }
+            columns[n++] = inlierRows[c];
+        }
+        if (n == 1) {
+            return columns[0].getCardinality();
+        }
+
+        // Intersect starting from the sparsest column
+        Arrays.sort(columns, (x, y) -> Integer.compare(x.getCardinality(), y.getCardinality()));
+        CompressedBitmap rows = columns[0];
+        for (int i = 1; i < n - 1 && rows.getCardinality() > 0; i++) {
+            rows = rows.and(columns[i]);
+        }
+        return rows.andCardinality(columns[n - 1]);
+    }
+
+    private static CompressedBitmap[] buildBitmaps(List<Datum> data,
+                                                   IntIntHashMap columns,
+                                                   int numColumns) {
+        int numBlocks = (data.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (numBlocks <= 1) {
+            return buildBitmaps(data, 0, data.size(), columns, numColumns);
+        }
+
+        CompressedBitmap[][] blocks = IntStream.range(0, numBlocks).parallel()
+                .mapToObj(b -> buildBitmaps(data, b * BLOCK_SIZE, Math.min(data.size(), (b + 1) * BLOCK_SIZE),
+                                            columns, numColumns))
+                .toArray(CompressedBitmap[][]::new);
+        CompressedBitmap[] ret = blocks[0];
+        for (int b = 1; b < numBlocks; b++) {
+            for (int c = 0; c < numColumns; c++) {
+                ret[c].append(blocks[b][c]);
+            }
+        }
+        return ret;
+    }
+
+    private static CompressedBitmap[] buildBitmaps(List<Datum> data,
+                                                   int from,
+                                                   int to,
+                                                   IntIntHashMap columns,
+                                                   int numColumns) {
+        CompressedBitmap[] ret = new CompressedBitmap[numColumns];
+        for (int c = 0; c < numColumns; c++) {
+            ret[c] = new CompressedBitmap();
+        }
+        for (int row = from; row < to; row++) {
+            for (int item : data.get(row).getAttributes()) {
+                int c = columns.get(item, -1);
+                if (c >= 0) {
+                    ret[c].add(row);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Set<Integer> toSet(int[] items, int length) {
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < length; i++) {
+            set.add(items[i]);
+        }
+        return set;
+    }
+}
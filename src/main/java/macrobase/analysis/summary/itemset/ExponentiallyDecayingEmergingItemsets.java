@@ -89,7 +89,6 @@ public class ExponentiallyDecayingEmergingItemsets {
         }
 
         Map<Integer, Double> outlierCounts = this.outlierCountSummary.getCounts();
-        Map<Integer, Double> inlierCounts = this.inlierCountSummary.getCounts();
 
         int supportCountRequired = (int) (this.outlierCountSummary.getTotalCount() * minSupportOutlier);
 
@@ -100,9 +99,10 @@ public class ExponentiallyDecayingEmergingItemsets {
                 continue;
             }
 
-            Double inlierCount = inlierCounts.get(outlierCount.getKey());
+            // Only outlier items are looked up, so don't copy out every inlier count
+            double inlierCount = this.inlierCountSummary.getCount(outlierCount.getKey());
 
-            if (inlierCount != null &&
+            if (inlierCount > 0 &&
                 ((outlierCount.getValue() / this.outlierCountSummary.getTotalCount() /
                   (inlierCount / this.inlierCountSummary.getTotalCount()) < minRatio))) {
                 continue;
@@ -153,7 +153,6 @@ public class ExponentiallyDecayingEmergingItemsets {
         log.debug("REQUIRED SUPPORT: {} {}", supportCountRequired, minSupportOutlier);
 
         List<ItemsetResult> ret = new ArrayList<>();
-        Map<Integer, Double> inlierCounts = inlierCountSummary.getCounts();
         Map<Integer, Double> outlierCounts = outlierCountSummary.getCounts();
 
 
@@ -162,11 +161,11 @@ public class ExponentiallyDecayingEmergingItemsets {
                 continue;
             }
 
-            Double inlierCount = inlierCounts.get(outlierCount.getKey());
+            double inlierCount = inlierCountSummary.getCount(outlierCount.getKey());
 
             double ratio;
 
-            if (inlierCount != null) {
+            if (inlierCount > 0) {
                 ratio = (outlierCount.getValue() / this.outlierCountSummary.getTotalCount() /
                          (inlierCount / this.inlierCountSummary.getTotalCount()));
             } else {
@@ -1,149 +1,98 @@
 package macrobase.analysis.summary.itemset;
 
 import com.codahale.metrics.Timer;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import macrobase.MacroBase;
 import macrobase.analysis.summary.itemset.result.ItemsetWithCount;
-import macrobase.datamodel.Datum;
+import macrobase.util.IntIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
 public class FPGrowth {
     private static final Logger log = LoggerFactory.getLogger(FPGrowth.class);
+    // Trees with at least this many nodes mine their header items concurrently
+    private static final int PARALLEL_THRESHOLD = 1 << 10;
+
     private final Timer singleItemCounts = MacroBase.metrics.timer(name(FPGrowth.class, "itemCounts"));
     private final Timer insertTransactions = MacroBase.metrics.timer(name(FPGrowth.class, "insertTransactions"));
     private final Timer fpMine = MacroBase.metrics.timer(name(FPGrowth.class, "fpMine"));
 
-
+    /**
+     * FP-tree laid out in parallel primitive arrays.
+     *
+     * Frequent items are ranked by descending count (ties by item), and every node stores
+     * its item's rank, count, parent, first child and next sibling, plus a link to the
+     * previous node with the same item; the header of each rank is its latest node. Node 0
+     * is the root. Conditional trees are built from the header chains and mined
+     * recursively; trees of at least {@link #PARALLEL_THRESHOLD} nodes mine their header
+     * items as separate fork/join tasks.
+     */
     class FPTree {
-        private FPTreeNode root = new FPTreeNode(-1, null, 0);
-        // used to calculate the order
+        private static final int ROOT = 0;
+        private static final int NONE = -1;
+
+        // used to calculate the ranks
         private Map<Integer, Double> frequentItemCounts = new HashMap<>();
 
-        // item order -- need canonical to break ties; 0 is smallest, N is largest
-        private Map<Integer, Integer> frequentItemOrder = new HashMap<>();
+        // item of each rank; 0 is the most frequent
+        private int[] rankedItems = new int[0];
+        private IntIntHashMap ranks = new IntIntHashMap();
+        // per rank, the latest node with that item
+        private int[] heads = new int[0];
+
+        private int[] nodeItems;
+        private double[] nodeCounts;
+        private int[] parents;
+        private int[] nextLinks;
+        private int[] firstChildren;
+        private int[] nextSiblings;
+        private int numNodes;
+        // no node has more than one child
+        private boolean singlePath = true;
+
+        FPTree() {
+            allocate(64);
+            numNodes = 1;
+            nodeItems[ROOT] = NONE;
+            parents[ROOT] = NONE;
+            firstChildren[ROOT] = NONE;
+            nextSiblings[ROOT] = NONE;
+        }
 
-        protected Map<Integer, FPTreeNode> nodeHeaders = new HashMap<>();
+        private FPTree(int[] rankedItems) {
+            this();
+            setRankedItems(rankedItems);
+        }
 
         protected void printTreeDebug() {
             log.debug("Frequent Item Counts:");
             frequentItemCounts.entrySet().forEach(e -> log.debug(String.format("%d: %f", e.getKey(), e.getValue())));
 
-            walkTree(root, 1);
+            walkTree(ROOT, 1);
         }
 
-        private void walkTree(FPTreeNode start, int treeDepth) {
+        private void walkTree(int start, int treeDepth) {
             log.debug(String.format("%s node: %d, count: %f",
                                     new String(new char[treeDepth]).replaceAll("\0", "\t"),
-                                    start.getItem(), start.getCount()));
-            if (start.getChildren() != null) {
-                for (FPTreeNode child : start.getChildren()) {
-                    walkTree(child, treeDepth + 1);
-                }
-            }
-        }
-
-        private class FPTreeNode {
-            private int item;
-            private double count;
-            private FPTreeNode nextLink;
-            private FPTreeNode parent;
-            private List<FPTreeNode> children;
-
-            public FPTreeNode(int item, FPTreeNode parent, int initialCount) {
-                this.item = item;
-                this.parent = parent;
-                this.count = initialCount;
-            }
-
-            public int getItem() {
-                return item;
-            }
-
-            public double getCount() {
-                return count;
-            }
-
-            public void incrementCount(double by) {
-                count += by;
-            }
-
-            public void setNextLink(FPTreeNode nextLink) {
-                this.nextLink = nextLink;
-            }
-
-            public FPTreeNode getNextLink() {
-                return nextLink;
-            }
-
-            public FPTreeNode getParent() {
-                return parent;
-            }
-
-
-            public List<FPTreeNode> getChildren() {
-                return children;
-            }
-
-            // insert the transaction at this node starting with transaction[currentIndex]
-            // then find the child that matches
-            public void insertTransaction(List<Integer> fullTransaction,
-                                          int currentIndex,
-                                          final double transactionCount) {
-                incrementCount(transactionCount);
-
-                if (currentIndex == fullTransaction.size()) {
-                    return;
-                }
-
-                int currentItem = fullTransaction.get(currentIndex);
-
-                FPTreeNode matchingChild = null;
-
-                if (children != null) {
-                    for (FPTreeNode child : children) {
-                        if (child.getItem() == currentItem) {
-                            matchingChild = child;
-                            break;
-                        }
-                    }
-                }
-
-                if (matchingChild == null) {
-                    matchingChild = new FPTreeNode(currentItem, this, 0);
-
-                    FPTreeNode prevHeader = nodeHeaders.get(currentItem);
-                    nodeHeaders.put(currentItem, matchingChild);
-
-                    if (prevHeader != null) {
-                        matchingChild.setNextLink(prevHeader);
-                    }
-
-                    if (children == null) {
-                        children = new ArrayList<>();
-                    }
-
-                    children.add(matchingChild);
-                }
-
-                matchingChild.insertTransaction(fullTransaction, currentIndex + 1, transactionCount);
+                                    start == ROOT ? -1 : rankedItems[nodeItems[start]], nodeCounts[start]));
+            for (int child = firstChildren[start]; child != NONE; child = nextSiblings[child]) {
+                walkTree(child, treeDepth + 1);
             }
         }
 
         public void setFrequentCounts(Map<Integer, Double> counts) {
-            frequentItemCounts = counts;
-            sortFrequentItems();
+            frequentItemCounts = new HashMap<>(counts);
+            rankFrequentItems();
         }
 
         public void insertFrequentItems(List<Set<Integer>> transactions,
                                         int countRequiredForSupport) {
-
             Map<Integer, Double> itemCounts = new HashMap<>();
             for (Set<Integer> t : transactions) {
                 for (Integer item : t) {
@@ -157,257 +106,276 @@ public class FPGrowth {
                 }
             }
 
-            sortFrequentItems();
+            rankFrequentItems();
         }
 
-        private void sortFrequentItems() {
+        private void rankFrequentItems() {
             // we have to materialize a canonical order so that items with equal counts
             // are consistently ordered when they are sorted during transaction insertion
-            List<Map.Entry<Integer, Double>> sortedItemCounts = Lists.newArrayList(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
+            List<Map.Entry<Integer, Double>> sortedItemCounts = new ArrayList<>(frequentItemCounts.entrySet());
+            sortedItemCounts.sort((i1, i2) -> !i1.getValue().equals(i2.getValue()) ?
+                    -Double.compare(i1.getValue(), i2.getValue()) :
+                    Integer.compare(i1.getKey(), i2.getKey()));
+            int[] items = new int[sortedItemCounts.size()];
+            for (int i = 0; i < items.length; ++i) {
+                items[i] = sortedItemCounts.get(i).getKey();
+            }
+            setRankedItems(items);
+
+            ranks = new IntIntHashMap(items.length);
+            for (int i = 0; i < items.length; ++i) {
+                ranks.put(items[i], i);
             }
         }
 
-        public void insertConditionalFrequentItems(List<ItemsetWithCount> patterns,
-                                                   int countRequiredForSupport) {
-            Map<Integer, Double> itemCounts = new HashMap<>();
+        private void setRankedItems(int[] items) {
+            assert (numNodes == 1);
+            rankedItems = items;
+            heads = new int[items.length];
+            Arrays.fill(heads, NONE);
+        }
 
-            for (ItemsetWithCount i : patterns) {
-                for (Integer item : i.getItems()) {
-                    itemCounts.compute(item, (k, v) -> v == null ? i.getCount() : v + i.getCount());
-                }
+        public void insertTransactions(List<Set<Integer>> transactions) {
+            int[] path = new int[rankedItems.length];
+            for (Set<Integer> t : transactions) {
+                insertItems(t, path);
             }
+        }
 
-            for (Map.Entry<Integer, Double> e : itemCounts.entrySet()) {
-                if (e.getValue() >= countRequiredForSupport) {
-                    frequentItemCounts.put(e.getKey(), e.getValue());
+        private void insertItems(Collection<Integer> items, int[] path) {
+            int length = 0;
+            for (int item : items) {
+                int rank = ranks.get(item, NONE);
+                if (rank != NONE && length < path.length) {
+                    path[length++] = rank;
                 }
             }
 
-            // we have to materialize a canonical order so that items with equal counts
-            // are consistently ordered when they are sorted during transaction insertion
-            List<Map.Entry<Integer, Double>> sortedItemCounts = Lists.newArrayList(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
+            if (length > 0) {
+                Arrays.sort(path, 0, length);
+                // drop repeated items
+                int distinct = 1;
+                for (int i = 1; i < length; ++i) {
+                    if (path[i] != path[distinct - 1]) {
+                        path[distinct++] = path[i];
+                    }
+                }
+                insertRanks(path, distinct, 1);
             }
         }
 
-        public void insertDatum(List<Datum> datums) {
-            for (Datum d : datums) {
-                List<Integer> filtered = new ArrayList<>();
+        // insert a path of ascending ranks below the root
+        private void insertRanks(int[] path, int length, double count) {
+            nodeCounts[ROOT] += count;
+            int node = ROOT;
+            for (int i = 0; i < length; ++i) {
+                int rank = path[i];
+                int child = firstChildren[node];
+                while (child != NONE && nodeItems[child] != rank) {
+                    child = nextSiblings[child];
+                }
 
-                for(Integer attr : d.getAttributes()) {
-                    if(frequentItemCounts.containsKey(attr)) {
-                        filtered.add(attr);
+                if (child == NONE) {
+                    if (firstChildren[node] != NONE) {
+                        singlePath = false;
+                    }
+                    if (numNodes == nodeItems.length) {
+                        allocate(2 * numNodes);
                     }
+                    child = numNodes++;
+                    nodeItems[child] = rank;
+                    nodeCounts[child] = 0;
+                    parents[child] = node;
+                    firstChildren[child] = NONE;
+                    nextSiblings[child] = firstChildren[node];
+                    firstChildren[node] = child;
+                    nextLinks[child] = heads[rank];
+                    heads[rank] = child;
                 }
 
-                if (!filtered.isEmpty()) {
-                    filtered.sort((i1, i2) -> frequentItemOrder.get(i2).compareTo(frequentItemOrder.get(i1)));
-                    root.insertTransaction(filtered, 0, 1);
-                }
+                nodeCounts[child] += count;
+                node = child;
             }
         }
 
-
-        public void insertConditionalFrequentPatterns(List<ItemsetWithCount> patterns) {
-            for (ItemsetWithCount is : patterns) {
-                List<Integer> filtered = is.getItems().stream().filter(i -> frequentItemCounts.containsKey(i)).collect(
-                        Collectors.toList());
-                filtered.sort((i1, i2) -> frequentItemOrder.get(i2).compareTo(frequentItemOrder.get(i1)));
-                root.insertTransaction(filtered, 0, is.getCount());
+        private void allocate(int capacity) {
+            if (nodeItems == null) {
+                nodeItems = new int[capacity];
+                nodeCounts = new double[capacity];
+                parents = new int[capacity];
+                nextLinks = new int[capacity];
+                firstChildren = new int[capacity];
+                nextSiblings = new int[capacity];
+            } else {
+                nodeItems = Arrays.copyOf(nodeItems, capacity);
+                nodeCounts = Arrays.copyOf(nodeCounts, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                nextLinks = Arrays.copyOf(nextLinks, capacity);
+                firstChildren = Arrays.copyOf(firstChildren, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
             }
         }
 
-        public void insertTransactions(List<Set<Integer>> transactions) {
-            for (Set<Integer> t : transactions) {
-                List<Integer> filtered = t.stream().filter(i -> frequentItemCounts.containsKey(i)).collect(
-                        Collectors.toList());
-
-                if (!filtered.isEmpty()) {
-                    filtered.sort((i1, i2) -> frequentItemOrder.get(i2).compareTo(frequentItemOrder.get(i1)));
-                    root.insertTransaction(filtered, 0, 1);
-                }
-            }
+        List<ItemsetWithCount> mineItemsets(Integer supportCountRequired) {
+            return ForkJoinPool.commonPool().invoke(new MineTask(this, new int[0], supportCountRequired, NONE));
         }
 
-        public int getSupport(Set<Integer> pattern) {
-            for (Integer i : pattern) {
-                if (!frequentItemCounts.containsKey(i)) {
-                    return 0;
-                }
-            }
-
-            List<Integer> plist = Lists.newArrayList(pattern);
-            // traverse bottom to top
-            plist.sort((i1, i2) -> frequentItemOrder.get(i1).compareTo(frequentItemOrder.get(i2)));
-
-            int count = 0;
-            FPTreeNode pathHead = nodeHeaders.get(plist.get(0));
-            while (pathHead != null) {
-                FPTreeNode curNode = pathHead;
-                int itemsToFind = plist.size();
-
-                while (curNode != null) {
-                    if (pattern.contains(curNode.getItem())) {
-                        itemsToFind -= 1;
-                    }
-
-                    if (itemsToFind == 0) {
-                        count += pathHead.count;
-                        break;
-                    }
-
-                    curNode = curNode.getParent();
-                }
-                pathHead = pathHead.getNextLink();
+        // mine every itemset of this tree, each extended by suffix
+        private List<ItemsetWithCount> mine(int[] suffix, double supportCountRequired) {
+            List<ItemsetWithCount> ret = new ArrayList<>();
+            if (singlePath) {
+                mineSinglePath(suffix, supportCountRequired, ret);
+                return ret;
             }
 
-            return count;
-        }
-
-
-        List<ItemsetWithCount> mineItemsets(Integer supportCountRequired) {
-            List<ItemsetWithCount> singlePathItemsets = new ArrayList<>();
-            List<ItemsetWithCount> branchingItemsets = new ArrayList<>();
-
-            // mine single-path itemsets first
-            FPTreeNode curNode = root;
-            FPTreeNode nodeOfBranching = null;
-            Set<FPTreeNode> singlePathNodes = new HashSet<>();
-            while (true) {
-                if (curNode.children != null && curNode.children.size() > 1) {
-                    nodeOfBranching = curNode;
-                    break;
+            if (numNodes >= PARALLEL_THRESHOLD) {
+                List<MineTask> tasks = new ArrayList<>(rankedItems.length);
+                for (int rank = 0; rank < rankedItems.length; ++rank) {
+                    tasks.add(new MineTask(this, suffix, supportCountRequired, rank));
                 }
-
-                if (curNode != root) {
-                    singlePathNodes.add(curNode);
+                for (MineTask task : ForkJoinTask.invokeAll(tasks)) {
+                    ret.addAll(task.join());
                 }
-
-                if (curNode.children == null || curNode.children.size() == 0) {
-                    break;
-                } else {
-                    curNode = curNode.children.get(0);
+            } else {
+                for (int rank = 0; rank < rankedItems.length; ++rank) {
+                    ret.addAll(mineItem(rank, suffix, supportCountRequired));
                 }
             }
+            return ret;
+        }
 
-            for (Set<FPTreeNode> subset : Sets.powerSet(singlePathNodes)) {
-                if (subset.isEmpty()) {
-                    continue;
-                }
+        // mine the itemsets whose least frequent item in this tree is rank
+        private List<ItemsetWithCount> mineItem(int rank, int[] suffix, double supportCountRequired) {
+            double support = 0;
+            for (int node = heads[rank]; node != NONE; node = nextLinks[node]) {
+                support += nodeCounts[node];
+            }
+            if (heads[rank] == NONE || support < supportCountRequired) {
+                return Collections.emptyList();
+            }
 
-                double minSupportInSubset = -1;
-                Set<Integer> items = new HashSet<>();
-                for (FPTreeNode n : subset) {
-                    items.add(n.getItem());
+            int[] itemset = Arrays.copyOf(suffix, suffix.length + 1);
+            itemset[suffix.length] = rankedItems[rank];
 
-                    if (minSupportInSubset == -1 || n.getCount() < minSupportInSubset) {
-                        minSupportInSubset = n.getCount();
-                    }
-                }
+            List<ItemsetWithCount> ret = new ArrayList<>();
+            ret.add(new ItemsetWithCount(toSet(itemset, itemset.length), support));
 
-                assert (minSupportInSubset >= supportCountRequired);
-                singlePathItemsets.add(new ItemsetWithCount(items, minSupportInSubset));
+            FPTree conditionalTree = conditionalTree(rank, supportCountRequired);
+            if (conditionalTree != null) {
+                ret.addAll(conditionalTree.mine(itemset, supportCountRequired));
             }
+            return ret;
+        }
 
-            // the entire tree was a single path...
-            if (nodeOfBranching == null) {
-                return singlePathItemsets;
+        // every non-empty subset of a single path is frequent, with the count of its deepest node
+        private void mineSinglePath(int[] suffix, double supportCountRequired, List<ItemsetWithCount> ret) {
+            // in a single path, node i + 1 is the child of node i
+            int length = numNodes - 1;
+            if (length == 0) {
+                return;
             }
-
-            // all of the items in the single path will have been mined now
-            // due to the descending frequency count of the FPTree structure, so
-            // we remove them from consideration in the rest
-
-            // instead of destructively removing the nodes from NodeHeader table
-            // which would be valid but would make mining non-idempotent, we
-            // instead store the nodes to skip in a separate set
-
-            Set<Integer> alreadyMinedItems = new HashSet<>();
-            for (FPTreeNode node : singlePathNodes) {
-                alreadyMinedItems.add(node.getItem());
+            if (length > 30) {
+                throw new IllegalArgumentException("Too many items on a single path to enumerate: " + length);
             }
 
-            for (Map.Entry<Integer, FPTreeNode> header : nodeHeaders.entrySet()) {
-                if (alreadyMinedItems.contains(header.getKey())) {
+            int[] itemset = Arrays.copyOf(suffix, suffix.length + length);
+            for (int subset = 1; subset < (1 << length); ++subset) {
+                int deepest = 31 - Integer.numberOfLeadingZeros(subset);
+                double count = nodeCounts[deepest + 1];
+                if (count < supportCountRequired) {
                     continue;
                 }
 
-                // add the singleton item set
-                branchingItemsets.add(new ItemsetWithCount(Sets.newHashSet(header.getKey()),
-                                                           frequentItemCounts.get(header.getKey())));
-
-                List<ItemsetWithCount> conditionalPatternBase = new ArrayList<>();
-
-                // walk each "leaf" node
-                FPTreeNode conditionalNode = header.getValue();
-                while (conditionalNode != null) {
-                    final double leafSupport = conditionalNode.getCount();
-
-                    // walk the tree up to the branch node
-                    Set<Integer> conditionalPattern = new HashSet<>();
-                    FPTreeNode walkNode = conditionalNode.getParent();
-                    while (walkNode != nodeOfBranching.getParent() && walkNode != root) {
-                        conditionalPattern.add(walkNode.getItem());
-                        walkNode = walkNode.getParent();
+                int size = suffix.length;
+                for (int i = 0; i <= deepest; ++i) {
+                    if ((subset & (1 << i)) != 0) {
+                        itemset[size++] = rankedItems[nodeItems[i + 1]];
                     }
-
-                    if (conditionalPattern.size() > 0) {
-                        conditionalPatternBase.add(new ItemsetWithCount(conditionalPattern, leafSupport));
-                    }
-
-                    conditionalNode = conditionalNode.getNextLink();
                 }
+                ret.add(new ItemsetWithCount(toSet(itemset, size), count));
+            }
+        }
 
-                if (conditionalPatternBase.isEmpty()) {
-                    continue;
+        // tree of the prefix paths of rank's nodes, restricted to items frequent among them
+        private FPTree conditionalTree(int rank, double supportCountRequired) {
+            // every ancestor of a node has a smaller rank
+            double[] conditionalCounts = new double[rank];
+            for (int node = heads[rank]; node != NONE; node = nextLinks[node]) {
+                for (int cur = parents[node]; cur != ROOT; cur = parents[cur]) {
+                    conditionalCounts[nodeItems[cur]] += nodeCounts[node];
                 }
+            }
 
-                // build and mine the conditional FPTree
-                FPTree conditionalTree = new FPTree();
-                conditionalTree.insertConditionalFrequentItems(conditionalPatternBase, supportCountRequired);
-                conditionalTree.insertConditionalFrequentPatterns(conditionalPatternBase);
-                List<ItemsetWithCount> conditionalFrequentItemsets = conditionalTree.mineItemsets(supportCountRequired);
-
-                if (!conditionalFrequentItemsets.isEmpty()) {
-                    for (ItemsetWithCount is : conditionalFrequentItemsets) {
-                        is.getItems().add(header.getKey());
-                    }
-
-                    branchingItemsets.addAll(conditionalFrequentItemsets);
+            List<Integer> frequent = new ArrayList<>();
+            for (int r = 0; r < rank; ++r) {
+                if (conditionalCounts[r] >= supportCountRequired) {
+                    frequent.add(r);
                 }
             }
-
-            if (singlePathItemsets.isEmpty()) {
-                return branchingItemsets;
+            if (frequent.isEmpty()) {
+                return null;
             }
 
-            // take the cross product of the mined itemsets
-            List<ItemsetWithCount> ret = new ArrayList<>();
-
-            ret.addAll(singlePathItemsets);
-            ret.addAll(branchingItemsets);
+            frequent.sort((r1, r2) -> conditionalCounts[r1] != conditionalCounts[r2] ?
+                    -Double.compare(conditionalCounts[r1], conditionalCounts[r2]) :
+                    Integer.compare(r1, r2));
+            int[] conditionalRanks = new int[rank];
+            Arrays.fill(conditionalRanks, NONE);
+            int[] items = new int[frequent.size()];
+            for (int i = 0; i < items.length; ++i) {
+                conditionalRanks[frequent.get(i)] = i;
+                items[i] = rankedItems[frequent.get(i)];
+            }
 
-            for (ItemsetWithCount i : singlePathItemsets) {
-                for (ItemsetWithCount j : branchingItemsets) {
-                    Set<Integer> combinedItems = new HashSet<>();
-                    combinedItems.addAll(i.getItems());
-                    combinedItems.addAll(j.getItems());
+            FPTree conditionalTree = new FPTree(items);
+            int[] path = new int[items.length];
+            for (int node = heads[rank]; node != NONE; node = nextLinks[node]) {
+                int length = 0;
+                for (int cur = parents[node]; cur != ROOT; cur = parents[cur]) {
+                    int conditionalRank = conditionalRanks[nodeItems[cur]];
+                    if (conditionalRank != NONE) {
+                        path[length++] = conditionalRank;
+                    }
+                }
 
-                    ret.add(new ItemsetWithCount(combinedItems, Math.min(i.getCount(), j.getCount())));
+                if (length > 0) {
+                    Arrays.sort(path, 0, length);
+                    conditionalTree.insertRanks(path, length, nodeCounts[node]);
                 }
             }
+            return conditionalTree;
+        }
+    }
 
-            return ret;
+    private static class MineTask extends RecursiveTask<List<ItemsetWithCount>> {
+        private final FPTree tree;
+        private final int[] suffix;
+        private final double supportCountRequired;
+        // header item to mine, or all of them if NONE
+        private final int rank;
+
+        MineTask(FPTree tree, int[] suffix, double supportCountRequired, int rank) {
+            this.tree = tree;
+            this.suffix = suffix;
+            this.supportCountRequired = supportCountRequired;
+            this.rank = rank;
+        }
+
+        @Override
+        protected List<ItemsetWithCount> compute() {
+            return rank == FPTree.NONE ?
+                   tree.mine(suffix, supportCountRequired) :
+                   tree.mineItem(rank, suffix, supportCountRequired);
         }
     }
 
+    private static Set<Integer> toSet(int[] items, int length) {
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < length; ++i) {
+            set.add(items[i]);
+        }
+        return set;
+    }
 
     public List<ItemsetWithCount> getItemsetsWithSupportRatio(List<Set<Integer>> transactions,
                                                               Double supportRatio) {
@@ -450,9 +418,7 @@ public class FPGrowth {
         long st = System.currentTimeMillis();
 
         Timer.Context context = singleItemCounts.time();
-        if (initialCounts == null) {
-            fp.insertFrequentItems(transactions, countRequiredForSupport);
-        } else {
+        if (initialCounts != null) {
             fp.setFrequentCounts(initialCounts);
         }
 
@@ -477,33 +443,4 @@ public class FPGrowth {
 
         return ret;
     }
-
-    // ugh, this is a really ugly function sig, but it's efficient
-    public List<ItemsetWithCount> getCounts(
-            List<Datum> transactions,
-            Map<Integer, Double> initialCounts,
-            Set<Integer> targetItems,
-            List<ItemsetWithCount> toCount) {
-        FPTree countTree = new FPTree();
-
-        Map<Integer, Double> frequentCounts = new HashMap<>();
-
-        for (Integer i : targetItems) {
-            Double initialCount = initialCounts.get(i);
-            if (initialCount == null) {
-                initialCount = 0.;
-            }
-            frequentCounts.put(i, initialCount);
-        }
-
-        countTree.setFrequentCounts(frequentCounts);
-        countTree.insertDatum(transactions);
-
-        List<ItemsetWithCount> ret = new ArrayList<>();
-        for (ItemsetWithCount c : toCount) {
-            ret.add(new ItemsetWithCount(c.getItems(), countTree.getSupport(c.getItems())));
-        }
-
-        return ret;
-    }
 }
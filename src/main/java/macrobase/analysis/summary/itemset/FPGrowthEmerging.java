@@ -13,6 +13,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import static com.codahale.metrics.MetricRegistry.name;
 
@@ -22,12 +24,22 @@ public class FPGrowthEmerging {
     private final Timer inlierRatio = MacroBase.metrics.timer(name(FPGrowthEmerging.class, "inlierRatio"));
 
     private final boolean combinationsEnabled;
+    private final boolean columnar;
 
     @SuppressWarnings("unused")
     private static final Logger log = LoggerFactory.getLogger(FPGrowthEmerging.class);
 
     public FPGrowthEmerging(boolean combinationsEnabled) {
+        this(combinationsEnabled, false);
+    }
+
+    /**
+     * @param columnar mine itemsets over per-item row bitmaps ({@link ColumnarItemsets})
+     *                 instead of outlier transactions and FP-trees
+     */
+    public FPGrowthEmerging(boolean combinationsEnabled, boolean columnar) {
         this.combinationsEnabled = combinationsEnabled;
+        this.columnar = columnar;
     }
 
     private List<ItemsetResult> getSingletonItemsets(List<Datum> inliers,
@@ -78,6 +90,9 @@ public class FPGrowthEmerging {
         if (!combinationsEnabled || inliers.get(0).getAttributes().size() == 1) {
             return getSingletonItemsets(inliers, outliers, minSupport, minRatio, encoder);
         }
+        if (columnar) {
+            return getColumnarItemsets(inliers, outliers, minSupport, minRatio, encoder);
+        }
 
         Context context = singleItemCounts.time();
         ArrayList<Set<Integer>> outlierTransactions = new ArrayList<>();
@@ -131,12 +146,77 @@ public class FPGrowthEmerging {
         context.stop();
 
         context = inlierRatio.time();
+        List<ItemsetResult> ret = scoreItemsets(
+                iwc,
+                inliers.size(),
+                outliers.size(),
+                minRatio,
+                item -> inlierCounts.getOrDefault(item, 0.),
+                sets -> {
+                    List<Set<Integer>> candidates = new ArrayList<>(sets.size());
+                    sets.forEach(i -> candidates.add(i.getItems()));
+                    long[] counts = new CandidateItemsetCounter(candidates).count(inliers);
+                    List<ItemsetWithCount> matchingInlierCounts = new ArrayList<>(sets.size());
+                    for (int i = 0; i < counts.length; ++i) {
+                        matchingInlierCounts.add(new ItemsetWithCount(candidates.get(i), counts[i]));
+                    }
+                    return matchingInlierCounts;
+                },
+                encoder);
+        context.stop();
+
+        return ret;
+    }
+
+    private List<ItemsetResult> getColumnarItemsets(List<Datum> inliers,
+                                                    List<Datum> outliers,
+                                                    double minSupport,
+                                                    double minRatio,
+                                                    DatumEncoder encoder) {
+        Context context = singleItemCounts.time();
+        ColumnarItemsets index = new ColumnarItemsets(inliers, outliers, (int) (outliers.size() * minSupport), minRatio);
+        context.stop();
 
+        context = outlierFPGrowth.time();
+        List<ItemsetWithCount> iwc = index.mineOutlierItemsets();
+        context.stop();
+
+        context = inlierRatio.time();
+        List<ItemsetResult> ret = scoreItemsets(
+                iwc,
+                inliers.size(),
+                outliers.size(),
+                minRatio,
+                item -> index.getInlierCount(Collections.singleton(item)),
+                sets -> {
+                    List<ItemsetWithCount> counts = new ArrayList<>(sets.size());
+                    for (ItemsetWithCount i : sets) {
+                        counts.add(new ItemsetWithCount(i.getItems(), index.getInlierCount(i.getItems())));
+                    }
+                    return counts;
+                },
+                encoder);
+        context.stop();
+
+        return ret;
+    }
+
+    /**
+     * Deduplicates the frequent outlier itemsets and keeps those with a high enough
+     * outlier/inlier ratio. Inlier counts of single items come from singleInlierCount;
+     * those of larger itemsets are counted in one call to inlierCounter.
+     */
+    private List<ItemsetResult> scoreItemsets(List<ItemsetWithCount> iwc,
+                                              int numInliers,
+                                              int numOutliers,
+                                              double minRatio,
+                                              ToDoubleFunction<Integer> singleInlierCount,
+                                              Function<List<ItemsetWithCount>, List<ItemsetWithCount>> inlierCounter,
+                                              DatumEncoder encoder) {
         iwc.sort((x, y) -> x.getCount() != y.getCount() ?
                 -Double.compare(x.getCount(), y.getCount()) :
                 -Double.compare(x.getItems().size(), y.getItems().size()));
 
-        Set<Integer> ratioItemsToCheck = new HashSet<>();
         List<ItemsetWithCount> ratioSetsToCheck = new ArrayList<>();
         List<ItemsetResult> ret = new ArrayList<>();
 
@@ -156,34 +236,25 @@ public class FPGrowthEmerging {
 
             if (i.getItems().size() == 1) {
                 double ratio = 0;
-                Number inlierCount = inlierCounts.get(i.getItems().iterator().next());
+                double inlierCount = singleInlierCount.applyAsDouble(i.getItems().iterator().next());
 
-                if (inlierCount != null && inlierCount.doubleValue() > 0) {
-                    ratio = (i.getCount() / outliers.size()) / ((double) inlierCount / inliers.size());
+                if (inlierCount > 0) {
+                    ratio = (i.getCount() / numOutliers) / (inlierCount / numInliers);
                 } else {
                     ratio = Double.POSITIVE_INFINITY;
                 }
 
-                ret.add(new ItemsetResult(i.getCount() / (double) outliers.size(),
+                ret.add(new ItemsetResult(i.getCount() / (double) numOutliers,
                                           i.getCount(),
                                           ratio,
                                           encoder.getColsFromAttrSet(i.getItems())));
             } else {
-                ratioItemsToCheck.addAll(i.getItems());
                 ratioSetsToCheck.add(i);
             }
         }
 
         // check the ratios of any itemsets we just marked
-        FPGrowth inlierTree = new FPGrowth();
-        //int newSize = Math.min(inliers.size(), outliers.size()*100);
-        //log.debug("Truncating inliers (size {}) to size {} (outlier size: {})",
-        //          inliers.size(), newSize, outliers.size());
-        //inliers = inliers.subList(0, newSize);
-        List<ItemsetWithCount> matchingInlierCounts = inlierTree.getCounts(inliers,
-                                                                           inlierCounts,
-                                                                           ratioItemsToCheck,
-                                                                           ratioSetsToCheck);
+        List<ItemsetWithCount> matchingInlierCounts = inlierCounter.apply(ratioSetsToCheck);
 
         assert (matchingInlierCounts.size() == ratioSetsToCheck.size());
         for (int i = 0; i < matchingInlierCounts.size(); ++i) {
@@ -192,21 +263,19 @@ public class FPGrowthEmerging {
 
             double ratio;
             if (ic.getCount() > 0) {
-                ratio = (oc.getCount() / outliers.size()) / (ic.getCount() / inliers.size());
+                ratio = (oc.getCount() / numOutliers) / (ic.getCount() / numInliers);
             } else {
                 ratio = Double.POSITIVE_INFINITY;
             }
 
             if (ratio >= minRatio) {
-                ret.add(new ItemsetResult(oc.getCount() / (double) outliers.size(),
+                ret.add(new ItemsetResult(oc.getCount() / (double) numOutliers,
                                           oc.getCount(),
                                           ratio,
                                           encoder.getColsFromAttrSet(oc.getItems())));
             }
         }
 
-        context.stop();
-
         // finally sort one last time
         ret.sort((x, y) -> x.getNumRecords() != y.getNumRecords() ?
                 -Double.compare(x.getNumRecords(), y.getNumRecords()) :
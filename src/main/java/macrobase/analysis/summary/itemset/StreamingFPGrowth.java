@@ -8,6 +8,7 @@ import com.google.common.collect.Sets;
 
 import macrobase.MacroBase;
 import macrobase.analysis.summary.itemset.result.ItemsetWithCount;
+import macrobase.util.ForwardDecay;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,8 +36,25 @@ public class StreamingFPGrowth {
         this.support = support;
     }
 
+    /**
+     * Streaming FP-tree with forward-decayed counts.
+     *
+     * Rather than multiplying every count on each decay period, counts are kept relative to
+     * a landmark: an item seen now is added with the current weight, and decaying by r just
+     * divides that weight by (1 - r). Dividing any stored count by the weight gives its
+     * decayed value, so decay is O(1); once the weight grows too large, all counts are
+     * rescaled in a single walk and the landmark moves up.
+     *
+     * When the frequent item order changes, only the subtrees of nodes that now sit out of
+     * order relative to their parent are re-sorted; the rest of the tree stays as it is.
+     */
     class StreamingFPTree {
+        // Relative residue below which a count left by subtracting others is taken as zero
+        private static final double COUNT_TOLERANCE = 1e-9;
+
         private FPTreeNode root = new FPTreeNode(-1, null, 0);
+        // Weight of an item seen now, relative to the landmark
+        private double weight = 1;
         // used to calculate the order
         private Map<Integer, Double> frequentItemCounts = new HashMap<>();
 
@@ -45,9 +63,8 @@ public class StreamingFPGrowth {
 
         protected Map<Integer, FPTreeNode> nodeHeaders = new HashMap<>();
 
-        protected Set<FPTreeNode> leafNodes = new HashSet<>();
-
-        Set<FPTreeNode> sortedNodes = new HashSet<>();
+        // nodes out of order relative to their parent since the last order update
+        private List<FPTreeNode> unsortedNodes = new ArrayList<>();
 
         private void printTreeDebug() {
             log.debug("Frequent Item Counts:");
@@ -61,28 +78,31 @@ public class StreamingFPGrowth {
             walkTree(root, 1);
         }
 
-        // todo: make more efficient
-        private void decayWeights(FPTreeNode start, double decayWeight) {
-            if (start == root) {
+        private void decay(double decayRate) {
+            weight /= 1 - decayRate;
+            if (weight > ForwardDecay.MAX_WEIGHT) {
+                rescale(root, 1 / weight);
                 for (Integer item : frequentItemCounts.keySet()) {
-                    frequentItemCounts.put(item, frequentItemCounts.get(item) * decayWeight);
+                    frequentItemCounts.put(item, frequentItemCounts.get(item) / weight);
                 }
+                weight = 1;
             }
+        }
 
-            start.count *= decayWeight;
+        private void rescale(FPTreeNode start, double factor) {
+            start.count *= factor;
             if (start.getChildren() != null) {
                 for (FPTreeNode child : start.getChildren()) {
-                    decayWeights(child, decayWeight);
+                    rescale(child, factor);
                 }
             }
         }
 
 
         private void walkTree(FPTreeNode start, int treeDepth) {
-            log.debug("{} node: {}, count: {}, sorted: {}",
+            log.debug("{} node: {}, count: {}",
                       new String(new char[treeDepth]).replaceAll("\0", "\t"),
-                      start.getItem(), start.getCount(),
-                      sortedNodes.contains(start));
+                      start.getItem(), start.getCount());
             if (start.getChildren() != null) {
                 for (FPTreeNode child : start.getChildren()) {
                     walkTree(child, treeDepth + 1);
@@ -156,8 +176,6 @@ public class StreamingFPGrowth {
             }
 
             public void mergeChildren(List<FPTreeNode> otherChildren) {
-                assert (!hasChildren() || !leafNodes.contains(this));
-
                 if (otherChildren == null) {
                     return;
                 }
@@ -167,7 +185,6 @@ public class StreamingFPGrowth {
                     for (FPTreeNode child : otherChildren) {
                         child.parent = this;
                     }
-                    leafNodes.remove(this);
 
                     return;
                 }
@@ -198,12 +215,7 @@ public class StreamingFPGrowth {
             // then find the child that matches
             public void insertTransaction(List<Integer> fullTransaction,
                                           int currentIndex,
-                                          final double itemCount,
-                                          boolean streaming) {
-                if (!streaming) {
-                    sortedNodes.add(this);
-                }
-
+                                          final double itemCount) {
                 incrementCount(itemCount);
 
                 if (currentIndex == fullTransaction.size()) {
@@ -226,10 +238,6 @@ public class StreamingFPGrowth {
                 if (matchingChild == null) {
                     matchingChild = new FPTreeNode(currentItem, this, 0);
 
-                    if (!streaming) {
-                        sortedNodes.add(matchingChild);
-                    }
-
                     FPTreeNode prevHeader = nodeHeaders.get(currentItem);
                     nodeHeaders.put(currentItem, matchingChild);
 
@@ -243,19 +251,13 @@ public class StreamingFPGrowth {
                     }
 
                     children.add(matchingChild);
-
-                    if (currentIndex == fullTransaction.size() - 1) {
-                        leafNodes.add(matchingChild);
-                    }
-
-                    leafNodes.remove(this);
                 }
 
-                matchingChild.insertTransaction(fullTransaction, currentIndex + 1, itemCount, streaming);
+                matchingChild.insertTransaction(fullTransaction, currentIndex + 1, itemCount);
             }
         }
 
-        public int getSupport(Collection<Integer> pattern) {
+        public double getSupport(Collection<Integer> pattern) {
             for (Integer i : pattern) {
                 if (!frequentItemCounts.containsKey(i)) {
                     return 0;
@@ -266,7 +268,7 @@ public class StreamingFPGrowth {
             // traverse bottom to top
             plist.sort((i1, i2) -> frequentItemOrder.get(i1).compareTo(frequentItemOrder.get(i2)));
 
-            int count = 0;
+            double count = 0;
             FPTreeNode pathHead = nodeHeaders.get(plist.get(0));
             while (pathHead != null) {
                 FPTreeNode curNode = pathHead;
@@ -304,18 +306,11 @@ public class StreamingFPGrowth {
 
             for (Map.Entry<Integer, Double> e : itemCounts.entrySet()) {
                 if (e.getValue() >= countRequiredForSupport) {
-                    frequentItemCounts.put(e.getKey(), e.getValue());
+                    frequentItemCounts.put(e.getKey(), e.getValue() * weight);
                 }
             }
 
-            // we have to materialize a canonical order so that items with equal counts
-            // are consistently ordered when they are sorted during transaction insertion
-            List<Map.Entry<Integer, Double>> sortedItemCounts = Lists.newArrayList(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
-            }
+            frequentItemOrder = canonicalOrder();
 
             context.stop();
         }
@@ -337,8 +332,6 @@ public class StreamingFPGrowth {
                         nodeToDelete.parent.mergeChildren(nodeToDelete.children);
                     }
 
-                    leafNodes.remove(nodeToDelete);
-
                     nodeToDelete = nodeToDelete.getNextLink();
                 }
 
@@ -346,27 +339,60 @@ public class StreamingFPGrowth {
             }
         }
 
+        private Map<Integer, Integer> canonicalOrder() {
+            // we have to materialize a canonical order so that items with equal counts
+            // are consistently ordered when they are sorted during transaction insertion
+            List<Map.Entry<Integer, Double>> sortedItemCounts = Lists.newArrayList(frequentItemCounts.entrySet());
+            sortedItemCounts.sort((i1, i2) -> !i1.getValue().equals(i2.getValue()) ?
+                    i1.getValue().compareTo(i2.getValue()) :
+                    i1.getKey().compareTo(i2.getKey()));
+            Map<Integer, Integer> order = new HashMap<>();
+            for (int i = 0; i < sortedItemCounts.size(); ++i) {
+                order.put(sortedItemCounts.get(i).getKey(), i);
+            }
+            return order;
+        }
+
         private void updateFrequentItemOrder() {
             Timer.Context context = updateFrequentItemOrder.time();
 
-            sortedNodes.clear();
+            Map<Integer, Integer> previousOrder = frequentItemOrder;
+            frequentItemOrder = canonicalOrder();
 
-            frequentItemOrder.clear();
+            // only nodes of items whose position changed can now be out of order
+            for (Map.Entry<Integer, Integer> e : frequentItemOrder.entrySet()) {
+                if (e.getValue().equals(previousOrder.get(e.getKey()))) {
+                    continue;
+                }
 
-            // we have to materialize a canonical order so that items with equal counts
-            // are consistently ordered when they are sorted during transaction insertion
-            List<Map.Entry<Integer, Double>> sortedItemCounts = Lists.newArrayList(frequentItemCounts.entrySet());
-            sortedItemCounts.sort((i1, i2) -> frequentItemCounts.get(i1.getKey())
-                    .compareTo(frequentItemCounts.get(i2.getKey())));
-            for (int i = 0; i < sortedItemCounts.size(); ++i) {
-                frequentItemOrder.put(sortedItemCounts.get(i).getKey(), i);
+                for (FPTreeNode node = nodeHeaders.get(e.getKey()); node != null; node = node.getNextLink()) {
+                    if (!isOrdered(node.getParent(), node)) {
+                        unsortedNodes.add(node);
+                    }
+                    if (node.hasChildren()) {
+                        for (FPTreeNode child : node.getChildren()) {
+                            if (!isOrdered(node, child)) {
+                                unsortedNodes.add(child);
+                            }
+                        }
+                    }
+                }
             }
 
             context.stop();
         }
 
+        private boolean isOrdered(FPTreeNode parent, FPTreeNode child) {
+            if (parent == root) {
+                return true;
+            }
+            Integer parentOrder = frequentItemOrder.get(parent.getItem());
+            Integer childOrder = frequentItemOrder.get(child.getItem());
+            return parentOrder != null && childOrder != null && childOrder < parentOrder;
+        }
+
         public void insertConditionalFrequentItems(List<ItemsetWithCount> patterns,
-                                                   int countRequiredForSupport) {
+                                                   double countRequiredForSupport) {
             Map<Integer, Double> itemCounts = new HashMap<>();
 
             for (ItemsetWithCount i : patterns) {
@@ -404,7 +430,7 @@ public class StreamingFPGrowth {
             List<Integer> filtered = pattern.stream().filter(i -> frequentItemCounts.containsKey(i)).collect(
                     Collectors.toList());
             sortTransaction(filtered, false);
-            rootOfBranch.insertTransaction(filtered, 0, count, false);
+            rootOfBranch.insertTransaction(filtered, 0, count);
         }
 
 
@@ -417,7 +443,7 @@ public class StreamingFPGrowth {
         public void insertTransaction(Collection<Integer> transaction, boolean streaming, boolean filterExistingFrequentItemsOnly) {
             if (streaming && !filterExistingFrequentItemsOnly) {
                 for (Integer item : transaction) {
-                    frequentItemCounts.compute(item, (k, v) -> v == null ? 1 : v + 1);
+                    frequentItemCounts.compute(item, (k, v) -> v == null ? weight : v + weight);
                 }
             }
 
@@ -427,16 +453,16 @@ public class StreamingFPGrowth {
             if (!filtered.isEmpty()) {
                 if (streaming && filterExistingFrequentItemsOnly) {
                     for (Integer item : filtered) {
-                        frequentItemCounts.compute(item, (k, v) -> v == null ? 1 : v + 1);
+                        frequentItemCounts.compute(item, (k, v) -> v == null ? weight : v + weight);
                     }
                 }
 
                 sortTransaction(filtered, streaming);
-                root.insertTransaction(filtered, 0, 1, streaming);
+                root.insertTransaction(filtered, 0, weight);
             }
         }
 
-        List<ItemsetWithCount> mineItemsets(Integer supportCountRequired) {
+        List<ItemsetWithCount> mineItemsets(double supportCountRequired) {
             List<ItemsetWithCount> singlePathItemsets = new ArrayList<>();
             List<ItemsetWithCount> branchingItemsets = new ArrayList<>();
 
@@ -576,8 +602,6 @@ public class StreamingFPGrowth {
         }
 
         private void removeNodeFromHeaders(FPTreeNode node) {
-            leafNodes.remove(node);
-
             if (node.getPrevLink() == null) {
                 assert (nodeHeaders.get(node.getItem()) == node);
                 nodeHeaders.put(node.getItem(), node.getNextLink());
@@ -591,70 +615,69 @@ public class StreamingFPGrowth {
         }
 
         private void sortByNewOrder() {
-            // we need to walk the tree from each leaf to each root
-
-            List<FPTreeNode> leavesToInspect = Lists.newArrayList(leafNodes);
+            // every path through an out-of-order node is taken out of the tree and
+            // reinserted from the root in the new order
             Set<FPTreeNode> removedNodes = new HashSet<>();
-            for (int i = 0; i < leavesToInspect.size(); ++i) {
-                FPTreeNode leaf = leavesToInspect.get(i);
-
-                if (leaf == root) {
+            for (FPTreeNode unsorted : unsortedNodes) {
+                if (removedNodes.contains(unsorted)) {
                     continue;
                 }
 
-                if (removedNodes.contains(leaf) || sortedNodes.contains(leaf)) {
-                    continue;
+                List<Integer> prefix = new ArrayList<>();
+                for (FPTreeNode node = unsorted.getParent(); node != root; node = node.getParent()) {
+                    prefix.add(node.getItem());
                 }
 
-                double leafCount = leaf.getCount();
-                Set<Integer> toInsert = new HashSet<>();
-
-                toInsert.add(leaf.getItem());
-
-                assert (!leaf.hasChildren());
-
-                removeNodeFromHeaders(leaf);
-
-                removedNodes.add(leaf);
-
-                int curLowestNodeOrder = frequentItemOrder.get(leaf.getItem());
-
-                FPTreeNode node = leaf.getParent();
-                node.removeChild(leaf);
-                while (true) {
-                    if (node == root) {
-                        break;
-                    }
-
-                    int nodeOrder = frequentItemOrder.get(node.getItem());
-                    if (sortedNodes.contains(node) && nodeOrder < curLowestNodeOrder) {
-                        break;
-                    } else if (nodeOrder < curLowestNodeOrder) {
-                        curLowestNodeOrder = nodeOrder;
-                    }
-
-                    assert (!removedNodes.contains(node));
-
-                    toInsert.add(node.getItem());
+                List<Set<Integer>> paths = new ArrayList<>();
+                List<Double> pathCounts = new ArrayList<>();
+                collectPaths(unsorted, prefix, paths, pathCounts, removedNodes);
 
-                    node.decrementCount(leafCount);
+                double removedCount = unsorted.getCount();
+                FPTreeNode node = unsorted.getParent();
+                node.removeChild(unsorted);
+                while (node != root) {
+                    FPTreeNode parent = node.getParent();
+                    node.decrementCount(removedCount);
                     // this node no longer has support, so remove it...
-                    if (node.getCount() == 0 && !node.hasChildren()) {
+                    if (!node.hasChildren() && node.getCount() <= removedCount * COUNT_TOLERANCE) {
                         removedNodes.add(node);
                         removeNodeFromHeaders(node);
-                        node.getParent().removeChild(node);
-                        // still has support but is unsorted, so we'd better check it out
-                    } else if (!node.hasChildren() && !sortedNodes.contains(node)) {
-                        leavesToInspect.add(node);
+                        parent.removeChild(node);
                     }
+                    node = parent;
+                }
+                root.decrementCount(removedCount);
 
-                    node = node.getParent();
+                for (int i = 0; i < paths.size(); ++i) {
+                    reinsertBranch(paths.get(i), pathCounts.get(i), root);
                 }
+            }
+            unsortedNodes.clear();
+        }
 
-                node.decrementCount(leafCount);
+        // detaches the subtree at node, recording the count of each path that ends in it
+        private void collectPaths(FPTreeNode node,
+                                  List<Integer> prefix,
+                                  List<Set<Integer>> paths,
+                                  List<Double> pathCounts,
+                                  Set<FPTreeNode> removedNodes) {
+            removedNodes.add(node);
+            removeNodeFromHeaders(node);
+            prefix.add(node.getItem());
 
-                reinsertBranch(toInsert, leafCount, node);
+            double endingCount = node.getCount();
+            if (node.hasChildren()) {
+                for (FPTreeNode child : node.getChildren()) {
+                    endingCount -= child.getCount();
+                    collectPaths(child, prefix, paths, pathCounts, removedNodes);
+                }
             }
+            if (endingCount > node.getCount() * COUNT_TOLERANCE) {
+                paths.add(new HashSet<>(prefix));
+                pathCounts.add(endingCount);
+            }
+
+            prefix.remove(prefix.size() - 1);
         }
     }
 
@@ -708,10 +731,14 @@ public class StreamingFPGrowth {
     public void decayAndResetFrequentItems(Map<Integer, Double> newFrequentItems, double decayRate) {
         Set<Integer> toRemove = Sets.difference(fp.frequentItemOrder.keySet(),
                                                 newFrequentItems.keySet()).immutableCopy();
-        fp.frequentItemCounts = newFrequentItems;
-        fp.updateFrequentItemOrder();
+        // the new counts are decayed along with the rest of the tree
+        Map<Integer, Double> frequentItemCounts = new HashMap<>();
+        for (Map.Entry<Integer, Double> e : newFrequentItems.entrySet()) {
+            frequentItemCounts.put(e.getKey(), e.getValue() * fp.weight);
+        }
+        fp.frequentItemCounts = frequentItemCounts;
         if (decayRate > 0) {
-            fp.decayWeights(fp.root, (1 - decayRate));
+            fp.decay(decayRate);
         }
         restructureTree(toRemove);
     }
@@ -723,7 +750,7 @@ public class StreamingFPGrowth {
 
         List<ItemsetWithCount> ret = new ArrayList<>(targets.size());
         for (ItemsetWithCount target : targets) {
-            ret.add(new ItemsetWithCount(target.getItems(), fp.getSupport(target.getItems())));
+            ret.add(new ItemsetWithCount(target.getItems(), fp.getSupport(target.getItems()) / fp.weight));
         }
         return ret;
     }
@@ -734,10 +761,17 @@ public class StreamingFPGrowth {
         }
 
         Timer.Context context = fpMine.time();
-        List<ItemsetWithCount> itemset = fp.mineItemsets((int) (fp.root.getCount() * support));
+        double weight = fp.weight;
+        int supportCountRequired = (int) (fp.root.getCount() / weight * support);
+        List<ItemsetWithCount> itemsets = fp.mineItemsets(supportCountRequired * weight);
         context.stop();
 
-        return itemset;
+        // report decayed counts
+        List<ItemsetWithCount> ret = new ArrayList<>(itemsets.size());
+        for (ItemsetWithCount i : itemsets) {
+            ret.add(new ItemsetWithCount(i.getItems(), i.getCount() / weight));
+        }
+        return ret;
     }
 
     public void printTreeDebug() {
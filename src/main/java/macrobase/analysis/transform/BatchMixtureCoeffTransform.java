@@ -4,9 +4,12 @@ import macrobase.analysis.stats.mixture.BatchMixtureModel;
 import macrobase.conf.ConfigurationException;
 import macrobase.conf.MacroBaseConf;
 import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
+import org.apache.commons.math3.linear.ArrayRealVector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,9 +29,16 @@ public class BatchMixtureCoeffTransform extends BatchScoreFeatureTransform {
     @Override
     public void consume(List<Datum> records) {
         long startMs = System.currentTimeMillis();
-        mixtureModel.train(records);
-        for (Datum d : records) {
-            output.add(new Datum(d, mixtureModel.getClusterProbabilities(d)));
+        if (records.isEmpty()) {
+            return;
+        }
+        trainModel(records);
+        // One parallel pass for the whole batch; each output row wraps its own slice
+        double[] probabilities = mixtureModel.getClusterProbabilities(AlgebraUtils.flattenMetrics(records));
+        final int K = probabilities.length / records.size();
+        for (int n = 0; n < records.size(); n++) {
+            double[] row = Arrays.copyOfRange(probabilities, n * K, (n + 1) * K);
+            output.add(new Datum(records.get(n), new ArrayRealVector(row, false)));
         }
         long endMs = System.currentTimeMillis();
         log.debug("mixture model took: {} milliseconds", endMs - startMs);
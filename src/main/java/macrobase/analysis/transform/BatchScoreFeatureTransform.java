@@ -2,23 +2,41 @@ package macrobase.analysis.transform;
 
 import macrobase.analysis.pipeline.stream.MBStream;
 import macrobase.analysis.stats.BatchTrainScore;
+import macrobase.analysis.stats.ModelStore;
+import macrobase.analysis.stats.PersistentModel;
 import macrobase.conf.ConfigurationException;
 import macrobase.conf.MacroBaseConf;
+import macrobase.conf.MacroBaseDefaults;
 import macrobase.datamodel.Datum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 public class BatchScoreFeatureTransform extends FeatureTransform {
+    private static final Logger log = LoggerFactory.getLogger(BatchScoreFeatureTransform.class);
     protected BatchTrainScore batchTrainScore;
     protected MacroBaseConf conf;
 
     private boolean requiresTraining = true;
+    // Where the trained model is saved, or null to not persist it
+    private String modelFile;
+    private boolean warmStart;
+    private int warmStartIterations;
+    // Whether the model in memory has been trained or loaded by an earlier batch
+    private boolean modelReady = false;
     protected final MBStream<Datum> output = new MBStream<>();
 
     public BatchScoreFeatureTransform(MacroBaseConf conf, MacroBaseConf.TransformType transformType)
             throws ConfigurationException {
         this.batchTrainScore = conf.constructTransform(transformType);
         this.conf = conf;
+        this.modelFile = conf.getString(MacroBaseConf.MODEL_FILE, null);
+        this.warmStart = conf.getBoolean(MacroBaseConf.MODEL_WARM_START, MacroBaseDefaults.MODEL_WARM_START);
+        this.warmStartIterations = conf.getInt(MacroBaseConf.MODEL_WARM_START_ITERATIONS,
+                                               MacroBaseDefaults.MODEL_WARM_START_ITERATIONS);
     }
 
     public BatchScoreFeatureTransform(BatchTrainScore batchTrainScore, boolean requiresTraining) {
@@ -34,12 +52,51 @@ public class BatchScoreFeatureTransform extends FeatureTransform {
     @Override
     public void consume(List<Datum> records) {
         if(requiresTraining)
-            batchTrainScore.train(records);
+            trainModel(records);
         for(Datum d : records) {
             output.add(new Datum(d, batchTrainScore.score(d)));
         }
     }
 
+    /**
+     * Trains the model on the records. If a model file is configured, the trained model is
+     * saved to it, and in warm-start mode the model is only refined for a few iterations
+     * instead of being trained from scratch: the first batch starts from a model saved by an
+     * earlier run, later batches from the model already in memory.
+     */
+    protected void trainModel(List<Datum> records) {
+        if (modelFile == null || !(batchTrainScore instanceof PersistentModel)) {
+            batchTrainScore.train(records);
+            return;
+        }
+
+        PersistentModel model = (PersistentModel) batchTrainScore;
+        File file = new File(modelFile);
+        boolean loaded = warmStart && modelReady;
+        if (warmStart && !modelReady && file.exists()) {
+            try {
+                ModelStore.load(model, file);
+                loaded = true;
+                log.debug("warm-starting from {}", file);
+            } catch (IOException e) {
+                log.warn("could not warm-start from {}, training from scratch: {}", file, e.getMessage());
+            }
+        }
+        if (loaded) {
+            log.debug("refining model with {} iterations", warmStartIterations);
+            model.refine(records, warmStartIterations);
+        } else {
+            batchTrainScore.train(records);
+        }
+        modelReady = true;
+
+        try {
+            ModelStore.save(model, file);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to save model to " + file, e);
+        }
+    }
+
     @Override
     public void shutdown() {
 
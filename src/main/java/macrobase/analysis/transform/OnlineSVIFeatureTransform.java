@@ -0,0 +1,133 @@
+package macrobase.analysis.transform;
+
+import macrobase.analysis.pipeline.stream.MBStream;
+import macrobase.analysis.stats.BatchTrainScore;
+import macrobase.analysis.stats.mixture.VarGMM;
+import macrobase.conf.ConfigurationException;
+import macrobase.conf.MacroBaseConf;
+import macrobase.conf.MacroBaseDefaults;
+import macrobase.datamodel.Datum;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming alternative to {@link EWFeatureTransform} for the variational mixture models:
+ * instead of keeping a reservoir and periodically retraining from scratch, the model is
+ * trained once on the warm-up tuples and then takes one stochastic variational step per
+ * minibatch of incoming tuples. Only the global variational parameters and the current
+ * minibatch are kept, so memory does not grow with the stream.
+ *
+ * Each minibatch is treated as a sample from a population the size of the input reservoir
+ * it replaces. The step size decays as (t + delay)^-forgettingRate but never below minPace,
+ * so the model keeps following drift in the data.
+ */
+public class OnlineSVIFeatureTransform extends FeatureTransform {
+    private final VarGMM model;
+    private final int warmupCount;
+    private final int minibatchSize;
+    private final double populationSize;
+    private final double delay;
+    private final double forgettingRate;
+    private final double minPace;
+
+    private final List<Datum> warmupInput = new ArrayList<>();
+    private final List<Datum> miniBatch = new ArrayList<>();
+    private int tupleCount = 0;
+    private int iteration = 0;
+
+    private final MBStream<Datum> output = new MBStream<>();
+
+    public OnlineSVIFeatureTransform(MacroBaseConf conf) throws ConfigurationException {
+        this(conf,
+             conf.getTransformType(),
+             conf.getInt(MacroBaseConf.WARMUP_COUNT, MacroBaseDefaults.WARMUP_COUNT),
+             conf.getInt(MacroBaseConf.SVI_MINIBATCH_SIZE, MacroBaseDefaults.SVI_MINIBATCH_SIZE),
+             conf.getInt(MacroBaseConf.INPUT_RESERVOIR_SIZE, MacroBaseDefaults.INPUT_RESERVOIR_SIZE),
+             conf.getDouble(MacroBaseConf.SVI_DELAY, MacroBaseDefaults.SVI_DELAY),
+             conf.getDouble(MacroBaseConf.SVI_FORGETTING_RATE, MacroBaseDefaults.SVI_FORGETTING_RATE),
+             conf.getDouble(MacroBaseConf.SVI_MIN_PACE, MacroBaseDefaults.SVI_MIN_PACE));
+    }
+
+    public OnlineSVIFeatureTransform(MacroBaseConf conf,
+                                     MacroBaseConf.TransformType transformType,
+                                     int warmupCount,
+                                     int minibatchSize,
+                                     int populationSize,
+                                     double delay,
+                                     double forgettingRate,
+                                     double minPace) throws ConfigurationException {
+        BatchTrainScore scorer = conf.constructTransform(transformType);
+        if (!(scorer instanceof VarGMM)) {
+            throw new ConfigurationException(
+                    String.format("online SVI needs a variational mixture model, got %s", transformType));
+        }
+        this.model = (VarGMM) scorer;
+        this.warmupCount = Math.max(1, warmupCount);
+        this.minibatchSize = minibatchSize;
+        this.populationSize = populationSize;
+        this.delay = delay;
+        this.forgettingRate = forgettingRate;
+        this.minPace = minPace;
+    }
+
+    @Override
+    public void initialize() {
+
+    }
+
+    @Override
+    public void consume(List<Datum> records) {
+        List<Datum> batchOutput = new ArrayList<>(records.size());
+        for (Datum d : records) {
+            tupleCount++;
+
+            if (tupleCount < warmupCount) {
+                warmupInput.add(d);
+                continue;
+            }
+
+            if (tupleCount == warmupCount) {
+                warmupInput.add(d);
+                model.initializeOnline(warmupInput);
+                for (int i = 0; i < warmupInput.size(); i += minibatchSize) {
+                    update(warmupInput.subList(i, Math.min(warmupInput.size(), i + minibatchSize)));
+                }
+                for (Datum di : warmupInput) {
+                    batchOutput.add(new Datum(di, model.score(di)));
+                }
+                warmupInput.clear();
+                continue;
+            }
+
+            batchOutput.add(new Datum(d, model.score(d)));
+            miniBatch.add(d);
+            if (miniBatch.size() >= minibatchSize) {
+                update(miniBatch);
+                miniBatch.clear();
+            }
+        }
+
+        output.add(batchOutput);
+    }
+
+    private void update(List<Datum> batch) {
+        iteration++;
+        double pace = Math.max(minPace, Math.pow(iteration + delay, -forgettingRate));
+        model.onlineUpdate(batch, pace, populationSize);
+    }
+
+    public VarGMM getModel() {
+        return model;
+    }
+
+    @Override
+    public void shutdown() {
+
+    }
+
+    @Override
+    public MBStream<Datum> getStream() {
+        return output;
+    }
+}
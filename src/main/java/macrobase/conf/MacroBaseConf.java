@@ -22,9 +22,13 @@ public class MacroBaseConf extends Configuration {
 
     public static final String ZSCORE = "macrobase.analysis.zscore.threshold";
     public static final String TARGET_PERCENTILE = "macrobase.analysis.targetPercentile";
+    // Rank error of the quantile sketch used for the percentile cutoff; unset computes it exactly.
+    public static final String PERCENTILE_SKETCH_ERROR = "macrobase.analysis.percentileSketchError";
     public static final String MIN_SUPPORT = "macrobase.analysis.minSupport";
     public static final String MIN_OI_RATIO = "macrobase.analysis.minOIRatio";
     public static final String ATTRIBUTE_COMBINATIONS = "macrobase.analysis.summary.findAttributeCombinations";
+    // Mine attribute combinations over per-value row bitmaps instead of FP-trees in batch summaries.
+    public static final String COLUMNAR_ITEMSETS = "macrobase.analysis.summary.columnarItemsets";
 
     public static final String RANDOM_SEED = "macrobase.analysis.randomSeed";
     public static final String USE_PERCENTILE = "macrobase.analysis.usePercentile";
@@ -40,11 +44,15 @@ public class MacroBaseConf extends Configuration {
     public static final String DECAY_TYPE = "macrobase.analysis.streaming.decayType";
     public static final String DECAY_RATE = "macrobase.analysis.streaming.decayRate";
     public static final String MODEL_UPDATE_PERIOD = "macrobase.analysis.streaming.modelUpdatePeriod";
+    // Update a variational mixture model online instead of retraining it on a reservoir.
+    public static final String ONLINE_SVI = "macrobase.analysis.streaming.onlineSvi";
     public static final String OUTLIER_ITEM_SUMMARY_SIZE = "macrobase.analysis.streaming.outlierSummarySize";
     public static final String INLIER_ITEM_SUMMARY_SIZE = "macrobase.analysis.streaming.inlierItemSummarySize";
 
     public static final String TUPLE_WINDOW = "macrobase.analysis.timeseries.tupleWindow";
     public static final String WINDOW_SIZE = "macrobase.analysis.timeseries.windowSize";
+    // Index of the attribute whose values key independent moving-average series; unset for one series.
+    public static final String MOVING_AVERAGE_KEY_ATTRIBUTE = "macrobase.analysis.timeseries.movingAverageKeyAttribute";
 
     public static final String MCD_ALPHA = "macrobase.analysis.mcd.alpha";
     public static final String MCD_STOPPING_DELTA = "macrobase.analysis.mcd.stoppingDelta";
@@ -57,6 +65,14 @@ public class MacroBaseConf extends Configuration {
     public static final String SVI_DELAY = "macrobase.analysis.stat.svi.delay";
     public static final String SVI_FORGETTING_RATE = "macrobase.analysis.stat.svi.forgettingRate";
     public static final String SVI_MINIBATCH_SIZE = "macrobase.analysis.stat.svi.minibatchSize";
+    // Lower bound on the SVI step size in online mode, so the model keeps tracking drift.
+    public static final String SVI_MIN_PACE = "macrobase.analysis.stat.svi.minPace";
+
+    // Binary file a trained model is saved to after each batch, and warm-started from.
+    public static final String MODEL_FILE = "macrobase.analysis.model.file";
+    public static final String MODEL_WARM_START = "macrobase.analysis.model.warmStart";
+    // Refinement iterations to run when warm-starting from a saved model.
+    public static final String MODEL_WARM_START_ITERATIONS = "macrobase.analysis.model.warmStartIterations";
 
     // Algorithm to use when choosing the bandwidth for the given data.
     public static final String KDE_BANDWIDTH_ALGORITHM = "macrobase.analysis.kde.bandwidthAlgorithm";
@@ -66,6 +82,8 @@ public class MacroBaseConf extends Configuration {
     public static final String KDE_BANDWIDTH_MULTIPLIER = "macrobase.analysis.kde.bandwidthMultiplier";
     public static final String KDE_KERNEL_TYPE = "macrobase.analysis.kde.kernelType";
     public static final String BINNED_KDE_BINS = "macrobase.analysis.binnedKde.numBins";
+    // Upper bound on the number of (unpadded) grid cells across all dimensions.
+    public static final String BINNED_KDE_MAX_GRID_CELLS = "macrobase.analysis.binnedKde.maxGridCells";
     public static final String KDTREE_LEAF_CAPACITY = "macrobase.analysis.treeKde.leafCapacity";
     public static final String TREE_KDE_ACCURACY = "macrobase.analysis.treeKde.accuracy";
 
@@ -73,7 +91,12 @@ public class MacroBaseConf extends Configuration {
 
     public static final String TRUNCATE_K = "macrobase.analysis.truncate.k";
 
-    public static final String R_LOG_FILE = "macrobase.analysis.r.logfile";
+    // Points per metric in the sliding DFT window, and the frequency bins it tracks (all of 0..W/2 if unset).
+    public static final String SLIDING_DFT_WINDOW = "macrobase.analysis.slidingDft.windowSize";
+    public static final String SLIDING_DFT_BINS = "macrobase.analysis.slidingDft.bins";
+
+    // Tuples between re-selecting the ARIMA model order and parameters; defaults to the tuple window.
+    public static final String ARIMA_REFIT_PERIOD = "macrobase.analysis.arima.refitPeriod";
     public static final String STORE_ANALYSIS_RESULTS = "macrobase.analysis.results.store";
 
     public static final String DATA_LOADER_TYPE = "macrobase.loader.loaderType";
@@ -108,6 +131,17 @@ public class MacroBaseConf extends Configuration {
     public static final String CONTEXTUAL_PRUNING_DISTRIBUTION_FOR_TRAINING = "macrobase.analysis.contextual.pruning.distributionForTraining";
     public static final String CONTEXTUAL_PRUNING_DISTRIBUTION_FOR_SCORING = "macrobase.analysis.contextual.pruning.distributionForScoring";
     public static final String OUTLIER_STATIC_THRESHOLD = "macrobase.analysis.classify.outlierStaticThreshold";
+    // Classify streaming data against per-key thresholds instead of one global percentile.
+    public static final String KEYED_CLASSIFIER = "macrobase.analysis.classify.keyed";
+    // Keyed streaming classifier: attribute index whose values each get their own threshold,
+    // per-key sketch error, tuples a key needs before it uses its own threshold, and the most
+    // keys kept before the least recently seen are evicted.
+    public static final String KEYED_CLASSIFIER_KEY_ATTRIBUTE = "macrobase.analysis.classify.keyAttribute";
+    public static final String KEYED_CLASSIFIER_SKETCH_ERROR = "macrobase.analysis.classify.keySketchError";
+    public static final String KEYED_CLASSIFIER_WARMUP_COUNT = "macrobase.analysis.classify.keyWarmupCount";
+    public static final String KEYED_CLASSIFIER_MAX_KEYS = "macrobase.analysis.classify.maxKeys";
+    // Percentile gap below the target percentile a key must fall under to leave the outlier state.
+    public static final String KEYED_CLASSIFIER_HYSTERESIS = "macrobase.analysis.classify.hysteresis";
 
     public static final String TARGET_GROUP = "macrobase.analysis.classify.targetGroup";
     public static final String SCORE_DUMP_FILE_CONFIG_PARAM = "macrobase.diagnostic.dumpScoreFile";
@@ -117,6 +151,7 @@ public class MacroBaseConf extends Configuration {
     public static final String SCORED_DATA_FILE = "macrobase.diagnostic.scoreDataFile";
     public static final String DUMP_MIXTURE_COMPONENTS = "macrobase.diagnostic.dumpMixtureComponents";
     public static final String MIXTURE_CENTERS_FILE = "macrobase.analysis.stat.mixtures.initialClusters";
+    public static final String MIXTURE_CENTER_INITIALIZATION = "macrobase.analysis.stat.mixtures.centerInitialization";
     public static final String TRAIN_TEST_SPLIT = "macrobase.analysis.stat.trainTestSplit";
 
     private final DatumEncoder datumEncoder;
@@ -225,6 +260,9 @@ public class MacroBaseConf extends Configuration {
             case MOVING_AVERAGE:
                 log.info("Using Moving Average transform.");
                 return new MovingAverage(this);
+            case ARIMA:
+                log.info("Using ARIMA transform.");
+                return new ARIMA(this);
             case BAYESIAN_NORMAL:
                 log.info("Using Bayesian Normal transform.");
                 return new BayesianNormalDensity(this);
@@ -446,6 +484,13 @@ public class MacroBaseConf extends Configuration {
         return CSVIngester.Compression.valueOf(_conf.get(CSV_COMPRESSION));
     }
 
+    public BatchMixtureModel.CenterInitialization getMixtureCenterInitialization() {
+        if (!_conf.containsKey(MIXTURE_CENTER_INITIALIZATION)) {
+            return MacroBaseDefaults.MIXTURE_CENTER_INITIALIZATION;
+        }
+        return BatchMixtureModel.CenterInitialization.valueOf(_conf.get(MIXTURE_CENTER_INITIALIZATION));
+    }
+
     public PeriodType getDecayType() {
         if (!_conf.containsKey(DECAY_TYPE)) {
             return MacroBaseDefaults.DECAY_TYPE;
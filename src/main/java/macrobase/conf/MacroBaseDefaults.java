@@ -2,6 +2,7 @@ package macrobase.conf;
 
 import com.google.common.collect.ImmutableMap;
 import macrobase.analysis.stats.KDE;
+import macrobase.analysis.stats.mixture.BatchMixtureModel;
 import macrobase.conf.MacroBaseConf.DataIngesterType;
 import macrobase.ingest.CSVIngester;
 
@@ -14,9 +15,11 @@ public class MacroBaseDefaults {
     // analysis defaults
     public static final Double ZSCORE = 3.;
     public static final Double TARGET_PERCENTILE = .99;
+    public static final Double PERCENTILE_SKETCH_ERROR = null;
     public static final Double MIN_OI_RATIO = 3.;
     public static final Double MIN_SUPPORT = 0.001;
     public static final Boolean ATTRIBUTE_COMBINATIONS = true;
+    public static final Boolean COLUMNAR_ITEMSETS = false;
     public static final Long RANDOM_SEED = null;
     public static final Boolean USE_PERCENTILE = true;
     public static final Boolean USE_ZSCORE = false;
@@ -30,12 +33,14 @@ public class MacroBaseDefaults {
     public static final MacroBaseConf.PeriodType DECAY_TYPE = MacroBaseConf.PeriodType.TUPLE_BASED;
     public static final Double DECAY_RATE = .01;
     public static final Double MODEL_UPDATE_PERIOD = 100000.;
+    public static final Boolean ONLINE_SVI = false;
     public static final Integer OUTLIER_ITEM_SUMMARY_SIZE = 100000;
     public static final Integer INLIER_ITEM_SUMMARY_SIZE = 100000;
     
     // timeseries defaults
     public static final Integer TUPLE_WINDOW = 100;
     public static final Integer WINDOW_SIZE = 86400000; // in milliseconds
+    public static final Integer MOVING_AVERAGE_KEY_ATTRIBUTE = null;
 
     // MCD defaults
     public static final Double MCD_ALPHA = 0.5;
@@ -48,6 +53,7 @@ public class MacroBaseDefaults {
 
     // BinnedKDE defaults
     public static final Integer BINNED_KDE_BINS = 10000;
+    public static final Integer BINNED_KDE_MAX_GRID_CELLS = 1 << 20;
 
     // TreeKDE defaults
     public static final Integer KDTREE_LEAF_CAPACITY = 2;
@@ -59,7 +65,11 @@ public class MacroBaseDefaults {
     // Truncate default
     public static final Integer TRUNCATE_K = 10;
 
-    public static final String R_LOG_FILE = null;
+    // SlidingDFT defaults
+    public static final Integer SLIDING_DFT_WINDOW = 64;
+    public static final List<String> SLIDING_DFT_BINS = null;
+
+    public static final Integer ARIMA_REFIT_PERIOD = null;
     // Analysis results
     public static final String STORE_ANALYSIS_RESULTS = null;
 
@@ -91,6 +101,12 @@ public class MacroBaseDefaults {
     public static final Boolean CONTEXTUAL_PRUNING_DISTRIBUTION_FOR_TRAINING = true;
     public static final Boolean CONTEXTUAL_PRUNING_DISTRIBUTION_FOR_SCORING = true;
     public static final Double OUTLIER_STATIC_THRESHOLD = 3.0;
+    public static final Boolean KEYED_CLASSIFIER = false;
+    public static final Integer KEYED_CLASSIFIER_KEY_ATTRIBUTE = 0;
+    public static final Double KEYED_CLASSIFIER_SKETCH_ERROR = 0.05;
+    public static final Integer KEYED_CLASSIFIER_WARMUP_COUNT = 100;
+    public static final Integer KEYED_CLASSIFIER_MAX_KEYS = 10000;
+    public static final Double KEYED_CLASSIFIER_HYSTERESIS = 0.0;
     
     public static final Integer NUM_MIXTURES = 2;
     public static final Double ITERATIVE_PROGRESS_CUTOFF_RATIO = 0.00001;
@@ -111,6 +127,10 @@ public class MacroBaseDefaults {
     public static final Integer SVI_MINIBATCH_SIZE = 10000;
     public static final Double SVI_DELAY = 1.0;
     public static final Double SVI_FORGETTING_RATE = 0.9;
+    public static final Double SVI_MIN_PACE = 0.01;
+    public static final BatchMixtureModel.CenterInitialization MIXTURE_CENTER_INITIALIZATION = BatchMixtureModel.CenterInitialization.GONZALEZ;
+    public static final Boolean MODEL_WARM_START = false;
+    public static final Integer MODEL_WARM_START_ITERATIONS = 3;
     public static final Double TRAIN_TEST_SPLIT = -1.0; // Train and test on the entire dataset while training
     public static final Double KDE_PROPORTION_OF_DATA_TO_USE = 0.01;
 }
@@ -92,6 +92,49 @@ public class KDTree {
     }
 
 
+    /**
+     * Internal node produced by {@link KDTreeBuilder}.
+     */
+    KDTree(int leafCapacity,
+           double[][] boundaries,
+           int splitDimension,
+           double splitValue,
+           KDTree loChild,
+           KDTree hiChild,
+           RealVector mean) {
+        this.leafCapacity = leafCapacity;
+        this.k = boundaries.length;
+        this.boundaries = boundaries;
+        this.splitDimension = splitDimension;
+        this.splitValue = splitValue;
+        this.loChild = loChild;
+        this.hiChild = hiChild;
+        this.nBelow = loChild.nBelow + hiChild.nBelow;
+        this.mean = mean;
+    }
+
+    /**
+     * Leaf node produced by {@link KDTreeBuilder}.
+     */
+    KDTree(int leafCapacity, double[][] boundaries, List<Datum> items, RealVector mean) {
+        this.leafCapacity = leafCapacity;
+        this.k = boundaries.length;
+        this.boundaries = boundaries;
+        this.items = items;
+        this.nBelow = items.size();
+        this.mean = mean;
+    }
+
+    /**
+     * Build a KD-Tree with the same splitting rule as {@link #KDTree(List, int)}, using the
+     * parallel, in-place {@link KDTreeBuilder}. Prefer this for large inputs.
+     * @param data
+     * @param leafCapacity
+     */
+    public static KDTree build(List<Datum> data, int leafCapacity) {
+        return new KDTreeBuilder(leafCapacity).build(data);
+    }
+
     /**
      * Estimates min and max difference absolute vectors from point to region
      * @param queryDatum target point
@@ -0,0 +1,284 @@
+package macrobase.datamodel;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a {@link KDTree} over a flat, row-major coordinate buffer.
+ *
+ * Instead of sorting the data at every level, each node partitions a shared index array
+ * around its median with nth-element selection, so construction is O(n log n) overall
+ * and touches no boxed values. Subtrees above {@code parallelThreshold} points are built
+ * concurrently with fork/join; leaf means are combined bottom-up into their parents.
+ *
+ * The splitting rule is the same as {@link KDTree#KDTree(List, int)}: split the widest
+ * dimension of the node's bounding box at the midpoint between the two median points.
+ */
+public class KDTreeBuilder {
+    private static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 14;
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final int leafCapacity;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public KDTreeBuilder(int leafCapacity) {
+        this.leafCapacity = leafCapacity;
+    }
+
+    /**
+     * Subtrees with fewer points than this are built on the current thread.
+     * @param parallelThreshold
+     */
+    public KDTreeBuilder setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+        return this;
+    }
+
+    public KDTreeBuilder setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public KDTree build(List<Datum> data) {
+        Datum[] input = data.toArray(new Datum[data.size()]);
+        int n = input.length;
+        int k = input[0].getMetrics().getDimension();
+
+        double[] coordinates = new double[n * k];
+        int[] index = new int[n];
+        for (int i = 0; i < n; i++) {
+            double[] metrics = input[i].getMetrics().toArray();
+            System.arraycopy(metrics, 0, coordinates, i * k, k);
+            index[i] = i;
+        }
+
+        BuildState state = new BuildState(input, coordinates, index, k);
+        Node root = pool.invoke(new BuildTask(state, 0, n));
+        return root.tree;
+    }
+
+    private static class BuildState {
+        final Datum[] input;
+        final Datum[] ordered;
+        final List<Datum> orderedView;
+        final double[] coordinates;
+        final int[] index;
+        final int k;
+
+        BuildState(Datum[] input, double[] coordinates, int[] index, int k) {
+            this.input = input;
+            this.ordered = new Datum[input.length];
+            this.orderedView = Arrays.asList(ordered);
+            this.coordinates = coordinates;
+            this.index = index;
+            this.k = k;
+        }
+    }
+
+    /**
+     * A finished subtree together with the unnormalized sum of its points, which the parent
+     * uses to compute its own mean without revisiting the data.
+     */
+    private static class Node {
+        final KDTree tree;
+        final double[] sum;
+
+        Node(KDTree tree, double[] sum) {
+            this.tree = tree;
+            this.sum = sum;
+        }
+    }
+
+    private class BuildTask extends RecursiveTask<Node> {
+        private final BuildState state;
+        private final int lo;
+        private final int hi;
+
+        BuildTask(BuildState state, int lo, int hi) {
+            this.state = state;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Node compute() {
+            return buildNode(state, lo, hi);
+        }
+    }
+
+    private Node buildNode(BuildState state, int lo, int hi) {
+        final int k = state.k;
+        final double[] coordinates = state.coordinates;
+        final int[] index = state.index;
+        final int size = hi - lo;
+
+        double[][] boundaries = boundingBox(state, lo, hi);
+
+        if (size <= leafCapacity) {
+            double[] sum = new double[k];
+            for (int i = lo; i < hi; i++) {
+                int offset = index[i] * k;
+                for (int d = 0; d < k; d++) {
+                    sum[d] += coordinates[offset + d];
+                }
+                state.ordered[i] = state.input[index[i]];
+            }
+            double[] mean = new double[k];
+            for (int d = 0; d < k; d++) {
+                mean[d] = sum[d] / size;
+            }
+            KDTree leaf = new KDTree(leafCapacity,
+                                     boundaries,
+                                     state.orderedView.subList(lo, hi),
+                                     new ArrayRealVector(mean, false));
+            return new Node(leaf, sum);
+        }
+
+        int splitDimension = 0;
+        double maxWidth = -1;
+        for (int d = 0; d < k; d++) {
+            double width = boundaries[d][1] - boundaries[d][0];
+            if (width > maxWidth) {
+                maxWidth = width;
+                splitDimension = d;
+            }
+        }
+
+        int mid = lo + size / 2;
+        select(coordinates, index, k, splitDimension, lo, hi - 1, mid);
+        double aboveSplit = coordinates[index[mid] * k + splitDimension];
+        double belowSplit = Double.NEGATIVE_INFINITY;
+        for (int i = lo; i < mid; i++) {
+            belowSplit = Math.max(belowSplit, coordinates[index[i] * k + splitDimension]);
+        }
+        double splitValue = 0.5 * (aboveSplit + belowSplit);
+
+        Node loNode;
+        Node hiNode;
+        if (size >= parallelThreshold) {
+            BuildTask loTask = new BuildTask(state, lo, mid);
+            loTask.fork();
+            hiNode = buildNode(state, mid, hi);
+            loNode = loTask.join();
+        } else {
+            loNode = buildNode(state, lo, mid);
+            hiNode = buildNode(state, mid, hi);
+        }
+
+        double[] sum = new double[k];
+        double[] mean = new double[k];
+        for (int d = 0; d < k; d++) {
+            sum[d] = loNode.sum[d] + hiNode.sum[d];
+            mean[d] = sum[d] / size;
+        }
+        KDTree node = new KDTree(leafCapacity,
+                                 boundaries,
+                                 splitDimension,
+                                 splitValue,
+                                 loNode.tree,
+                                 hiNode.tree,
+                                 new ArrayRealVector(mean, false));
+        return new Node(node, sum);
+    }
+
+    private static double[][] boundingBox(BuildState state, int lo, int hi) {
+        final int k = state.k;
+        final double[] coordinates = state.coordinates;
+        final int[] index = state.index;
+        double[] min = new double[k];
+        double[] max = new double[k];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int i = lo; i < hi; i++) {
+            int offset = index[i] * k;
+            for (int d = 0; d < k; d++) {
+                double v = coordinates[offset + d];
+                if (v < min[d]) {
+                    min[d] = v;
+                }
+                if (v > max[d]) {
+                    max[d] = v;
+                }
+            }
+        }
+        double[][] boundaries = new double[k][2];
+        for (int d = 0; d < k; d++) {
+            boundaries[d][0] = min[d];
+            boundaries[d][1] = max[d];
+        }
+        return boundaries;
+    }
+
+    /**
+     * Rearranges index[left..right] (inclusive) so that the point at position nth has the
+     * value it would have after sorting on dimension dim, with no larger values before it
+     * and no smaller values after it.
+     */
+    static void select(double[] coordinates, int[] index, int k, int dim, int left, int right, int nth) {
+        while (right - left > INSERTION_SORT_THRESHOLD) {
+            int middle = (left + right) >>> 1;
+            // Median of three as pivot, moved to index[left]
+            if (value(coordinates, index, k, dim, middle) < value(coordinates, index, k, dim, left)) {
+                swap(index, middle, left);
+            }
+            if (value(coordinates, index, k, dim, right) < value(coordinates, index, k, dim, left)) {
+                swap(index, right, left);
+            }
+            if (value(coordinates, index, k, dim, right) < value(coordinates, index, k, dim, middle)) {
+                swap(index, right, middle);
+            }
+            swap(index, left, middle);
+            double pivot = value(coordinates, index, k, dim, left);
+
+            int i = left;
+            int j = right + 1;
+            while (true) {
+                do {
+                    i++;
+                } while (value(coordinates, index, k, dim, i) < pivot);
+                do {
+                    j--;
+                } while (value(coordinates, index, k, dim, j) > pivot);
+                if (i >= j) {
+                    break;
+                }
+                swap(index, i, j);
+            }
+            swap(index, left, j);
+
+            if (j == nth) {
+                return;
+            } else if (j < nth) {
+                left = j + 1;
+            } else {
+                right = j - 1;
+            }
+        }
+
+        for (int i = left + 1; i <= right; i++) {
+            int current = index[i];
+            double v = coordinates[current * k + dim];
+            int j = i - 1;
+            while (j >= left && coordinates[index[j] * k + dim] > v) {
+                index[j + 1] = index[j];
+                j--;
+            }
+            index[j + 1] = current;
+        }
+    }
+
+    private static double value(double[] coordinates, int[] index, int k, int dim, int position) {
+        return coordinates[index[position] * k + dim];
+    }
+
+    private static void swap(int[] index, int a, int b) {
+        int tmp = index[a];
+        index[a] = index[b];
+        index[b] = tmp;
+    }
+}
@@ -2,6 +2,7 @@ package macrobase.util;
 
 import macrobase.datamodel.Datum;
 import macrobase.datamodel.DatumComparator;
+import macrobase.datamodel.HasMetrics;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealVector;
@@ -47,4 +48,24 @@ public class AlgebraUtils {
         }
         return boundaries;
     }
+
+    /**
+     * Copies the metrics of the given data into a single row-major array.
+     *
+     * @param data
+     * @return array of length data.size() * dimension
+     */
+    public static double[] flattenMetrics(List<? extends HasMetrics> data) {
+        int D = data.get(0).getMetrics().getDimension();
+        double[] flat = new double[data.size() * D];
+        int offset = 0;
+        for (HasMetrics d : data) {
+            RealVector metrics = d.getMetrics();
+            for (int i = 0; i < D; i++) {
+                flat[offset + i] = metrics.getEntry(i);
+            }
+            offset += D;
+        }
+        return flat;
+    }
 }
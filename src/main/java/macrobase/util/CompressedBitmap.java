@@ -0,0 +1,298 @@
+package macrobase.util;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints, in the style of a roaring bitmap.
+ *
+ * Values are grouped into containers by their upper 16 bits. A container holding at most
+ * {@value #ARRAY_LIMIT} values stores their lower 16 bits as a sorted char array; a fuller
+ * one switches to a 2^16-bit bitmap. Sparse sets thus cost two bytes per value and dense
+ * ones an eighth of a byte, and intersections work container by container: merging sorted
+ * arrays, probing bits, or ANDing words and counting bits.
+ *
+ * Bitmaps are built by adding values in increasing order, e.g. row indexes during a scan.
+ */
+public class CompressedBitmap {
+    // Containers above this many values are bitmaps; at 4096 both forms take 8KB
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = (1 << 16) / 64;
+
+    private int[] keys = new int[4];
+    // Per container, exactly one of arrays[c] and bitmaps[c] is set
+    private char[][] arrays = new char[4][];
+    private long[][] bitmaps = new long[4][];
+    private int[] cardinalities = new int[4];
+    private int numContainers = 0;
+    private int cardinality = 0;
+    private int last = -1;
+
+    /**
+     * Adds value, which must be at least every value added so far; re-adding the largest
+     * value is a no-op.
+     */
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must be non-negative, was " + value);
+        }
+        if (value <= last) {
+            if (value == last) {
+                return;
+            }
+            throw new IllegalArgumentException(
+                    String.format("Values must be added in increasing order: %d after %d", value, last));
+        }
+        int key = value >>> 16;
+        char low = (char) value;
+        if (numContainers == 0 || keys[numContainers - 1] != key) {
+            addContainer(key, new char[4], null, 0);
+        }
+
+        int c = numContainers - 1;
+        if (bitmaps[c] == null && cardinalities[c] == ARRAY_LIMIT) {
+            bitmaps[c] = toBitmap(arrays[c], ARRAY_LIMIT);
+            arrays[c] = null;
+        }
+        if (bitmaps[c] != null) {
+            bitmaps[c][low >>> 6] |= 1L << low;
+        } else {
+            char[] array = arrays[c];
+            if (cardinalities[c] == array.length) {
+                array = arrays[c] = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, 2 * array.length));
+            }
+            array[cardinalities[c]] = low;
+        }
+        cardinalities[c]++;
+        cardinality++;
+        last = value;
+    }
+
+    /**
+     * Appends a copy of other, whose values must all lie in later 2^16-aligned blocks than
+     * this bitmap's values. Bitmaps built over consecutive blocks can thus be concatenated.
+     */
+    public void append(CompressedBitmap other) {
+        if (other.numContainers == 0) {
+            return;
+        }
+        if (numContainers > 0 && other.keys[0] <= keys[numContainers - 1]) {
+            throw new IllegalArgumentException("Appended values must start in a later block");
+        }
+        for (int c = 0; c < other.numContainers; c++) {
+            addContainer(other.keys[c],
+                         other.arrays[c] == null ? null : other.arrays[c].clone(),
+                         other.bitmaps[c] == null ? null : other.bitmaps[c].clone(),
+                         other.cardinalities[c]);
+        }
+        last = other.last;
+    }
+
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int c = Arrays.binarySearch(keys, 0, numContainers, value >>> 16);
+        if (c < 0) {
+            return false;
+        }
+        char low = (char) value;
+        if (bitmaps[c] != null) {
+            return (bitmaps[c][low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch(arrays[c], 0, cardinalities[c], low) >= 0;
+    }
+
+    /**
+     * @return new bitmap of the values in both this and other
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < numContainers && j < other.numContainers) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.addIntersection(keys[i], this, i, other, j);
+                i++;
+                j++;
+            }
+        }
+        if (result.numContainers > 0) {
+            int c = result.numContainers - 1;
+            result.last = (result.keys[c] << 16) | result.lastLow(c);
+        }
+        return result;
+    }
+
+    /**
+     * @return number of values in both this and other, without building the intersection
+     */
+    public int andCardinality(CompressedBitmap other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < numContainers && j < other.numContainers) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count += intersectionCardinality(this, i, other, j);
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private void addIntersection(int key, CompressedBitmap a, int i, CompressedBitmap b, int j) {
+        long[] aBits = a.bitmaps[i];
+        long[] bBits = b.bitmaps[j];
+        if (aBits != null && bBits != null) {
+            long[] words = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] = aBits[w] & bBits[w];
+                count += Long.bitCount(words[w]);
+            }
+            if (count > ARRAY_LIMIT) {
+                addContainer(key, null, words, count);
+            } else if (count > 0) {
+                addContainer(key, toArray(words, count), null, count);
+            }
+            return;
+        }
+
+        char[] out;
+        int count = 0;
+        if (aBits == null && bBits == null) {
+            char[] x = a.arrays[i];
+            char[] y = b.arrays[j];
+            int nx = a.cardinalities[i];
+            int ny = b.cardinalities[j];
+            out = new char[Math.min(nx, ny)];
+            int p = 0;
+            int q = 0;
+            while (p < nx && q < ny) {
+                if (x[p] < y[q]) {
+                    p++;
+                } else if (x[p] > y[q]) {
+                    q++;
+                } else {
+                    out[count++] = x[p];
+                    p++;
+                    q++;
+                }
+            }
+        } else {
+            char[] array = aBits == null ? a.arrays[i] : b.arrays[j];
+            int n = aBits == null ? a.cardinalities[i] : b.cardinalities[j];
+            long[] bits = aBits == null ? bBits : aBits;
+            out = new char[n];
+            for (int p = 0; p < n; p++) {
+                char v = array[p];
+                if ((bits[v >>> 6] & (1L << v)) != 0) {
+                    out[count++] = v;
+                }
+            }
+        }
+        if (count > 0) {
+            addContainer(key, out, null, count);
+        }
+    }
+
+    private static int intersectionCardinality(CompressedBitmap a, int i, CompressedBitmap b, int j) {
+        long[] aBits = a.bitmaps[i];
+        long[] bBits = b.bitmaps[j];
+        int count = 0;
+        if (aBits != null && bBits != null) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                count += Long.bitCount(aBits[w] & bBits[w]);
+            }
+        } else if (aBits == null && bBits == null) {
+            char[] x = a.arrays[i];
+            char[] y = b.arrays[j];
+            int nx = a.cardinalities[i];
+            int ny = b.cardinalities[j];
+            int p = 0;
+            int q = 0;
+            while (p < nx && q < ny) {
+                if (x[p] < y[q]) {
+                    p++;
+                } else if (x[p] > y[q]) {
+                    q++;
+                } else {
+                    count++;
+                    p++;
+                    q++;
+                }
+            }
+        } else {
+            char[] array = aBits == null ? a.arrays[i] : b.arrays[j];
+            int n = aBits == null ? a.cardinalities[i] : b.cardinalities[j];
+            long[] bits = aBits == null ? bBits : aBits;
+            for (int p = 0; p < n; p++) {
+                char v = array[p];
+                if ((bits[v >>> 6] & (1L << v)) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void addContainer(int key, char[] array, long[] bitmap, int count) {
+        if (numContainers == keys.length) {
+            int capacity = 2 * keys.length;
+            keys = Arrays.copyOf(keys, capacity);
+            arrays = Arrays.copyOf(arrays, capacity);
+            bitmaps = Arrays.copyOf(bitmaps, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+        }
+        keys[numContainers] = key;
+        arrays[numContainers] = array;
+        bitmaps[numContainers] = bitmap;
+        cardinalities[numContainers] = count;
+        numContainers++;
+        cardinality += count;
+    }
+
+    private int lastLow(int c) {
+        if (bitmaps[c] == null) {
+            return arrays[c][cardinalities[c] - 1];
+        }
+        for (int w = BITMAP_WORDS - 1; ; w--) {
+            if (bitmaps[c][w] != 0) {
+                return 64 * w + 63 - Long.numberOfLeadingZeros(bitmaps[c][w]);
+            }
+        }
+    }
+
+    private static long[] toBitmap(char[] array, int count) {
+        long[] words = new long[BITMAP_WORDS];
+        for (int p = 0; p < count; p++) {
+            words[array[p] >>> 6] |= 1L << array[p];
+        }
+        return words;
+    }
+
+    private static char[] toArray(long[] words, int count) {
+        char[] array = new char[count];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                array[n++] = (char) (64 * w + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,14 @@
+package macrobase.util;
+
+/**
+ * Shared limits for forward decay, where counts are stored relative to a landmark and a
+ * growing weight stands in for decaying everything seen so far.
+ */
+public class ForwardDecay {
+    /**
+     * Largest landmark-relative weight before stored counts are rescaled and the landmark
+     * moves up. Counts are at most this many times a new item's weight apart, which keeps
+     * them well clear of overflowing and underflowing doubles.
+     */
+    public static final double MAX_WEIGHT = 1e100;
+}
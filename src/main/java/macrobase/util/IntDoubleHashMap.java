@@ -0,0 +1,175 @@
+package macrobase.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to double values, with open addressing and linear probing over
+ * primitive arrays, as in {@link IntIntHashMap}. Entries can also be read out in bulk, in
+ * slot order, and all values scaled at once.
+ */
+public class IntDoubleHashMap {
+    private int[] keys;
+    private double[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    public IntDoubleHashMap() {
+        this(16);
+    }
+
+    public IntDoubleHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, 2 * expectedSize - 1)) << 1;
+        keys = new int[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return value for key, or missing if there is none
+     */
+    public double get(int key, double missing) {
+        int i = find(key);
+        return i < 0 ? missing : values[i];
+    }
+
+    public void put(int key, double value) {
+        int i = insert(key, value);
+        values[i] = value;
+    }
+
+    /**
+     * Adds delta to key's value, mapping it to initial + delta if it has none.
+     * @return the new value
+     */
+    public double add(int key, double delta, double initial) {
+        int i = find(key);
+        if (i < 0) {
+            i = insert(key, initial);
+        }
+        values[i] += delta;
+        return values[i];
+    }
+
+    /**
+     * @return value key was mapped to, or missing if there was none
+     */
+    public double remove(int key, double missing) {
+        int i = find(key);
+        if (i < 0) {
+            return missing;
+        }
+        double removed = values[i];
+        int mask = keys.length - 1;
+        // Move back any entry whose probe run passes through the hole
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        used[i] = false;
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    public void scaleValues(double factor) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                values[i] *= factor;
+            }
+        }
+    }
+
+    /**
+     * @return the keys, in the same order as {@link #values()}
+     */
+    public int[] keys() {
+        int[] ret = new int[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                ret[n++] = keys[i];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return the values, in the same order as {@link #keys()}
+     */
+    public double[] values() {
+        double[] ret = new double[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                ret[n++] = values[i];
+            }
+        }
+        return ret;
+    }
+
+    // slot of key, added with value if absent
+    private int insert(int key, double value) {
+        if (2 * (size + 1) > keys.length) {
+            resize(2 * keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+        return i;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        double[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[capacity];
+        values = new double[capacity];
+        used = new boolean[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
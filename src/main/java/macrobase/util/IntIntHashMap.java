@@ -0,0 +1,119 @@
+package macrobase.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int values, with open addressing and linear probing over primitive
+ * arrays, so lookups and updates neither box nor allocate. Removal shifts the following
+ * entries of the probe run back instead of leaving tombstones.
+ */
+public class IntIntHashMap {
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, 2 * expectedSize - 1)) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * @return value for key, or missing if there is none
+     */
+    public int get(int key, int missing) {
+        int i = find(key);
+        return i < 0 ? missing : values[i];
+    }
+
+    public void put(int key, int value) {
+        if (2 * (size + 1) > keys.length) {
+            resize(2 * keys.length);
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+    }
+
+    /**
+     * @return value key was mapped to, or missing if there was none
+     */
+    public int remove(int key, int missing) {
+        int i = find(key);
+        if (i < 0) {
+            return missing;
+        }
+        int removed = values[i];
+        int mask = keys.length - 1;
+        // Move back any entry whose probe run passes through the hole
+        for (int j = (i + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = mix(keys[j]) & mask;
+            boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+            if (!reachable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        used[i] = false;
+        size--;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,83 @@
+package macrobase.analysis.classify;
+
+import macrobase.analysis.result.OutlierClassificationResult;
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BatchingPercentileClassifierTest {
+    private static int countOutliers(List<OutlierClassificationResult> results) {
+        int outlierCount = 0;
+        for (OutlierClassificationResult oc : results) {
+            if (oc.isOutlier()) {
+                outlierCount++;
+            }
+        }
+        return outlierCount;
+    }
+
+    @Test
+    public void exactTest() {
+        List<Datum> data = new ArrayList<>();
+        for (double i = 0; i < 100; ++i) {
+            data.add(new Datum(new ArrayList<>(), i));
+        }
+        data.add(new Datum(new ArrayList<>(), Double.NaN));
+
+        BatchingPercentileClassifier bc = new BatchingPercentileClassifier(new MacroBaseConf()
+                .set(MacroBaseConf.TARGET_PERCENTILE, 0.9));
+        bc.initialize();
+        bc.consume(data);
+        List<OutlierClassificationResult> results = bc.getStream().drain();
+        bc.shutdown();
+
+        assertEquals(data.size(), results.size());
+        for (int i = 0; i < 100; i++) {
+            assertSame(data.get(i), results.get(i).getDatum());
+            assertEquals(i >= 90, results.get(i).isOutlier());
+        }
+        assertNull(bc.getSketch());
+    }
+
+    @Test
+    public void sketchTest() {
+        Random random = new Random(0);
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.TARGET_PERCENTILE, 0.99)
+                .set(MacroBaseConf.PERCENTILE_SKETCH_ERROR, 0.001);
+        BatchingPercentileClassifier sketched = new BatchingPercentileClassifier(conf);
+        List<Datum> all = new ArrayList<>();
+
+        // Streamed batches: each cutoff comes from the sketch of everything seen so far
+        for (int batch = 0; batch < 5; batch++) {
+            List<Datum> data = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                data.add(new Datum(new ArrayList<>(), random.nextGaussian()));
+            }
+            data.add(new Datum(new ArrayList<>(), Double.POSITIVE_INFINITY));
+            sketched.consume(data);
+            all.addAll(data);
+
+            List<OutlierClassificationResult> results = sketched.getStream().drain();
+            assertEquals(data.size(), results.size());
+            assertTrue(results.get(data.size() - 1).isOutlier());
+            assertEquals(0.01 * data.size(), countOutliers(results), 0.002 * all.size() + 10);
+        }
+        assertEquals(all.size(), sketched.getSketch().getTotalWeight(), 1e-6);
+
+        // Over everything at once, the sketched cutoff labels about as many as the exact one
+        BatchingPercentileClassifier exact = new BatchingPercentileClassifier(0.99);
+        exact.consume(all);
+        BatchingPercentileClassifier sketchedAll = new BatchingPercentileClassifier(conf);
+        sketchedAll.consume(all);
+        assertEquals(countOutliers(exact.getStream().drain()),
+                     countOutliers(sketchedAll.getStream().drain()),
+                     0.001 * all.size());
+    }
+}
@@ -0,0 +1,73 @@
+package macrobase.analysis.classify;
+
+import macrobase.analysis.result.OutlierClassificationResult;
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EWAppxPercentileOutlierClassifierTest {
+    private static double outlierRate(EWAppxPercentileOutlierClassifier classifier, List<Datum> data) {
+        classifier.consume(data);
+        List<OutlierClassificationResult> results = classifier.getStream().drain();
+        assertEquals(data.size(), results.size());
+        int outlierCount = 0;
+        for (OutlierClassificationResult oc : results) {
+            if (oc.isOutlier()) {
+                outlierCount++;
+            }
+        }
+        return (double) outlierCount / results.size();
+    }
+
+    private static List<Datum> batch(Random random, double mean, int size) {
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            data.add(new Datum(new ArrayList<>(), mean + random.nextDouble()));
+        }
+        return data;
+    }
+
+    private static EWAppxPercentileOutlierClassifier classifier(Double sketchError) {
+        EWAppxPercentileOutlierClassifier classifier = new EWAppxPercentileOutlierClassifier(
+                new MacroBaseConf().set(MacroBaseConf.RANDOM_SEED, 0),
+                1000, 1000,
+                MacroBaseConf.PeriodType.TUPLE_BASED, 500,
+                MacroBaseConf.PeriodType.TUPLE_BASED, 100,
+                0.1, 0.9, sketchError);
+        classifier.initialize();
+        return classifier;
+    }
+
+    private static void checkTracksShift(EWAppxPercentileOutlierClassifier classifier) {
+        Random random = new Random(0);
+
+        // Warmup batch; about 10% of it lies above the 0.9 quantile
+        assertEquals(0.1, outlierRate(classifier, batch(random, 10, 1000)), 0.03);
+        assertEquals(0.1, outlierRate(classifier, batch(random, 10, 5000)), 0.03);
+
+        // The stream shifts up: at first everything is an outlier, then the decayed
+        // percentile catches up and the outlier rate goes back to about 10%
+        assertTrue(outlierRate(classifier, batch(random, 20, 200)) > 0.9);
+        for (int i = 0; i < 10; i++) {
+            outlierRate(classifier, batch(random, 20, 500));
+        }
+        assertEquals(0.1, outlierRate(classifier, batch(random, 20, 5000)), 0.03);
+        classifier.shutdown();
+    }
+
+    @Test
+    public void reservoirTest() {
+        checkTracksShift(classifier(null));
+    }
+
+    @Test
+    public void sketchTest() {
+        checkTracksShift(classifier(0.01));
+    }
+}
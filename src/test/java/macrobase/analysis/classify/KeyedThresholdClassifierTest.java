@@ -0,0 +1,131 @@
+package macrobase.analysis.classify;
+
+import macrobase.analysis.result.OutlierClassificationResult;
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KeyedThresholdClassifierTest {
+    private static Datum keyed(int key, double value) {
+        return new Datum(Arrays.asList(key), new ArrayRealVector(new double[]{value}));
+    }
+
+    private static KeyedThresholdClassifier classifier(double hysteresis, int maxKeys) {
+        KeyedThresholdClassifier classifier = new KeyedThresholdClassifier(
+                0, 0.9, hysteresis, 0.01, 0.01, MacroBaseConf.PeriodType.TUPLE_BASED, 1000, 100, maxKeys);
+        classifier.initialize();
+        return classifier;
+    }
+
+    @Test
+    public void perKeyThresholdTest() {
+        // Two tenants on very different scales each get about 10% outliers
+        Random random = new Random(0);
+        KeyedThresholdClassifier classifier = classifier(0, 100);
+        int[] outliers = new int[2];
+        for (int batch = 0; batch < 20; batch++) {
+            List<Datum> data = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                int key = random.nextInt(2);
+                data.add(keyed(key, key * 1000 + random.nextDouble()));
+            }
+            classifier.consume(data);
+            List<OutlierClassificationResult> results = classifier.getStream().drain();
+            assertEquals(data.size(), results.size());
+            if (batch > 0) {
+                for (OutlierClassificationResult result : results) {
+                    if (result.isOutlier()) {
+                        outliers[result.getDatum().getAttributes().get(0)]++;
+                    }
+                }
+            }
+        }
+        assertEquals(2, classifier.getNumKeys());
+        assertEquals(0.9, classifier.getThreshold(0), 0.03);
+        assertEquals(1000.9, classifier.getThreshold(1), 0.03);
+        assertTrue(Double.isNaN(classifier.getThreshold(2)));
+        assertEquals(0.1 * 19000 / 2, outliers[0], 300);
+        assertEquals(0.1 * 19000 / 2, outliers[1], 300);
+        classifier.shutdown();
+    }
+
+    @Test
+    public void warmupUsesGlobalThresholdTest() {
+        KeyedThresholdClassifier classifier = classifier(0, 100);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            data.add(keyed(0, i % 100));
+        }
+        classifier.consume(data);
+        classifier.getStream().drain();
+
+        // Key 1 is new: its first data are judged against everything seen so far
+        classifier.consume(Arrays.asList(keyed(1, 50), keyed(1, 99.5)));
+        List<OutlierClassificationResult> results = classifier.getStream().drain();
+        assertFalse(results.get(0).isOutlier());
+        assertTrue(results.get(1).isOutlier());
+    }
+
+    @Test
+    public void hysteresisTest() {
+        Random random = new Random(0);
+        KeyedThresholdClassifier plain = classifier(0, 100);
+        KeyedThresholdClassifier sticky = classifier(0.3, 100);
+        List<Datum> warmup = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            warmup.add(keyed(0, random.nextDouble()));
+        }
+        plain.consume(warmup);
+        sticky.consume(warmup);
+        plain.getStream().drain();
+        sticky.getStream().drain();
+
+        // A spike, then values between the 0.6 and 0.9 quantiles, then a value below both
+        List<Datum> episode = Arrays.asList(keyed(0, 5), keyed(0, 0.8), keyed(0, 0.7), keyed(0, 0.1), keyed(0, 0.8));
+        plain.consume(episode);
+        sticky.consume(episode);
+        boolean[] expectedPlain = {true, false, false, false, false};
+        boolean[] expectedSticky = {true, true, true, false, false};
+        List<OutlierClassificationResult> plainResults = plain.getStream().drain();
+        List<OutlierClassificationResult> stickyResults = sticky.getStream().drain();
+        for (int i = 0; i < episode.size(); i++) {
+            assertEquals(expectedPlain[i], plainResults.get(i).isOutlier());
+            assertEquals(expectedSticky[i], stickyResults.get(i).isOutlier());
+        }
+    }
+
+    @Test
+    public void evictionTest() {
+        KeyedThresholdClassifier classifier = classifier(0, 16);
+        for (int round = 0; round < 10; round++) {
+            List<Datum> data = new ArrayList<>();
+            for (int key = 0; key < 100; key++) {
+                data.add(keyed(round * 1000 + key, key));
+            }
+            classifier.consume(data);
+            assertEquals(data.size(), classifier.getStream().drain().size());
+            assertTrue(classifier.getNumKeys() <= 16);
+        }
+
+        // A hot key survives while cold ones come and go
+        for (int i = 0; i < 1000; i++) {
+            classifier.consume(Arrays.asList(keyed(-1, i % 10), keyed(i + 100000, 0)));
+        }
+        classifier.getStream().drain();
+        assertFalse(Double.isNaN(classifier.getThreshold(-1)));
+        assertTrue(classifier.getNumKeys() <= 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noKeysTest() {
+        classifier(0, 0);
+    }
+}
@@ -3,16 +3,13 @@ package macrobase.analysis.outlier;
 import macrobase.analysis.stats.ARIMA;
 import macrobase.conf.MacroBaseConf;
 
-import org.junit.Ignore;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
-/**
- * These tests are ignored by default so that people running the test suite
- * locally aren't required to have R and rJava installed.
- */
-@Ignore public class ARIMATest {
+public class ARIMATest {
     @Test
     public void constantTest() {
         int windowSize = 10;
@@ -53,25 +50,27 @@ import static org.junit.Assert.*;
     }
     
     @Test
-    public void simpleTest() {
-        MacroBaseConf conf = new MacroBaseConf().set(MacroBaseConf.TUPLE_WINDOW, 6);
+    public void spikeTest() {
+        int windowSize = 50;
+        MacroBaseConf conf = new MacroBaseConf().set(MacroBaseConf.TUPLE_WINDOW, windowSize);
         conf.set(MacroBaseConf.TIME_COLUMN, 0);
         ARIMA a = new ARIMA(conf);
-        a.score(TestOutlierUtils.createTimeDatum(0, 1.5));
-        a.score(TestOutlierUtils.createTimeDatum(1, 4.5));
-        a.score(TestOutlierUtils.createTimeDatum(0, 5.0));
-        a.score(TestOutlierUtils.createTimeDatum(1, 6.5));
-        a.score(TestOutlierUtils.createTimeDatum(0, 8.5));
-        a.score(TestOutlierUtils.createTimeDatum(0, 12.0));
-        
-        assertEquals(0.078,
-            a.score(TestOutlierUtils.createTimeDatum(1, 13)),
-            1e-3);
-        assertEquals(0.198,
-            a.score(TestOutlierUtils.createTimeDatum(1, 13)),
-            1e-3);
+        Random random = new Random(0);
+        double value = 100;
+        double maxScore = 0;
+        for (int i = 0; i < 3 * windowSize; i++) {
+            value += 0.2 + random.nextGaussian();
+            double score = a.score(TestOutlierUtils.createTimeDatum(i, value));
+            if (i > windowSize) {
+                maxScore = Math.max(maxScore, score);
+            }
+        }
+        // A 30% jump stands out from the one-step errors of a noisy drifting series
+        double spikeScore = a.score(TestOutlierUtils.createTimeDatum(3 * windowSize, value * 1.3));
+        assertTrue(spikeScore > 3 * maxScore);
+        assertEquals(0.3, spikeScore, 0.05);
     }
-    
+
     @Test
     public void windowTest() {
         int windowSize = 5;
@@ -81,15 +80,16 @@ import static org.junit.Assert.*;
         for (int i = 0; i < windowSize; i++) {
             a.score(TestOutlierUtils.createTimeDatum(i, 1));
         }
-        
-        // Now model will predict 1 for the next windowSize datum.
-        for (int i = 0; i < windowSize; i++) {
-            assertEquals(9,
-                a.score(TestOutlierUtils.createTimeDatum(windowSize + i, 10)),
-                1e-5);
+
+        // The model predicts 1 for the first datum after the level shift.
+        assertEquals(9,
+            a.score(TestOutlierUtils.createTimeDatum(windowSize, 10)),
+            1e-5);
+        for (int i = 1; i < windowSize; i++) {
+            a.score(TestOutlierUtils.createTimeDatum(windowSize + i, 10));
         }
 
-        // Check that after window slide and retrain, model predicts 10.
+        // Check that after window slide and refit, model predicts 10.
         assertEquals(0,
             a.score(TestOutlierUtils.createTimeDatum(windowSize * 2, 10)),
             1e-5);
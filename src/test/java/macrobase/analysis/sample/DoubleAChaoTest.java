@@ -0,0 +1,49 @@
+package macrobase.analysis.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class DoubleAChaoTest {
+    @Test
+    public void matchesObjectReservoirTest() {
+        // With the same seed, the primitive reservoir keeps exactly the rows the object one does
+        ExponentiallyBiasedAChao<double[]> objects = new ExponentiallyBiasedAChao<>(50, 0.05, new Random(0));
+        DoubleAChao rows = new DoubleAChao(50, 2, 0.05, new Random(0));
+        for (int i = 0; i < 5000; i++) {
+            double[] row = {i, -i};
+            objects.insert(row);
+            rows.insert(row);
+            if (i % 10 == 0) {
+                objects.advancePeriod();
+                rows.advancePeriod();
+            }
+        }
+
+        assertEquals(50, rows.size());
+        double[] sample = rows.getReservoir();
+        assertEquals(100, sample.length);
+        for (int r = 0; r < 50; r++) {
+            assertEquals(objects.getReservoir().get(r)[0], sample[2 * r], 0);
+            assertEquals(-sample[2 * r], rows.get(r, 1), 0);
+        }
+    }
+
+    @Test
+    public void biasTest() {
+        // With decay, the sample concentrates on recent rows
+        DoubleAChao reservoir = new DoubleAChao(100, 1, 0.01, new Random(0));
+        for (int i = 0; i < 100000; i++) {
+            reservoir.insert(i);
+            reservoir.advancePeriod();
+        }
+        double mean = 0;
+        for (double v : reservoir.getReservoir()) {
+            mean += v / reservoir.size();
+        }
+        // Ages are roughly exponential with mean 1 / 0.01
+        assertEquals(100000 - 100, mean, 30);
+    }
+}
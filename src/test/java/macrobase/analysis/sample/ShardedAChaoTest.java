@@ -0,0 +1,160 @@
+package macrobase.analysis.sample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedAChaoTest {
+    @Test
+    public void singleShardTest() {
+        // From one thread, the sample is exactly the one ExponentiallyBiasedAChao keeps
+        ExponentiallyBiasedAChao<Integer> expected = new ExponentiallyBiasedAChao<>(100, 0.01, new Random(0));
+        ShardedAChao<Integer> sharded = new ShardedAChao<>(100, 0.01, new Random(0));
+        for (int i = 0; i < 10000; i++) {
+            expected.insert(i);
+            sharded.insert(i);
+            if (i % 7 == 0) {
+                expected.advancePeriod();
+                sharded.advancePeriod();
+            }
+        }
+        assertEquals(1, sharded.getNumShards());
+        assertEquals(expected.getReservoir(), sharded.getReservoir());
+    }
+
+    @Test
+    public void mergeTest() {
+        // Shard a sees three times the weight of shard b, so it should supply 3/4 of the merged sample
+        int capacity = 200;
+        int fromA = 0;
+        int trials = 50;
+        Random random = new Random(0);
+        for (int t = 0; t < trials; t++) {
+            ShardedAChao<Integer> reservoir = new ShardedAChao<>(capacity, 0, new Random(random.nextLong()));
+            ShardedAChao<Integer>.Shard a = reservoir.newShard();
+            ShardedAChao<Integer>.Shard b = reservoir.newShard();
+            for (int i = 0; i < 3000; i++) {
+                a.insert(i);
+                if (i % 3 == 0) {
+                    b.insert(-1 - i);
+                }
+            }
+            assertEquals(4000, reservoir.getRunningCount(), 1e-6);
+            List<Integer> sample = reservoir.getReservoir();
+            assertEquals(capacity, sample.size());
+            for (int v : sample) {
+                if (v >= 0) {
+                    fromA++;
+                }
+            }
+        }
+        assertEquals(0.75, (double) fromA / (capacity * trials), 0.02);
+    }
+
+    @Test
+    public void decayTest() {
+        // A shard that stopped receiving data decays along with the rest
+        ShardedAChao<Integer> reservoir = new ShardedAChao<>(100, 0.5, new Random(0));
+        ShardedAChao<Integer>.Shard stale = reservoir.newShard();
+        ShardedAChao<Integer>.Shard fresh = reservoir.newShard();
+        for (int i = 0; i < 1000; i++) {
+            stale.insert(i);
+        }
+        reservoir.advancePeriod(20);
+        for (int i = 0; i < 1000; i++) {
+            fresh.insert(-1 - i);
+        }
+        for (int v : reservoir.getReservoir()) {
+            assertTrue(v < 0);
+        }
+    }
+
+    @Test
+    public void concurrentInsertTest() throws Exception {
+        ShardedAChao<Integer> reservoir = new ShardedAChao<>(500, 0.01, new Random(0));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100000;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    reservoir.insert(offset + i);
+                    if (i % 1000 == 0) {
+                        reservoir.advancePeriod();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        // Snapshots while inserting are well-formed samples
+        for (int i = 0; i < 20; i++) {
+            assertTrue(reservoir.getReservoir().size() <= 500);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(reservoir.getNumShards() >= 1 && reservoir.getNumShards() <= 4);
+        assertEquals(500, reservoir.getReservoir().size());
+    }
+
+    @Test
+    public void shortLivedThreadsTest() throws Exception {
+        // Each thread takes over the shard of the one that finished before it
+        ShardedAChao<Integer> reservoir = new ShardedAChao<>(100, 0, new Random(0));
+        for (int t = 0; t < 500; t++) {
+            final int offset = t * 10;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10; i++) {
+                    reservoir.insert(offset + i);
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        assertEquals(1, reservoir.getNumShards());
+        assertEquals(5000, reservoir.getRunningCount(), 1e-6);
+        assertEquals(100, reservoir.getReservoir().size());
+    }
+
+    @Test
+    public void ownedShardsTest() throws Exception {
+        // Producers with their own shards insert concurrently, and those shards are never taken over
+        ShardedAChao<Integer> reservoir = new ShardedAChao<>(400, 0, new Random(0));
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int producer = t;
+            final ShardedAChao<Integer>.Shard shard = reservoir.newShard();
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    shard.insert(producer);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reservoir.insert(-1);
+        assertEquals(5, reservoir.getNumShards());
+        assertEquals(200001, reservoir.getRunningCount(), 1e-6);
+
+        // Equal weight per producer, so each supplies about a quarter of the sample
+        int[] fromProducer = new int[4];
+        for (int v : reservoir.getReservoir()) {
+            if (v >= 0) {
+                fromProducer[v]++;
+            }
+        }
+        for (int count : fromProducer) {
+            assertEquals(100, count, 1);
+        }
+    }
+}
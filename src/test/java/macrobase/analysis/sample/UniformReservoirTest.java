@@ -0,0 +1,35 @@
+package macrobase.analysis.sample;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class UniformReservoirTest {
+    @Test
+    public void uniformTest() {
+        int capacity = 20;
+        int streamLength = 200;
+        int trials = 20000;
+        int[] counts = new int[streamLength];
+        Random random = new Random(0);
+        for (int t = 0; t < trials; t++) {
+            UniformReservoir<Integer> reservoir = new UniformReservoir<>(capacity, random);
+            for (int i = 0; i < streamLength; i++) {
+                reservoir.insert(i);
+            }
+            assertEquals(capacity, reservoir.getReservoir().size());
+            assertEquals(streamLength, reservoir.getCount());
+            for (int i : reservoir.getReservoir()) {
+                counts[i]++;
+            }
+        }
+
+        // Every element is kept with probability capacity / streamLength
+        double expected = (double) trials * capacity / streamLength;
+        for (int i = 0; i < streamLength; i++) {
+            assertEquals(expected, counts[i], 5 * Math.sqrt(expected));
+        }
+    }
+}
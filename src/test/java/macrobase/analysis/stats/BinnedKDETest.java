@@ -8,6 +8,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static junit.framework.TestCase.assertEquals;
 
@@ -32,4 +33,32 @@ public class BinnedKDETest {
         assertEquals(-0.010001, kde.score(data.get(50)),  1e-5);
         assertEquals(-0.005133, kde.score(data.get(data.size() - 1)), 1e-5);
     }
+
+    @Test
+    public void compareWithKDE2DTest() {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.KDE_KERNEL_TYPE, "EPANECHNIKOV_MULTIPLICATIVE")
+                .set(MacroBaseConf.KDE_BANDWIDTH_ALGORITHM, "NORMAL_SCALE")
+                .set(MacroBaseConf.BINNED_KDE_BINS, 400);
+        Random r = new Random(0);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 5000; ++i) {
+            data.add(new Datum(new ArrayList<>(), r.nextGaussian(), 2 * r.nextGaussian() + 1));
+        }
+
+        BinnedKDE binned = new BinnedKDE(conf);
+        binned.train(data);
+        KDE kde = new KDE(conf);
+        kde.setProportionOfDataToUse(1.0);
+        kde.train(data);
+
+        for (int i = 0; i < 100; i++) {
+            Datum datum = data.get(i);
+            double exact = kde.score(datum);
+            assertEquals(exact, binned.score(datum), 0.02 * Math.abs(exact) + 1e-6);
+        }
+
+        // No kernel support far away from the data
+        assertEquals(0, binned.score(new Datum(new ArrayList<>(), 100, 100)), 0);
+    }
 }
@@ -0,0 +1,69 @@
+package macrobase.analysis.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecayingQuantileSketchTest {
+    @Test
+    public void decayTest() {
+        // Period p holds values uniform on [p, p + 1); with heavy decay, recent periods dominate
+        double decayRate = 0.5;
+        DecayingQuantileSketch sketch = new DecayingQuantileSketch(0.01, decayRate);
+        Random random = new Random(0);
+        int numPeriods = 2000;
+        for (int p = 0; p < numPeriods; p++) {
+            for (int i = 0; i < 100; i++) {
+                sketch.add(p + random.nextDouble());
+            }
+            if (p < numPeriods - 1) {
+                sketch.advancePeriod();
+            }
+        }
+
+        // Weight of the period j back is 0.5^j, so the top half of the weight is the latest period,
+        // the next quarter the one before it, and so on.
+        assertEquals(200, sketch.getTotalWeight(), 1e-6);
+        assertEquals(numPeriods - 0.5, sketch.quantile(0.75), 0.05);
+        assertEquals(numPeriods - 1, sketch.quantile(0.5), 0.05);
+        assertEquals(numPeriods - 2, sketch.quantile(0.25), 0.05);
+    }
+
+    @Test
+    public void noDecayTest() {
+        DecayingQuantileSketch sketch = new DecayingQuantileSketch(0.01, 0);
+        for (int i = 0; i < 10000; i++) {
+            sketch.add(i);
+            sketch.advancePeriod();
+        }
+        assertEquals(10000, sketch.getTotalWeight(), 1e-6);
+        assertEquals(5000, sketch.quantile(0.5), 100);
+    }
+
+    @Test
+    public void longIdleTest() {
+        DecayingQuantileSketch sketch = new DecayingQuantileSketch(0.01, 0.1);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(i);
+        }
+
+        // Catching up on this many periods decays the old values completely
+        sketch.advancePeriod(Integer.MAX_VALUE);
+        assertEquals(0, sketch.getTotalWeight(), 0);
+        assertTrue(Double.isNaN(sketch.quantile(1)));
+
+        sketch.add(-5);
+        sketch.add(-3);
+        assertEquals(2, sketch.getTotalWeight(), 1e-9);
+        assertEquals(-3, sketch.quantile(1), 0);
+
+        // A jump past the rescale limit, but not to infinity, also leaves only new data
+        sketch.advancePeriod(5000);
+        sketch.add(7);
+        assertEquals(1, sketch.getTotalWeight(), 1e-9);
+        assertEquals(7, sketch.quantile(0), 0);
+    }
+}
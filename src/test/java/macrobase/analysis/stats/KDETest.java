@@ -8,12 +8,15 @@ import macrobase.ingest.CSVIngester;
 import macrobase.util.Drainer;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.linear.SingularMatrixException;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.TestCase.assertEquals;
@@ -40,6 +43,21 @@ public class KDETest {
         assertEquals(kde.score(data.get(data.size() - 1)), -0.005132, 1e-5);
     }
 
+    @Test(expected = SingularMatrixException.class)
+    public void constantColumnTest() {
+        // A constant metric has zero normal-scale bandwidth, which can't be scored against
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.KDE_KERNEL_TYPE, "EPANECHNIKOV_MULTIPLICATIVE")
+                .set(MacroBaseConf.KDE_BANDWIDTH_ALGORITHM, "NORMAL_SCALE");
+        KDE kde = new KDE(conf);
+        kde.setProportionOfDataToUse(1.0);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(new double[]{i, 3})));
+        }
+        kde.train(data);
+    }
+
     @Test
     public void StandardNormal2DTest() throws Exception {
         MacroBaseConf conf = new MacroBaseConf()
@@ -92,4 +110,35 @@ public class KDETest {
         }
     }
 
+    @Test
+    public void gridIndexMatchesExactScanTest() {
+        Random r = new Random(0);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 3000; ++i) {
+            double x = r.nextGaussian();
+            data.add(new Datum(new ArrayList<>(), x, 0.5 * x + r.nextGaussian(), 3 * r.nextDouble()));
+        }
+        data.add(new Datum(new ArrayList<>(), 1000, -1000, 0));
+
+        // OVERSMOOTHED gives a full bandwidth matrix, NORMAL_SCALE a diagonal one
+        for (String bandwidth : Arrays.asList("OVERSMOOTHED", "NORMAL_SCALE")) {
+            MacroBaseConf conf = new MacroBaseConf()
+                    .set(MacroBaseConf.KDE_KERNEL_TYPE, "EPANECHNIKOV_MULTIPLICATIVE")
+                    .set(MacroBaseConf.KDE_BANDWIDTH_ALGORITHM, bandwidth);
+            KDE kde = new KDE(conf);
+            kde.setProportionOfDataToUse(1.0);
+            kde.train(data);
+            assertTrue(kde.getModel() instanceof GridKDEModel);
+            assertTrue(((GridKDEModel) kde.getModel()).getNumCells() > 1);
+
+            KDEModel exact = new KDE.ExactModel(kde.kernel, kde.bandwidthToNegativeHalf, data, kde.scoreScalingFactor);
+            for (int i = 0; i < 200; i++) {
+                Datum datum = data.get(r.nextInt(data.size()));
+                assertEquals(exact.score(datum), kde.score(datum), 1e-12);
+            }
+            Datum farAway = new Datum(new ArrayList<>(), -50, 50, 50);
+            assertEquals(0, kde.score(farAway), 0);
+        }
+    }
+
 }
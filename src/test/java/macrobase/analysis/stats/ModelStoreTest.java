@@ -0,0 +1,211 @@
+package macrobase.analysis.stats;
+
+import macrobase.analysis.stats.mixture.DPGMM;
+import macrobase.analysis.stats.mixture.ExpectMaxGMM;
+import macrobase.analysis.transform.BatchScoreFeatureTransform;
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelStoreTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Datum> gaussianClusters(int n, int seed, double shift) {
+        Random r = new Random(seed);
+        double[][] centers = {{0, 0}, {8, 2}, {3, 9}};
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            double[] center = centers[i % centers.length];
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(new double[]{
+                    center[0] + shift + r.nextGaussian(), center[1] + shift + 0.5 * r.nextGaussian()})));
+        }
+        return data;
+    }
+
+    private static void assertSameScores(BatchTrainScore expected, BatchTrainScore actual, List<Datum> data) {
+        for (int i = 0; i < data.size(); i += 7) {
+            assertEquals(expected.score(data.get(i)), actual.score(data.get(i)), 1e-9);
+        }
+    }
+
+    @Test
+    public void roundTripTest() throws Exception {
+        List<Datum> data = gaussianClusters(900, 0, 0);
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.RANDOM_SEED, 0)
+                .set(MacroBaseConf.NUM_MIXTURES, 3)
+                .set(MacroBaseConf.DPM_TRUNCATING_PARAMETER, 5)
+                .set(MacroBaseConf.LOW_METRICS, new ArrayList<String>())
+                .set(MacroBaseConf.HIGH_METRICS, Arrays.asList("x", "y"))
+                .set(MacroBaseConf.KDE_BANDWIDTH_ALGORITHM, "NORMAL_SCALE");
+
+        List<Datum> univariate = new ArrayList<>();
+        for (Datum d : data) {
+            univariate.add(new Datum(new ArrayList<>(), d.getMetrics().getEntry(0)));
+        }
+        MAD mad = new MAD(conf);
+        mad.train(univariate);
+        assertSameScores(mad, saveAndLoad(mad, new MAD(conf)), univariate);
+
+        List<BatchTrainScore> models = Arrays.asList(
+                new MinCovDet(conf), new KDE(conf), new TreeKDE(conf), new BinnedKDE(conf),
+                new ExpectMaxGMM(conf), new DPGMM(conf));
+        for (BatchTrainScore model : models) {
+            model.train(data);
+            BatchTrainScore fresh = model.getClass().getConstructor(MacroBaseConf.class).newInstance(conf);
+            assertSameScores(model, saveAndLoad((PersistentModel) model, (PersistentModel) fresh), data);
+        }
+    }
+
+    private BatchTrainScore saveAndLoad(PersistentModel model, PersistentModel fresh) throws IOException {
+        File file = folder.newFile();
+        ModelStore.save(model, file);
+        ModelStore.load(fresh, file);
+        return (BatchTrainScore) fresh;
+    }
+
+    @Test
+    public void rejectsMismatchedFilesTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf();
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            data.add(new Datum(new ArrayList<>(), (double) i));
+        }
+        MAD mad = new MAD(conf);
+        mad.train(data);
+        File file = folder.newFile();
+        ModelStore.save(mad, file);
+        try {
+            ModelStore.load(new KDE(conf), file);
+            fail("loaded a MAD model into a KDE");
+        } catch (IOException expected) {
+        }
+
+        File wrongVersion = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(wrongVersion))) {
+            out.writeInt(0x4d424d44);
+            out.writeInt(ModelStore.FORMAT_VERSION + 1);
+            out.writeUTF(MAD.class.getName());
+        }
+        try {
+            ModelStore.load(new MAD(conf), wrongVersion);
+            fail("loaded a model with an unknown format version");
+        } catch (IOException expected) {
+        }
+    }
+
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private File modelFile(Class<?> modelClass, Body body) throws IOException {
+        File file = folder.newFile();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x4d424d44);
+            out.writeInt(ModelStore.FORMAT_VERSION);
+            out.writeUTF(modelClass.getName());
+            body.write(out);
+        }
+        return file;
+    }
+
+    private static void assertRejected(PersistentModel model, File file) {
+        try {
+            ModelStore.load(model, file);
+            fail("loaded a damaged model");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsDamagedBodiesTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf();
+        // Lengths that are negative or larger than the rest of the file
+        assertRejected(new ExpectMaxGMM(conf), modelFile(ExpectMaxGMM.class, out -> out.writeInt(-1)));
+        assertRejected(new ExpectMaxGMM(conf), modelFile(ExpectMaxGMM.class, out -> {
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeDouble(1);
+        }));
+        assertRejected(new KDE(conf), modelFile(KDE.class, out -> {
+            out.writeInt(Integer.MAX_VALUE);
+            out.writeInt(Integer.MAX_VALUE);
+        }));
+        assertRejected(new KDE(conf), modelFile(KDE.class, out -> {
+            out.writeInt(-1);
+            out.writeInt(2);
+        }));
+        // Well-formed lengths, but a bandwidth the model can't use
+        assertRejected(new KDE(conf), modelFile(KDE.class, out -> {
+            out.writeInt(1);
+            out.writeInt(2);
+            out.writeDouble(1);
+            out.writeDouble(0);
+            out.writeInt(0);
+            out.writeInt(0);
+        }));
+    }
+
+    @Test
+    public void warmStartTest() throws Exception {
+        File file = new File(folder.getRoot(), "gmm.model");
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.RANDOM_SEED, 0)
+                .set(MacroBaseConf.NUM_MIXTURES, 3)
+                .set(MacroBaseConf.MODEL_FILE, file.getAbsolutePath())
+                .set(MacroBaseConf.MODEL_WARM_START, true)
+                .set(MacroBaseConf.MODEL_WARM_START_ITERATIONS, 2);
+
+        // First batch trains from scratch and saves the model
+        BatchScoreFeatureTransform first = new BatchScoreFeatureTransform(conf, MacroBaseConf.TransformType.EM_GMM);
+        first.consume(gaussianClusters(900, 1, 0));
+        assertTrue(file.exists());
+
+        // Second batch, slightly drifted, starts from the saved parameters
+        List<Datum> drifted = gaussianClusters(900, 2, 0.5);
+        BatchScoreFeatureTransform second = new BatchScoreFeatureTransform(conf, MacroBaseConf.TransformType.EM_GMM);
+        second.consume(drifted);
+        ExpectMaxGMM warm = (ExpectMaxGMM) second.getBatchTrainScore();
+
+        ExpectMaxGMM cold = new ExpectMaxGMM(conf);
+        cold.train(drifted);
+        double warmLikelihood = 0;
+        double coldLikelihood = 0;
+        for (Datum d : drifted) {
+            warmLikelihood += warm.score(d);
+            coldLikelihood += cold.score(d);
+        }
+        // A couple of EM iterations from the old fit already get close to a full retrain
+        assertEquals(coldLikelihood / drifted.size(), warmLikelihood / drifted.size(), 0.05);
+
+        // The saved file now holds the refined model
+        ExpectMaxGMM reloaded = new ExpectMaxGMM(conf);
+        ModelStore.load(reloaded, file);
+        assertSameScores(warm, reloaded, drifted);
+
+        // Later batches refine the model in memory rather than reloading the file
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        List<Datum> third = gaussianClusters(900, 3, 1);
+        second.consume(third);
+        reloaded.refine(third, 2);
+        assertSameScores(reloaded, warm, third);
+    }
+}
@@ -2,8 +2,12 @@ package macrobase.analysis.stats;
 
 import macrobase.analysis.outlier.TestOutlierUtils;
 import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 
 public class MovingAverageTest {
@@ -27,4 +31,31 @@ public class MovingAverageTest {
         assertEquals(1/3.0, ma.score(TestOutlierUtils.createTimeDatum(1, 2)), 0); // Average = 1.5
         assertEquals(1/3.0, ma.score(TestOutlierUtils.createTimeDatum(3, 3)), 0); // This point has twice the weight due to its time, so average = 2.25
     }
+
+    @Test
+    public void keyedSeriesTest() {
+        MacroBaseConf conf = new MacroBaseConf().set(MacroBaseConf.TUPLE_WINDOW, 3);
+        conf.set(MacroBaseConf.TIME_COLUMN, 0);
+        conf.set(MacroBaseConf.MOVING_AVERAGE_KEY_ATTRIBUTE, 0);
+        MovingAverage keyed = new MovingAverage(conf);
+        MovingAverage[] single = new MovingAverage[3];
+        for (int key = 0; key < 3; key++) {
+            single[key] = new MovingAverage(new MacroBaseConf()
+                    .set(MacroBaseConf.TUPLE_WINDOW, 3)
+                    .set(MacroBaseConf.TIME_COLUMN, 0));
+        }
+
+        // Interleaved series must score exactly as if each had its own detector
+        Random random = new Random(0);
+        int[] times = new int[3];
+        for (int i = 0; i < 300; i++) {
+            int key = random.nextInt(3);
+            times[key] += 1 + random.nextInt(3);
+            double value = 10 * (key + 1) + random.nextGaussian();
+            Datum singleDatum = TestOutlierUtils.createTimeDatum(times[key], value);
+            Datum keyedDatum = new Datum(Arrays.asList(key), singleDatum.getMetrics());
+            assertEquals(single[key].score(singleDatum), keyed.score(keyedDatum), 1e-9);
+        }
+        assertEquals(3, keyed.getNumSeries());
+    }
 }
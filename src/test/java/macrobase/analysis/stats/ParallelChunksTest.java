@@ -0,0 +1,46 @@
+package macrobase.analysis.stats;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelChunksTest {
+    @Test
+    public void coversEveryIndexOnceTest() {
+        for (int N : new int[]{0, 1, ParallelChunks.CHUNK_SIZE, 3 * ParallelChunks.CHUNK_SIZE + 7}) {
+            int[] visits = new int[N];
+            ParallelChunks.forEach(N, (from, to) -> {
+                for (int n = from; n < to; n++) {
+                    visits[n]++;
+                }
+            });
+            for (int n = 0; n < N; n++) {
+                assertEquals(1, visits[n]);
+            }
+
+            assertEquals(N * (N - 1L) / 2, ParallelChunks.sum(N, (from, to) -> {
+                double sum = 0;
+                for (int n = from; n < to; n++) {
+                    sum += n;
+                }
+                return sum;
+            }), 0);
+
+            List<Integer> chunks = ParallelChunks.reduce(N, (chunk, from, to) -> {
+                assertEquals(chunk * ParallelChunks.CHUNK_SIZE, from);
+                List<Integer> seen = new ArrayList<>();
+                seen.add(to - from);
+                return seen;
+            }, (a, b) -> {
+                List<Integer> merged = new ArrayList<>(a);
+                merged.addAll(b);
+                return merged;
+            });
+            assertEquals(Math.max(1, ParallelChunks.numChunks(N)), chunks.size());
+            assertEquals(N, chunks.stream().mapToInt(Integer::intValue).sum());
+        }
+    }
+}
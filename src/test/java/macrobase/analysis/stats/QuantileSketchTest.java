@@ -0,0 +1,115 @@
+package macrobase.analysis.stats;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QuantileSketchTest {
+    private static final double[] QUANTILES = {0, 0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999, 1};
+
+    // Fraction of the sorted values below x
+    private static double rank(double[] sorted, double x) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return (double) lo / sorted.length;
+    }
+
+    private static void assertRankError(double[] values, QuantileSketch sketch, double error) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double q : QUANTILES) {
+            double estimate = sketch.quantile(q);
+            assertTrue(estimate >= sorted[0] && estimate <= sorted[sorted.length - 1]);
+            assertEquals("quantile " + q, q, rank(sorted, estimate), error);
+        }
+    }
+
+    @Test
+    public void accuracyTest() {
+        Random random = new Random(0);
+        double[] values = new double[200000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(2 * random.nextGaussian());
+        }
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (double v : values) {
+            sketch.add(v);
+        }
+        assertEquals(values.length, sketch.getTotalWeight(), 1e-6);
+        assertRankError(values, sketch, 0.01);
+        assertEquals(Arrays.stream(values).min().getAsDouble(), sketch.quantile(0), 0);
+        assertEquals(Arrays.stream(values).max().getAsDouble(), sketch.quantile(1), 0);
+    }
+
+    @Test
+    public void mergeTest() {
+        Random random = new Random(1);
+        double[] values = new double[100000];
+        QuantileSketch merged = new QuantileSketch(0.01);
+        for (int p = 0; p < 20; p++) {
+            // Partitions drawn from shifted distributions, so no one partition looks like the whole
+            QuantileSketch partition = new QuantileSketch(0.01);
+            for (int i = p * 5000; i < (p + 1) * 5000; i++) {
+                values[i] = p + random.nextGaussian();
+                partition.add(values[i]);
+            }
+            merged.merge(partition);
+        }
+        assertRankError(values, merged, 0.01);
+    }
+
+    @Test
+    public void weightedTest() {
+        // Weight 3 on every value below 1 is the same as adding each three times
+        Random random = new Random(2);
+        QuantileSketch weighted = new QuantileSketch(0.01);
+        double[] values = new double[60000];
+        int n = 0;
+        for (int i = 0; i < 20000; i++) {
+            double v = 2 * random.nextDouble();
+            weighted.add(v, v < 1 ? 3 : 1);
+            values[n++] = v;
+            if (v < 1) {
+                values[n++] = v;
+                values[n++] = v;
+            }
+        }
+        values = Arrays.copyOf(values, n);
+        assertRankError(values, weighted, 0.01);
+
+        // Rescaling every weight leaves the quantiles unchanged
+        double median = weighted.quantile(0.5);
+        weighted.scale(1e-6);
+        assertEquals(n * 1e-6, weighted.getTotalWeight(), 1e-9);
+        assertEquals(median, weighted.quantile(0.5), 1e-12);
+    }
+
+    @Test
+    public void infinitiesTest() {
+        QuantileSketch sketch = new QuantileSketch(0.05);
+        assertTrue(Double.isNaN(sketch.quantile(0.5)));
+        for (int i = 0; i < 90; i++) {
+            sketch.add(i);
+        }
+        for (int i = 0; i < 10; i++) {
+            sketch.add(Double.POSITIVE_INFINITY);
+        }
+        assertEquals(100, sketch.getTotalWeight(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, sketch.quantile(0.95), 0);
+        assertEquals(Double.POSITIVE_INFINITY, sketch.getMax(), 0);
+        assertEquals(45, sketch.quantile(0.45), 1);
+        assertEquals(0, sketch.getMin(), 0);
+    }
+}
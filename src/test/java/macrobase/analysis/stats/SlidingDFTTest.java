@@ -0,0 +1,118 @@
+package macrobase.analysis.stats;
+
+import macrobase.conf.ConfigurationException;
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlidingDFTTest {
+    // DFT of the last windowSize values ending at index end, oldest first, zero before the stream
+    private static double[] naiveDFT(double[] series, int end, int windowSize, int[] bins) {
+        double[] out = new double[2 * bins.length];
+        for (int b = 0; b < bins.length; b++) {
+            for (int n = 0; n < windowSize; n++) {
+                int t = end - windowSize + 1 + n;
+                double value = t < 0 ? 0 : series[t];
+                double angle = -2 * Math.PI * bins[b] * n / windowSize;
+                out[2 * b] += value * Math.cos(angle);
+                out[2 * b + 1] += value * Math.sin(angle);
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void matchesDirectDFTTest() throws Exception {
+        int windowSize = 24;
+        int[] bins = {0, 1, 3, 7, 12};
+        Random random = new Random(0);
+        double[] series = new double[500];
+        List<Datum> data = new ArrayList<>();
+        for (int t = 0; t < series.length; t++) {
+            series[t] = 5 * Math.sin(2 * Math.PI * t / 8) + random.nextGaussian();
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(new double[]{t, series[t]})));
+        }
+
+        SlidingDFT dft = new SlidingDFT(new MacroBaseConf()
+                .set(MacroBaseConf.TIME_COLUMN, 0)
+                .set(MacroBaseConf.SLIDING_DFT_WINDOW, windowSize)
+                .set(MacroBaseConf.SLIDING_DFT_BINS, "0, 1, 3, 7, 12"));
+        // Feed in uneven batches
+        dft.consume(data.subList(0, 7));
+        dft.consume(data.subList(7, 300));
+        dft.consume(data.subList(300, data.size()));
+        List<Datum> transformed = dft.getStream().drain();
+        assertEquals(series.length, transformed.size());
+        for (int t = 0; t < series.length; t++) {
+            double[] features = transformed.get(t).getMetrics().toArray();
+            assertEquals(2 * bins.length, features.length);
+            assertArrayEquals(naiveDFT(series, t, windowSize, bins), features, 1e-8);
+        }
+
+        // A period of 8 in a window of 24 shows up in bin 3
+        double[] last = transformed.get(series.length - 1).getMetrics().toArray();
+        double periodic = Math.hypot(last[4], last[5]);
+        for (int b = 1; b < bins.length; b++) {
+            if (b != 2) {
+                assertTrue(periodic > 3 * Math.hypot(last[2 * b], last[2 * b + 1]));
+            }
+        }
+    }
+
+    @Test
+    public void matchesFFTTest() throws Exception {
+        int windowSize = 16;
+        Random random = new Random(1);
+        double[][] columns = new double[2][100];
+        List<Datum> data = new ArrayList<>();
+        for (int t = 0; t < 100; t++) {
+            columns[0][t] = random.nextDouble();
+            columns[1][t] = 10 + random.nextGaussian();
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(new double[]{columns[0][t], columns[1][t]})));
+        }
+
+        // Without bins configured, all of 0..W/2 are tracked for every metric
+        SlidingDFT dft = new SlidingDFT(new MacroBaseConf().set(MacroBaseConf.SLIDING_DFT_WINDOW, windowSize));
+        assertEquals(windowSize / 2 + 1, dft.getBins().length);
+        dft.consume(data);
+        double[] features = dft.getStream().drain().get(99).getMetrics().toArray();
+        assertEquals(2 * 2 * (windowSize / 2 + 1), features.length);
+
+        FastFourierTransformer transformer = new FastFourierTransformer(DftNormalization.STANDARD);
+        for (int m = 0; m < 2; m++) {
+            double[] window = new double[windowSize];
+            System.arraycopy(columns[m], 100 - windowSize, window, 0, windowSize);
+            Complex[] expected = transformer.transform(window, TransformType.FORWARD);
+            for (int k = 0; k <= windowSize / 2; k++) {
+                int i = 2 * (m * (windowSize / 2 + 1) + k);
+                assertEquals(expected[k].getReal(), features[i], 1e-9);
+                assertEquals(expected[k].getImaginary(), features[i + 1], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsBadBinsTest() throws Exception {
+        try {
+            new SlidingDFT(new MacroBaseConf()
+                    .set(MacroBaseConf.SLIDING_DFT_WINDOW, 8)
+                    .set(MacroBaseConf.SLIDING_DFT_BINS, "1, 8"));
+            fail("accepted a bin outside the window");
+        } catch (ConfigurationException expected) {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package macrobase.analysis.stats;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StateSpaceForecasterTest {
+    @Test
+    public void selectsModelTest() {
+        double[] linear = new double[30];
+        for (int i = 0; i < linear.length; i++) {
+            linear[i] = 3 + 2 * i;
+        }
+        StateSpaceForecaster forecaster = new StateSpaceForecaster();
+        forecaster.fit(linear, 0, linear.length);
+        assertEquals(StateSpaceForecaster.Model.TREND, forecaster.getModel());
+        assertEquals(3 + 2 * 30, forecaster.forecast(), 1e-6);
+        assertEquals(3 + 2 * 34, forecaster.forecast(5), 1e-6);
+
+        // Noise around a constant level: a heavily smoothed level model
+        Random random = new Random(0);
+        double[] noisy = new double[500];
+        for (int i = 0; i < noisy.length; i++) {
+            noisy[i] = 10 + random.nextGaussian();
+        }
+        forecaster.fit(noisy, 0, noisy.length);
+        assertEquals(StateSpaceForecaster.Model.LEVEL, forecaster.getModel());
+        assertTrue(forecaster.getAlpha() < 0.2);
+        assertEquals(10, forecaster.forecast(), 0.5);
+        assertEquals(1, forecaster.getErrorVariance(), 0.2);
+    }
+
+    @Test
+    public void updateTracksFitTest() {
+        // Local level with drift: y = l + e, l' = l + 0.5 + 0.5 e
+        Random random = new Random(1);
+        double[] series = new double[400];
+        double level = 0;
+        for (int i = 0; i < series.length; i++) {
+            double error = random.nextGaussian();
+            series[i] = level + error;
+            level += 0.5 + 0.5 * error;
+        }
+
+        // Refitting on a longer prefix and filtering the rest one by one agree
+        StateSpaceForecaster incremental = new StateSpaceForecaster();
+        incremental.fit(series, 0, 300);
+        for (int i = 300; i < series.length; i++) {
+            incremental.update(series[i]);
+        }
+        StateSpaceForecaster refit = new StateSpaceForecaster();
+        refit.fit(series, 0, series.length);
+        assertEquals(refit.forecast(), incremental.forecast(), 2.0);
+        assertEquals(0.5, refit.getAlpha(), 0.2);
+        assertTrue(refit.getModel() != StateSpaceForecaster.Model.LEVEL);
+    }
+}
@@ -15,7 +15,11 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertThat;
@@ -169,4 +173,45 @@ public class TreeKDETest {
            assertEquals(kde.score(datum), treekde.scoreDensity(datum), 1e-8);
        }
     }
+
+    @Test
+    public void concurrentModelScoringTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.KDE_KERNEL_TYPE, "EPANECHNIKOV_MULTIPLICATIVE")
+                .set(MacroBaseConf.KDE_BANDWIDTH_ALGORITHM, "NORMAL_SCALE");
+
+        Random r = new Random(0);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            data.add(new Datum(new ArrayList<>(), r.nextGaussian(), r.nextGaussian()));
+        }
+
+        TreeKDE treekde = new TreeKDE(conf);
+        treekde.train(data);
+        KDEModel model = treekde.getModel();
+
+        double[] expected = new double[data.size()];
+        for (int i = 0; i < data.size(); i++) {
+            expected[i] = treekde.score(data.get(i));
+        }
+
+        // Retraining must not change a model that is already being scored.
+        treekde.train(data.subList(0, 100));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<double[]>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                double[] scores = new double[data.size()];
+                for (int i = 0; i < data.size(); i++) {
+                    scores[i] = model.score(data.get(i));
+                }
+                return scores;
+            }));
+        }
+        for (Future<double[]> future : futures) {
+            assertArrayEquals(expected, future.get(), 0);
+        }
+        executor.shutdown();
+    }
 }
@@ -0,0 +1,96 @@
+package macrobase.analysis.stats.distribution;
+
+import org.apache.commons.math3.distribution.MultivariateNormalDistribution;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.BlockRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MixtureLogDensityTest {
+    @Test
+    public void choleskyMatchesCommonsNormalTest() {
+        double[] mean = {1.5, -2, 0.3};
+        double[][] covariance = {
+                {2.0, 0.3, -0.4},
+                {0.3, 1.0, 0.2},
+                {-0.4, 0.2, 0.5},
+        };
+        MultivariateNormalDistribution reference = new MultivariateNormalDistribution(mean, covariance);
+        CholeskyLogDensity cholesky = CholeskyLogDensity.normal(new ArrayRealVector(mean), new BlockRealMatrix(covariance));
+
+        Random rand = new Random(0);
+        double[] point = new double[3];
+        for (int i = 0; i < 100; i++) {
+            for (int d = 0; d < 3; d++) {
+                point[d] = mean[d] + 3 * rand.nextGaussian();
+            }
+            assertEquals(Math.log(reference.density(point)), cholesky.logDensity(point), 1e-9);
+        }
+    }
+
+    @Test
+    public void logSpaceDoesNotUnderflowTest() {
+        int D = 40;
+        List<CholeskyLogDensity> components = new ArrayList<>();
+        double[] origin = new double[D];
+        double[] shifted = new double[D];
+        Arrays.fill(shifted, 1);
+        RealMatrix identity = MatrixUtils.createRealIdentityMatrix(D);
+        components.add(CholeskyLogDensity.normal(new ArrayRealVector(origin), identity));
+        components.add(CholeskyLogDensity.normal(new ArrayRealVector(shifted), identity));
+        MixtureLogDensity mixture = new MixtureLogDensity(new double[]{0.5, 0.5}, components);
+
+        // Far enough that both raw densities are exactly 0 in double precision
+        double[] far = new double[D];
+        Arrays.fill(far, 10);
+        assertEquals(0.0, Math.exp(components.get(0).logDensity(far)));
+        double logDensity = mixture.logDensity(far);
+        double expected = Math.log(0.5) + components.get(1).logDensity(far)
+                + Math.log1p(Math.exp(components.get(0).logDensity(far) - components.get(1).logDensity(far)));
+        assertEquals(expected, logDensity, 1e-9);
+
+        double[] posterior = mixture.posterior(far);
+        assertTrue(posterior[1] > 0.999);
+        assertEquals(1.0, posterior[0] + posterior[1], 1e-12);
+    }
+
+    @Test
+    public void batchMatchesSinglePointTest() {
+        List<CholeskyLogDensity> components = new ArrayList<>();
+        components.add(CholeskyLogDensity.normal(new ArrayRealVector(new double[]{0, 0}),
+                                                 new BlockRealMatrix(new double[][]{{1, 0.2}, {0.2, 0.5}})));
+        components.add(CholeskyLogDensity.studentT(new ArrayRealVector(new double[]{3, 1}),
+                                                   new BlockRealMatrix(new double[][]{{0.7, 0}, {0, 2}}), 5));
+        components.add(CholeskyLogDensity.studentT(new ArrayRealVector(new double[]{3, 1}),
+                                                   MatrixUtils.createRealIdentityMatrix(2), 0));
+        MixtureLogDensity mixture = new MixtureLogDensity(new double[]{0.3, 0.6, 0.1}, components);
+
+        Random rand = new Random(1);
+        int N = 10000;
+        double[] points = new double[2 * N];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = 4 * rand.nextGaussian();
+        }
+        double[] logDensities = mixture.logDensities(points);
+        double[] posteriors = mixture.posteriors(points);
+        for (int n = 0; n < N; n += 97) {
+            double[] point = Arrays.copyOfRange(points, 2 * n, 2 * n + 2);
+            assertEquals(mixture.logDensity(point), logDensities[n], 1e-12);
+            double[] posterior = mixture.posterior(point);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(posterior[k], posteriors[3 * n + k], 1e-12);
+            }
+            // Zero degrees of freedom means zero density
+            assertEquals(0.0, posterior[2]);
+        }
+    }
+}
@@ -41,4 +41,30 @@ public class EpanchnikovMultiplicativeKernelTest {
         norm = kernel.norm();
         assertEquals(norm, 0.216, DOUBLE_ACCURACY);
     }
+
+    @Test
+    public void testPrimitiveDensityMatchesVector() {
+        Kernel kernel = new EpanchnikovMulticativeKernel(2);
+        double[] x = {0.3, -0.2};
+        double[][] columns = {
+                {0.1, 0.5, 3.0, 0.3},
+                {-0.4, 0.0, 0.0, 1.9},
+        };
+        double[] scales = {2.0, 0.5};
+
+        double expectedSum = 0;
+        for (int j = 0; j < columns[0].length; j++) {
+            double[] u = {(x[0] - columns[0][j]) * scales[0], (x[1] - columns[1][j]) * scales[1]};
+            double expected = kernel.density(new ArrayRealVector(u));
+            assertEquals(expected, kernel.density(u), DOUBLE_ACCURACY);
+            double[] point = {columns[0][j], columns[1][j]};
+            assertEquals(expected, kernel.scaledDensity(x, point, 0, scales), DOUBLE_ACCURACY);
+            expectedSum += expected;
+        }
+        assertEquals(expectedSum,
+                     kernel.sumScaledDensities(x, columns, 0, columns[0].length, scales, new double[4]),
+                     DOUBLE_ACCURACY);
+        // Points outside the support contribute nothing
+        assertEquals(0, kernel.sumScaledDensities(x, columns, 2, 4, scales, new double[2]), DOUBLE_ACCURACY);
+    }
 }
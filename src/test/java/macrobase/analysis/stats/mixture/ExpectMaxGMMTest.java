@@ -3,6 +3,7 @@ package macrobase.analysis.stats.mixture;
 import macrobase.conf.MacroBaseConf;
 import macrobase.datamodel.Datum;
 import macrobase.ingest.CSVIngester;
+import macrobase.util.AlgebraUtils;
 import macrobase.util.Drainer;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -143,4 +144,40 @@ public class ExpectMaxGMMTest {
             assertEquals("a cluster was not identified", true, identified);
         }
     }
+
+    @Test
+    public void batchClusterProbabilitiesTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.RANDOM_SEED, 2)
+                .set(MacroBaseConf.TRANSFORM_TYPE, "EM_GMM")
+                .set(MacroBaseConf.NUM_MIXTURES, 3)
+                .set(MacroBaseConf.DATA_LOADER_TYPE, "CSV_LOADER")
+                .set(MacroBaseConf.CSV_COMPRESSION, CSVIngester.Compression.GZIP)
+                .set(MacroBaseConf.CSV_INPUT_FILE, "src/test/resources/data/3gaussians-700points.csv.gz")
+                .set(MacroBaseConf.HIGH_METRICS, "XX, YY")
+                .set(MacroBaseConf.LOW_METRICS, "")
+                .set(MacroBaseConf.ATTRIBUTES, "");
+        List<Datum> data = Drainer.drainIngest(conf);
+        ExpectMaxGMM gmm = new ExpectMaxGMM(conf);
+        gmm.train(data);
+
+        double[] points = AlgebraUtils.flattenMetrics(data);
+        double[] probabilities = gmm.getClusterProbabilities(points);
+        double[] targetProbabilities = new double[data.size()];
+        int[] mostLikely = gmm.getMostLikelyClusters(points, 1, targetProbabilities);
+        int[] mostLikelyFromBlock = BatchMixtureModel.mostLikelyClusters(probabilities, 3, 1);
+        for (int n = 0; n < data.size(); n++) {
+            double[] single = gmm.getClusterProbabilities(data.get(n));
+            int best = 1;
+            for (int k = 0; k < 3; k++) {
+                assertEquals(single[k], probabilities[3 * n + k], 1e-12);
+                if (single[k] > single[best]) {
+                    best = k;
+                }
+            }
+            assertEquals(best, mostLikely[n]);
+            assertEquals(best, mostLikelyFromBlock[n]);
+            assertEquals(single[1], targetProbabilities[n], 1e-12);
+        }
+    }
 }
@@ -0,0 +1,94 @@
+package macrobase.analysis.stats.mixture;
+
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import macrobase.ingest.CSVIngester;
+import macrobase.util.Drainer;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KMeansInitializerTest {
+    @Test
+    public void findsSeparatedBlobsTest() {
+        double[][] blobCenters = {{0, 0}, {10, 0}, {0, 10}, {10, 10}, {-10, 5}};
+        int perBlob = 2000;
+        int D = 2;
+        Random rand = new Random(0);
+        double[] points = new double[blobCenters.length * perBlob * D];
+        for (int b = 0; b < blobCenters.length; b++) {
+            for (int n = 0; n < perBlob; n++) {
+                int offset = (b * perBlob + n) * D;
+                points[offset] = blobCenters[b][0] + 0.5 * rand.nextGaussian();
+                points[offset + 1] = blobCenters[b][1] + 0.5 * rand.nextGaussian();
+            }
+        }
+
+        List<RealVector> centers = new KMeansInitializer(new Random(1))
+                .initialize(Collections.emptyList(), points, D, blobCenters.length);
+        assertEquals(blobCenters.length, centers.size());
+        boolean[] found = new boolean[blobCenters.length];
+        for (RealVector center : centers) {
+            for (int b = 0; b < blobCenters.length; b++) {
+                if (center.getDistance(new ArrayRealVector(blobCenters[b])) < 0.2) {
+                    found[b] = true;
+                }
+            }
+        }
+        for (boolean f : found) {
+            assertTrue(f);
+        }
+    }
+
+    @Test
+    public void keepsPickedCentersTest() {
+        double[] points = new double[2000];
+        Random rand = new Random(2);
+        for (int i = 0; i < points.length; i++) {
+            points[i] = rand.nextGaussian();
+        }
+        List<RealVector> picked = new ArrayList<>();
+        picked.add(new ArrayRealVector(new double[]{100, 100}));
+        List<RealVector> centers = new KMeansInitializer(new Random(3)).initialize(picked, points, 2, 4);
+        assertEquals(4, centers.size());
+        assertEquals(picked.get(0), centers.get(0));
+        for (int k = 1; k < 4; k++) {
+            assertTrue(centers.get(k).getNorm() < 3);
+        }
+    }
+
+    @Test
+    public void expectMaxWithKMeansParallelTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.RANDOM_SEED, 2)
+                .set(MacroBaseConf.NUM_MIXTURES, 3)
+                .set(MacroBaseConf.MIXTURE_CENTER_INITIALIZATION, "KMEANS_PARALLEL")
+                .set(MacroBaseConf.DATA_LOADER_TYPE, "CSV_LOADER")
+                .set(MacroBaseConf.CSV_COMPRESSION, CSVIngester.Compression.GZIP)
+                .set(MacroBaseConf.CSV_INPUT_FILE, "src/test/resources/data/3gaussians-700points.csv.gz")
+                .set(MacroBaseConf.HIGH_METRICS, "XX, YY")
+                .set(MacroBaseConf.LOW_METRICS, "")
+                .set(MacroBaseConf.ATTRIBUTES, "");
+        List<Datum> data = Drainer.drainIngest(conf);
+
+        ExpectMaxGMM gmm = new ExpectMaxGMM(conf);
+        gmm.train(data);
+
+        double[][] clusterMeans = {{2, 11}, {1, 1}, {10, 3}};
+        for (double[] mean : clusterMeans) {
+            boolean identified = false;
+            for (RealVector center : gmm.getClusterCenters()) {
+                identified |= center.getDistance(new ArrayRealVector(mean)) < 0.1;
+            }
+            assertTrue(identified);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package macrobase.analysis.stats.mixture;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.stat.correlation.Covariance;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SufficientStatisticsTest {
+
+    @Test
+    public void matchesBatchCovarianceTest() {
+        Random rand = new Random(0);
+        int N = 1000;
+        int D = 3;
+        double[][] rows = new double[N][D];
+        double[] points = new double[N * D];
+        for (int n = 0; n < N; n++) {
+            for (int i = 0; i < D; i++) {
+                rows[n][i] = 1e6 + (i + 1) * rand.nextGaussian();
+                points[n * D + i] = rows[n][i];
+            }
+        }
+
+        double[] shifts = {1e6, 1e6, 1e6};
+        SufficientStatistics first = new SufficientStatistics(1, D, shifts);
+        SufficientStatistics second = new SufficientStatistics(1, D, shifts);
+        double[] centered = new double[D];
+        for (int n = 0; n < N; n++) {
+            (n < N / 2 ? first : second).add(0, points, n * D, 1.0, centered);
+        }
+        SufficientStatistics merged = first.merge(second);
+
+        assertEquals(N, merged.getWeight(0), 1e-9);
+        double[] expectedMean = new double[D];
+        for (int i = 0; i < D; i++) {
+            for (int n = 0; n < N; n++) {
+                expectedMean[i] += rows[n][i] / N;
+            }
+        }
+        assertArrayEquals(expectedMean, merged.getMean(0).toArray(), 1e-6);
+
+        // The M step uses the maximum likelihood (not bias corrected) covariance
+        RealMatrix expected = new Covariance(rows, false).getCovarianceMatrix();
+        RealMatrix actual = merged.getCovariance(0);
+        for (int i = 0; i < D; i++) {
+            for (int j = 0; j < D; j++) {
+                assertEquals(expected.getEntry(i, j), actual.getEntry(i, j), 1e-8);
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package macrobase.analysis.stats.mixture;
 
+import macrobase.datamodel.Datum;
+import macrobase.util.AlgebraUtils;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.BlockRealMatrix;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -8,6 +10,10 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
 import static junit.framework.TestCase.assertEquals;
 
 public class VariationalInferenceTest {
@@ -33,4 +39,42 @@ public class VariationalInferenceTest {
         RealMatrix e = new BlockRealMatrix(matrix3);
         assertEquals(new BlockRealMatrix(matrix2), VariationalInference.step(s, e, 0.25));
     }
+
+    @Test
+    public void normalizeLogProbabilitiesTest() {
+        // exp() of these underflows to 0, which used to leave the point unassigned
+        double[] logProbabilities = {-2000, -2000 + Math.log(3), Double.NEGATIVE_INFINITY};
+        VariationalInference.normalizeLogProbabilities(logProbabilities);
+        assertEquals(0.25, logProbabilities[0], 1e-12);
+        assertEquals(0.75, logProbabilities[1], 1e-12);
+        assertEquals(0.0, logProbabilities[2], 0);
+
+        double[][] r = VariationalInference.normalizeLogProbabilities(
+                new double[]{Math.log(0.5), Math.log(0.5)}, new double[]{0, 0}, new double[][]{{-1e4, -1e4 - 1}});
+        assertEquals(1 / (1 + Math.exp(-1)), r[0][0], 1e-12);
+    }
+
+    @Test
+    public void calculateStatisticsTest() {
+        Random rand = new Random(4);
+        List<Datum> data = new ArrayList<>();
+        for (int n = 0; n < 5000; n++) {
+            double offset = n % 2 == 0 ? 0 : 10;
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(
+                    new double[]{offset + rand.nextGaussian(), offset + rand.nextGaussian()})));
+        }
+        NormalWishartClusters clusters = new NormalWishartClusters(2, 2);
+        clusters.initializeBaseForFinite(data);
+        clusters.initializeAtomsForFinite(data, null, rand);
+
+        SufficientStatistics statistics = clusters.calculateStatistics(
+                AlgebraUtils.flattenMetrics(data), new double[]{Math.log(0.5), Math.log(0.5)});
+        assertEquals(data.size(), statistics.getWeight(0) + statistics.getWeight(1), 1e-6);
+        // Gonzalez seeding puts one atom in each well separated blob
+        assertEquals(data.size() / 2, statistics.getWeight(0), 1);
+        RealVector mean = statistics.getWeightedSum(0).mapDivide(statistics.getWeight(0));
+        double expected = mean.getEntry(0) < 5 ? 0 : 10;
+        assertEquals(expected, mean.getEntry(0), 0.1);
+        assertEquals(expected, mean.getEntry(1), 0.1);
+    }
 }
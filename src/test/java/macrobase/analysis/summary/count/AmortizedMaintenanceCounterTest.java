@@ -85,4 +85,34 @@ public class AmortizedMaintenanceCounterTest {
         int key = cnts.keySet().iterator().next();
         assertEquals(cnts.get(key), ss.getCount(key), 1e-10);
     }
+
+    @Test
+    public void evictionTest() {
+        AmortizedMaintenanceCounter ss = new AmortizedMaintenanceCounter(3);
+
+        // Items 0-5 with counts 1, 2, 2, 2, 5, 6
+        double[] counts = {1, 2, 2, 2, 5, 6};
+        for (int i = 0; i < counts.length; ++i) {
+            ss.observe(i, counts[i]);
+        }
+        ss.multiplyAllCounts(.5);
+
+        // The lowest three go, including two of the three tied items
+        Map<Integer, Double> cnts = ss.getCounts();
+        assertEquals(3, cnts.size());
+        assertEquals(2.5, cnts.get(4), 1e-10);
+        assertEquals(3, cnts.get(5), 1e-10);
+        assertEquals(0, ss.getCount(0), 0);
+
+        // New items start at the largest evicted count
+        ss.observe(6);
+        assertEquals(2, ss.getCount(6), 1e-10);
+        assertEquals(9 + 2, ss.getTotalCount(), 1e-10);
+
+        // Reading counts leaves the decayed state alone
+        ss.getCounts();
+        ss.multiplyAllCounts(.5);
+        assertEquals(1.25, ss.getCount(4), 1e-10);
+        assertEquals(5.5, ss.getTotalCount(), 1e-10);
+    }
 }
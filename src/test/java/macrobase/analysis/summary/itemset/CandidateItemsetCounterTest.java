@@ -0,0 +1,63 @@
+package macrobase.analysis.summary.itemset;
+
+import macrobase.datamodel.Datum;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CandidateItemsetCounterTest {
+    @Test
+    public void simpleTest() {
+        List<Datum> data = new ArrayList<>();
+        data.add(new Datum(Arrays.asList(1, 2, 3), 0.));
+        data.add(new Datum(Arrays.asList(1, 2), 0.));
+        data.add(new Datum(Arrays.asList(3, 1), 0.));
+        data.add(new Datum(Arrays.asList(4), 0.));
+
+        List<Set<Integer>> candidates = new ArrayList<>();
+        candidates.add(new HashSet<>(Arrays.asList(1, 2)));
+        candidates.add(new HashSet<>(Arrays.asList(1, 3)));
+        candidates.add(new HashSet<>(Arrays.asList(1, 2, 3)));
+        candidates.add(new HashSet<>(Arrays.asList(2, 4)));
+        candidates.add(new HashSet<>(Arrays.asList(2, 1)));
+
+        long[] counts = new CandidateItemsetCounter(candidates).count(data);
+        assertArrayEquals(new long[]{2, 2, 1, 0, 2}, counts);
+
+        assertEquals(0, new CandidateItemsetCounter(new ArrayList<>()).count(data).length);
+    }
+
+    @Test
+    public void matchesBruteForceTest() {
+        // spans several partitions
+        Random random = new Random(0);
+        List<Datum> data = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            data.add(new Datum(Arrays.asList(random.nextInt(5), 5 + random.nextInt(5), 10 + random.nextInt(3)), 0.));
+        }
+
+        List<Set<Integer>> candidates = new ArrayList<>();
+        for (int c = 0; c < 200; c++) {
+            Set<Integer> candidate = new HashSet<>();
+            int size = 1 + random.nextInt(3);
+            while (candidate.size() < size) {
+                candidate.add(random.nextInt(13));
+            }
+            candidates.add(candidate);
+        }
+
+        long[] counts = new CandidateItemsetCounter(candidates).count(data);
+        for (int c = 0; c < candidates.size(); c++) {
+            long expected = 0;
+            for (Datum d : data) {
+                if (d.getAttributes().containsAll(candidates.get(c))) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, counts[c]);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package macrobase.analysis.summary.itemset;
+
+import macrobase.analysis.summary.itemset.result.ItemsetResult;
+import macrobase.analysis.summary.itemset.result.ItemsetWithCount;
+import macrobase.datamodel.Datum;
+import macrobase.ingest.DatumEncoder;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FPGrowthEmergingTest {
+    private static final int NUM_COLUMNS = 4;
+
+    private static DatumEncoder encoder() {
+        DatumEncoder encoder = new DatumEncoder();
+        for (int col = 0; col < NUM_COLUMNS; col++) {
+            encoder.recordAttributeName(col, "c" + col);
+        }
+        return encoder;
+    }
+
+    private static Datum datum(DatumEncoder encoder, int... values) {
+        List<Integer> attrs = new ArrayList<>();
+        for (int col = 0; col < values.length; col++) {
+            attrs.add(encoder.getIntegerEncoding(col, "v" + values[col]));
+        }
+        return new Datum(attrs, 0.);
+    }
+
+    private static Set<String> describe(List<ItemsetResult> results) {
+        return results.stream()
+                .map(r -> r.getItems().stream()
+                        .map(cv -> cv.getColumn() + "=" + cv.getValue())
+                        .sorted()
+                        .collect(Collectors.joining(",")) +
+                          String.format(" %.0f %.6f", r.getNumRecords(), r.getRatioToInliers()))
+                .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void columnarMatchesRowsTest() {
+        Random random = new Random(0);
+        DatumEncoder encoder = encoder();
+        List<Datum> inliers = new ArrayList<>();
+        List<Datum> outliers = new ArrayList<>();
+        // Enough inliers to span several bitmap blocks
+        for (int i = 0; i < 200000; i++) {
+            inliers.add(datum(encoder, random.nextInt(20), random.nextInt(20), random.nextInt(5), random.nextInt(50)));
+        }
+        for (int i = 0; i < 2000; i++) {
+            if (random.nextInt(3) > 0) {
+                // planted combination: c0 = v1 with c1 = v2, and often c3 = v7
+                outliers.add(datum(encoder, 1, 2, random.nextInt(5), random.nextBoolean() ? 7 : random.nextInt(50)));
+            } else {
+                outliers.add(datum(encoder, random.nextInt(20), random.nextInt(20), random.nextInt(5), random.nextInt(50)));
+            }
+        }
+
+        List<ItemsetResult> rows = new FPGrowthEmerging(true).getEmergingItemsetsWithMinSupport(
+                inliers, outliers, 0.01, 3, encoder);
+        List<ItemsetResult> columnar = new FPGrowthEmerging(true, true).getEmergingItemsetsWithMinSupport(
+                inliers, outliers, 0.01, 3, encoder);
+
+        assertFalse(rows.isEmpty());
+        assertEquals(describe(rows), describe(columnar));
+        assertTrue(describe(columnar).stream().anyMatch(s -> s.startsWith("c0=v1,c1=v2,c3=v7 ")));
+    }
+
+    @Test
+    public void columnarIndexTest() {
+        DatumEncoder encoder = encoder();
+        List<Datum> inliers = new ArrayList<>();
+        List<Datum> outliers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            inliers.add(datum(encoder, i % 10, i % 2));
+        }
+        for (int i = 0; i < 10; i++) {
+            outliers.add(datum(encoder, 0, i % 3 == 0 ? 0 : 1));
+        }
+        int a0 = encoder.getIntegerEncoding(0, "v0");
+        int b0 = encoder.getIntegerEncoding(1, "v0");
+        int b1 = encoder.getIntegerEncoding(1, "v1");
+
+        // c0 = v0 is in every outlier and a tenth of the inliers; c1 values are not rare enough
+        ColumnarItemsets index = new ColumnarItemsets(inliers, outliers, 2, 3);
+        List<ItemsetWithCount> mined = index.mineOutlierItemsets();
+        assertEquals(1, mined.size());
+        assertEquals(Collections.singleton(a0), mined.get(0).getItems());
+        assertEquals(10, mined.get(0).getCount(), 0);
+        assertEquals(10, index.getInlierCount(Collections.singleton(a0)), 0);
+
+        index = new ColumnarItemsets(inliers, outliers, 2, 0);
+        Map<Set<Integer>, Double> counts = new HashMap<>();
+        for (ItemsetWithCount i : index.mineOutlierItemsets()) {
+            counts.put(i.getItems(), i.getCount());
+        }
+        assertEquals(5, counts.size());
+        assertEquals(4, counts.get(new HashSet<>(Arrays.asList(a0, b0))), 0);
+        assertEquals(6, counts.get(new HashSet<>(Arrays.asList(a0, b1))), 0);
+        // inliers with c0 = v0 have even i, so c1 = v0
+        assertEquals(10, index.getInlierCount(new HashSet<>(Arrays.asList(a0, b0))), 0);
+        assertEquals(0, index.getInlierCount(new HashSet<>(Arrays.asList(a0, b1))), 0);
+    }
+}
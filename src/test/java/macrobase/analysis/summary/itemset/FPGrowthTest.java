@@ -138,27 +138,30 @@ public class FPGrowthTest {
     }
 
     @Test
-    public void testGetSupport() {
+    public void testParallelMiningMatchesApriori() {
+        // enough distinct transactions that conditional trees are mined concurrently
+        Random random = new Random(0);
         List<Set<Integer>> txns = new ArrayList<>();
-        txns.add(intIfy("a, c, d"));
-        txns.add(intIfy("a, c, d, e"));
-        txns.add(intIfy("c"));
-        txns.add(intIfy("a"));
-        txns.add(intIfy("a"));
-        txns.add(intIfy("a"));
-        txns.add(intIfy("a"));
-        txns.add(intIfy("a"));
-        txns.add(intIfy("b"));
-        txns.add(intIfy("b"));
-        txns.add(intIfy("b"));
-        txns.add(intIfy("a, b, d"));
-        txns.add(intIfy("a, b, e, c"));
-
-        FPGrowth.FPTree fpt = new FPGrowth().constructTree(txns, 0);
-        fpt.printTreeDebug();
+        for (int t = 0; t < 5000; ++t) {
+            Set<Integer> txn = new HashSet<>();
+            for (int item = 0; item < 16; ++item) {
+                if (random.nextDouble() < 1. / (item + 2)) {
+                    txn.add(item);
+                }
+            }
+            txns.add(txn);
+        }
 
-        assertEquals(2, fpt.getSupport(intIfy("a, b")));
-        assertEquals(0, fpt.getSupport(intIfy("a, b, c, d")));
+        List<ItemsetWithCount> itemsets = new FPGrowth().getItemsetsWithSupportRatio(txns, .01);
+        Map<Set<Integer>, Double> counts = new HashMap<>();
+        for (ItemsetWithCount i : itemsets) {
+            assertNull(counts.put(i.getItems(), i.getCount()));
+        }
 
+        Set<ItemsetWithCount> expected = new Apriori().getItemsets(txns, .01);
+        assertEquals(expected.size(), counts.size());
+        for (ItemsetWithCount i : expected) {
+            assertEquals(i.getCount(), counts.get(i.getItems()), 0);
+        }
     }
 }
@@ -172,4 +172,82 @@ public class StreamingFPGrowthTest {
             }
         }
     }
+
+    @Test
+    public void decayTest() {
+        StreamingFPGrowth fp = new StreamingFPGrowth(.5);
+        Set<Integer> ab = intIfy("a, b");
+        for (int i = 0; i < 10; ++i) {
+            fp.insertTransactionStreamingExact(ab);
+        }
+
+        Map<Integer, Double> counts = new HashMap<>();
+        counts.put((int) 'a', 10.);
+        counts.put((int) 'b', 10.);
+        fp.decayAndResetFrequentItems(counts, .5);
+        List<ItemsetWithCount> target = Lists.newArrayList(new ItemsetWithCount(ab, 0));
+        assertEquals(5, fp.getCounts(target).get(0).getCount(), 1e-9);
+
+        for (int i = 0; i < 4; ++i) {
+            fp.insertTransactionStreamingExact(ab);
+        }
+        assertEquals(9, fp.getCounts(target).get(0).getCount(), 1e-9);
+
+        // enough periods that the forward weights are rescaled along the way
+        double expected = 9;
+        for (int i = 0; i < 150; ++i) {
+            fp.decayAndResetFrequentItems(counts, .9);
+            expected *= .1;
+        }
+        fp.insertTransactionStreamingExact(ab);
+        expected += 1;
+        assertEquals(expected, fp.getCounts(target).get(0).getCount(), 1e-9);
+
+        List<ItemsetWithCount> itemsets = fp.getItemsets();
+        assertEquals(3, itemsets.size());
+        for (ItemsetWithCount i : itemsets) {
+            if (i.getItems().size() == 2) {
+                assertEquals(expected, i.getCount(), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void reorderTest() {
+        // item frequencies flip between the two halves, so the tree must be re-sorted
+        Random random = new Random(0);
+        StreamingFPGrowth fp = new StreamingFPGrowth(.1);
+        List<Set<Integer>> allTxns = new ArrayList<>();
+        Map<Integer, Double> counts = new HashMap<>();
+        for (int half = 0; half < 2; ++half) {
+            for (int t = 0; t < 300; ++t) {
+                Set<Integer> txn = new HashSet<>();
+                for (int item = 0; item < 6; ++item) {
+                    int rank = half == 0 ? item : 5 - item;
+                    if (random.nextDouble() < 1. / (rank + 1.5)) {
+                        txn.add(item);
+                    }
+                }
+                if (txn.isEmpty()) {
+                    continue;
+                }
+                allTxns.add(txn);
+                fp.insertTransactionStreamingExact(txn);
+                for (Integer item : txn) {
+                    counts.compute(item, (k, v) -> v == null ? 1 : v + 1);
+                }
+            }
+            fp.decayAndResetFrequentItems(new HashMap<>(counts), 0);
+        }
+
+        Map<Set<Integer>, Double> streamed = new HashMap<>();
+        for (ItemsetWithCount i : fp.getItemsets()) {
+            streamed.put(i.getItems(), i.getCount());
+        }
+        List<ItemsetWithCount> expected = new FPGrowth().getItemsetsWithSupportRatio(allTxns, .1);
+        assertEquals(expected.size(), streamed.size());
+        for (ItemsetWithCount i : expected) {
+            assertEquals(i.getCount(), streamed.get(i.getItems()), 1e-9);
+        }
+    }
 }
@@ -0,0 +1,57 @@
+package macrobase.analysis.transform;
+
+import macrobase.conf.MacroBaseConf;
+import macrobase.datamodel.Datum;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.RealVector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OnlineSVIFeatureTransformTest {
+    private static List<Datum> blob(Random rand, int n, double center) {
+        List<Datum> data = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            data.add(new Datum(new ArrayList<>(), new ArrayRealVector(
+                    new double[]{center + rand.nextGaussian(), center + rand.nextGaussian()})));
+        }
+        return data;
+    }
+
+    @Test
+    public void tracksDriftTest() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.RANDOM_SEED, 0)
+                .set(MacroBaseConf.DPM_TRUNCATING_PARAMETER, 5);
+        OnlineSVIFeatureTransform transform = new OnlineSVIFeatureTransform(
+                conf, MacroBaseConf.TransformType.SVI_DPGMM, 1000, 500, 10000, 1.0, 0.9, 0.05);
+        Random rand = new Random(0);
+        Datum drifted = new Datum(new ArrayList<>(), new ArrayRealVector(new double[]{20, 20}));
+
+        List<Datum> before = blob(rand, 5000, 0);
+        for (int i = 0; i < before.size(); i += 250) {
+            transform.consume(before.subList(i, i + 250));
+        }
+        assertEquals(before.size(), transform.getStream().drain().size());
+        double scoreBeforeDrift = transform.getModel().score(drifted);
+
+        List<Datum> after = blob(rand, 20000, 20);
+        for (int i = 0; i < after.size(); i += 250) {
+            transform.consume(after.subList(i, i + 250));
+        }
+        assertEquals(after.size(), transform.getStream().drain().size());
+        double scoreAfterDrift = transform.getModel().score(drifted);
+
+        assertTrue(scoreAfterDrift > scoreBeforeDrift);
+        boolean found = false;
+        for (RealVector center : transform.getModel().getClusterCenters()) {
+            found |= center.getDistance(drifted.getMetrics()) < 1;
+        }
+        assertTrue(found);
+    }
+}
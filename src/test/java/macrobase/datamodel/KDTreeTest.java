@@ -12,7 +12,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
 
 import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.*;
@@ -160,6 +162,36 @@ public class KDTreeTest {
         assertThat(str.length(), greaterThan(Integer.valueOf(data.size())));
     }
 
+    private void assertSameTree(KDTree expected, KDTree actual) {
+        assertEquals(expected.getnBelow(), actual.getnBelow());
+        assertEquals(expected.isLeaf(), actual.isLeaf());
+        assertArrayEquals(expected.getMean().toArray(), actual.getMean().toArray(), 1e-9);
+        for (int i = 0; i < expected.getBoundaries().length; i++) {
+            assertArrayEquals(expected.getBoundaries()[i], actual.getBoundaries()[i], 0);
+        }
+        if (expected.isLeaf()) {
+            assertEquals(new HashSet<>(expected.getItems()), new HashSet<>(actual.getItems()));
+        } else {
+            assertEquals(expected.getSplitDimension(), actual.getSplitDimension());
+            assertSameTree(expected.getLoChild(), actual.getLoChild());
+            assertSameTree(expected.getHiChild(), actual.getHiChild());
+        }
+    }
+
+    @Test
+    public void testBuilderMatchesConstruction() throws Exception {
+        Random random = new Random(0);
+        List<Datum> randomData = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            randomData.add(new Datum(new ArrayList<>(), random.nextGaussian(), 3 * random.nextDouble(), random.nextGaussian()));
+        }
+
+        KDTree sorted = new KDTree(new ArrayList<>(randomData), 7);
+        // Force forking at every level above 100 points.
+        KDTree built = new KDTreeBuilder(7).setParallelThreshold(100).build(randomData);
+        assertSameTree(sorted, built);
+    }
+
     @Test
     public void testPooledCovariance() throws Exception {
         this.setUpSimpleCsv();
@@ -66,6 +66,50 @@ public class BasicOneShotEWStreamingPipelineTest {
         assertEquals("0", ar.getItemSets().get(0).getItems().get(0).getValue());
     }
 
+    @Test
+    public void testKeyedClassifier() throws Exception {
+        MacroBaseConf conf = new MacroBaseConf()
+                .set(MacroBaseConf.TARGET_PERCENTILE, 0.99) // analysis
+                .set(MacroBaseConf.USE_PERCENTILE, true)
+                .set(MacroBaseConf.MIN_OI_RATIO, 1)
+                .set(MacroBaseConf.MIN_SUPPORT, .02)
+                .set(MacroBaseConf.RANDOM_SEED, 0)
+                .set(MacroBaseConf.DECAY_RATE, .01) // streaming
+                .set(MacroBaseConf.WARMUP_COUNT, 10)
+                .set(MacroBaseConf.DECAY_TYPE, MacroBaseConf.PeriodType.TUPLE_BASED)
+                .set(MacroBaseConf.MODEL_UPDATE_PERIOD, 50)
+                .set(MacroBaseConf.SUMMARY_UPDATE_PERIOD, 50)
+                .set(MacroBaseConf.INPUT_RESERVOIR_SIZE, 10)
+                .set(MacroBaseConf.SCORE_RESERVOIR_SIZE, 10)
+                .set(MacroBaseConf.INLIER_ITEM_SUMMARY_SIZE, 1000)
+                .set(MacroBaseConf.OUTLIER_ITEM_SUMMARY_SIZE, 1000)
+                .set(MacroBaseConf.KEYED_CLASSIFIER, true) // classifier
+                .set(MacroBaseConf.KEYED_CLASSIFIER_KEY_ATTRIBUTE, 1)
+                .set(MacroBaseConf.KEYED_CLASSIFIER_WARMUP_COUNT, 10)
+                .set(MacroBaseConf.ATTRIBUTES, Lists.newArrayList("A1", "A2", "A3", "A4")) // loader
+                .set(MacroBaseConf.LOW_METRICS, Lists.newArrayList("A5"))
+                .set(MacroBaseConf.HIGH_METRICS, new ArrayList<>())
+                .set(MacroBaseConf.AUXILIARY_ATTRIBUTES, "")
+                .set(MacroBaseConf.DATA_LOADER_TYPE, MacroBaseConf.DataIngesterType.CSV_LOADER)
+                .set(MacroBaseConf.CSV_INPUT_FILE, "src/test/resources/data/simple.csv");
+
+        conf.loadSystemProperties();
+        conf.sanityCheckStreaming();
+
+        BasicOneShotEWStreamingPipeline sa = new BasicOneShotEWStreamingPipeline();
+        sa.initialize(conf);
+        AnalysisResult ar = sa.run().get(0);
+
+        log.debug(ar.toString());
+
+        assertEquals(BasePipelineTest.countLines("src/test/resources/data/simple.csv"),
+                     ar.getNumInliers()+ar.getNumOutliers(), 0);
+        // Keyed by A2, the A1 anomaly still stands out
+        assertEquals(1, ar.getItemSets().size());
+        assertEquals("A1", ar.getItemSets().get(0).getItems().get(0).getColumn());
+        assertEquals("0", ar.getItemSets().get(0).getItems().get(0).getValue());
+    }
+
     @Test
     public void testMCDAnalyzer() throws Exception {
         MacroBaseConf conf = new MacroBaseConf()
@@ -0,0 +1,100 @@
+package macrobase.util;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedBitmapTest {
+    // Rows spread over several 2^16 blocks, with each block sparse or dense at random
+    private static BitSet randomRows(Random random, int numBlocks) {
+        BitSet rows = new BitSet();
+        for (int block = 0; block < numBlocks; block++) {
+            double density = random.nextBoolean() ? 0.01 : 0.3;
+            if (random.nextInt(4) == 0) {
+                continue;
+            }
+            for (int low = 0; low < (1 << 16); low++) {
+                if (random.nextDouble() < density) {
+                    rows.set((block << 16) | low);
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static CompressedBitmap toBitmap(BitSet rows) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        rows.stream().forEach(bitmap::add);
+        return bitmap;
+    }
+
+    @Test
+    public void matchesBitSetTest() {
+        Random random = new Random(0);
+        for (int trial = 0; trial < 5; trial++) {
+            BitSet x = randomRows(random, 6);
+            BitSet y = randomRows(random, 6);
+            CompressedBitmap bx = toBitmap(x);
+            CompressedBitmap by = toBitmap(y);
+            assertEquals(x.cardinality(), bx.getCardinality());
+
+            BitSet expected = (BitSet) x.clone();
+            expected.and(y);
+            assertEquals(expected.cardinality(), bx.andCardinality(by));
+            assertEquals(expected.cardinality(), by.andCardinality(bx));
+
+            CompressedBitmap intersection = bx.and(by);
+            assertEquals(expected.cardinality(), intersection.getCardinality());
+            for (int row = 0; row < 6 << 16; row += 7) {
+                assertEquals(x.get(row), bx.contains(row));
+                assertEquals(expected.get(row), intersection.contains(row));
+            }
+            // Intersections can be intersected again
+            assertEquals(expected.cardinality(), intersection.andCardinality(bx));
+        }
+    }
+
+    @Test
+    public void addTest() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        bitmap.add(3);
+        bitmap.add(3);
+        bitmap.add(70000);
+        assertEquals(2, bitmap.getCardinality());
+        assertTrue(bitmap.contains(3));
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(-1));
+
+        try {
+            bitmap.add(5);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void appendTest() {
+        BitSet rows = randomRows(new Random(1), 4);
+        CompressedBitmap whole = new CompressedBitmap();
+        for (int block = 0; block < 4; block++) {
+            CompressedBitmap part = new CompressedBitmap();
+            int start = block << 16;
+            rows.get(start, start + (1 << 16)).stream().forEach(low -> part.add(start + low));
+            whole.append(part);
+        }
+        assertEquals(rows.cardinality(), whole.getCardinality());
+        assertEquals(rows.cardinality(), whole.andCardinality(toBitmap(rows)));
+
+        try {
+            whole.append(toBitmap(rows));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package macrobase.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntDoubleHashMapTest {
+    @Test
+    public void matchesHashMapTest() {
+        Random random = new Random(0);
+        IntDoubleHashMap map = new IntDoubleHashMap(4);
+        Map<Integer, Double> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(500) - 250;
+            int op = random.nextInt(3);
+            if (op == 0) {
+                assertEquals(expected.getOrDefault(key, -1.), map.remove(key, -1), 0);
+                expected.remove(key);
+            } else if (op == 1) {
+                map.put(key, i);
+                expected.put(key, (double) i);
+            } else {
+                double added = map.add(key, 1, 10);
+                expected.put(key, expected.getOrDefault(key, 10.) + 1);
+                assertEquals(expected.get(key), added, 0);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -250; key < 250; key++) {
+            assertEquals(expected.getOrDefault(key, -1.), map.get(key, -1), 0);
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+
+        map.scaleValues(.5);
+        int[] keys = map.keys();
+        double[] values = map.values();
+        assertEquals(expected.size(), keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(expected.get(keys[i]) * .5, values[i], 0);
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(0, -1), 0);
+    }
+}
@@ -0,0 +1,38 @@
+package macrobase.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IntIntHashMapTest {
+    @Test
+    public void matchesHashMapTest() {
+        // Random puts and removes over a small key range, so probe runs collide and wrap
+        Random random = new Random(0);
+        IntIntHashMap map = new IntIntHashMap(4);
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            int key = random.nextInt(500) - 250;
+            if (random.nextInt(3) == 0) {
+                assertEquals((int) expected.getOrDefault(key, -1), map.remove(key, -1));
+                expected.remove(key);
+            } else {
+                map.put(key, i);
+                expected.put(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = -250; key < 250; key++) {
+            assertEquals((int) expected.getOrDefault(key, -1), map.get(key, -1));
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+        }
+
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(-1, map.get(0, -1));
+    }
+}